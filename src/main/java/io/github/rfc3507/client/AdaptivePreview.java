@@ -0,0 +1,313 @@
+package io.github.rfc3507.client;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Learns, per service and content type (or file extension), how often the server settles a transaction
+ * right after the preview, and chooses for each request whether a preview is worth its extra round trip.
+ * <p>
+ * With {@code q} the observed ratio of final responses to previews, {@code p} the time to the first
+ * response after a preview and {@code c} the time from 100 Continue to the final response (the cost of
+ * sending the rest of the body and having it processed), the expected times are
+ * <pre>
+ *   no preview: c
+ *   preview:    p + (1 - q) c
+ * </pre>
+ * Preview is used when it is faster, or when it is about as fast and saves enough bytes on the wire.
+ * Until enough samples are gathered, and on a small fraction of requests afterwards, the preview is
+ * sent anyway, since {@code q} can only be observed through previews.
+ */
+public final class AdaptivePreview {
+
+	private static final double ALPHA = 0.2;
+
+	private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+	private final Map<String, Integer> servicePreview = new ConcurrentHashMap<>();
+
+	private AdaptivePreview() { /***/ }
+
+	public static AdaptivePreview instance() {
+		return new AdaptivePreview();
+	}
+
+	private volatile int defaultPreview = 1024;
+
+	/**
+	 * Preview size used when neither the request nor the service OPTIONS suggest one.
+	 */
+	public AdaptivePreview setDefaultPreview(final int defaultPreview) {
+		this.defaultPreview = defaultPreview;
+		return this;
+	}
+
+	public int getDefaultPreview() {
+		return defaultPreview;
+	}
+
+	private volatile int minSamples = 20;
+
+	public AdaptivePreview setMinSamples(final int minSamples) {
+		this.minSamples = minSamples;
+		return this;
+	}
+
+	private volatile double explorationRate = 0.05;
+
+	public AdaptivePreview setExplorationRate(final double explorationRate) {
+		this.explorationRate = explorationRate;
+		return this;
+	}
+
+	private volatile double latencyTolerance = 0.05;
+
+	/**
+	 * Relative latency increase accepted in exchange for at least as large a relative saving of bytes on the wire.
+	 */
+	public AdaptivePreview setLatencyTolerance(final double latencyTolerance) {
+		this.latencyTolerance = latencyTolerance;
+		return this;
+	}
+
+	private volatile int maxKeys = 1024;
+
+	/**
+	 * Content types tracked, all services together; 1024 by default. Once reached, requests of other
+	 * types share the {@code *} entry of their service.
+	 */
+	public AdaptivePreview setMaxKeys(final int maxKeys) {
+		this.maxKeys = maxKeys;
+		return this;
+	}
+
+	public Map<String, Statistics> getStatistics() {
+		final Map<String, Statistics> snapshot = new TreeMap<>();
+		stats.forEach((key, value) -> snapshot.put(key, value.snapshot(key)));
+		return Collections.unmodifiableMap(snapshot);
+	}
+
+	public void reset() {
+		stats.clear();
+	}
+
+	/**
+	 * Takes the {@code Preview} size advertised by a service as its base preview size.
+	 */
+	void onOptions(final String service, final ICAPResponse options) {
+		final List<String> preview = options.getHeaderValues("Preview");
+		if (preview != null && !preview.isEmpty()) {
+			try {
+				servicePreview.put(service, Integer.parseInt(preview.get(0).trim()));
+			} catch (NumberFormatException e) { /***/ }
+		}
+	}
+
+	String key(final ICAPRequest request) {
+		final byte[] header = request.getMode() == ICAPRequest.Mode.RESPMOD && request.getHttpResponseHeader() != null
+				? request.getHttpResponseHeader()
+				: request.getHttpRequestHeader();
+
+		String type = header != null ? HttpMessage.of(header).getContentType() : null;
+		if (type == null && request.getResourceName() != null) {
+			final String name = request.getResourceName();
+			final int dot = name.lastIndexOf('.');
+			if (dot >= 0 && dot > name.lastIndexOf('/')) {
+				type = "." + name.substring(dot + 1).toLowerCase(Locale.ROOT);
+			}
+		}
+
+		if (type != null) {
+			final String key = request.getService() + " " + type;
+			if (stats.containsKey(key) || stats.size() < maxKeys) {
+				return key;
+			}
+		}
+		return request.getService() + " *";
+	}
+
+	/**
+	 * @return the preview size to send, or -1 to send the whole body at once
+	 */
+	int choose(final String key, final String service, final int size, final int requested) {
+		if (size == 0) {
+			return -1;
+		}
+
+		final int base = requested >= 0 ? requested : servicePreview.getOrDefault(service, defaultPreview);
+		final int preview = Math.min(base, size);
+
+		final Stats s = stats.computeIfAbsent(key, k -> new Stats());
+		if (preview == size) {
+			// The whole body fits: no extra round trip can happen
+			s.decided(true);
+			return preview;
+		}
+
+		final boolean learning = s.samples() < minSamples || ThreadLocalRandom.current().nextDouble() < explorationRate;
+		final boolean usePreview = learning || s.favoursPreview(size, preview, latencyTolerance);
+		s.decided(usePreview);
+
+		return usePreview ? preview : -1;
+	}
+
+	void record(
+		final String key,
+		final int size,
+		final int preview,
+		final boolean continued,
+		final long firstResponseNanos,
+		final long continuationNanos
+	) {
+		final Stats s = stats.get(key);
+		if (s == null || preview < 0 || preview >= size) {
+			return;
+		}
+		s.record(continued, firstResponseNanos, continuationNanos);
+	}
+
+	public static final class Statistics {
+		private final String key;
+		private final long samples;
+		private final long finalAfterPreview;
+		private final long previewDecisions;
+		private final long fullDecisions;
+		private final double previewMillis;
+		private final double continuationMillis;
+
+		Statistics(
+			final String key,
+			final long samples,
+			final long finalAfterPreview,
+			final long previewDecisions,
+			final long fullDecisions,
+			final double previewMillis,
+			final double continuationMillis
+		) {
+			this.key = key;
+			this.samples = samples;
+			this.finalAfterPreview = finalAfterPreview;
+			this.previewDecisions = previewDecisions;
+			this.fullDecisions = fullDecisions;
+			this.previewMillis = previewMillis;
+			this.continuationMillis = continuationMillis;
+		}
+
+		/**
+		 * Service and content type (or {@code .extension}, or {@code *}) separated by a space.
+		 */
+		public String getKey() {
+			return key;
+		}
+
+		/**
+		 * Previews observed so far.
+		 */
+		public long getSamples() {
+			return samples;
+		}
+
+		/**
+		 * Previews answered with a final response (typically 204) instead of 100 Continue.
+		 */
+		public long getFinalAfterPreview() {
+			return finalAfterPreview;
+		}
+
+		public double getFinalAfterPreviewRatio() {
+			return samples == 0 ? 0 : (double) finalAfterPreview / samples;
+		}
+
+		public long getPreviewDecisions() {
+			return previewDecisions;
+		}
+
+		public long getFullDecisions() {
+			return fullDecisions;
+		}
+
+		/**
+		 * Average time from the end of a preview to the first response.
+		 */
+		public double getPreviewMillis() {
+			return previewMillis;
+		}
+
+		/**
+		 * Average time from 100 Continue to the final response.
+		 */
+		public double getContinuationMillis() {
+			return continuationMillis;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "%s: samples=%d final-after-preview=%.2f preview=%.3fms continuation=%.3fms decisions=%d/%d",
+					key, samples, getFinalAfterPreviewRatio(), previewMillis, continuationMillis, previewDecisions, fullDecisions);
+		}
+	}
+
+	private static final class Stats {
+		private long samples = 0;
+		private long finalAfterPreview = 0;
+		private long previewDecisions = 0;
+		private long fullDecisions = 0;
+		private double previewNanos = -1;
+		private double continuationNanos = -1;
+
+		synchronized long samples() {
+			return samples;
+		}
+
+		synchronized void decided(final boolean preview) {
+			if (preview) {
+				++previewDecisions;
+			} else {
+				++fullDecisions;
+			}
+		}
+
+		synchronized boolean favoursPreview(final int size, final int preview, final double tolerance) {
+			if (continuationNanos < 0) {
+				// Never continued: the server always decides on the preview
+				return true;
+			}
+
+			final double q = (double) finalAfterPreview / samples;
+
+			final double withoutPreview = continuationNanos;
+			final double withPreview = previewNanos + (1 - q) * continuationNanos;
+
+			final double bytesWithPreview = preview + (1 - q) * (size - preview);
+
+			return withPreview < withoutPreview
+					|| (withPreview <= withoutPreview * (1 + tolerance) && bytesWithPreview < size * (1 - tolerance));
+		}
+
+		synchronized void record(final boolean continued, final long firstResponseNanos, final long continuationNanos) {
+			++samples;
+			if (!continued) {
+				++finalAfterPreview;
+			}
+
+			previewNanos = average(previewNanos, firstResponseNanos);
+			if (continued) {
+				this.continuationNanos = average(this.continuationNanos, continuationNanos);
+			}
+		}
+
+		private static double average(final double average, final double sample) {
+			return average < 0 ? sample : average + ALPHA * (sample - average);
+		}
+
+		synchronized Statistics snapshot(final String key) {
+			return new Statistics(key, samples, finalAfterPreview, previewDecisions, fullDecisions,
+					Math.max(0, previewNanos) / 1e6, Math.max(0, continuationNanos) / 1e6);
+		}
+	}
+
+}
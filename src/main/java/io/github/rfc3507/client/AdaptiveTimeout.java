@@ -0,0 +1,297 @@
+package io.github.rfc3507.client;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Derives the read timeout of each response wait from the response times recently observed for the
+ * same service, as a function of the bytes the server must process first.
+ * <p>
+ * Over a window of recent waits, the expected time is fitted as {@code base + size * perByte} by least
+ * squares, and the spread as a percentile of the ratio of observed to expected times. A wait then times
+ * out after
+ * <pre>
+ *   multiplier * percentile(ratio) * (base + size * perByte)
+ * </pre>
+ * bounded by the minimum and maximum timeouts. The wait for a preview decision is thereby much shorter than
+ * the wait for the verdict on a large body. Until enough samples are gathered the client read timeout applies.
+ * <p>
+ * A wait that times out is recorded as lasting the timeout that fired, a lower bound of its actual time, so
+ * the timeouts grow while a service slows down instead of failing every wait. The model is refitted every
+ * {@value #REFIT_INTERVAL} samples, and at once after a timeout.
+ */
+public final class AdaptiveTimeout {
+
+	private static final int REFIT_INTERVAL = 16;
+
+	private final Map<String, Model> models = new ConcurrentHashMap<>();
+
+	private final LongAdder adaptiveWaits = new LongAdder();
+	private final LongAdder fallbackWaits = new LongAdder();
+
+	private AdaptiveTimeout() { /***/ }
+
+	public static AdaptiveTimeout instance() {
+		return new AdaptiveTimeout();
+	}
+
+	private volatile int window = 256;
+
+	/**
+	 * Recent waits kept per service; applies to the services seen afterwards.
+	 */
+	public AdaptiveTimeout setWindow(final int window) {
+		this.window = window;
+		return this;
+	}
+
+	private volatile int minSamples = 20;
+
+	public AdaptiveTimeout setMinSamples(final int minSamples) {
+		this.minSamples = minSamples;
+		return this;
+	}
+
+	private volatile double percentile = 0.99;
+
+	public AdaptiveTimeout setPercentile(final double percentile) {
+		this.percentile = percentile;
+		return this;
+	}
+
+	private volatile double multiplier = 3;
+
+	public AdaptiveTimeout setMultiplier(final double multiplier) {
+		this.multiplier = multiplier;
+		return this;
+	}
+
+	private volatile int minTimeout = 1000;
+
+	public AdaptiveTimeout setMinTimeout(final int minTimeout) {
+		this.minTimeout = minTimeout;
+		return this;
+	}
+
+	private volatile int maxTimeout = 600000;
+
+	public AdaptiveTimeout setMaxTimeout(final int maxTimeout) {
+		this.maxTimeout = maxTimeout;
+		return this;
+	}
+
+	/**
+	 * @return the timeout of a wait after sending {@code size} bytes, or -1 while the service is not known enough
+	 */
+	public int getTimeout(final String service, final long size) {
+		final Model model = models.get(service);
+		return model != null ? model.timeout(size) : -1;
+	}
+
+	/**
+	 * Response waits given an adaptive timeout.
+	 */
+	public long getAdaptiveWaits() {
+		return adaptiveWaits.sum();
+	}
+
+	/**
+	 * Response waits given the client read timeout, for lack of samples.
+	 */
+	public long getFallbackWaits() {
+		return fallbackWaits.sum();
+	}
+
+	public long getTimeouts() {
+		long timeouts = 0;
+		for (final Model model : models.values()) {
+			timeouts += model.timeouts.sum();
+		}
+		return timeouts;
+	}
+
+	public Map<String, Statistics> getStatistics() {
+		final Map<String, Statistics> snapshot = new TreeMap<>();
+		models.forEach((service, model) -> snapshot.put(service, model.snapshot(service)));
+		return Collections.unmodifiableMap(snapshot);
+	}
+
+	public void reset() {
+		models.clear();
+	}
+
+	int timeout(final String service, final long size, final int fallback) {
+		final int timeout = getTimeout(service, size);
+		if (timeout < 0) {
+			fallbackWaits.increment();
+			return fallback;
+		}
+		adaptiveWaits.increment();
+		return timeout;
+	}
+
+	void record(final String service, final long size, final long nanos) {
+		models.computeIfAbsent(service, key -> new Model(window)).record(size, nanos / 1e6, false);
+	}
+
+	/**
+	 * Records a wait after sending {@code size} bytes that timed out after {@code timeout} milliseconds.
+	 */
+	void onTimeout(final String service, final long size, final int timeout) {
+		final Model model = models.computeIfAbsent(service, key -> new Model(window));
+		model.timeouts.increment();
+		if (timeout > 0) {
+			model.record(size, timeout, true);
+		}
+	}
+
+	private final class Model {
+		private final long[] sizes;
+		private final double[] millis;
+		private final double[] ratios;
+		private int next = 0;
+		private int count = 0;
+		private int unfitted = 0;
+
+		private final LongAdder timeouts = new LongAdder();
+
+		private volatile double base;
+		private volatile double perByte;
+		private volatile double spread;
+
+		Model(final int window) {
+			this.sizes = new long[window];
+			this.millis = new double[window];
+			this.ratios = new double[window];
+		}
+
+		synchronized void record(final long size, final double elapsed, final boolean censored) {
+			sizes[next] = size;
+			millis[next] = elapsed;
+			next = (next + 1) % sizes.length;
+			count = Math.min(count + 1, sizes.length);
+			if (censored || count <= minSamples || ++unfitted >= REFIT_INTERVAL) {
+				fit();
+				unfitted = 0;
+			}
+		}
+
+		private void fit() {
+			double meanSize = 0;
+			double meanMillis = 0;
+			for (int i = 0; i < count; ++i) {
+				meanSize += sizes[i];
+				meanMillis += millis[i];
+			}
+			meanSize /= count;
+			meanMillis /= count;
+
+			double covariance = 0;
+			double variance = 0;
+			for (int i = 0; i < count; ++i) {
+				covariance += (sizes[i] - meanSize) * (millis[i] - meanMillis);
+				variance += (sizes[i] - meanSize) * (sizes[i] - meanSize);
+			}
+
+			double slope = variance > 0 ? covariance / variance : 0;
+			double intercept = meanMillis - slope * meanSize;
+			if (slope < 0) {
+				slope = 0;
+				intercept = meanMillis;
+			} else if (intercept < 1) {
+				// Keeps small requests from getting a near zero expectation
+				intercept = 1;
+			}
+
+			for (int i = 0; i < count; ++i) {
+				ratios[i] = millis[i] / (intercept + slope * sizes[i]);
+			}
+			Arrays.sort(ratios, 0, count);
+
+			base = intercept;
+			perByte = slope;
+			spread = Math.max(1, ratios[Math.min(count - 1, (int) Math.ceil(percentile * count) - 1)]);
+		}
+
+		int timeout(final long size) {
+			if (count < minSamples) {
+				return -1;
+			}
+			final double timeout = multiplier * spread * (base + perByte * size);
+			return (int) Math.max(minTimeout, Math.min(maxTimeout, Math.ceil(timeout)));
+		}
+
+		synchronized Statistics snapshot(final String service) {
+			return new Statistics(service, count, base, perByte * (1 << 20), spread, timeouts.sum());
+		}
+	}
+
+	public static final class Statistics {
+		private final String service;
+		private final int samples;
+		private final double baseMillis;
+		private final double millisPerMiB;
+		private final double spread;
+		private final long timeouts;
+
+		Statistics(
+			final String service,
+			final int samples,
+			final double baseMillis,
+			final double millisPerMiB,
+			final double spread,
+			final long timeouts
+		) {
+			this.service = service;
+			this.samples = samples;
+			this.baseMillis = baseMillis;
+			this.millisPerMiB = millisPerMiB;
+			this.spread = spread;
+			this.timeouts = timeouts;
+		}
+
+		public String getService() {
+			return service;
+		}
+
+		/**
+		 * Waits in the window.
+		 */
+		public int getSamples() {
+			return samples;
+		}
+
+		public double getBaseMillis() {
+			return baseMillis;
+		}
+
+		public double getMillisPerMiB() {
+			return millisPerMiB;
+		}
+
+		/**
+		 * Percentile of the ratio of observed to expected times, at least 1.
+		 */
+		public double getSpread() {
+			return spread;
+		}
+
+		/**
+		 * Adaptive timeouts fired.
+		 */
+		public long getTimeouts() {
+			return timeouts;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: samples=%d base=%.1fms perMiB=%.1fms spread=%.2f timeouts=%d",
+					service, samples, baseMillis, millisPerMiB, spread, timeouts);
+		}
+	}
+
+}
@@ -0,0 +1,187 @@
+package io.github.rfc3507.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+/**
+ * A {@link BodySink} that publishes the adapted body to a single {@link Flow.Subscriber}.
+ * <p>
+ * Each received piece becomes one {@link ByteBuffer} item, delivered only when demanded: while the subscriber
+ * has no outstanding demand the transaction stops reading from the ICAP connection, so a slow consumer slows
+ * the ICAP server down instead of piling up data. Cancelling the subscription aborts the transaction, and
+ * so do cancelling the call and its deadline while the subscriber withholds demand.
+ * The publisher completes when the transaction does, also when there is no body at all.
+ */
+public final class BodyPublisher implements BodySink, Flow.Publisher<ByteBuffer> {
+
+	private static final long WAIT_SLICE_MILLIS = 50;
+
+	private final CompletableFuture<ICAPResponse> response = new CompletableFuture<>();
+
+	private final Object lock = new Object();
+
+	private Flow.Subscriber<? super ByteBuffer> subscriber;
+	private long demand = 0;
+	private boolean cancelled = false;
+	private boolean terminated = false;
+
+	private ICAPException failure;
+	private boolean finished = false;
+
+	private volatile ICAPCall call;
+
+	private BodyPublisher() { /***/ }
+
+	public static BodyPublisher instance() {
+		return new BodyPublisher();
+	}
+
+	/**
+	 * Completes with the ICAP response as soon as its headers are known, before the body is published.
+	 */
+	public CompletableFuture<ICAPResponse> getResponse() {
+		return response;
+	}
+
+	@Override
+	public void subscribe(final Flow.Subscriber<? super ByteBuffer> subscriber) {
+		synchronized (lock) {
+			if (this.subscriber != null) {
+				subscriber.onSubscribe(new Flow.Subscription() {
+					@Override
+					public void request(final long n) { /***/ }
+
+					@Override
+					public void cancel() { /***/ }
+				});
+				subscriber.onError(new IllegalStateException("Body already subscribed"));
+				return;
+			}
+			this.subscriber = subscriber;
+		}
+
+		subscriber.onSubscribe(new Flow.Subscription() {
+			@Override
+			public void request(final long n) {
+				if (n <= 0) {
+					cancel();
+					signalError(new IllegalArgumentException("Non-positive demand: " + n));
+					return;
+				}
+				synchronized (lock) {
+					demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+					lock.notifyAll();
+				}
+			}
+
+			@Override
+			public void cancel() {
+				synchronized (lock) {
+					cancelled = true;
+					lock.notifyAll();
+				}
+			}
+		});
+
+		final boolean terminate;
+		synchronized (lock) {
+			terminate = finished;
+		}
+		if (terminate) {
+			terminate();
+		}
+	}
+
+	/**
+	 * Binds the call delivering the body, whose cancellation and deadline end the waits for demand.
+	 */
+	void attach(final ICAPCall call) {
+		this.call = call;
+	}
+
+	@Override
+	public void headers(final ICAPResponse response) {
+		this.response.complete(response);
+	}
+
+	@Override
+	public void write(final Section section, final byte[] data, final int offset, final int length) throws IOException {
+		final ByteBuffer item = ByteBuffer.allocate(length);
+		item.put(data, offset, length).flip();
+
+		final ICAPCall call = this.call;
+		final Flow.Subscriber<? super ByteBuffer> target;
+		synchronized (lock) {
+			while (demand == 0 && !cancelled) {
+				final int left = call != null ? call.remaining(0) : 0;
+				try {
+					lock.wait(left == 0 ? WAIT_SLICE_MILLIS : Math.min(WAIT_SLICE_MILLIS, left));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for body demand");
+				}
+			}
+			if (cancelled) {
+				throw new IOException("Body subscriber cancelled");
+			}
+			--demand;
+			target = subscriber;
+		}
+
+		target.onNext(item);
+	}
+
+	@Override
+	public void done(final ICAPResponse response, final ICAPException failure) {
+		if (failure != null) {
+			this.response.completeExceptionally(failure);
+		} else {
+			this.response.complete(response);
+		}
+
+		final boolean subscribed;
+		synchronized (lock) {
+			this.failure = failure;
+			finished = true;
+			subscribed = subscriber != null;
+		}
+		if (subscribed) {
+			terminate();
+		}
+	}
+
+	private void terminate() {
+		final Flow.Subscriber<? super ByteBuffer> target;
+		final ICAPException error;
+		synchronized (lock) {
+			if (terminated || cancelled) {
+				return;
+			}
+			terminated = true;
+			target = subscriber;
+			error = failure;
+		}
+
+		if (error != null) {
+			target.onError(error);
+		} else {
+			target.onComplete();
+		}
+	}
+
+	private void signalError(final Throwable error) {
+		final Flow.Subscriber<? super ByteBuffer> target;
+		synchronized (lock) {
+			if (terminated) {
+				return;
+			}
+			terminated = true;
+			target = subscriber;
+		}
+		target.onError(error);
+	}
+
+}
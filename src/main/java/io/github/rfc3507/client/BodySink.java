@@ -0,0 +1,68 @@
+package io.github.rfc3507.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Receives the de-chunked encapsulated bodies of a response as they arrive, instead of having them
+ * collected into the {@link ICAPResponse}. The bytes passed in are only valid during the call.
+ * A body being delivered is blocking the transaction: a sink that waits slows the ICAP server down.
+ *
+ * @see ICAPClient#execute(ICAPRequest, BodySink)
+ */
+@FunctionalInterface
+public interface BodySink {
+
+	enum Section {
+		REQUEST_BODY, RESPONSE_BODY
+	}
+
+	/**
+	 * Called with the ICAP response, its encapsulated HTTP headers included, before its body is delivered.
+	 */
+	default void headers(final ICAPResponse response) throws IOException { /***/ }
+
+	void write(Section section, byte[] data, int offset, int length) throws IOException;
+
+	/**
+	 * Called once the last chunk of a section has been received.
+	 */
+	default void end(final Section section) throws IOException { /***/ }
+
+	/**
+	 * Called once the transaction is over, with either its response or its failure.
+	 */
+	default void done(final ICAPResponse response, final ICAPException failure) { /***/ }
+
+	/**
+	 * Writes either body to a stream, flushed at the end of each section. The stream is not closed.
+	 */
+	static BodySink of(final OutputStream out) {
+		return new BodySink() {
+			@Override
+			public void write(final Section section, final byte[] data, final int offset, final int length) throws IOException {
+				out.write(data, offset, length);
+			}
+
+			@Override
+			public void end(final Section section) throws IOException {
+				out.flush();
+			}
+		};
+	}
+
+	/**
+	 * Writes either body to a channel, which must be in blocking mode. The channel is not closed.
+	 */
+	static BodySink of(final WritableByteChannel channel) {
+		return (section, data, offset, length) -> {
+			final ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		};
+	}
+
+}
@@ -0,0 +1,284 @@
+package io.github.rfc3507.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.github.rfc3507.client.transport.ICAPTransport;
+import io.github.rfc3507.utilities.BufferPool;
+import io.github.rfc3507.utilities.LatencyHistogram;
+
+/**
+ * Resources shared by the clients attached to it with {@link ICAPClient#instance(String, int, ClientRuntime)}:
+ * one connection pool per endpoint and transport, I/O buffers, a cache of resolved addresses and a
+ * background executor. Resource usage thus grows with the endpoints, not with the clients, which are
+ * then cheap enough to keep one per tenant or policy. Statistics are aggregated over all clients.
+ * <p>
+ * The pool settings of a client apply to the shared pool of its endpoint, hence to every client using it.
+ * Once the runtime is closed, no client can be attached, and the clients attached before fail to resolve
+ * names with an {@link IOException}.
+ */
+public final class ClientRuntime implements Closeable {
+
+	private final Map<Endpoint, ConnectionPool> pools = new ConcurrentHashMap<>();
+	private final Map<String, Resolution> addresses = new ConcurrentHashMap<>();
+
+	private final AtomicInteger threads = new AtomicInteger();
+	private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+		final Thread thread = new Thread(runnable, "icap-runtime-" + threads.getAndIncrement());
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final LongAdder clients = new LongAdder();
+	private final LongAdder transactions = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder resolutions = new LongAdder();
+	private final LongAdder resolutionHits = new LongAdder();
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	private volatile boolean closed = false;
+
+	private ClientRuntime() { /***/ }
+
+	public static ClientRuntime instance() {
+		return new ClientRuntime();
+	}
+
+	private volatile int maxIdleConnections = 8;
+
+	/**
+	 * Idle connections kept per endpoint, for the pools created afterwards; 8 by default.
+	 */
+	public ClientRuntime setMaxIdleConnections(final int maxIdleConnections) {
+		this.maxIdleConnections = maxIdleConnections;
+		return this;
+	}
+
+	private volatile long keepAliveTimeout = 10000;
+
+	public ClientRuntime setKeepAliveTimeout(final long keepAliveTimeout) {
+		this.keepAliveTimeout = keepAliveTimeout;
+		return this;
+	}
+
+	private volatile long addressTtl = 30000;
+
+	/**
+	 * How long, in milliseconds, resolved addresses are reused; 30 seconds by default.
+	 * Failed lookups are not cached.
+	 */
+	public ClientRuntime setAddressTtl(final long addressTtl) {
+		this.addressTtl = addressTtl;
+		return this;
+	}
+
+	private volatile BufferPool bufferPool = BufferPool.instance(64L << 20);
+
+	public BufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	/**
+	 * Buffers of the clients attached afterwards; a pool bounded to 64 MiB by default.
+	 */
+	public ClientRuntime setBufferPool(final BufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+		return this;
+	}
+
+	/**
+	 * Runs background work of the clients, such as warm-ups and name resolution.
+	 */
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Clients attached so far.
+	 */
+	public long getClients() {
+		return clients.sum();
+	}
+
+	public int getEndpoints() {
+		return pools.size();
+	}
+
+	public int getIdleConnections() {
+		int idle = 0;
+		for (final ConnectionPool pool : pools.values()) {
+			idle += pool.getIdleCount();
+		}
+		return idle;
+	}
+
+	/**
+	 * Executions of all clients, local and failed ones included.
+	 */
+	public long getTransactions() {
+		return transactions.sum();
+	}
+
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	/**
+	 * Name lookups sent to the system resolver.
+	 */
+	public long getResolutions() {
+		return resolutions.sum();
+	}
+
+	/**
+	 * Name lookups answered from the cache.
+	 */
+	public long getResolutionHits() {
+		return resolutionHits.sum();
+	}
+
+	/**
+	 * Execution latency of all clients, in microseconds.
+	 */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	/**
+	 * Closes the idle connections of every endpoint and stops the executor.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		pools.values().forEach(ConnectionPool::close);
+		executor.shutdownNow();
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	void attach() {
+		if (closed) {
+			throw new IllegalStateException("Client runtime closed");
+		}
+		clients.increment();
+	}
+
+	ConnectionPool pool(final ICAPTransport transport, final String host, final int port) {
+		return pools.computeIfAbsent(new Endpoint(transport, host, port), endpoint -> new ConnectionPool(maxIdleConnections, keepAliveTimeout));
+	}
+
+	void record(final long nanos, final boolean failed) {
+		transactions.increment();
+		if (failed) {
+			failures.increment();
+		}
+		latency.record(nanos / 1000L);
+	}
+
+	/**
+	 * Resolves a host name, concurrent lookups of the same name sharing one.
+	 */
+	InetAddress[] resolve(final String host, final int timeout) throws IOException {
+		final long now = System.nanoTime();
+
+		Resolution resolution = addresses.get(host);
+		if (resolution != null && resolution.isFresh(now)) {
+			resolutionHits.increment();
+		} else {
+			final Resolution started = new Resolution(now + TimeUnit.MILLISECONDS.toNanos(addressTtl));
+			resolution = addresses.compute(host, (key, existing) -> existing != null && existing.isFresh(now) ? existing : started);
+			if (resolution == started) {
+				resolutions.increment();
+				try {
+					executor.execute(() -> {
+						try {
+							started.lookup.complete(InetAddress.getAllByName(host));
+						} catch (UnknownHostException | RuntimeException e) {
+							addresses.remove(host, started);
+							started.lookup.completeExceptionally(e);
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					addresses.remove(host, started);
+					started.lookup.completeExceptionally(new IOException("Client runtime closed", e));
+				}
+			} else {
+				resolutionHits.increment();
+			}
+		}
+
+		try {
+			return timeout > 0 ? resolution.lookup.get(timeout, TimeUnit.MILLISECONDS) : resolution.lookup.get();
+		} catch (TimeoutException e) {
+			throw new SocketTimeoutException("Name resolution of " + host + " timed out");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof UnknownHostException) {
+				throw (UnknownHostException) e.getCause();
+			}
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Name resolution of " + host + " failed", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while resolving " + host, e);
+		}
+	}
+
+	private static final class Resolution {
+		final CompletableFuture<InetAddress[]> lookup = new CompletableFuture<>();
+		final long expiry;
+
+		Resolution(final long expiry) {
+			this.expiry = expiry;
+		}
+
+		boolean isFresh(final long now) {
+			return now - expiry < 0;
+		}
+	}
+
+	private static final class Endpoint {
+		final ICAPTransport transport;
+		final String host;
+		final int port;
+
+		Endpoint(final ICAPTransport transport, final String host, final int port) {
+			this.transport = transport;
+			this.host = host;
+			this.port = port;
+		}
+
+		@Override
+		public boolean equals(final Object other) {
+			if (!(other instanceof Endpoint)) {
+				return false;
+			}
+			final Endpoint endpoint = (Endpoint) other;
+			return transport == endpoint.transport && port == endpoint.port && host.equals(endpoint.host);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(System.identityHashCode(transport), host, port);
+		}
+	}
+
+}
@@ -0,0 +1,94 @@
+package io.github.rfc3507.client;
+
+import java.io.Closeable;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Idle persistent connections of one endpoint. Most recently used connections are handed out first,
+ * so the ones the server is most likely to have kept open are reused while older ones expire.
+ */
+final class ConnectionPool implements Closeable {
+
+	private final ConcurrentLinkedDeque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+	private final AtomicInteger idleCount = new AtomicInteger();
+
+	private volatile int maxIdle;
+	private volatile long keepAliveNanos;
+
+	ConnectionPool(final int maxIdle, final long keepAliveMillis) {
+		this.maxIdle = maxIdle;
+		this.keepAliveNanos = keepAliveMillis * 1_000_000L;
+	}
+
+	int getMaxIdle() {
+		return maxIdle;
+	}
+
+	void setMaxIdle(final int maxIdle) {
+		this.maxIdle = Math.max(0, maxIdle);
+		evict(System.nanoTime());
+	}
+
+	long getKeepAliveMillis() {
+		return keepAliveNanos / 1_000_000L;
+	}
+
+	void setKeepAliveMillis(final long keepAliveMillis) {
+		this.keepAliveNanos = keepAliveMillis * 1_000_000L;
+	}
+
+	int getIdleCount() {
+		return idleCount.get();
+	}
+
+	PooledConnection poll() {
+		final long now = System.nanoTime();
+
+		PooledConnection connection;
+		while ((connection = idle.pollFirst()) != null) {
+			idleCount.decrementAndGet();
+			if (connection.isOpen() && now - connection.getIdleSince() < keepAliveNanos) {
+				return connection;
+			}
+			connection.closeQuietly();
+		}
+		return null;
+	}
+
+	void offer(final PooledConnection connection) {
+		if (!connection.isOpen() || idleCount.incrementAndGet() > maxIdle) {
+			if (connection.isOpen()) {
+				idleCount.decrementAndGet();
+			}
+			connection.closeQuietly();
+			return;
+		}
+
+		final long now = System.nanoTime();
+		connection.setIdleSince(now);
+		idle.offerFirst(connection);
+		evict(now);
+	}
+
+	private void evict(final long now) {
+		PooledConnection oldest;
+		while ((oldest = idle.peekLast()) != null
+				&& (idleCount.get() > maxIdle || now - oldest.getIdleSince() >= keepAliveNanos)) {
+			if (idle.removeLastOccurrence(oldest)) {
+				idleCount.decrementAndGet();
+				oldest.closeQuietly();
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		PooledConnection connection;
+		while ((connection = idle.pollFirst()) != null) {
+			idleCount.decrementAndGet();
+			connection.closeQuietly();
+		}
+	}
+
+}
@@ -0,0 +1,145 @@
+package io.github.rfc3507.client;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Header fields in arrival order, as parallel arrays of names, values and case-insensitive name hashes.
+ * Lookups compare hashes before names and allocate nothing; collection views are built on demand.
+ * Filled while the response is parsed, then compacted and never modified again.
+ */
+final class HeaderTable implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int INITIAL_CAPACITY = 8;
+
+	private String[] names = new String[INITIAL_CAPACITY];
+	private String[] values = new String[INITIAL_CAPACITY];
+	private int[] hashes = new int[INITIAL_CAPACITY];
+	private int size = 0;
+
+	void add(final String name, final String value) {
+		if (size == names.length) {
+			final int capacity = size << 1;
+			names = Arrays.copyOf(names, capacity);
+			values = Arrays.copyOf(values, capacity);
+			hashes = Arrays.copyOf(hashes, capacity);
+		}
+		names[size] = name;
+		values[size] = value;
+		hashes[size] = hash(name);
+		++size;
+	}
+
+	/**
+	 * Trims the arrays to the amount of fields.
+	 */
+	void compact() {
+		if (size < names.length) {
+			names = Arrays.copyOf(names, size);
+			values = Arrays.copyOf(values, size);
+			hashes = Arrays.copyOf(hashes, size);
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	private int indexOf(final String name, final int hash, final int from) {
+		for (int i = from; i < size; ++i) {
+			if (hashes[i] == hash && names[i].equalsIgnoreCase(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	String first(final String name) {
+		final int index = indexOf(name, hash(name), 0);
+		return index < 0 ? null : values[index];
+	}
+
+	/**
+	 * @return the values of a field, or null when absent
+	 */
+	List<String> all(final String name) {
+		final int hash = hash(name);
+
+		int index = indexOf(name, hash, 0);
+		if (index < 0) {
+			return null;
+		}
+
+		final int next = indexOf(name, hash, index + 1);
+		if (next < 0) {
+			return Collections.singletonList(values[index]);
+		}
+
+		final List<String> result = new ArrayList<>(4);
+		result.add(values[index]);
+		for (index = next; index >= 0; index = indexOf(name, hash, index + 1)) {
+			result.add(values[index]);
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	boolean anyContains(final String name, final String content) {
+		final int hash = hash(name);
+		for (int index = indexOf(name, hash, 0); index >= 0; index = indexOf(name, hash, index + 1)) {
+			if (values[index].contains(content)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Distinct names, with the case of their first occurrence.
+	 */
+	Set<String> names() {
+		final Set<String> result = new LinkedHashSet<>();
+		for (int i = 0; i < size; ++i) {
+			if (indexOf(names[i], hashes[i], 0) == i) {
+				result.add(names[i]);
+			}
+		}
+		return Collections.unmodifiableSet(result);
+	}
+
+	/**
+	 * Values per lower case name, with case-insensitive lookups.
+	 */
+	Map<String, List<String>> entries() {
+		final Map<String, List<String>> result = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		for (int i = 0; i < size; ++i) {
+			if (indexOf(names[i], hashes[i], 0) == i) {
+				result.put(names[i].toLowerCase(), all(names[i]));
+			}
+		}
+		return Collections.unmodifiableMap(result);
+	}
+
+	static int hash(final String name) {
+		int hash = 0;
+		for (int i = 0; i < name.length(); ++i) {
+			char c = name.charAt(i);
+			if (c >= 'A' && c <= 'Z') {
+				c += 'a' - 'A';
+			} else if (c >= 0x80) {
+				c = Character.toLowerCase(Character.toUpperCase(c));
+			}
+			hash = 31 * hash + c;
+		}
+		return hash;
+	}
+
+}
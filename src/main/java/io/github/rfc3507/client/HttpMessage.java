@@ -0,0 +1,345 @@
+package io.github.rfc3507.client;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Read-only view of an encapsulated HTTP request or response header.
+ * <p>
+ * The view indexes into the bytes it was created from, without copying them: the start line and
+ * the header fields are located on first access, and only the values asked for become strings.
+ * The bytes must not be modified while the view is in use.
+ */
+public final class HttpMessage {
+
+	private final byte[] data;
+	private final int offset;
+	private final int length;
+
+	private volatile Index index;
+
+	private HttpMessage(final byte[] data, final int offset, final int length) {
+		this.data = data;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	public static HttpMessage of(final byte[] data) {
+		return new HttpMessage(data, 0, data.length);
+	}
+
+	public static HttpMessage of(final byte[] data, final int offset, final int length) {
+		if (offset < 0 || length < 0 || offset + length > data.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		return new HttpMessage(data, offset, length);
+	}
+
+	/**
+	 * @return whether the start line is a status line
+	 */
+	public boolean isResponse() {
+		final Index i = index();
+		return i.tokens[1] - i.tokens[0] >= 5 && startsWith(i.tokens[0], "HTTP/");
+	}
+
+	/**
+	 * @return the status code of a response, or -1
+	 */
+	public int getStatus() {
+		if (!isResponse()) {
+			return -1;
+		}
+		final Index i = index();
+		final long status = parseNumber(i.tokens[2], i.tokens[3]);
+		return status > 999 ? -1 : (int) status;
+	}
+
+	/**
+	 * @return the reason phrase of a response, or null
+	 */
+	public String getReason() {
+		return isResponse() ? token(4) : null;
+	}
+
+	/**
+	 * @return the method of a request, or null
+	 */
+	public String getMethod() {
+		return isResponse() ? null : token(0);
+	}
+
+	/**
+	 * @return the target of a request, or null
+	 */
+	public String getUri() {
+		return isResponse() ? null : token(2);
+	}
+
+	public String getVersion() {
+		return isResponse() ? token(0) : token(4);
+	}
+
+	public int getHeaderCount() {
+		return index().count;
+	}
+
+	public String getHeaderName(final int n) {
+		final int[] fields = fieldsOf(n);
+		return string(fields[n << 2], fields[(n << 2) + 1]);
+	}
+
+	public String getHeaderValue(final int n) {
+		final int[] fields = fieldsOf(n);
+		return value(fields[(n << 2) + 2], fields[(n << 2) + 3]);
+	}
+
+	public boolean containsHeader(final String name) {
+		return find(name, 0) >= 0;
+	}
+
+	/**
+	 * @return the value of the first field with that name, case-insensitive, or null
+	 */
+	public String getHeader(final String name) {
+		final int n = find(name, 0);
+		return n < 0 ? null : getHeaderValue(n);
+	}
+
+	/**
+	 * @return the declared body length, or -1 when absent, invalid or contradictory
+	 */
+	public long getContentLength() {
+		final int[] fields = index().fields;
+
+		long length = -1;
+		for (int n = find("Content-Length", 0); n >= 0; n = find("Content-Length", n + 1)) {
+			final long value = parseNumber(fields[(n << 2) + 2], fields[(n << 2) + 3]);
+			if (value < 0 || (length >= 0 && value != length)) {
+				return -1;
+			}
+			length = value;
+		}
+		return length;
+	}
+
+	/**
+	 * @return the media type, lower case and without parameters, or null
+	 */
+	public String getContentType() {
+		final int n = find("Content-Type", 0);
+		if (n < 0) {
+			return null;
+		}
+
+		final int[] fields = index().fields;
+		final int start = fields[(n << 2) + 2];
+		int end = start;
+		while (end < fields[(n << 2) + 3] && data[end] != ';') {
+			++end;
+		}
+		while (end > start && isSpace(data[end - 1])) {
+			--end;
+		}
+		return end == start ? null : string(start, end).toLowerCase(Locale.ROOT);
+	}
+
+	@Override
+	public String toString() {
+		return new String(data, offset, length, StandardCharsets.ISO_8859_1);
+	}
+
+	private int find(final String name, final int from) {
+		final Index i = index();
+		final int size = name.length();
+		for (int n = from; n < i.count; ++n) {
+			final int start = i.fields[n << 2];
+			if (i.fields[(n << 2) + 1] - start == size && matches(start, name)) {
+				return n;
+			}
+		}
+		return -1;
+	}
+
+	private boolean matches(final int start, final String name) {
+		for (int k = 0; k < name.length(); ++k) {
+			final int a = data[start + k] & 0xFF;
+			final int b = name.charAt(k);
+			if (a != b && lower(a) != lower(b)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean startsWith(final int start, final String prefix) {
+		for (int k = 0; k < prefix.length(); ++k) {
+			if ((data[start + k] & 0xFF) != prefix.charAt(k)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int lower(final int c) {
+		return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+	}
+
+	private static boolean isSpace(final byte b) {
+		return b == ' ' || b == '\t';
+	}
+
+	private long parseNumber(final int start, final int end) {
+		if (start == end || end - start > 18) {
+			return -1;
+		}
+		long value = 0;
+		for (int k = start; k < end; ++k) {
+			final int digit = data[k] - '0';
+			if (digit < 0 || digit > 9) {
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	private String token(final int t) {
+		final Index i = index();
+		return i.tokens[t] == i.tokens[t + 1] ? null : string(i.tokens[t], i.tokens[t + 1]);
+	}
+
+	private String string(final int start, final int end) {
+		return new String(data, start, end - start, StandardCharsets.ISO_8859_1);
+	}
+
+	/*
+	 * Folded values (obs-fold) become single spaces.
+	 */
+	private String value(final int start, final int end) {
+		final String value = string(start, end);
+		return value.indexOf('\n') < 0 ? value : value.replaceAll("\\r?\\n[ \\t]+", " ");
+	}
+
+	private int[] fieldsOf(final int n) {
+		final Index i = index();
+		if (n < 0 || n >= i.count) {
+			throw new IndexOutOfBoundsException(String.valueOf(n));
+		}
+		return i.fields;
+	}
+
+	private Index index() {
+		Index i = index;
+		if (i == null) {
+			index = i = new Index(data, offset, offset + length);
+		}
+		return i;
+	}
+
+	private static final class Index {
+		/*
+		 * Start line tokens as start/end pairs; the third one runs to the end of line.
+		 */
+		final int[] tokens = new int[6];
+
+		/*
+		 * Name start, name end, value start, value end for each field.
+		 */
+		final int[] fields;
+		final int count;
+
+		Index(final byte[] data, final int from, final int to) {
+			int lineEnd = lineEnd(data, from, to);
+
+			final int startLineEnd = contentEnd(data, from, lineEnd);
+			int k = from;
+			for (int t = 0; t < 4; t += 2) {
+				tokens[t] = k;
+				while (k < startLineEnd && data[k] != ' ') {
+					++k;
+				}
+				tokens[t + 1] = k;
+				while (k < startLineEnd && data[k] == ' ') {
+					++k;
+				}
+			}
+			tokens[4] = k;
+			tokens[5] = startLineEnd;
+
+			int[] found = new int[32];
+			int n = 0;
+
+			int position = lineEnd;
+			while (position < to) {
+				lineEnd = lineEnd(data, position, to);
+				final int end = contentEnd(data, position, lineEnd);
+				if (end == position) {
+					break;
+				}
+
+				if ((data[position] == ' ' || data[position] == '\t') && n > 0) {
+					// Continuation of the previous value
+					found[((n - 1) << 2) + 3] = trimEnd(data, position, end);
+				} else {
+					int colon = position;
+					while (colon < end && data[colon] != ':') {
+						++colon;
+					}
+					if (colon < end) {
+						if ((n << 2) == found.length) {
+							found = Arrays.copyOf(found, found.length << 1);
+						}
+						int valueStart = colon + 1;
+						while (valueStart < end && (data[valueStart] == ' ' || data[valueStart] == '\t')) {
+							++valueStart;
+						}
+						found[n << 2] = position;
+						found[(n << 2) + 1] = trimEnd(data, position, colon);
+						found[(n << 2) + 2] = valueStart;
+						found[(n << 2) + 3] = Math.max(valueStart, trimEnd(data, valueStart, end));
+						++n;
+					}
+				}
+				position = lineEnd;
+			}
+
+			this.fields = found;
+			this.count = n;
+		}
+
+		/*
+		 * Position after the next LF, or the end of data.
+		 */
+		private static int lineEnd(final byte[] data, final int from, final int to) {
+			for (int k = from; k < to; ++k) {
+				if (data[k] == '\n') {
+					return k + 1;
+				}
+			}
+			return to;
+		}
+
+		/*
+		 * End of line content, CR LF excluded.
+		 */
+		private static int contentEnd(final byte[] data, final int from, int lineEnd) {
+			if (lineEnd > from && data[lineEnd - 1] == '\n') {
+				--lineEnd;
+			}
+			if (lineEnd > from && data[lineEnd - 1] == '\r') {
+				--lineEnd;
+			}
+			return lineEnd;
+		}
+
+		private static int trimEnd(final byte[] data, final int from, int end) {
+			while (end > from && (data[end - 1] == ' ' || data[end - 1] == '\t')) {
+				--end;
+			}
+			return end;
+		}
+	}
+
+}
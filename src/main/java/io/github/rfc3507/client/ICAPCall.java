@@ -0,0 +1,288 @@
+package io.github.rfc3507.client;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single execution of an {@link ICAPRequest}, cancellable from any thread.
+ * <p>
+ * When a request timeout applies, the whole transaction (resolve, connect, send, preview wait and
+ * response read) must complete before an absolute deadline: every read waits at most for the time left,
+ * and a watchdog closes the connection when the deadline passes, which also unblocks pending writes.
+ * Cancellation closes the connection the same way; connections of aborted calls are never pooled.
+ */
+public final class ICAPCall {
+
+	private static final ScheduledThreadPoolExecutor WATCHDOG = new ScheduledThreadPoolExecutor(1, runnable -> {
+		final Thread thread = new Thread(runnable, "icap-call-watchdog");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	static {
+		WATCHDOG.setRemoveOnCancelPolicy(true);
+	}
+
+	private final ICAPClient client;
+	private final ICAPRequest request;
+	private final BodySink sink;
+	private final boolean verdictOnly;
+
+	private volatile boolean executed = false;
+	private volatile boolean cancelled = false;
+	private volatile boolean expired = false;
+
+	private long deadline = 0;
+	private ScheduledFuture<?> watchdog;
+	private PooledConnection connection;
+	private MemoryBudget.Reservation reservation;
+	private volatile int readTimeout = 0;
+	private volatile SocketTuning.Settings tuning;
+	private int sendBufferSize;
+	private boolean discarded = false;
+	private volatile boolean delivered = false;
+	private volatile String host;
+	private volatile int port;
+
+	ICAPCall(final ICAPClient client, final ICAPRequest request, final BodySink sink) {
+		this(client, request, sink, false);
+	}
+
+	ICAPCall(final ICAPClient client, final ICAPRequest request, final BodySink sink, final boolean verdictOnly) {
+		this.client = client;
+		this.request = request;
+		this.sink = sink;
+		this.verdictOnly = verdictOnly;
+		if (sink instanceof BodyPublisher) {
+			((BodyPublisher) sink).attach(this);
+		}
+	}
+
+	public ICAPRequest getRequest() {
+		return request;
+	}
+
+	/**
+	 * @return the sink receiving the response bodies, or null when they are collected into the response
+	 */
+	public BodySink getSink() {
+		return sink;
+	}
+
+	/**
+	 * @return whether only the ICAP status and headers of the response are read
+	 */
+	public boolean isVerdictOnly() {
+		return verdictOnly;
+	}
+
+	public ICAPResponse execute() throws ICAPException {
+		return client.execute(this);
+	}
+
+	/**
+	 * Aborts the call. A running {@link #execute()} fails promptly with an {@link ICAPException}
+	 * caused by a {@link CancellationException}; a call not yet started fails as soon as it starts.
+	 */
+	public void cancel() {
+		cancelled = true;
+		abort();
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * @return whether the request deadline passed before the call completed
+	 */
+	public boolean isExpired() {
+		return expired;
+	}
+
+	synchronized void start(final long timeoutMillis) throws ICAPException {
+		if (executed) {
+			throw new ICAPException("Call already executed");
+		}
+		executed = true;
+
+		if (timeoutMillis > 0) {
+			deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+			watchdog = WATCHDOG.schedule(this::expire, timeoutMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	synchronized void finish() {
+		if (watchdog != null) {
+			watchdog.cancel(false);
+			watchdog = null;
+		}
+		connection = null;
+	}
+
+	/**
+	 * @return nanoTime of the deadline, or zero when there is none
+	 */
+	long getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * Narrows a phase timeout, in milliseconds, to the time left before the deadline.
+	 */
+	int remaining(final int timeout) throws IOException {
+		check();
+		if (deadline == 0) {
+			return timeout;
+		}
+
+		final long left = deadline - System.nanoTime();
+		if (left <= 0) {
+			expired = true;
+			throw new SocketTimeoutException("Request deadline exceeded");
+		}
+
+		final long leftMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(left));
+		return (int) (timeout <= 0 ? leftMillis : Math.min(timeout, leftMillis));
+	}
+
+	void check() throws IOException {
+		if (cancelled) {
+			throw new IOException("Request cancelled");
+		}
+		if (expired) {
+			throw new SocketTimeoutException("Request deadline exceeded");
+		}
+	}
+
+	/**
+	 * Overrides the read timeout of the client for the next reads; zero restores it.
+	 */
+	void setReadTimeout(final int readTimeout) {
+		this.readTimeout = readTimeout;
+	}
+
+	int getReadTimeout(final int fallback) {
+		return readTimeout > 0 ? readTimeout : fallback;
+	}
+
+	/**
+	 * Socket options and chunk size of the next transactions, sized for their payload; null restores the defaults.
+	 */
+	void tune(final SocketTuning.Settings tuning) {
+		this.tuning = tuning;
+	}
+
+	SocketTuning.Settings getTuning(final SocketTuning.Settings fallback) {
+		return tuning != null ? tuning : fallback;
+	}
+
+	/**
+	 * Records the send buffer size of the connection in use, zero when unknown.
+	 */
+	void setSendBufferSize(final int sendBufferSize) {
+		this.sendBufferSize = sendBufferSize;
+	}
+
+	int getSendBufferSize() {
+		return sendBufferSize;
+	}
+
+	/**
+	 * Records that encapsulated sections were left unread, so the connection cannot be reused.
+	 */
+	void discard() {
+		discarded = true;
+	}
+
+	boolean isDiscarded() {
+		return discarded;
+	}
+
+	/**
+	 * Records that the response started reaching the sink, so the call cannot be retried.
+	 */
+	void deliver() {
+		delivered = true;
+	}
+
+	boolean isDelivered() {
+		return delivered;
+	}
+
+	/**
+	 * Sends the next attempts to another endpoint than the client's; a null host restores it.
+	 */
+	void route(final String host, final int port) {
+		this.host = host;
+		this.port = port;
+	}
+
+	String getHost(final String fallback) {
+		return host != null ? host : fallback;
+	}
+
+	int getPort(final int fallback) {
+		return host != null ? port : fallback;
+	}
+
+	void reserve(final MemoryBudget.Reservation reservation) {
+		this.reservation = reservation;
+	}
+
+	/**
+	 * Accounts for body bytes buffered by the transaction, when a memory budget applies.
+	 */
+	void charge(final long bytes) {
+		if (reservation != null) {
+			reservation.charge(bytes);
+		}
+	}
+
+	void attach(final PooledConnection connection) throws IOException {
+		synchronized (this) {
+			this.connection = connection;
+		}
+		if (cancelled || expired) {
+			connection.closeQuietly();
+			check();
+		}
+	}
+
+	synchronized void detach() {
+		connection = null;
+	}
+
+	ICAPException failure(final IOException cause) {
+		if (cancelled) {
+			return new ICAPException("Request cancelled", new CancellationException());
+		}
+		if (expired) {
+			final SocketTimeoutException timeout = new SocketTimeoutException("Request deadline exceeded");
+			timeout.initCause(cause);
+			return new ICAPException(timeout);
+		}
+		return new ICAPException(cause);
+	}
+
+	private void expire() {
+		expired = true;
+		abort();
+	}
+
+	private void abort() {
+		final PooledConnection current;
+		synchronized (this) {
+			current = connection;
+			connection = null;
+		}
+		if (current != null) {
+			current.closeQuietly();
+		}
+	}
+
+}
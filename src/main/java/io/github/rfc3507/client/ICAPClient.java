@@ -1,26 +1,39 @@
 package io.github.rfc3507.client;
 
-import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetAddress;
-import java.net.InetSocketAddress;
-import java.net.Socket;
-import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BooleanSupplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import io.github.rfc3507.client.filter.KnownCleanFilter;
+import io.github.rfc3507.client.trace.TraceRecorder;
+import io.github.rfc3507.client.transport.ICAPConnection;
+import io.github.rfc3507.client.transport.ICAPTransport;
+import io.github.rfc3507.client.transport.TcpTransport;
+import io.github.rfc3507.utilities.BufferPool;
 import io.github.rfc3507.utilities.LogService;
 
-public class ICAPClient {
+public class ICAPClient implements Closeable {
 
 	private static final String JAVA_VERSION = System.getProperty("java.version");
 	private static final String JAVA_VENDOR = System.getProperty("java.vendor");
@@ -35,20 +48,49 @@ public class ICAPClient {
 
 	private static final Charset ASCII = StandardCharsets.US_ASCII;
 
+	private static final byte[] CRLF = END_LINE_DELIMITER.getBytes(ASCII);
+	private static final byte[] LAST_CHUNK = ("0" + END_LINE_DELIMITER + END_LINE_DELIMITER).getBytes(ASCII);
+	private static final byte[] LAST_CHUNK_IEOF = ("0; ieof" + END_LINE_DELIMITER + END_LINE_DELIMITER).getBytes(ASCII);
+	private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(ASCII);
+
+	private static final int HEADER_BUFFER_SIZE = 1024;
+	private static final int MAX_PRESIZED_BODY = 64 << 20;
+
 	private final String host;
 	private final int port;
 
-	private final LogService logger = LogService.getInstance("ICAP Client");
+	private static final LogService logger = LogService.getInstance("ICAP Client");
+
+	private final ClientRuntime runtime;
 
-	private ICAPClient(final String host, int port) {
+	private ICAPClient(final String host, int port, final ClientRuntime runtime) {
 		this.host = host;
 		this.port = port;
+		this.runtime = runtime;
+		if (runtime != null) {
+			runtime.attach();
+			this.pool = runtime.pool(transport, host, port);
+			this.bufferPool = runtime.getBufferPool();
+		} else {
+			this.pool = new ConnectionPool(8, 10000);
+		}
 	}
 
 	private boolean debugOnOff = false;
 
 	public static ICAPClient instance(final String host, final int port) {
-		return new ICAPClient(host, port);
+		return new ICAPClient(host, port, null);
+	}
+
+	/**
+	 * A client sharing the connections, buffers, resolved addresses and executor of a runtime.
+	 */
+	public static ICAPClient instance(final String host, final int port, final ClientRuntime runtime) {
+		return new ICAPClient(host, port, runtime);
+	}
+
+	public ClientRuntime getRuntime() {
+		return runtime;
 	}
 
 	public ICAPClient debug(final boolean onOff) {
@@ -68,12 +110,305 @@ public class ICAPClient {
 		return VERSION;
 	}
 
+	private ICAPTransport transport = TcpTransport.INSTANCE;
+
+	public ICAPTransport getTransport() {
+		return transport;
+	}
+
+	public ICAPClient setTransport(final ICAPTransport transport) {
+		this.transport = transport;
+		if (runtime != null) {
+			this.pool = runtime.pool(transport, host, port);
+		}
+		return this;
+	}
+
+	private TraceRecorder recorder;
+
+	public TraceRecorder getRecorder() {
+		return recorder;
+	}
+
+	public ICAPClient setRecorder(final TraceRecorder recorder) {
+		this.recorder = recorder;
+		return this;
+	}
+
+	private BufferPool bufferPool = BufferPool.getDefault();
+
+	public BufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	/**
+	 * Pool of the buffers used to send requests and read responses; {@link BufferPool#getDefault()} by default.
+	 */
+	public ICAPClient setBufferPool(final BufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+		return this;
+	}
+
+	private AdaptivePreview adaptivePreview;
+
+	public AdaptivePreview getAdaptivePreview() {
+		return adaptivePreview;
+	}
+
+	/**
+	 * Lets the client choose, per request, whether to send a preview and how large, from the outcomes
+	 * observed so far for the same service and content type. The preview of a request is then only
+	 * a preferred size. Services queried through {@link #options(String)} contribute their
+	 * {@code Preview} size. Null, the default, always honours the request preview.
+	 */
+	public ICAPClient setAdaptivePreview(final AdaptivePreview adaptivePreview) {
+		this.adaptivePreview = adaptivePreview;
+		return this;
+	}
+
+	private SingleFlight singleFlight;
+
+	public SingleFlight getSingleFlight() {
+		return singleFlight;
+	}
+
+	/**
+	 * Lets concurrent requests with the same service, mode and body share a single transaction.
+	 * Null, the default, sends every request.
+	 */
+	public ICAPClient setSingleFlight(final SingleFlight singleFlight) {
+		this.singleFlight = singleFlight;
+		return this;
+	}
+
+	private MemoryBudget memoryBudget;
+
+	public MemoryBudget getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * Holds back new transactions while the bodies buffered by running ones exceed the budget,
+	 * which may be shared by several clients. Null, the default, sets no bound.
+	 */
+	public ICAPClient setMemoryBudget(final MemoryBudget memoryBudget) {
+		this.memoryBudget = memoryBudget;
+		return this;
+	}
+
+	private Scheduler scheduler;
+
+	public Scheduler getScheduler() {
+		return scheduler;
+	}
+
+	/**
+	 * Queues requests by priority and fair share before they run, within the concurrency of the scheduler,
+	 * which may be shared by several clients. Services queried through {@link #options(String)} contribute
+	 * their {@code Max-Connections} limit. Null, the default, runs every request at once.
+	 */
+	public ICAPClient setScheduler(final Scheduler scheduler) {
+		this.scheduler = scheduler;
+		return this;
+	}
+
+	private RateLimiter rateLimiter;
+
+	public RateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+
+	/**
+	 * Paces or rejects requests exceeding the request and byte rates set for this endpoint or their service.
+	 * The limiter may be shared by several clients. Null, the default, sends at any rate.
+	 */
+	public ICAPClient setRateLimiter(final RateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+		return this;
+	}
+
+	private AdaptiveTimeout adaptiveTimeout;
+
+	public AdaptiveTimeout getAdaptiveTimeout() {
+		return adaptiveTimeout;
+	}
+
+	/**
+	 * Replaces the read timeout, while waiting for a response, with one expected from the response times
+	 * observed for the service and the size sent. Null, the default, always applies the read timeout.
+	 */
+	public ICAPClient setAdaptiveTimeout(final AdaptiveTimeout adaptiveTimeout) {
+		this.adaptiveTimeout = adaptiveTimeout;
+		return this;
+	}
+
+	private RetryPolicy retryPolicy;
+
+	public RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	/**
+	 * Retries transactions failing on transient errors or statuses; null, the default, never retries.
+	 */
+	public ICAPClient setRetryPolicy(final RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+		return this;
+	}
+
+	private boolean partialContent = false;
+
+	public boolean isPartialContent() {
+		return partialContent;
+	}
+
+	/**
+	 * Announces {@code Allow: 206}, so a server adapting only the HTTP headers may send back a prefix of the
+	 * body, or none of it, ending with a {@code use-original-body} offset from which the original body, kept
+	 * by the client, is appended. Responses keep their 206 status; their bodies are complete. Bodies from a
+	 * publisher are not kept, so their requests never announce it.
+	 */
+	public ICAPClient setPartialContent(final boolean partialContent) {
+		this.partialContent = partialContent;
+		return this;
+	}
+
+	private SocketTuning socketTuning = SocketTuning.instance();
+
+	public SocketTuning getSocketTuning() {
+		return socketTuning;
+	}
+
+	/**
+	 * Socket options and chunk size of the transactions; by default Nagle's algorithm is off, buffers are left
+	 * to the OS and bodies go in 64 KiB chunks. See {@link SocketTuning#setAuto(boolean)} to size them per link.
+	 */
+	public ICAPClient setSocketTuning(final SocketTuning socketTuning) {
+		this.socketTuning = Objects.requireNonNull(socketTuning);
+		return this;
+	}
+
+	private KnownCleanFilter knownCleanFilter;
+
+	public KnownCleanFilter getKnownCleanFilter() {
+		return knownCleanFilter;
+	}
+
+	/**
+	 * Answers requests whose body digest is in the filter with a local 204, carrying an {@code X-Known-Clean}
+	 * header, without contacting the server. Null, the default, scans every body.
+	 */
+	public ICAPClient setKnownCleanFilter(final KnownCleanFilter knownCleanFilter) {
+		this.knownCleanFilter = knownCleanFilter;
+		return this;
+	}
+
 	public ICAPResponse options(final String icapService) throws ICAPException {
+		final ICAPCall call = new ICAPCall(this, null, null);
+		final long start = System.nanoTime();
+		int status = 0;
 		try {
-			return sendOptions(icapService);
+			call.start(request_timeout);
+			final ICAPResponse response = sendOptions(icapService, call);
+			status = response.getStatus();
+			if (adaptivePreview != null) {
+				adaptivePreview.onOptions(icapService, response);
+			}
+			if (scheduler != null) {
+				scheduler.onOptions(icapService, response);
+			}
+			return response;
+		} catch (IOException e) {
+			throw call.failure(e);
+		} finally {
+			call.finish();
+			if (recorder != null) {
+				recorder.recordOptions(icapService, status, start, System.nanoTime());
+			}
+		}
+	}
+
+	/**
+	 * Resolves the ICAP host, opens connections, fetches the OPTIONS of the declared services and runs the
+	 * synthetic scans, in the background. The returned future completes once the client is ready, or
+	 * exceptionally with the {@link ICAPException} of the first step that failed.
+	 */
+	public CompletableFuture<WarmUp.Report> warmUp(final WarmUp warmUp) {
+		final CompletableFuture<WarmUp.Report> ready = new CompletableFuture<>();
+		final Runnable task = () -> {
+			try {
+				ready.complete(prepare(warmUp));
+			} catch (ICAPException | RuntimeException e) {
+				ready.completeExceptionally(e);
+			}
+		};
+		if (runtime != null) {
+			try {
+				runtime.getExecutor().execute(task);
+			} catch (RejectedExecutionException e) {
+				ready.completeExceptionally(new ICAPException("Client runtime closed", e));
+			}
+			return ready;
+		}
+		final Thread thread = new Thread(task, "icap-warm-up");
+		thread.setDaemon(true);
+		thread.start();
+		return ready;
+	}
+
+	private WarmUp.Report prepare(final WarmUp warmUp) throws ICAPException {
+		final long start = System.nanoTime();
+
+		final int addresses;
+		try {
+			addresses = runtime != null ? runtime.resolve(host, connect_timeout).length : InetAddress.getAllByName(host).length;
 		} catch (IOException e) {
 			throw new ICAPException(e);
 		}
+
+		final int connections = Math.min(warmUp.getConnections(), pool.getMaxIdle());
+		final List<PooledConnection> opened = new ArrayList<>();
+		try {
+			while (opened.size() < connections) {
+				final ICAPCall call = new ICAPCall(this, null, null);
+				try {
+					call.start(request_timeout);
+					opened.add(new PooledConnection(connect(call)));
+				} catch (IOException e) {
+					throw call.failure(e);
+				} finally {
+					call.finish();
+				}
+			}
+		} finally {
+			opened.forEach(pool::offer);
+		}
+
+		final Map<String, ICAPResponse> options = new LinkedHashMap<>();
+		for (final String service : warmUp.getServices()) {
+			options.put(service, options(service));
+		}
+
+		final byte[] body = new byte[warmUp.getSyntheticSize()];
+		for (int i = 0; i < body.length; ++i) {
+			body[i] = (byte) ('a' + i % 26);
+		}
+		final byte[] header = ("HTTP/1.1 200 OK" + END_LINE_DELIMITER
+				+ "Content-Type: text/plain" + END_LINE_DELIMITER
+				+ "Content-Length: " + body.length + END_LINE_DELIMITER
+				+ END_LINE_DELIMITER).getBytes(ASCII);
+
+		int scans = 0;
+		for (int i = 0; i < warmUp.getSyntheticScans(); ++i) {
+			for (final String service : warmUp.getServices()) {
+				execute(ICAPRequest.instance(service, ICAPRequest.Mode.RESPMOD)
+						.setHttpResponseHeader(header)
+						.setHttpResponseBody(body));
+				++scans;
+			}
+		}
+
+		return new WarmUp.Report(addresses, opened.size(), options, scans, (System.nanoTime() - start) / 1_000_000);
 	}
 
 	private int connect_timeout = 5000;
@@ -98,11 +433,171 @@ public class ICAPClient {
 		return this;
 	}
 
+	private int request_timeout = 0;
+
+	public int getRequestTimeout() {
+		return request_timeout;
+	}
+
+	/**
+	 * Absolute time limit, in milliseconds, for a whole transaction, from name resolution to the
+	 * last response byte. Zero, the default, only applies the connect and read timeouts.
+	 */
+	public ICAPClient setRequestTimeout(int request_timeout) {
+		this.request_timeout = request_timeout;
+		return this;
+	}
+
 	public ICAPResponse execute(ICAPRequest request) throws ICAPException {
+		return newCall(request).execute();
+	}
+
+	/**
+	 * Streams the encapsulated bodies of the response to {@code sink}, de-chunked, as they arrive,
+	 * so adapted content is relayed with constant memory. The bodies of the returned response are null;
+	 * its ICAP and HTTP headers are set as usual.
+	 */
+	public ICAPResponse execute(ICAPRequest request, BodySink sink) throws ICAPException {
+		return newCall(request, sink).execute();
+	}
+
+	/**
+	 * Reads only the ICAP status line and headers of the response: the adapted message, if any, is left
+	 * unread and its connection closed, so nothing is buffered however large it is.
+	 */
+	public Verdict verdict(ICAPRequest request) throws ICAPException {
+		return Verdict.of(new ICAPCall(this, request, null, true).execute());
+	}
+
+	/**
+	 * Prepares a call that can be executed once and cancelled from another thread.
+	 */
+	public ICAPCall newCall(ICAPRequest request) {
+		return new ICAPCall(this, request, null);
+	}
+
+	public ICAPCall newCall(ICAPRequest request, BodySink sink) {
+		return new ICAPCall(this, request, sink);
+	}
+
+	ICAPResponse execute(final ICAPCall call) throws ICAPException {
+		final ICAPRequest request = call.getRequest();
+		final long start = System.nanoTime();
+		final BodySink sink = call.getSink();
+		int status = 0;
+		ICAPResponse response = null;
+		ICAPException failure = null;
 		try {
-			return performAdaptation(request);
+			call.start(request.getTimeout() > 0 ? request.getTimeout() : request_timeout);
+			final SingleFlight coalescing = this.singleFlight;
+			response = knownClean(request);
+			if (response == null) {
+				response = coalescing != null
+						? coalescing.execute(call, () -> retry(call))
+						: retry(call);
+			}
+			status = response.getStatus();
+			return response;
 		} catch (IOException e) {
-			throw new ICAPException(e);
+			throw failure = call.failure(e);
+		} catch (ICAPException e) {
+			throw failure = e;
+		} finally {
+			call.finish();
+			if (sink != null) {
+				sink.done(failure == null ? response : null, failure);
+			}
+			if (recorder != null) {
+				recorder.record(request, status, start, System.nanoTime());
+			}
+			if (runtime != null) {
+				runtime.record(System.nanoTime() - start, failure != null);
+			}
+		}
+	}
+
+	/*
+	 * Local verdict for a body listed as known-clean, or null when it must be scanned.
+	 */
+	private ICAPResponse knownClean(final ICAPRequest request) {
+		final KnownCleanFilter filter = this.knownCleanFilter;
+		if (filter == null || request.getHttpRequestBodyPublisher() != null || request.getHttpResponseBodyPublisher() != null) {
+			return null;
+		}
+
+		final byte[] requestBody = request.getHttpRequestBody();
+		final byte[] content = requestBody != null && requestBody.length > 0 ? requestBody : request.getHttpResponseBody();
+		if (content == null || content.length == 0) {
+			return null;
+		}
+
+		final byte[] digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256").digest(content);
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		}
+		if (!filter.contains(digest)) {
+			return null;
+		}
+
+		final StringBuilder hex = new StringBuilder("sha256=");
+		for (final byte octet : digest) {
+			hex.append((char) HEX_DIGITS[octet >> 4 & 0xf]).append((char) HEX_DIGITS[octet & 0xf]);
+		}
+
+		final ICAPResponse response = new ICAPResponse();
+		response.setProtocol("ICAP");
+		response.setVersion(VERSION);
+		response.setStatus(ICAP_STATUS_NO_CONTENT);
+		response.setMessage("No Content");
+		response.addHeader("X-Known-Clean", hex.toString());
+		response.compactHeaders();
+		return response;
+	}
+
+	private ICAPResponse retry(final ICAPCall call) throws IOException {
+		final RetryPolicy policy = this.retryPolicy;
+		return policy != null ? policy.execute(call, () -> limit(call)) : limit(call);
+	}
+
+	private ICAPResponse limit(final ICAPCall call) throws IOException {
+		final RateLimiter limiter = this.rateLimiter;
+		if (limiter != null) {
+			limiter.acquire(call, endpoint(call));
+		}
+		return schedule(call);
+	}
+
+	private String endpoint(final ICAPCall call) {
+		return call.getHost(host) + ":" + call.getPort(port);
+	}
+
+	private ICAPResponse schedule(final ICAPCall call) throws IOException {
+		final Scheduler scheduler = this.scheduler;
+		if (scheduler == null) {
+			return admit(call);
+		}
+
+		final Scheduler.Slot slot = scheduler.acquire(call);
+		try {
+			return admit(call);
+		} finally {
+			scheduler.release(slot);
+		}
+	}
+
+	private ICAPResponse admit(final ICAPCall call) throws IOException {
+		final MemoryBudget budget = this.memoryBudget;
+		if (budget == null) {
+			return performAdaptation(call.getRequest(), call);
+		}
+
+		try (MemoryBudget.Reservation reservation = budget.reserve(call)) {
+			call.reserve(reservation);
+			return performAdaptation(call.getRequest(), call);
+		} finally {
+			call.reserve(null);
 		}
 	}
 
@@ -112,54 +607,189 @@ public class ICAPClient {
 		}
 	}
 
-	private Socket connect() throws IOException {
-		final InetAddress inetAddress = InetAddress.getByName(this.host);
-		final SocketAddress socketAddress = new InetSocketAddress(inetAddress, this.port);
+	private ICAPConnection connect(final ICAPCall call) throws IOException {
+		info("Connecting over {}...", this.transport);
+
+		final ICAPTransport transport = this.transport;
+		final String host = call.getHost(this.host);
+		final int port = call.getPort(this.port);
+		final ICAPConnection connection;
+		if (runtime != null && transport.resolvesHost()) {
+			final long start = System.nanoTime();
+			final int connectTimeout = call.remaining(this.connect_timeout);
+			final InetAddress address = runtime.resolve(host, connectTimeout)[0];
+			final int left = connectTimeout > 0 ? connectTimeout - (int) ((System.nanoTime() - start) / 1_000_000L) : 0;
+			if (connectTimeout > 0 && left <= 0) {
+				throw new SocketTimeoutException("Connect timed out");
+			}
+			connection = transport.connect(address, host, port, left, this.read_timeout);
+		} else {
+			connection = transport.connect(host, port, call.remaining(this.connect_timeout), this.read_timeout);
+		}
 
-		info("Connecting...");
+		info("Connected");
 
-		final Socket socket = new Socket();
-		socket.setSoTimeout(this.read_timeout);
-		socket.connect(socketAddress, this.connect_timeout);
+		return connection;
+	}
 
-		info("Connected");
+	private ConnectionPool pool;
 
-		return socket;
+	public int getMaxIdleConnections() {
+		return pool.getMaxIdle();
+	}
+
+	/**
+	 * Maximum amount of idle persistent connections kept for reuse. Zero disables connection reuse.
+	 */
+	public ICAPClient setMaxIdleConnections(int maxIdleConnections) {
+		pool.setMaxIdle(maxIdleConnections);
+		return this;
+	}
+
+	public long getKeepAliveTimeout() {
+		return pool.getKeepAliveMillis();
+	}
+
+	/**
+	 * Idle time, in milliseconds, after which a pooled connection is no longer reused.
+	 * Keep it below the idle timeout of the ICAP server.
+	 */
+	public ICAPClient setKeepAliveTimeout(long keepAliveTimeout) {
+		pool.setKeepAliveMillis(keepAliveTimeout);
+		return this;
+	}
+
+	public int getIdleConnections() {
+		return pool.getIdleCount();
+	}
+
+	/**
+	 * Closes the idle pooled connections, unless shared through a runtime. The client remains usable.
+	 */
+	@Override
+	public void close() {
+		if (runtime == null) {
+			pool.close();
+		}
+	}
+
+	private static interface Transaction {
+		ICAPResponse run(InputStream is, OutputStream os) throws IOException;
+	}
+
+	private ICAPResponse transact(final ICAPCall call, final Transaction transaction) throws IOException {
+		return transact(call, transaction, () -> !call.isDelivered());
+	}
+
+	/*
+	 * A transaction failing on a pooled connection is retried once on a new connection, if still repeatable.
+	 * Read timeouts are not retried: the server was reached, and a retry would only double the wait.
+	 */
+	private ICAPResponse transact(final ICAPCall call, final Transaction transaction, final BooleanSupplier repeatable) throws IOException {
+		call.check();
+
+		// Connections to the endpoints a retry moved to are not pooled
+		final boolean pooled = call.getHost(null) == null;
+
+		PooledConnection connection = pooled ? pool.poll() : null;
+		if (connection != null) {
+			try {
+				return transact(call, connection, transaction, true);
+			} catch (IOException e) {
+				call.check();
+				if (e instanceof SocketTimeoutException || !repeatable.getAsBoolean()) {
+					throw e;
+				}
+				// The server may have dropped the persistent connection meanwhile
+				info("Pooled connection failed ({}), retrying on a new one", e.getMessage());
+			}
+		}
+
+		connection = new PooledConnection(connect(call));
+		return transact(call, connection, transaction, pooled);
+	}
+
+	private ICAPResponse transact(final ICAPCall call, final PooledConnection connection, final Transaction transaction, final boolean pooled) throws IOException {
+		boolean reusable = false;
+		try {
+			call.attach(connection);
+			connection.use();
+			connection.bind(call, this.read_timeout);
+			connection.tune(call.getTuning(socketTuning.settings(endpoint(call), 0)));
+			call.setSendBufferSize(socketTuning.isAuto() ? connection.getSendBufferSize() : 0);
+
+			final ICAPResponse response = transaction.run(connection.getInputStream(), connection.getOutputStream());
+			reusable = pooled && !call.isDiscarded() && isReusable(response);
+			return response;
+		} finally {
+			call.detach();
+			connection.bind(null, this.read_timeout);
+			if (reusable && !call.isCancelled() && !call.isExpired()) {
+				pool.offer(connection);
+			} else {
+				connection.closeQuietly();
+			}
+		}
+	}
+
+	private boolean isReusable(final ICAPResponse response) {
+		if (pool.getMaxIdle() == 0 || response.containHeaderValue("Connection", "close")) {
+			return false;
+		}
+		if (response.getStatus() > ICAP_STATUS_REQUEST_FAILURE_FAMILY) {
+			// Encapsulated sections of error responses are never read
+			final List<String> encapsulated = response.getHeaderValues("Encapsulated");
+			return encapsulated == null || (encapsulated.size() == 1 && encapsulated.get(0).startsWith("null-body"));
+		}
+		return true;
 	}
 
 	private static final int ICAP_STATUS_CONTINUE = 100;
 	private static final int ICAP_STATUS_NO_CONTENT = 204;
+	private static final int ICAP_STATUS_PARTIAL_CONTENT = 206;
 	private static final int ICAP_STATUS_REQUEST_FAILURE_FAMILY = 400;
 
-	private ICAPResponse sendOptions(final String icapService) throws IOException {
-		try (final Socket socket = connect()) {
-
-			InputStream is = socket.getInputStream();
-			OutputStream os = socket.getOutputStream();
-
-			final String requestHeader = ""
-					+ "OPTIONS icap://" + host + "/" + icapService + " ICAP/" + VERSION + END_LINE_DELIMITER
-					+ "Host: " + host + END_LINE_DELIMITER
-					+ "User-Agent: " + USER_AGENT + END_LINE_DELIMITER
-					+ "Encapsulated: null-body=0" + END_LINE_DELIMITER
-					+ END_LINE_DELIMITER;
+	private ICAPResponse sendOptions(final String icapService, final ICAPCall call) throws IOException {
+		final String requestHeader = ""
+				+ "OPTIONS icap://" + host + "/" + icapService + " ICAP/" + VERSION + END_LINE_DELIMITER
+				+ "Host: " + host + END_LINE_DELIMITER
+				+ "User-Agent: " + USER_AGENT + END_LINE_DELIMITER
+				+ "Encapsulated: null-body=0" + END_LINE_DELIMITER
+				+ END_LINE_DELIMITER;
 
+		return transact(call, (is, os) -> {
 			info("\n{}", requestHeader);
-			os.write(requestHeader.getBytes(ASCII));
+			writeAscii(os, requestHeader);
+			final long sent = System.nanoTime();
 			os.flush();
 
 			final ICAPResponse options = new ICAPResponse();
-			parseResponse(options, is);
-
-			is.close();
-			os.close();
+			parseResponse(options, is, call);
+			socketTuning.onRoundTrip(endpoint(call), System.nanoTime() - sent);
 
 			return options;
-		}
+		});
+	}
 
+	private String icapRequestHeader(final ICAPCall call, final int preview, final CharSequence encapsulated) {
+		final ICAPRequest request = call.getRequest();
+		final String icapHost = call.getHost(host);
+		return ""
+				+ request.getMode().name() + " icap://" + icapHost + "/" + request.getService() + " ICAP/" + VERSION + END_LINE_DELIMITER
+				+ "Host: " + icapHost + END_LINE_DELIMITER
+				+ "User-Agent: " + USER_AGENT + END_LINE_DELIMITER
+				+ (partialContent && request.getHttpRequestBodyPublisher() == null && request.getHttpResponseBodyPublisher() == null
+						? "Allow: 204, 206" : "Allow: 204") + END_LINE_DELIMITER
+				+ (preview >= 0 ? ("Preview: " + preview + END_LINE_DELIMITER) : "")
+				+ "Encapsulated: " + encapsulated + END_LINE_DELIMITER
+				+ END_LINE_DELIMITER;
 	}
 
-	private ICAPResponse performAdaptation(ICAPRequest request) throws IOException {
+	private ICAPResponse performAdaptation(ICAPRequest request, ICAPCall call) throws IOException {
+		if (request.getHttpRequestBodyPublisher() != null || request.getHttpResponseBodyPublisher() != null) {
+			return performStreamingAdaptation(request, call);
+		}
+
 		final byte[] defaultContent = new byte[] {};
 
 		final byte[] httpRequestHeader = Optional.ofNullable(request.getHttpRequestHeader()).orElse(defaultContent);
@@ -167,58 +797,221 @@ public class ICAPClient {
 		final byte[] httpResponseHeader = Optional.ofNullable(request.getHttpResponseHeader()).orElse(defaultContent);
 		final byte[] httpResponseBody = Optional.ofNullable(request.getHttpResponseBody()).orElse(defaultContent);
 
-		byte[] content = httpRequestBody;
+		final byte[] content = httpRequestBody.length > 0 ? httpRequestBody : httpResponseBody;
+
+		final AdaptivePreview adaptive = this.adaptivePreview;
+		final String adaptiveKey = adaptive != null && content.length > 0 ? adaptive.key(request) : null;
+
+		int preview = adaptiveKey != null
+				? adaptive.choose(adaptiveKey, request.getService(), content.length, request.getPreview())
+				: request.getPreview();
+		if (preview >= 0 && content.length < preview) {
+			preview = content.length;
+		}
+
+		final StringBuilder encapsulated = new StringBuilder();
+		final int[] encapsulatedOffset = new int[]{0};
+
+		mountRequestHeader("req-hdr", encapsulated, encapsulatedOffset, httpRequestHeader);
+		mountRequestHeader("req-body", encapsulated, encapsulatedOffset, httpRequestBody);
+		mountRequestHeader("res-hdr", encapsulated, encapsulatedOffset, httpResponseHeader);
+		mountRequestHeader("res-body", encapsulated, encapsulatedOffset, httpResponseBody);
+
 		if (content.length == 0) {
-			content = httpResponseBody;
+			encapsulated.append(encapsulated.length() > 0 ? ", " : "");
+			encapsulated.append("null-body=").append(encapsulatedOffset[0]);
 		}
 
-		try (final Socket socket = connect()) {
-			final InputStream is = socket.getInputStream();
-			final OutputStream os = socket.getOutputStream();
+		final String icapRequestHeader = icapRequestHeader(call, preview >= 0 && content.length > 0 ? preview : -1, encapsulated);
+
+		final int previewSize = preview;
+
+		final AdaptiveTimeout timeouts = this.adaptiveTimeout;
+		final String service = request.getService();
+		final long firstSize = previewSize >= 0 ? previewSize : content.length;
+		final int firstTimeout = timeouts != null ? timeouts.timeout(service, firstSize, read_timeout) : 0;
+		final int continuationTimeout = timeouts != null && previewSize >= 0 ? timeouts.timeout(service, content.length, read_timeout) : 0;
+
+		final SocketTuning tuning = this.socketTuning;
+		final String endpoint = endpoint(call);
+		final SocketTuning.Settings settings = tuning.settings(endpoint, content.length);
+		final int chunkSize = settings.chunkSize;
+		call.tune(settings);
+
+		// Kept outside the exchange, which may be repeated, to tell which wait timed out
+		final long[] continuedAt = new long[]{0, 0};
+		final boolean[] awaiting = new boolean[]{false};
+
+		try {
+			return transact(call, (is, os) -> {
+				continuedAt[0] = 0;
+				continuedAt[1] = 0;
+				awaiting[0] = false;
+
+				info("\n{}", icapRequestHeader);
+				writeAscii(os, icapRequestHeader);
+
+				os.write(httpRequestHeader);
+				os.write(httpResponseHeader);
+				final long writing = System.nanoTime();
+				if (content.length > 0) {
+					writePreviewOrFullContent(os, previewSize, content, chunkSize);
+				}
+
+				os.flush();
 
-			int preview = request.getPreview();
-			if (preview >= 0 && content.length < request.getPreview()) {
-				preview = content.length;
+				final long sent = System.nanoTime();
+
+				if (previewSize < 0) {
+					tuning.onTransfer(endpoint, content.length, sent - writing, call.getSendBufferSize());
+				}
+
+				call.setReadTimeout(firstTimeout);
+				awaiting[0] = true;
+				final ICAPResponse response = fetchResponseWithPreviewData(previewSize, content, is, os, continuedAt, call, continuationTimeout, chunkSize);
+
+				final long now = System.nanoTime();
+				final boolean continued = continuedAt[0] != 0;
+
+				// Timed from before the flush: a preemption then lengthens a sample, which the minimum discards
+				if (continued) {
+					tuning.onRoundTrip(endpoint, continuedAt[0] - writing);
+					tuning.onTransfer(endpoint, content.length - previewSize, continuedAt[1] - continuedAt[0], call.getSendBufferSize());
+					tuning.onDelivery(endpoint, content.length - previewSize, now - continuedAt[0]);
+				} else if (previewSize >= 0 && response.getStatus() == ICAP_STATUS_NO_CONTENT) {
+					tuning.onRoundTrip(endpoint, now - writing);
+				} else if (previewSize < 0) {
+					tuning.onDelivery(endpoint, content.length, now - writing);
+				}
+
+				if (adaptiveKey != null) {
+					adaptive.record(adaptiveKey, content.length, previewSize, continued,
+							(continued ? continuedAt[0] : now) - sent,
+							continued ? now - continuedAt[0] : 0);
+				}
+
+				if (timeouts != null) {
+					timeouts.record(service, firstSize, (continued ? continuedAt[0] : now) - sent);
+					if (continued) {
+						timeouts.record(service, content.length, now - continuedAt[0]);
+					}
+				}
+
+				return response;
+			});
+		} catch (SocketTimeoutException e) {
+			if (timeouts != null && !call.isExpired() && awaiting[0]) {
+				timeouts.onTimeout(service, continuedAt[0] != 0 ? content.length : firstSize, call.getReadTimeout(read_timeout));
 			}
+			throw e;
+		} finally {
+			call.setReadTimeout(0);
+			call.tune(null);
+		}
+	}
+
+	/*
+	 * Same exchange as performAdaptation, with a body pulled from a publisher as the connection accepts it.
+	 * The preview, kept aside, is all that can be resent over a new connection when a pooled one turns out stale.
+	 */
+	private ICAPResponse performStreamingAdaptation(ICAPRequest request, ICAPCall call) throws IOException {
+		final byte[] defaultContent = new byte[] {};
 
-			final StringBuilder encapsulated = new StringBuilder();
-			final int[] encapsulatedOffset = new int[]{0};
+		final byte[] httpRequestHeader = Optional.ofNullable(request.getHttpRequestHeader()).orElse(defaultContent);
+		final byte[] httpResponseHeader = Optional.ofNullable(request.getHttpResponseHeader()).orElse(defaultContent);
 
-			mountRequestHeader("req-hdr", encapsulated, encapsulatedOffset, httpRequestHeader);
-			mountRequestHeader("req-body", encapsulated, encapsulatedOffset, httpRequestBody);
+		final boolean requestBody = request.getHttpRequestBodyPublisher() != null;
+
+		final StringBuilder encapsulated = new StringBuilder();
+		final int[] encapsulatedOffset = new int[]{0};
+
+		mountRequestHeader("req-hdr", encapsulated, encapsulatedOffset, httpRequestHeader);
+		if (requestBody) {
+			encapsulated.append(encapsulated.length() > 0 ? ", " : "").append("req-body=").append(encapsulatedOffset[0]);
+		} else {
 			mountRequestHeader("res-hdr", encapsulated, encapsulatedOffset, httpResponseHeader);
-			mountRequestHeader("res-body", encapsulated, encapsulatedOffset, httpResponseBody);
+			encapsulated.append(encapsulated.length() > 0 ? ", " : "").append("res-body=").append(encapsulatedOffset[0]);
+		}
 
-			if (httpRequestBody.length == 0 && httpResponseBody.length == 0) {
-				mountRequestHeader("null-body", encapsulated, encapsulatedOffset, new byte[]{});
-			}
+		final int preview = request.getPreview();
+		final String icapRequestHeader = icapRequestHeader(call, preview, encapsulated);
 
-			final String icapRequestHeader = ""
-					+ request.getMode().name() + " icap://" + host + "/" + request.getService() + " ICAP/" + VERSION + END_LINE_DELIMITER
-					+ "Host: " + host + END_LINE_DELIMITER
-					+ "User-Agent: " + USER_AGENT + END_LINE_DELIMITER
-					+ "Allow: 204" + END_LINE_DELIMITER
-					+ (preview >= 0 ? ("Preview: " + preview + END_LINE_DELIMITER) : "")
-					+ "Encapsulated: " + encapsulated.toString() + END_LINE_DELIMITER
-					+ END_LINE_DELIMITER;
+		final PublisherReader reader = new PublisherReader();
+		(requestBody ? request.getHttpRequestBodyPublisher() : request.getHttpResponseBodyPublisher()).subscribe(reader);
 
-			info("\n{}", icapRequestHeader);
-			os.write(icapRequestHeader.getBytes(ASCII));
+		final byte[] previewContent = preview > 0 ? bufferPool.acquire(preview) : defaultContent;
+		final int[] previewLength = new int[]{-1};
+		final boolean[] streamed = new boolean[]{false};
 
-			os.write(httpRequestHeader);
-			os.write(httpResponseHeader);
-			os.write(mountPreviewOrFullContent(preview, content));
+		final SocketTuning.Settings settings = socketTuning.settings(endpoint(call), Long.MAX_VALUE);
+		call.tune(settings);
 
-			os.flush();
+		try {
+			return transact(call, (is, os) -> {
+				info("\n{}", icapRequestHeader);
+				writeAscii(os, icapRequestHeader);
 
-			final ICAPResponse response = fetchResponseWithPreviewData(preview, content, is, os);
+				os.write(httpRequestHeader);
+				if (!requestBody) {
+					os.write(httpResponseHeader);
+				}
 
-			is.close();
-			os.close();
-			return response;
+				if (preview >= 0) {
+					if (previewLength[0] < 0) {
+						previewLength[0] = reader.fill(previewContent, preview, call, read_timeout, os);
+					}
+					if (previewLength[0] > 0) {
+						writeChunk(os, previewContent, 0, previewLength[0]);
+					}
+					os.write(reader.isCompleted() ? LAST_CHUNK_IEOF : LAST_CHUNK);
+					os.flush();
+
+					ICAPResponse response = new ICAPResponse();
+					parseResponse(response, is, call);
+					if (response.getStatus() != ICAP_STATUS_CONTINUE) {
+						reader.cancel();
+						return response;
+					}
+				}
 
+				streamed[0] = true;
+				writeStream(os, reader, call, settings.chunkSize);
+				os.flush();
+
+				final ICAPResponse response = new ICAPResponse();
+				parseResponse(response, is, call);
+				return response;
+			}, () -> !streamed[0] && !call.isDelivered());
+		} finally {
+			call.tune(null);
+			reader.cancel();
+			if (preview > 0) {
+				bufferPool.release(previewContent);
+			}
 		}
+	}
 
+	private void writeStream(final OutputStream os, final PublisherReader reader, final ICAPCall call, final int chunkSize) throws IOException {
+		byte[] scratch = null;
+		try {
+			ByteBuffer buffer;
+			while ((buffer = reader.next(call, read_timeout, os)) != null) {
+				final int amount = Math.min(buffer.remaining(), chunkSize);
+				if (buffer.hasArray()) {
+					writeChunk(os, buffer.array(), buffer.arrayOffset() + buffer.position(), amount);
+					reader.consume(amount);
+				} else {
+					if (scratch == null) {
+						scratch = bufferPool.acquire(chunkSize);
+					}
+					buffer.get(scratch, 0, amount);
+					writeChunk(os, scratch, 0, amount);
+				}
+			}
+			os.write(LAST_CHUNK);
+		} finally {
+			bufferPool.release(scratch);
+		}
 	}
 
 	private void mountRequestHeader(
@@ -234,34 +1027,50 @@ public class ICAPClient {
 		}
 	}
 
-	private byte[] mountPreviewOrFullContent(final int preview, final byte[] content) throws IOException {
-		try (final ByteArrayOutputStream os = new ByteArrayOutputStream()) {
+	private void writePreviewOrFullContent(final OutputStream os, final int preview, final byte[] content, final int chunkSize) throws IOException {
+		if (preview > 0) {
+			// Send partial (preview) data
 
-			if (preview > 0) {
-				// Send partial (preview) data
+			writeChunk(os, content, 0, preview);
+			os.write(content.length == preview ? LAST_CHUNK_IEOF : LAST_CHUNK);
+		} else if (preview == -1) {
+			// Send whole data, without waiting for the server
 
-				os.write(Integer.toHexString(preview).getBytes(ASCII));
-				os.write(END_LINE_DELIMITER.getBytes(ASCII));
-				os.write(content, 0, preview);
-				os.write(END_LINE_DELIMITER.getBytes(ASCII));
+			for (int offset = 0; offset < content.length; offset += chunkSize) {
+				writeChunk(os, content, offset, Math.min(chunkSize, content.length - offset));
+			}
+			os.write(LAST_CHUNK);
+		} else {
+			// Empty preview; body only after 100 Continue
 
-				os.write(("0" + (content.length == preview ? "; ieof" : "") + END_LINE_DELIMITER + END_LINE_DELIMITER).getBytes(ASCII));
-			} else if (preview == -1) {
-				// Send whole data in a single package
+			os.write(LAST_CHUNK);
+		}
+	}
 
-				os.write(Integer.toHexString(content.length).getBytes(ASCII));
-				os.write(END_LINE_DELIMITER.getBytes(ASCII));
-				os.write(content);
-				os.write(END_LINE_DELIMITER.getBytes(ASCII));
+	private void writeChunk(final OutputStream os, final byte[] content, final int offset, final int length) throws IOException {
+		int shift = 28;
+		while (shift > 0 && (length >>> shift) == 0) {
+			shift -= 4;
+		}
+		for (; shift >= 0; shift -= 4) {
+			os.write(HEX_DIGITS[(length >>> shift) & 0xF]);
+		}
 
-				os.write(("0; ieof" + END_LINE_DELIMITER + END_LINE_DELIMITER).getBytes(ASCII));
-			} else {
-				// No body data; only headers
+		os.write(CRLF);
+		os.write(content, offset, length);
+		os.write(CRLF);
+	}
 
-				os.write(("0" + END_LINE_DELIMITER + END_LINE_DELIMITER).getBytes(ASCII));
+	private void writeAscii(final OutputStream os, final String text) throws IOException {
+		final int length = text.length();
+		final byte[] buffer = bufferPool.acquire(length);
+		try {
+			for (int i = 0; i < length; ++i) {
+				buffer[i] = (byte) text.charAt(i);
 			}
-
-			return os.toByteArray();
+			os.write(buffer, 0, length);
+		} finally {
+			bufferPool.release(buffer);
 		}
 	}
 
@@ -269,36 +1078,42 @@ public class ICAPClient {
 		final int preview,
 		final byte[] content,
 		final InputStream is,
-		final OutputStream os
+		final OutputStream os,
+		final long[] continuedAt,
+		final ICAPCall call,
+		final int continuationTimeout,
+		final int chunkSize
 	) throws IOException {
 
 		ICAPResponse response = new ICAPResponse();
-		parseResponse(response, is);
+		parseResponse(response, is, call);
 
 		if (response.getStatus() == ICAP_STATUS_CONTINUE ) {
+			continuedAt[0] = System.nanoTime();
+
+			int offset = preview;
 			int remaining = (content.length - preview);
 
 			while (remaining > 0) {
 
 				int amount = remaining;
-				if (amount > MAX_PACKET_SIZE) {
-					amount = MAX_PACKET_SIZE;
+				if (amount > chunkSize) {
+					amount = chunkSize;
 				}
 
-				os.write(Integer.toHexString(amount).getBytes(ASCII));
-				os.write(END_LINE_DELIMITER.getBytes(ASCII));
-
-				os.write(content, preview, amount);
-				os.write(END_LINE_DELIMITER.getBytes(ASCII));
+				writeChunk(os, content, offset, amount);
 
+				offset += amount;
 				remaining -= amount;
 			}
 
-			os.write(("0" + END_LINE_DELIMITER + END_LINE_DELIMITER).getBytes(ASCII));
+			os.write(LAST_CHUNK);
 			os.flush();
+			continuedAt[1] = System.nanoTime();
 
+			call.setReadTimeout(continuationTimeout);
 			response = new ICAPResponse();
-			parseResponse(response, is);
+			parseResponse(response, is, call);
 		}
 
 		return response;
@@ -306,13 +1121,17 @@ public class ICAPClient {
 
 	private void parseResponse(
 			final ICAPResponse response,
-			final InputStream is
+			final InputStream is,
+			final ICAPCall call
 	) throws IOException {
 
-		ByteArrayOutputStream cache = new ByteArrayOutputStream();
-		readHeaders(is, cache);
+		final BodySink sink = call.getSink();
 
-		final String icapResponseHeaders = new String(cache.toByteArray(), "UTF-8");
+		final String icapResponseHeaders;
+		try (BufferPool.Output cache = bufferPool.output(HEADER_BUFFER_SIZE)) {
+			readHeaders(is, cache);
+			icapResponseHeaders = cache.toString(StandardCharsets.UTF_8);
+		}
 		extractHeaders(response, icapResponseHeaders);
 
 		if (response.getStatus() == ICAP_STATUS_CONTINUE
@@ -321,6 +1140,14 @@ public class ICAPClient {
 			return;
 		}
 
+		if (call.isVerdictOnly()) {
+			final List<String> encapsulated = response.getHeaderValues("Encapsulated");
+			if (encapsulated == null || encapsulated.size() != 1 || !encapsulated.get(0).startsWith("null-body")) {
+				call.discard();
+			}
+			return;
+		}
+
 		int httpRequestHeaderSize = 0;
 		int httpResponseHeaderSize = 0;
 
@@ -355,34 +1182,61 @@ public class ICAPClient {
 
 			}
 
+		// Original bodies a partial content response may end with
+		final ICAPRequest request = call.getRequest();
+		final boolean partial = response.getStatus() == ICAP_STATUS_PARTIAL_CONTENT;
+		final byte[] originalRequestBody = partial ? request.getHttpRequestBody() : null;
+		final byte[] originalResponseBody = partial ? request.getHttpResponseBody() : null;
+
 		byte[] parseContent = null;
 
 		if (httpRequestHeaderSize > 0) {
 			parseContent = new byte[httpRequestHeaderSize];
-			is.read(parseContent);
+			readFully(is, parseContent);
 			response.setHttpRequestHeader(parseContent);
 		}
 
-		if ("req-body".equals(lastOffsetLabel)) {
-			cache = new ByteArrayOutputStream();
-			readBody(is, cache);
-			response.setHttpRequestBody(cache.toByteArray());
+		if ("req-body".equals(lastOffsetLabel) && sink != null) {
+			call.deliver();
+			sink.headers(response);
+			readBody(is, sink, BodySink.Section.REQUEST_BODY, originalRequestBody);
+		} else if ("req-body".equals(lastOffsetLabel)) {
+			try (BufferPool.Output body = bodyOutput(response.getHttpRequest())) {
+				readBody(is, body, call, originalRequestBody);
+				response.setHttpRequestBody(body.toByteArray());
+			}
 		}
 
 		if (httpResponseHeaderSize > 0) {
 			parseContent = new byte[httpResponseHeaderSize];
-			is.read(parseContent);
+			readFully(is, parseContent);
 			response.setHttpResponseHeader(parseContent);
 		}
 
-		if ("res-body".equals(lastOffsetLabel)) {
-			cache = new ByteArrayOutputStream();
-			readBody(is, cache);
-			response.setHttpResponseBody(cache.toByteArray());
+		if ("res-body".equals(lastOffsetLabel) && sink != null) {
+			call.deliver();
+			sink.headers(response);
+			readBody(is, sink, BodySink.Section.RESPONSE_BODY, originalResponseBody);
+		} else if ("res-body".equals(lastOffsetLabel)) {
+			try (BufferPool.Output body = bodyOutput(response.getHttpResponse())) {
+				readBody(is, body, call, originalResponseBody);
+				response.setHttpResponseBody(body.toByteArray());
+			}
 		}
 
 	}
 
+	/*
+	 * Sizes the body buffer from the declared Content-Length, with room for the chunk framing.
+	 */
+	private BufferPool.Output bodyOutput(final HttpMessage header) {
+		final long contentLength = header != null ? header.getContentLength() : -1;
+		if (contentLength < 0 || contentLength > MAX_PRESIZED_BODY) {
+			return bufferPool.output();
+		}
+		return bufferPool.output((int) (contentLength + contentLength / MAX_PACKET_SIZE * 16 + 64));
+	}
+
 	private void readHeaders(InputStream is, OutputStream out) throws IOException {
 		int octet = -1;
 
@@ -403,42 +1257,193 @@ public class ICAPClient {
 					&& octet1 == '\n'
 					&& octet2 == '\r'
 					&& octet3 == '\n') {
-				break;
+				return;
 			}
 
 		}
 
+		throw new EOFException("Connection closed by ICAP server");
 	}
 
-	private void readBody(InputStream is, OutputStream out) throws IOException {
-		int octet = -1;
+	private void readFully(InputStream is, byte[] content) throws IOException {
+		int offset = 0;
+		while (offset < content.length) {
+			final int read = is.read(content, offset, content.length - offset);
+			if (read == -1) {
+				throw new EOFException("Connection closed by ICAP server");
+			}
+			offset += read;
+		}
+	}
 
-		int octet0 = -1;
-		int octet1 = -1;
-		int octet2 = -1;
-		int octet3 = -1;
-		int octet4 = -1;
+	/*
+	 * Copies a chunked body, framing included, up to and including its last-chunk and trailer.
+	 * A last-chunk with use-original-body is replaced with the original body from that offset, when known.
+	 */
+	private void readBody(InputStream is, BufferPool.Output out, ICAPCall call, byte[] original) throws IOException {
+		final StringBuilder extension = original != null ? new StringBuilder() : null;
+		while (true) {
+			final int mark = out.size();
+			int remaining = readChunkSize(is, out, extension);
+
+			if (remaining == 0) {
+				final int offset = originalOffset(extension, original);
+				if (offset >= 0) {
+					out.truncate(mark);
+					for (int from = offset; from < original.length; from += MAX_PACKET_SIZE) {
+						writeChunk(out, original, from, Math.min(MAX_PACKET_SIZE, original.length - from));
+					}
+					call.charge(original.length - offset);
+					out.write('0');
+					out.write(CRLF);
+				}
+				// Trailer, if any, ends with an empty line
+				while (readLine(is, out) > 0) { /***/ }
+				return;
+			}
 
-		while ((octet = is.read()) != -1) {
+			while (remaining > 0) {
+				final int read = out.readFrom(is, Math.min(MAX_PACKET_SIZE, remaining));
+				if (read == -1) {
+					throw new EOFException("Connection closed by ICAP server");
+				}
+				call.charge(read);
+				remaining -= read;
+			}
 
-			octet0 = octet1;
-			octet1 = octet2;
-			octet2 = octet3;
-			octet3 = octet4;
-			octet4 = octet;
+			readLine(is, out);
+		}
+	}
 
-			out.write(octet);
+	/*
+	 * Delivers the data of a chunked body to a sink, as it arrives.
+	 */
+	private void readBody(InputStream is, BodySink sink, BodySink.Section section, byte[] original) throws IOException {
+		final byte[] buffer = bufferPool.acquire(MAX_PACKET_SIZE);
+		final StringBuilder extension = original != null ? new StringBuilder() : null;
+		try {
+			while (true) {
+				int remaining = readChunkSize(is, null, extension);
+
+				if (remaining == 0) {
+					final int offset = originalOffset(extension, original);
+					if (offset >= 0) {
+						for (int from = offset; from < original.length; from += MAX_PACKET_SIZE) {
+							sink.write(section, original, from, Math.min(MAX_PACKET_SIZE, original.length - from));
+						}
+					}
+					while (readLine(is, null) > 0) { /***/ }
+					sink.end(section);
+					return;
+				}
+
+				while (remaining > 0) {
+					final int read = is.read(buffer, 0, Math.min(buffer.length, remaining));
+					if (read == -1) {
+						throw new EOFException("Connection closed by ICAP server");
+					}
+					sink.write(section, buffer, 0, read);
+					remaining -= read;
+				}
 
-			if (octet0 == '0'
-					&& octet1 == '\r'
-					&& octet2 == '\n'
-					&& octet3 == '\r'
-					&& octet4 == '\n') {
-				break;
+				readLine(is, null);
 			}
+		} finally {
+			bufferPool.release(buffer);
+		}
+	}
 
+	/*
+	 * Offset of the original body to resume from, as given by a use-original-body chunk extension, or -1.
+	 */
+	private static int originalOffset(final StringBuilder extension, final byte[] original) throws IOException {
+		if (extension == null) {
+			return -1;
 		}
+		for (final String field : extension.toString().split(";")) {
+			final int equals = field.indexOf('=');
+			if (equals > 0 && "use-original-body".equalsIgnoreCase(field.substring(0, equals).trim())) {
+				final int offset;
+				try {
+					offset = Integer.parseInt(field.substring(equals + 1).trim());
+				} catch (NumberFormatException e) {
+					throw new IOException("Invalid use-original-body offset");
+				}
+				if (offset < 0 || offset > original.length) {
+					throw new IOException("use-original-body offset " + offset + " beyond the original body of " + original.length + " bytes");
+				}
+				return offset;
+			}
+		}
+		return -1;
+	}
 
+	/*
+	 * Copies a chunk size line, unless out is null, and returns the size. Chunk extensions are
+	 * collected into extension, unless it is null, else ignored.
+	 */
+	private int readChunkSize(InputStream is, OutputStream out, StringBuilder extension) throws IOException {
+		long size = 0;
+		int digits = 0;
+		boolean extended = false;
+		if (extension != null) {
+			extension.setLength(0);
+		}
+
+		int octet;
+		while ((octet = is.read()) != -1) {
+			if (out != null) {
+				out.write(octet);
+			}
+			if (octet == '\n') {
+				if (digits == 0) {
+					throw new IOException("Invalid chunk size line");
+				}
+				return (int) size;
+			}
+			if (extended) {
+				if (extension != null && octet != '\r') {
+					extension.append((char) octet);
+				}
+				continue;
+			}
+			if (octet == '\r' || octet == ' ' || octet == '\t') {
+				continue;
+			}
+			if (octet == ';') {
+				extended = true;
+				continue;
+			}
+
+			final int digit = Character.digit(octet, 16);
+			if (digit < 0 || ++digits > 8 || (size = (size << 4) | digit) > Integer.MAX_VALUE) {
+				throw new IOException("Invalid chunk size");
+			}
+		}
+
+		throw new EOFException("Connection closed by ICAP server");
+	}
+
+	/*
+	 * Copies a line, unless out is null, and returns its length, line terminator excluded.
+	 */
+	private int readLine(InputStream is, OutputStream out) throws IOException {
+		int length = 0;
+
+		int octet;
+		while ((octet = is.read()) != -1) {
+			if (out != null) {
+				out.write(octet);
+			}
+			if (octet == '\n') {
+				return length;
+			}
+			if (octet != '\r') {
+				++length;
+			}
+		}
+
+		throw new EOFException("Connection closed by ICAP server");
 	}
 
 	private void extractHeaders(ICAPResponse response, String content) {
@@ -533,6 +1538,8 @@ public class ICAPClient {
 
 		});
 
+		response.compactHeaders();
+
 	}
 
 }
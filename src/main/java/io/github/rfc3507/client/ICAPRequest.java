@@ -5,6 +5,8 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
 
 public class ICAPRequest {
 
@@ -16,6 +18,10 @@ public class ICAPRequest {
 	
 	private Mode mode;
 	
+	public static enum Priority {
+		INTERACTIVE, NORMAL, BULK;
+	}
+	
 	private ICAPRequest(String service, Mode mode) {
 		this.service = service;
 		this.mode = mode;
@@ -44,6 +50,49 @@ public class ICAPRequest {
 		return preview;
 	}
 	
+	private Priority priority = Priority.NORMAL;
+	
+	/**
+	 * Dispatch class, when the client has a {@link Scheduler}: waiting requests of a higher class go first.
+	 */
+	public ICAPRequest setPriority(Priority priority) {
+		this.priority = priority;
+		return this;
+	}
+	
+	public Priority getPriority() {
+		return priority;
+	}
+	
+	private String tenant;
+	
+	/**
+	 * Flow the request is fairly queued in, when the client has a {@link Scheduler}; the service by default.
+	 */
+	public ICAPRequest setTenant(String tenant) {
+		this.tenant = tenant;
+		return this;
+	}
+	
+	public String getTenant() {
+		return tenant;
+	}
+	
+	private long timeout = 0;
+	
+	/**
+	 * Absolute time limit, in milliseconds, for the whole transaction.
+	 * Zero, the default, falls back to the request timeout of the client.
+	 */
+	public ICAPRequest setTimeout(long timeout) {
+		this.timeout = timeout;
+		return this;
+	}
+	
+	public long getTimeout() {
+		return timeout;
+	}
+	
 	private byte[] httpRequestHeader;
 	
 	public byte[] getHttpRequestHeader() {
@@ -76,6 +125,21 @@ public class ICAPRequest {
 		return httpRequestBody;
 	}
 	
+	private Flow.Publisher<ByteBuffer> httpRequestBodyPublisher;
+	
+	/**
+	 * Streams the body from a publisher, pulled only as fast as the ICAP server accepts it.
+	 * The publisher is subscribed once per execution and takes precedence over a byte array body.
+	 */
+	public ICAPRequest setHttpRequestBody(Flow.Publisher<ByteBuffer> body) {
+		this.httpRequestBodyPublisher = body;
+		return this;
+	}
+	
+	public Flow.Publisher<ByteBuffer> getHttpRequestBodyPublisher() {
+		return httpRequestBodyPublisher;
+	}
+	
 	private byte[] httpResponseHeader;
 	
 	public byte[] getHttpResponseHeader() {
@@ -108,6 +172,21 @@ public class ICAPRequest {
 		return httpResponseBody;
 	}
 	
+	private Flow.Publisher<ByteBuffer> httpResponseBodyPublisher;
+	
+	/**
+	 * Streams the body from a publisher, pulled only as fast as the ICAP server accepts it.
+	 * The publisher is subscribed once per execution and takes precedence over a byte array body.
+	 */
+	public ICAPRequest setHttpResponseBody(Flow.Publisher<ByteBuffer> body) {
+		this.httpResponseBodyPublisher = body;
+		return this;
+	}
+	
+	public Flow.Publisher<ByteBuffer> getHttpResponseBodyPublisher() {
+		return httpResponseBodyPublisher;
+	}
+	
 	private String resourceName;
 	
 	public ICAPRequest setResourceName(String resourceName) {
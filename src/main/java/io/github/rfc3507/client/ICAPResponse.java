@@ -2,19 +2,13 @@ package io.github.rfc3507.client;
 
 import java.io.ByteArrayOutputStream;
 import java.io.Serializable;
-import java.util.Collections;
-import java.util.LinkedHashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
 
 public class ICAPResponse implements Serializable {
 
-	private final Map<String, List<String>> headerEntries = new TreeMap<>(String.CASE_INSENSITIVE_ORDER); 
-
-	private final Set<String> headers = new LinkedHashSet<>();
+	private final HeaderTable headers = new HeaderTable();
 
 	private String protocol;
 	private String version;
@@ -27,6 +21,9 @@ public class ICAPResponse implements Serializable {
 	private byte[] httpResponseHeader;
 	private byte[] httpResponseBody;
 
+	private transient HttpMessage httpRequest;
+	private transient HttpMessage httpResponse;
+
 	ICAPResponse() { /***/ }
 
 	void setProtocol(String protocol) {
@@ -66,56 +63,41 @@ public class ICAPResponse implements Serializable {
 	}
 	
 	void addHeader(String header, String value) {
-		
-		headers.add(header);
-		
-		String h = header.toLowerCase();
-		
-		List<String> values = headerEntries.get(h);
-		if(values == null) {
-			values = new LinkedList<>();
-			headerEntries.put(h, values);
-		}
-		values.add(value);
-		
+		headers.add(header, value);
+	}
+
+	void compactHeaders() {
+		headers.compact();
 	}
 	
 	public Set<String> getHeaders() {
-		return Collections.unmodifiableSet(headers);
+		return headers.names();
 	}
 	
 	public Map<String, List<String>> getHeaderEntries() {
-		return Collections.unmodifiableMap(headerEntries);
+		return headers.entries();
 	}
 	
+	/**
+	 * @return the values of a header, case-insensitive, or null when absent
+	 */
 	public List<String> getHeaderValues(String header) {
-		return headerEntries.get(header.toLowerCase());
+		return headers.all(header);
 	}
 	
 	public boolean containHeaderValue(String header, String content) {
-		
-		List<String> values = headerEntries.get(header.toLowerCase());
-		
-		if(values == null) {
-			return false;
-		}
-		
-		for(String value: values) {
-			if(value.contains(content)) {
-				return true;
-			}
-		}
-		
-		return false;
-		
+		return headers.anyContains(header, content);
 	}
 	
+	/**
+	 * @return the first value of a header, or null when absent
+	 */
 	public String getHeader(String header) {
-		return headerEntries.get(header.toLowerCase()).get(0);
+		return headers.first(header);
 	}
 	
 	public int getIntegerHeader(String header) {
-		return Integer.parseInt(headerEntries.get(header.toLowerCase()).get(0));
+		return Integer.parseInt(headers.first(header));
 	}
 	
 	void setHttpRequestHeader(byte[] httpRequestHeader) {
@@ -126,6 +108,16 @@ public class ICAPResponse implements Serializable {
 		return httpRequestHeader;
 	}
 	
+	/**
+	 * @return a view of the encapsulated HTTP request header, or null when there is none
+	 */
+	public HttpMessage getHttpRequest() {
+		if (httpRequest == null && httpRequestHeader != null) {
+			httpRequest = HttpMessage.of(httpRequestHeader);
+		}
+		return httpRequest;
+	}
+	
 	void setHttpRequestBody(byte[] httpRequestBody) {
 		this.httpRequestBody = httpRequestBody;
 	}
@@ -146,6 +138,16 @@ public class ICAPResponse implements Serializable {
 		return httpResponseHeader;
 	}
 	
+	/**
+	 * @return a view of the encapsulated HTTP response header, or null when there is none
+	 */
+	public HttpMessage getHttpResponse() {
+		if (httpResponse == null && httpResponseHeader != null) {
+			httpResponse = HttpMessage.of(httpResponseHeader);
+		}
+		return httpResponse;
+	}
+	
 	void setHttpResponseBody(byte[] httpResponseBody) {
 		this.httpResponseBody = httpResponseBody;
 	}
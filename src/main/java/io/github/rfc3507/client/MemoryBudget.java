@@ -0,0 +1,239 @@
+package io.github.rfc3507.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounds the body bytes buffered by all running transactions of the clients sharing it.
+ * <p>
+ * A transaction is admitted with an estimate of what it holds: its request bodies and, unless its response
+ * is streamed to a sink or only its verdict is read, a response body of the same size. Response bytes received past the estimate are
+ * charged as they arrive, without waiting, so that running transactions always complete; new work is held
+ * back meanwhile. Everything is released when the transaction ends. A transaction larger than the whole
+ * budget is admitted alone.
+ */
+public final class MemoryBudget {
+
+	public enum Policy {
+		/** Waits until the transaction fits; smaller ones may be admitted first. */
+		BLOCK,
+		/** Waits in arrival order, so large transactions are not starved. */
+		QUEUE,
+		/** Fails at once when the transaction does not fit. */
+		REJECT
+	}
+
+	private static final long WAIT_SLICE_MILLIS = 50;
+
+	private static final long STREAMING_ALLOWANCE = 64 * 1024;
+
+	private final long maxBytes;
+
+	private final Deque<Object> queue = new ArrayDeque<>();
+
+	private long usedBytes = 0;
+	private long peakBytes = 0;
+
+	private final LongAdder admissions = new LongAdder();
+	private final LongAdder waits = new LongAdder();
+	private final LongAdder waitNanos = new LongAdder();
+	private final LongAdder rejections = new LongAdder();
+
+	private MemoryBudget(final long maxBytes) {
+		if (maxBytes <= 0) {
+			throw new IllegalArgumentException("Budget must be positive: " + maxBytes);
+		}
+		this.maxBytes = maxBytes;
+	}
+
+	public static MemoryBudget instance(final long maxBytes) {
+		return new MemoryBudget(maxBytes);
+	}
+
+	private volatile Policy policy = Policy.BLOCK;
+
+	public MemoryBudget setPolicy(final Policy policy) {
+		this.policy = policy;
+		return this;
+	}
+
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	private volatile long maxWait = 0;
+
+	/**
+	 * Longest wait for admission, in milliseconds, before the transaction is rejected.
+	 * Zero, the default, waits up to the request deadline, if any.
+	 */
+	public MemoryBudget setMaxWait(final long maxWait) {
+		this.maxWait = maxWait;
+		return this;
+	}
+
+	public long getMaxWait() {
+		return maxWait;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+
+	public synchronized long getPeakBytes() {
+		return peakBytes;
+	}
+
+	/**
+	 * Transactions currently waiting for admission.
+	 */
+	public synchronized int getWaiting() {
+		return queue.size();
+	}
+
+	public long getAdmissions() {
+		return admissions.sum();
+	}
+
+	/**
+	 * Transactions that had to wait before being admitted or rejected.
+	 */
+	public long getWaits() {
+		return waits.sum();
+	}
+
+	public long getWaitMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(waitNanos.sum());
+	}
+
+	public long getRejections() {
+		return rejections.sum();
+	}
+
+	private static long length(final byte[] content) {
+		return content != null ? content.length : 0;
+	}
+
+	/*
+	 * Admits the request bodies, plus a response body of the same size unless it goes to a sink.
+	 */
+	Reservation reserve(final ICAPCall call) throws IOException {
+		final ICAPRequest request = call.getRequest();
+		final long body = length(request.getHttpRequestBody()) + length(request.getHttpResponseBody());
+		final long response = call.isVerdictOnly() ? 0 : call.getSink() != null ? STREAMING_ALLOWANCE : body;
+		final long bytes = body + response;
+
+		final Object ticket = new Object();
+		final Policy policy = this.policy;
+		final long limit = maxWait;
+		final long start = System.nanoTime();
+		boolean waited = false;
+
+		synchronized (this) {
+			try {
+				queue.addLast(ticket);
+				while (!fits(ticket, bytes, policy)) {
+					if (policy == Policy.REJECT) {
+						rejections.increment();
+						throw new IOException("Memory budget exceeded: " + bytes + " bytes requested, " + usedBytes + " of " + maxBytes + " in use");
+					}
+
+					final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+					if (limit > 0 && elapsed >= limit) {
+						rejections.increment();
+						throw new IOException("Memory budget exceeded: no room for " + bytes + " bytes within " + limit + " ms");
+					}
+
+					final int left = call.remaining(0);
+					long slice = left == 0 ? WAIT_SLICE_MILLIS : Math.min(WAIT_SLICE_MILLIS, left);
+					if (limit > 0) {
+						slice = Math.max(1, Math.min(slice, limit - elapsed));
+					}
+
+					waited = true;
+					try {
+						wait(slice);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException("Interrupted while waiting for the memory budget");
+					}
+				}
+				allocate(bytes);
+			} finally {
+				queue.remove(ticket);
+				// The next in line may fit now
+				notifyAll();
+			}
+		}
+
+		if (waited) {
+			waits.increment();
+			waitNanos.add(System.nanoTime() - start);
+		}
+		admissions.increment();
+		return new Reservation(bytes, response);
+	}
+
+	private boolean fits(final Object ticket, final long bytes, final Policy policy) {
+		if (policy == Policy.QUEUE && queue.peekFirst() != ticket) {
+			return false;
+		}
+		return usedBytes == 0 || usedBytes + bytes <= maxBytes;
+	}
+
+	private void allocate(final long bytes) {
+		usedBytes += bytes;
+		peakBytes = Math.max(peakBytes, usedBytes);
+	}
+
+	private synchronized void release(final long bytes) {
+		usedBytes -= bytes;
+		notifyAll();
+	}
+
+	/**
+	 * The bytes held by one transaction.
+	 */
+	final class Reservation implements AutoCloseable {
+
+		private long held;
+		private long allowance;
+
+		private Reservation(final long held, final long allowance) {
+			this.held = held;
+			this.allowance = allowance;
+		}
+
+		/**
+		 * Accounts for received body bytes, beyond the admitted estimate only. Never waits.
+		 */
+		void charge(final long bytes) {
+			if (bytes <= allowance) {
+				allowance -= bytes;
+				return;
+			}
+			final long extra = bytes - allowance;
+			allowance = 0;
+			held += extra;
+			synchronized (MemoryBudget.this) {
+				allocate(extra);
+			}
+		}
+
+		@Override
+		public void close() {
+			release(held);
+			held = 0;
+		}
+
+	}
+
+}
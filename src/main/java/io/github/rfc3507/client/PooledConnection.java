@@ -0,0 +1,140 @@
+package io.github.rfc3507.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import io.github.rfc3507.client.transport.ICAPConnection;
+
+/**
+ * A transport connection plus the buffered streams that must outlive each transaction,
+ * so bytes read ahead by one response are not lost for the next one.
+ */
+final class PooledConnection implements Closeable {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final ICAPConnection connection;
+	private final InputStream in;
+	private final OutputStream out;
+
+	private long idleSince;
+	private int uses = 0;
+
+	private ICAPCall call;
+	private int readTimeout;
+	private int appliedReadTimeout = -1;
+	private Boolean appliedTcpNoDelay;
+	private int appliedSendBufferSize;
+	private int appliedReceiveBufferSize;
+
+	PooledConnection(final ICAPConnection connection) throws IOException {
+		this.connection = connection;
+		this.in = new BufferedInputStream(new FilterInputStream(connection.getInputStream()) {
+			@Override
+			public int read() throws IOException {
+				applyReadTimeout();
+				return super.read();
+			}
+
+			@Override
+			public int read(final byte[] b, final int off, final int len) throws IOException {
+				applyReadTimeout();
+				return super.read(b, off, len);
+			}
+		}, BUFFER_SIZE);
+		this.out = new BufferedOutputStream(connection.getOutputStream(), BUFFER_SIZE);
+	}
+
+	/**
+	 * Binds the connection to the call it serves: each read then waits at most for the time left.
+	 */
+	void bind(final ICAPCall call, final int readTimeout) {
+		this.call = call;
+		this.readTimeout = readTimeout;
+	}
+
+	private void applyReadTimeout() throws IOException {
+		final int timeout = call != null ? call.remaining(call.getReadTimeout(readTimeout)) : readTimeout;
+		if (timeout != appliedReadTimeout) {
+			connection.setReadTimeout(timeout);
+			appliedReadTimeout = timeout;
+		}
+	}
+
+	/**
+	 * Applies the socket options of a transaction, skipping those already in effect.
+	 * Zero buffer sizes leave the current ones, and so do grow-only sizes no larger than those the OS chose.
+	 */
+	void tune(final SocketTuning.Settings settings) throws IOException {
+		if (appliedTcpNoDelay == null || appliedTcpNoDelay != settings.tcpNoDelay) {
+			connection.setTcpNoDelay(settings.tcpNoDelay);
+			appliedTcpNoDelay = settings.tcpNoDelay;
+		}
+		if (settings.sendBufferSize > 0 && settings.sendBufferSize != appliedSendBufferSize
+				&& (!settings.growOnly || appliedSendBufferSize > 0 || settings.sendBufferSize > connection.getSendBufferSize())) {
+			connection.setSendBufferSize(settings.sendBufferSize);
+			appliedSendBufferSize = settings.sendBufferSize;
+		}
+		if (settings.receiveBufferSize > 0 && settings.receiveBufferSize != appliedReceiveBufferSize
+				&& (!settings.growOnly || appliedReceiveBufferSize > 0 || settings.receiveBufferSize > connection.getReceiveBufferSize())) {
+			connection.setReceiveBufferSize(settings.receiveBufferSize);
+			appliedReceiveBufferSize = settings.receiveBufferSize;
+		}
+	}
+
+	/**
+	 * @return the send buffer size last applied, or else the one the OS reports, zero when unknown
+	 */
+	int getSendBufferSize() throws IOException {
+		return appliedSendBufferSize > 0 ? appliedSendBufferSize : connection.getSendBufferSize();
+	}
+
+	ICAPConnection getConnection() {
+		return connection;
+	}
+
+	InputStream getInputStream() {
+		return in;
+	}
+
+	OutputStream getOutputStream() {
+		return out;
+	}
+
+	boolean isOpen() {
+		return connection.isOpen();
+	}
+
+	int getUses() {
+		return uses;
+	}
+
+	void use() {
+		++uses;
+	}
+
+	long getIdleSince() {
+		return idleSince;
+	}
+
+	void setIdleSince(final long idleSince) {
+		this.idleSince = idleSince;
+	}
+
+	void closeQuietly() {
+		try {
+			close();
+		} catch (IOException e) { /***/ }
+	}
+
+	@Override
+	public void close() throws IOException {
+		connection.close();
+	}
+
+}
@@ -0,0 +1,160 @@
+package io.github.rfc3507.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pulls a request body from a {@link Flow.Publisher} on the sending thread.
+ * <p>
+ * At most {@value #WINDOW} buffers are requested ahead; one more is requested each time a buffer has been
+ * fully consumed, i.e. written to the connection. The upstream source is thereby slowed down to the pace of
+ * the ICAP server.
+ */
+final class PublisherReader implements Flow.Subscriber<ByteBuffer> {
+
+	private static final int WINDOW = 4;
+
+	private static final long WAIT_SLICE_MILLIS = 50;
+
+	private static final Object COMPLETE = new Object();
+
+	private final BlockingQueue<Object> signals = new LinkedBlockingQueue<>();
+
+	private volatile Flow.Subscription subscription;
+
+	private ByteBuffer current;
+	private boolean completed = false;
+	private boolean cancelled = false;
+
+	@Override
+	public void onSubscribe(final Flow.Subscription subscription) {
+		if (this.subscription != null) {
+			subscription.cancel();
+			return;
+		}
+		this.subscription = subscription;
+		subscription.request(WINDOW);
+	}
+
+	@Override
+	public void onNext(final ByteBuffer item) {
+		signals.add(item);
+	}
+
+	@Override
+	public void onError(final Throwable failure) {
+		signals.add(failure);
+	}
+
+	@Override
+	public void onComplete() {
+		signals.add(COMPLETE);
+	}
+
+	/**
+	 * @return a buffer with remaining bytes, or null once the body is complete
+	 */
+	ByteBuffer next(final ICAPCall call, final int timeout, final OutputStream pending) throws IOException {
+		while (current == null || !current.hasRemaining()) {
+			if (current != null) {
+				current = null;
+				subscription.request(1);
+			}
+			if (completed) {
+				return null;
+			}
+
+			Object signal = signals.poll();
+			if (signal == null) {
+				// Nothing to send for now: whatever is buffered must reach the server meanwhile
+				pending.flush();
+				signal = await(call, timeout);
+			}
+
+			if (signal == COMPLETE) {
+				completed = true;
+			} else if (signal instanceof Throwable) {
+				completed = true;
+				throw new IOException("Body publisher failed", (Throwable) signal);
+			} else {
+				current = (ByteBuffer) signal;
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Waits for the next signal in slices, so cancellation and the deadline are noticed; a timeout of zero waits indefinitely.
+	 */
+	private Object await(final ICAPCall call, final int timeout) throws IOException {
+		final long stalled = timeout > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout) : 0;
+		while (true) {
+			final int left = call.remaining(0);
+			long slice = left == 0 ? WAIT_SLICE_MILLIS : Math.min(WAIT_SLICE_MILLIS, left);
+			if (stalled != 0) {
+				final long idle = stalled - System.nanoTime();
+				if (idle <= 0) {
+					throw new SocketTimeoutException("Body publisher stalled");
+				}
+				slice = Math.min(slice, Math.max(1, TimeUnit.NANOSECONDS.toMillis(idle)));
+			}
+			try {
+				final Object signal = signals.poll(slice, TimeUnit.MILLISECONDS);
+				if (signal != null) {
+					return signal;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the body publisher");
+			}
+		}
+	}
+
+	/**
+	 * Copies up to {@code length} bytes, fewer only when the body completes first.
+	 */
+	int fill(final byte[] target, final int length, final ICAPCall call, final int timeout, final OutputStream pending) throws IOException {
+		int filled = 0;
+		ByteBuffer buffer;
+		while (filled < length && (buffer = next(call, timeout, pending)) != null) {
+			final int amount = Math.min(length - filled, buffer.remaining());
+			buffer.get(target, filled, amount);
+			filled += amount;
+		}
+		return filled;
+	}
+
+	/**
+	 * Skips {@code amount} bytes of the current buffer.
+	 */
+	void consume(final int amount) {
+		final Buffer buffer = current;
+		buffer.position(buffer.position() + amount);
+	}
+
+	boolean isCompleted() {
+		return completed;
+	}
+
+	/**
+	 * Stops the upstream source, when the server no longer needs the rest of the body.
+	 */
+	void cancel() {
+		if (!cancelled && !completed) {
+			cancelled = true;
+			final Flow.Subscription s = subscription;
+			if (s != null) {
+				s.cancel();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,252 @@
+package io.github.rfc3507.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token bucket limits on the requests and body bytes sent per second, per endpoint and per service.
+ * <p>
+ * Buckets are kept lock-free, as a single atomic "theoretical arrival time" each (GCRA): a request conforms
+ * when the buckets it draws from are not ahead of the clock by more than the burst, and then pushes them
+ * ahead by its cost. A request larger than the burst is therefore admitted, and the requests following it
+ * pay for it. Depending on the {@link Policy}, a non-conforming request waits its turn or fails at once.
+ * Bodies streamed from a publisher only count as requests.
+ */
+public final class RateLimiter {
+
+	public enum Policy {
+		WAIT, REJECT
+	}
+
+	private static final long WAIT_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+	private final Map<String, Limit> endpointLimits = new ConcurrentHashMap<>();
+	private final Map<String, Limit> serviceLimits = new ConcurrentHashMap<>();
+
+	private final LongAdder admitted = new LongAdder();
+	private final LongAdder delayed = new LongAdder();
+	private final LongAdder delayNanos = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+
+	private RateLimiter() { /***/ }
+
+	public static RateLimiter instance() {
+		return new RateLimiter();
+	}
+
+	private volatile Policy policy = Policy.WAIT;
+
+	public RateLimiter setPolicy(final Policy policy) {
+		this.policy = policy;
+		return this;
+	}
+
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	private volatile double burst = 1;
+
+	/**
+	 * Seconds worth of rate that may be sent at once after an idle period; 1 by default.
+	 * Applies to the limits set afterwards.
+	 */
+	public RateLimiter setBurst(final double burst) {
+		this.burst = burst;
+		return this;
+	}
+
+	private volatile long maxWait = 0;
+
+	/**
+	 * Longest wait, in milliseconds, before a request is rejected anyway.
+	 * Zero, the default, waits up to the request deadline, if any.
+	 */
+	public RateLimiter setMaxWait(final long maxWait) {
+		this.maxWait = maxWait;
+		return this;
+	}
+
+	/**
+	 * Limits the traffic to an ICAP server, all services together. A rate of zero is not limited.
+	 */
+	public RateLimiter setEndpointLimit(final String host, final int port, final double requestsPerSecond, final double bytesPerSecond) {
+		endpointLimits.put(host + ":" + port, new Limit(requestsPerSecond, bytesPerSecond, burst));
+		return this;
+	}
+
+	/**
+	 * Limits the traffic to a service, whichever server hosts it. A rate of zero is not limited.
+	 */
+	public RateLimiter setServiceLimit(final String service, final double requestsPerSecond, final double bytesPerSecond) {
+		serviceLimits.put(service, new Limit(requestsPerSecond, bytesPerSecond, burst));
+		return this;
+	}
+
+	public long getAdmitted() {
+		return admitted.sum();
+	}
+
+	/**
+	 * Requests admitted after waiting for their turn.
+	 */
+	public long getDelayed() {
+		return delayed.sum();
+	}
+
+	public long getDelayMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(delayNanos.sum());
+	}
+
+	public long getRejected() {
+		return rejected.sum();
+	}
+
+	void acquire(final ICAPCall call, final String endpoint) throws IOException {
+		final ICAPRequest request = call.getRequest();
+		final Limit endpointLimit = endpointLimits.get(endpoint);
+		final Limit serviceLimit = serviceLimits.get(request.getService());
+		if (endpointLimit == null && serviceLimit == null) {
+			return;
+		}
+
+		final long bytes = length(request.getHttpRequestBody()) + length(request.getHttpResponseBody());
+		final boolean reject = policy == Policy.REJECT;
+		final long now = System.nanoTime();
+
+		final long endpointDelay = endpointLimit != null ? endpointLimit.take(now, bytes, reject) : 0;
+		if (endpointDelay < 0) {
+			throw rejection(endpoint);
+		}
+		final long serviceDelay = serviceLimit != null ? serviceLimit.take(now, bytes, reject) : 0;
+		if (serviceDelay < 0) {
+			if (endpointLimit != null) {
+				endpointLimit.refund(bytes);
+			}
+			throw rejection(request.getService());
+		}
+
+		final long delay = Math.max(endpointDelay, serviceDelay);
+		if (delay > 0) {
+			try {
+				pause(call, delay);
+			} catch (IOException e) {
+				if (endpointLimit != null) {
+					endpointLimit.refund(bytes);
+				}
+				if (serviceLimit != null) {
+					serviceLimit.refund(bytes);
+				}
+				throw e;
+			}
+			delayed.increment();
+			delayNanos.add(delay);
+		}
+		admitted.increment();
+	}
+
+	private void pause(final ICAPCall call, final long delay) throws IOException {
+		final long limit = maxWait;
+		if (limit > 0 && delay > TimeUnit.MILLISECONDS.toNanos(limit)) {
+			throw rejection("no turn within " + limit + " ms");
+		}
+
+		final long until = System.nanoTime() + delay;
+		long left;
+		while ((left = until - System.nanoTime()) > 0) {
+			call.check();
+			if (call.getDeadline() != 0 && call.getDeadline() < until) {
+				throw rejection("no turn before the request deadline");
+			}
+			try {
+				TimeUnit.NANOSECONDS.sleep(Math.min(left, WAIT_SLICE_NANOS));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the rate limit");
+			}
+		}
+	}
+
+	private IOException rejection(final String scope) {
+		rejected.increment();
+		return new IOException("Rate limit exceeded: " + scope);
+	}
+
+	private static long length(final byte[] content) {
+		return content != null ? content.length : 0;
+	}
+
+	private static final class Limit {
+		private final Bucket requests;
+		private final Bucket bytes;
+
+		Limit(final double requestsPerSecond, final double bytesPerSecond, final double burst) {
+			this.requests = requestsPerSecond > 0 ? new Bucket(requestsPerSecond, burst) : null;
+			this.bytes = bytesPerSecond > 0 ? new Bucket(bytesPerSecond, burst) : null;
+		}
+
+		/**
+		 * @return the nanoseconds to wait, or -1 when rejected
+		 */
+		long take(final long now, final long size, final boolean reject) {
+			final long requestDelay = requests != null ? requests.take(now, 1, reject) : 0;
+			if (requestDelay < 0) {
+				return -1;
+			}
+			final long byteDelay = bytes != null && size > 0 ? bytes.take(now, size, reject) : 0;
+			if (byteDelay < 0) {
+				if (requests != null) {
+					requests.refund(1);
+				}
+				return -1;
+			}
+			return Math.max(requestDelay, byteDelay);
+		}
+
+		void refund(final long size) {
+			if (requests != null) {
+				requests.refund(1);
+			}
+			if (bytes != null && size > 0) {
+				bytes.refund(size);
+			}
+		}
+	}
+
+	private static final class Bucket {
+		private final double nanosPerUnit;
+		private final long tolerance;
+
+		private final AtomicLong arrival = new AtomicLong(Long.MIN_VALUE);
+
+		Bucket(final double unitsPerSecond, final double burst) {
+			this.nanosPerUnit = 1e9 / unitsPerSecond;
+			this.tolerance = (long) (burst * 1e9);
+		}
+
+		long take(final long now, final long cost, final boolean reject) {
+			final long increment = (long) Math.ceil(cost * nanosPerUnit);
+			while (true) {
+				final long current = arrival.get();
+				final long start = Math.max(current, now);
+				final long delay = start - tolerance - now;
+				if (delay > 0 && reject) {
+					return -1;
+				}
+				if (arrival.compareAndSet(current, start + increment)) {
+					return Math.max(0, delay);
+				}
+			}
+		}
+
+		void refund(final long cost) {
+			arrival.addAndGet(-(long) Math.ceil(cost * nanosPerUnit));
+		}
+	}
+
+}
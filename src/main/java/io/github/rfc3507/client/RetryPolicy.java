@@ -0,0 +1,248 @@
+package io.github.rfc3507.client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Repeats a transaction that failed on a transient error or was answered with a transient status.
+ * <p>
+ * Only calls whose bodies can be sent again are retried: byte arrays, which files and URLs are read into,
+ * but not bodies pulled from a publisher, nor calls whose response already reached a {@link BodySink}.
+ * Attempts are spaced by an exponential backoff with full jitter, never past the request deadline, and
+ * rotate over the endpoints added, the client's own first. Each attempt waits its turn again in the rate
+ * limiter, scheduler and memory budget.
+ */
+public final class RetryPolicy {
+
+	private static final long WAIT_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+	private final LongAdder retries = new LongAdder();
+	private final LongAdder recovered = new LongAdder();
+	private final LongAdder exhausted = new LongAdder();
+	private final LongAdder unrepeatable = new LongAdder();
+	private final LongAdder failovers = new LongAdder();
+
+	private RetryPolicy() { /***/ }
+
+	public static RetryPolicy instance() {
+		return new RetryPolicy();
+	}
+
+	private volatile int maxAttempts = 3;
+
+	/**
+	 * Attempts per call, the first one included; 3 by default.
+	 */
+	public RetryPolicy setMaxAttempts(final int maxAttempts) {
+		this.maxAttempts = Math.max(1, maxAttempts);
+		return this;
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	private volatile long initialBackoff = 100;
+	private volatile long maxBackoff = 5000;
+
+	/**
+	 * Backoff bounds, in milliseconds: the n-th retry waits a random time up to
+	 * {@code min(maxBackoff, initialBackoff * 2^(n-1))}. 100 and 5000 by default.
+	 */
+	public RetryPolicy setBackoff(final long initialBackoff, final long maxBackoff) {
+		this.initialBackoff = initialBackoff;
+		this.maxBackoff = maxBackoff;
+		return this;
+	}
+
+	public long getInitialBackoff() {
+		return initialBackoff;
+	}
+
+	public long getMaxBackoff() {
+		return maxBackoff;
+	}
+
+	private volatile Set<Integer> retryOnStatus = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(500, 502, 503)));
+
+	/**
+	 * ICAP statuses answered again by another attempt; 500, 502 and 503 by default.
+	 * The last response is returned when attempts run out.
+	 */
+	public RetryPolicy setRetryOnStatus(final Integer... statuses) {
+		this.retryOnStatus = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(statuses)));
+		return this;
+	}
+
+	public Set<Integer> getRetryOnStatus() {
+		return retryOnStatus;
+	}
+
+	private volatile List<Class<? extends IOException>> retryOnException = Collections.unmodifiableList(
+			Arrays.asList(SocketException.class, EOFException.class));
+
+	/**
+	 * Failures, and their subclasses, retried; {@link SocketException} (resets, refused connections) and
+	 * {@link EOFException} (connection closed mid-response) by default. Cancelled and expired calls are
+	 * never retried, nor are rejections of the rate limiter or memory budget.
+	 */
+	@SafeVarargs
+	public final RetryPolicy setRetryOnException(final Class<? extends IOException>... exceptions) {
+		this.retryOnException = Collections.unmodifiableList(Arrays.asList(exceptions));
+		return this;
+	}
+
+	public List<Class<? extends IOException>> getRetryOnException() {
+		return retryOnException;
+	}
+
+	private final List<String> hosts = new ArrayList<>();
+	private final List<Integer> ports = new ArrayList<>();
+
+	/**
+	 * Adds an ICAP server, offering the same services, that retries move on to in turn.
+	 * Connections to added endpoints are not pooled.
+	 */
+	public synchronized RetryPolicy addEndpoint(final String host, final int port) {
+		hosts.add(host);
+		ports.add(port);
+		return this;
+	}
+
+	/**
+	 * Retry attempts made, all calls together.
+	 */
+	public long getRetries() {
+		return retries.sum();
+	}
+
+	/**
+	 * Calls that succeeded after at least one retry.
+	 */
+	public long getRecovered() {
+		return recovered.sum();
+	}
+
+	/**
+	 * Calls that still failed, or got a retryable status, on their last attempt.
+	 */
+	public long getExhausted() {
+		return exhausted.sum();
+	}
+
+	/**
+	 * Calls that failed with a retryable error but could not send their body again.
+	 */
+	public long getUnrepeatable() {
+		return unrepeatable.sum();
+	}
+
+	/**
+	 * Retries sent to another endpoint than the previous attempt.
+	 */
+	public long getFailovers() {
+		return failovers.sum();
+	}
+
+	ICAPResponse execute(final ICAPCall call, final SingleFlight.Adaptation adaptation) throws IOException {
+		final int attempts = maxAttempts;
+		for (int attempt = 1; ; ++attempt) {
+			final ICAPResponse response;
+			try {
+				response = adaptation.run();
+			} catch (IOException e) {
+				if (!isRetryable(e) || call.isCancelled() || call.isExpired()) {
+					throw e;
+				}
+				if (!isRepeatable(call)) {
+					unrepeatable.increment();
+					throw e;
+				}
+				if (attempt >= attempts || !retry(call, attempt)) {
+					exhausted.increment();
+					throw e;
+				}
+				continue;
+			}
+
+			if (!retryOnStatus.contains(response.getStatus())) {
+				if (attempt > 1) {
+					recovered.increment();
+				}
+				return response;
+			}
+			if (attempt >= attempts || !isRepeatable(call) || !retry(call, attempt)) {
+				exhausted.increment();
+				return response;
+			}
+		}
+	}
+
+	private boolean isRetryable(final IOException failure) {
+		for (final Class<? extends IOException> type : retryOnException) {
+			if (type.isInstance(failure)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isRepeatable(final ICAPCall call) {
+		final ICAPRequest request = call.getRequest();
+		return request.getHttpRequestBodyPublisher() == null
+				&& request.getHttpResponseBodyPublisher() == null
+				&& !call.isDelivered();
+	}
+
+	/*
+	 * Waits the backoff and routes the call to the endpoint of its next attempt,
+	 * or returns false when the deadline leaves no time for it.
+	 */
+	private boolean retry(final ICAPCall call, final int attempt) throws IOException {
+		final long ceiling = Math.min(maxBackoff, initialBackoff << Math.min(attempt - 1, 30));
+		final long backoff = ceiling > 0 ? TimeUnit.MILLISECONDS.toNanos(ThreadLocalRandom.current().nextLong(ceiling + 1)) : 0;
+
+		final long until = System.nanoTime() + backoff;
+		if (call.getDeadline() != 0 && call.getDeadline() < until) {
+			return false;
+		}
+
+		long left;
+		while ((left = until - System.nanoTime()) > 0) {
+			call.check();
+			try {
+				TimeUnit.NANOSECONDS.sleep(Math.min(left, WAIT_SLICE_NANOS));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting to retry");
+			}
+		}
+
+		synchronized (this) {
+			final int endpoints = hosts.size() + 1;
+			final int endpoint = attempt % endpoints;
+			if (endpoint == 0) {
+				call.route(null, 0);
+			} else {
+				call.route(hosts.get(endpoint - 1), ports.get(endpoint - 1));
+			}
+			if (endpoints > 1) {
+				failovers.increment();
+			}
+		}
+		retries.increment();
+		return true;
+	}
+
+}
@@ -0,0 +1,261 @@
+package io.github.rfc3507.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Dispatches the requests of the clients sharing it over a bounded number of concurrent transactions.
+ * <p>
+ * Waiting requests of a higher {@link ICAPRequest.Priority} always go first. Within a class, flows (the
+ * request tenant, or else its service) share the capacity in proportion to their weight, by weighted fair
+ * queuing: each request costs one unit plus one per 64 KiB of body. A service never runs more transactions
+ * than its limit, set explicitly or taken from the {@code Max-Connections} header of its OPTIONS response;
+ * requests of a service at its limit are skipped so that the capacity never idles while others wait.
+ */
+public final class Scheduler {
+
+	private static final long WAIT_SLICE_MILLIS = 50;
+
+	private static final int COST_UNIT = 64 * 1024;
+
+	private static final int MAX_IDLE_FLOWS = 1024;
+
+	private static final ICAPRequest.Priority[] PRIORITIES = ICAPRequest.Priority.values();
+
+	private final int concurrency;
+
+	private final List<Slot> waiting = new ArrayList<>();
+	private final Map<String, Integer> runningPerService = new HashMap<>();
+	private final Map<String, Double> flowFinish = new HashMap<>();
+
+	private int running = 0;
+	private double virtualTime = 0;
+	private long sequence = 0;
+
+	private final Map<String, Integer> serviceLimits = new ConcurrentHashMap<>();
+	private final Map<String, Integer> advertisedLimits = new ConcurrentHashMap<>();
+	private final Map<String, Double> weights = new ConcurrentHashMap<>();
+
+	private final LongAdder[] dispatches = new LongAdder[PRIORITIES.length];
+	private final LongAdder[] waitNanos = new LongAdder[PRIORITIES.length];
+
+	private Scheduler(final int concurrency) {
+		if (concurrency <= 0) {
+			throw new IllegalArgumentException("Concurrency must be positive: " + concurrency);
+		}
+		this.concurrency = concurrency;
+		for (int i = 0; i < PRIORITIES.length; ++i) {
+			dispatches[i] = new LongAdder();
+			waitNanos[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * @param concurrency transactions running at once, all services together
+	 */
+	public static Scheduler instance(final int concurrency) {
+		return new Scheduler(concurrency);
+	}
+
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	/**
+	 * Caps the concurrent transactions of a service, overriding its advertised {@code Max-Connections}.
+	 */
+	public Scheduler setServiceLimit(final String service, final int limit) {
+		serviceLimits.put(service, limit);
+		redispatch();
+		return this;
+	}
+
+	/**
+	 * @return the concurrent transactions allowed for a service
+	 */
+	public int getServiceLimit(final String service) {
+		final Integer limit = serviceLimits.get(service);
+		if (limit != null) {
+			return limit;
+		}
+		return advertisedLimits.getOrDefault(service, concurrency);
+	}
+
+	/**
+	 * Relative share of a flow, a tenant or a service; 1 by default.
+	 */
+	public Scheduler setWeight(final String flow, final double weight) {
+		if (weight <= 0) {
+			throw new IllegalArgumentException("Weight must be positive: " + weight);
+		}
+		weights.put(flow, weight);
+		return this;
+	}
+
+	public synchronized int getRunning() {
+		return running;
+	}
+
+	public synchronized int getQueued() {
+		return waiting.size();
+	}
+
+	public long getDispatches(final ICAPRequest.Priority priority) {
+		return dispatches[priority.ordinal()].sum();
+	}
+
+	/**
+	 * Total time spent queued by the requests of a class.
+	 */
+	public long getWaitMillis(final ICAPRequest.Priority priority) {
+		return TimeUnit.NANOSECONDS.toMillis(waitNanos[priority.ordinal()].sum());
+	}
+
+	void onOptions(final String service, final ICAPResponse options) {
+		final String maxConnections = options.getHeader("Max-Connections");
+		if (maxConnections != null) {
+			try {
+				final int limit = Integer.parseInt(maxConnections.trim());
+				if (limit > 0) {
+					advertisedLimits.put(service, limit);
+					redispatch();
+				}
+			} catch (NumberFormatException e) { /***/ }
+		}
+	}
+
+	Slot acquire(final ICAPCall call) throws IOException {
+		final ICAPRequest request = call.getRequest();
+		final long start = System.nanoTime();
+
+		final Slot slot;
+		synchronized (this) {
+			slot = enqueue(request);
+			dispatch();
+
+			boolean acquired = false;
+			try {
+				while (!slot.granted) {
+					final int left = call.remaining(0);
+					try {
+						wait(left == 0 ? WAIT_SLICE_MILLIS : Math.min(WAIT_SLICE_MILLIS, left));
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException("Interrupted while waiting for dispatch");
+					}
+				}
+				acquired = true;
+			} finally {
+				if (!acquired) {
+					if (slot.granted) {
+						release(slot);
+					} else {
+						waiting.remove(slot);
+					}
+				}
+			}
+		}
+
+		final int priority = slot.priority.ordinal();
+		dispatches[priority].increment();
+		waitNanos[priority].add(System.nanoTime() - start);
+		return slot;
+	}
+
+	synchronized void release(final Slot slot) {
+		--running;
+		runningPerService.merge(slot.service, -1, Integer::sum);
+		dispatch();
+	}
+
+	private synchronized void redispatch() {
+		dispatch();
+	}
+
+	private Slot enqueue(final ICAPRequest request) {
+		final String flow = request.getTenant() != null ? request.getTenant() : request.getService();
+		final long bytes = length(request.getHttpRequestBody()) + length(request.getHttpResponseBody());
+		final double cost = (1 + bytes / COST_UNIT) / weights.getOrDefault(flow, 1.0);
+
+		final double tag = Math.max(virtualTime, flowFinish.getOrDefault(flow, 0.0)) + cost;
+		flowFinish.put(flow, tag);
+
+		final Slot slot = new Slot(request.getService(), request.getPriority(), tag, sequence++);
+		waiting.add(slot);
+		return slot;
+	}
+
+	private static long length(final byte[] content) {
+		return content != null ? content.length : 0;
+	}
+
+	/*
+	 * Grants free capacity to the best eligible waiting requests.
+	 */
+	private void dispatch() {
+		boolean granted = false;
+		while (running < concurrency) {
+			Slot best = null;
+			for (final Slot candidate : waiting) {
+				if (runningPerService.getOrDefault(candidate.service, 0) >= getServiceLimit(candidate.service)) {
+					continue;
+				}
+				if (best == null || candidate.before(best)) {
+					best = candidate;
+				}
+			}
+			if (best == null) {
+				break;
+			}
+
+			waiting.remove(best);
+			best.granted = true;
+			++running;
+			runningPerService.merge(best.service, 1, Integer::sum);
+			virtualTime = Math.max(virtualTime, best.tag);
+			granted = true;
+		}
+
+		if (flowFinish.size() > MAX_IDLE_FLOWS) {
+			// Flows finishing before the virtual time weigh as much as unknown ones
+			flowFinish.values().removeIf(finish -> finish <= virtualTime);
+		}
+		if (granted) {
+			notifyAll();
+		}
+	}
+
+	static final class Slot {
+		private final String service;
+		private final ICAPRequest.Priority priority;
+		private final double tag;
+		private final long sequence;
+
+		private boolean granted = false;
+
+		Slot(final String service, final ICAPRequest.Priority priority, final double tag, final long sequence) {
+			this.service = service;
+			this.priority = priority;
+			this.tag = tag;
+			this.sequence = sequence;
+		}
+
+		boolean before(final Slot other) {
+			if (priority != other.priority) {
+				return priority.ordinal() < other.priority.ordinal();
+			}
+			if (tag != other.tag) {
+				return tag < other.tag;
+			}
+			return sequence < other.sequence;
+		}
+	}
+
+}
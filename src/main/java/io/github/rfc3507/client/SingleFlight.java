@@ -0,0 +1,181 @@
+package io.github.rfc3507.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces concurrent identical requests: while a request is in flight, requests with the same service,
+ * mode, encapsulated HTTP headers and body (SHA-256) wait for its response instead of opening their own
+ * transaction. Services may judge the same body differently by its URL or content type, hence the headers.
+ * <p>
+ * Followers receive the very same {@link ICAPResponse} instance as the leader, which must therefore be
+ * treated as read-only. When the leader fails, each follower runs its own transaction. Requests without
+ * a body, and requests streaming their body from or to the caller, are never coalesced.
+ */
+public final class SingleFlight {
+
+	private static final long WAIT_SLICE_MILLIS = 50;
+
+	private final Map<Key, CompletableFuture<ICAPResponse>> inFlight = new ConcurrentHashMap<>();
+
+	private final LongAdder leaders = new LongAdder();
+	private final LongAdder followers = new LongAdder();
+
+	private SingleFlight() { /***/ }
+
+	public static SingleFlight instance() {
+		return new SingleFlight();
+	}
+
+	/**
+	 * Transactions actually sent on behalf of coalescable requests.
+	 */
+	public long getLeaders() {
+		return leaders.sum();
+	}
+
+	/**
+	 * Requests answered with the response of another one.
+	 */
+	public long getFollowers() {
+		return followers.sum();
+	}
+
+	public int getInFlight() {
+		return inFlight.size();
+	}
+
+	interface Adaptation {
+		ICAPResponse run() throws IOException;
+	}
+
+	ICAPResponse execute(final ICAPCall call, final Adaptation adaptation) throws IOException {
+		final Key key = key(call);
+		if (key == null) {
+			return adaptation.run();
+		}
+
+		final CompletableFuture<ICAPResponse> own = new CompletableFuture<>();
+		final CompletableFuture<ICAPResponse> leader = inFlight.putIfAbsent(key, own);
+
+		if (leader != null) {
+			final ICAPResponse response = await(call, leader);
+			if (response != null) {
+				followers.increment();
+				return response;
+			}
+			return adaptation.run();
+		}
+
+		leaders.increment();
+		try {
+			final ICAPResponse response = adaptation.run();
+			own.complete(response);
+			return response;
+		} catch (Throwable e) {
+			own.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(key, own);
+		}
+	}
+
+	/**
+	 * @return the leader response, or null when the leader failed
+	 */
+	private static ICAPResponse await(final ICAPCall call, final CompletableFuture<ICAPResponse> leader) throws IOException {
+		while (true) {
+			final int left = call.remaining(0);
+			final long slice = left == 0 ? WAIT_SLICE_MILLIS : Math.min(WAIT_SLICE_MILLIS, left);
+			try {
+				return leader.get(slice, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				// Checks for cancellation and the deadline on the next turn
+			} catch (ExecutionException e) {
+				return null;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for an identical request");
+			}
+		}
+	}
+
+	private static Key key(final ICAPCall call) {
+		final ICAPRequest request = call.getRequest();
+		if (call.getSink() != null
+				|| request.getHttpRequestBodyPublisher() != null
+				|| request.getHttpResponseBodyPublisher() != null
+				|| (isEmpty(request.getHttpRequestBody()) && isEmpty(request.getHttpResponseBody()))) {
+			return null;
+		}
+
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		}
+
+		update(digest, request.getHttpRequestHeader());
+		update(digest, request.getHttpResponseHeader());
+		update(digest, request.getHttpRequestBody());
+		update(digest, request.getHttpResponseBody());
+
+		return new Key(request.getService(), request.getMode(), call.isVerdictOnly(), digest.digest());
+	}
+
+	private static boolean isEmpty(final byte[] section) {
+		return section == null || section.length == 0;
+	}
+
+	private static void update(final MessageDigest digest, final byte[] section) {
+		// Length prefix keeps sections apart
+		final int length = section == null ? -1 : section.length;
+		digest.update(new byte[] { (byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length });
+		if (section != null) {
+			digest.update(section);
+		}
+	}
+
+	private static final class Key {
+		private final String service;
+		private final ICAPRequest.Mode mode;
+		private final boolean verdictOnly;
+		private final byte[] digest;
+		private final int hash;
+
+		Key(final String service, final ICAPRequest.Mode mode, final boolean verdictOnly, final byte[] digest) {
+			this.service = service;
+			this.mode = mode;
+			this.verdictOnly = verdictOnly;
+			this.digest = digest;
+			this.hash = Objects.hash(service, mode, verdictOnly, Arrays.hashCode(digest));
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(final Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			final Key key = (Key) other;
+			return service.equals(key.service) && mode == key.mode && verdictOnly == key.verdictOnly && Arrays.equals(digest, key.digest);
+		}
+	}
+
+}
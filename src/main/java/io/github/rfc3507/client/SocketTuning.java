@@ -0,0 +1,247 @@
+package io.github.rfc3507.client;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Socket options and chunk size of the transactions of a client.
+ * <p>
+ * By default, Nagle's algorithm is disabled, so the small writes ending a message (the last-chunk after a
+ * preview or a body) leave at once instead of waiting for the acknowledgement of the previous segment,
+ * socket buffers keep the sizes the OS gives them, and bodies are sent in 64 KiB chunks.
+ * <p>
+ * In auto mode the round trip time and bandwidth of each endpoint are measured from the transactions
+ * themselves: round trips from the wait for a {@code 100 Continue} or a body-less response, keeping the
+ * minimum of recent samples, bandwidth from the time large bodies take to be written and to be answered,
+ * keeping the maximum.
+ * The send buffer then covers twice the bandwidth-delay product, but not more than the payload; chunks are a
+ * quarter of it, so one is written while the previous ones are in flight. Until the endpoint is measured, and
+ * as long as the OS already gives a connection larger buffers, they are left alone, since setting one disables
+ * the autotuning of the OS. As the bandwidth of a buffer-limited connection is underestimated, buffers grow
+ * over a few large transactions until the link is the limit.
+ */
+public final class SocketTuning {
+
+	private static final int MIN_BUFFER_SIZE = 64 << 10;
+	private static final int MIN_CHUNK_SIZE = 16 << 10;
+	private static final int MAX_CHUNK_SIZE = 256 << 10;
+
+	private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+	private final Map<String, Link> links = new ConcurrentHashMap<>();
+
+	private SocketTuning() { /***/ }
+
+	public static SocketTuning instance() {
+		return new SocketTuning();
+	}
+
+	private volatile boolean tcpNoDelay = true;
+
+	public SocketTuning setTcpNoDelay(final boolean tcpNoDelay) {
+		this.tcpNoDelay = tcpNoDelay;
+		return this;
+	}
+
+	public boolean isTcpNoDelay() {
+		return tcpNoDelay;
+	}
+
+	private volatile int sendBufferSize = 0;
+
+	/**
+	 * SO_SNDBUF, in bytes; zero, the default, keeps the size chosen by the OS. Auto mode overrides it once
+	 * the endpoint is measured.
+	 */
+	public SocketTuning setSendBufferSize(final int sendBufferSize) {
+		this.sendBufferSize = Math.max(0, sendBufferSize);
+		return this;
+	}
+
+	public int getSendBufferSize() {
+		return sendBufferSize;
+	}
+
+	private volatile int receiveBufferSize = 0;
+
+	/**
+	 * SO_RCVBUF, in bytes; zero, the default, keeps the size chosen by the OS, which may grow it on its own.
+	 * Auto mode overrides it once the endpoint is measured.
+	 */
+	public SocketTuning setReceiveBufferSize(final int receiveBufferSize) {
+		this.receiveBufferSize = Math.max(0, receiveBufferSize);
+		return this;
+	}
+
+	public int getReceiveBufferSize() {
+		return receiveBufferSize;
+	}
+
+	private volatile int chunkSize = 65536;
+
+	/**
+	 * Largest chunk the bodies are split into; 64 KiB by default.
+	 */
+	public SocketTuning setChunkSize(final int chunkSize) {
+		this.chunkSize = Math.max(1, chunkSize);
+		return this;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	private volatile boolean auto = false;
+
+	/**
+	 * Derives buffer and chunk sizes from the measured bandwidth-delay product of each endpoint and the
+	 * payload of each transaction.
+	 */
+	public SocketTuning setAuto(final boolean auto) {
+		this.auto = auto;
+		return this;
+	}
+
+	public boolean isAuto() {
+		return auto;
+	}
+
+	private volatile int maxBufferSize = 8 << 20;
+
+	/**
+	 * Largest socket buffer auto mode asks for; 8 MiB by default. The OS may cap it lower.
+	 */
+	public SocketTuning setMaxBufferSize(final int maxBufferSize) {
+		this.maxBufferSize = Math.max(MIN_BUFFER_SIZE, maxBufferSize);
+		return this;
+	}
+
+	/**
+	 * @return the minimum recent round trip time measured to an endpoint, in nanoseconds, or -1
+	 */
+	public long getRoundTripNanos(final String host, final int port) {
+		final Link link = links.get(host + ":" + port);
+		return link != null ? link.roundTrip : -1;
+	}
+
+	/**
+	 * @return the maximum recent bandwidth measured to an endpoint, in bytes per second, or -1
+	 */
+	public long getBandwidth(final String host, final int port) {
+		final Link link = links.get(host + ":" + port);
+		return link != null ? link.bandwidth : -1;
+	}
+
+	/**
+	 * @return the bandwidth-delay product of an endpoint, in bytes, or -1 until both are measured
+	 */
+	public long getBandwidthDelayProduct(final String host, final int port) {
+		final Link link = links.get(host + ":" + port);
+		return link != null ? link.bandwidthDelayProduct() : -1;
+	}
+
+	/**
+	 * Settings of a transaction to an endpoint sending {@code payload} body bytes, {@link Long#MAX_VALUE}
+	 * when unknown.
+	 */
+	Settings settings(final String endpoint, final long payload) {
+		final Link link = auto ? links.get(endpoint) : null;
+		final long product = link != null ? link.bandwidthDelayProduct() : -1;
+		if (product < 0) {
+			return new Settings(tcpNoDelay, sendBufferSize, receiveBufferSize, chunkSize, false);
+		}
+
+		final int buffer = (int) Math.max(MIN_BUFFER_SIZE, Math.min(maxBufferSize, 2 * product));
+		// A buffer larger than the payload would only hold memory in the kernel
+		final int send = (int) Math.min(buffer, Math.max(MIN_BUFFER_SIZE, payload));
+		final int chunk = (int) Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, Math.min(send / 4, payload)));
+		return new Settings(tcpNoDelay, send, buffer, chunk, true);
+	}
+
+	void onRoundTrip(final String endpoint, final long nanos) {
+		if (auto && nanos > 0) {
+			link(endpoint).onRoundTrip(System.nanoTime(), nanos);
+		}
+	}
+
+	/**
+	 * Records the time {@code bytes} took to be written. Samples not much larger than the send buffer,
+	 * written mostly into it rather than over the link, are ignored, as are those with a buffer of unknown size.
+	 * The buffer is the one in effect, whether set or chosen by the OS.
+	 */
+	void onTransfer(final String endpoint, final long bytes, final long nanos, final int sendBuffer) {
+		if (auto && nanos > 0 && sendBuffer > 0 && bytes >= 4L * sendBuffer) {
+			link(endpoint).onBandwidth(System.nanoTime(), bytes * 1_000_000_000L / nanos);
+		}
+	}
+
+	/**
+	 * Records the time from the start of writing {@code bytes} to the response that followed them. Short of a
+	 * round trip, the bytes crossed the link meanwhile, whatever the buffers on the way held, so the sample is
+	 * a lower bound that needs no known buffer size.
+	 */
+	void onDelivery(final String endpoint, final long bytes, final long nanos) {
+		if (!auto || bytes <= 0) {
+			return;
+		}
+		final Link link = link(endpoint);
+		final long transfer = nanos - link.roundTrip;
+		if (link.roundTrip > 0 && transfer > 0) {
+			link.onBandwidth(System.nanoTime(), bytes * 1_000_000_000L / transfer);
+		}
+	}
+
+	private Link link(final String endpoint) {
+		return links.computeIfAbsent(endpoint, key -> new Link());
+	}
+
+	static final class Settings {
+		final boolean tcpNoDelay;
+		final int sendBufferSize;
+		final int receiveBufferSize;
+		final int chunkSize;
+		// Buffer sizes only apply where larger than those the OS chose
+		final boolean growOnly;
+
+		Settings(final boolean tcpNoDelay, final int sendBufferSize, final int receiveBufferSize, final int chunkSize, final boolean growOnly) {
+			this.tcpNoDelay = tcpNoDelay;
+			this.sendBufferSize = sendBufferSize;
+			this.receiveBufferSize = receiveBufferSize;
+			this.chunkSize = chunkSize;
+			this.growOnly = growOnly;
+		}
+	}
+
+	/*
+	 * Windowed minimum round trip and maximum bandwidth: a sample replaces the estimate when it is better,
+	 * or when the estimate is older than the window.
+	 */
+	private static final class Link {
+		volatile long roundTrip = -1;
+		volatile long roundTripAt;
+		volatile long bandwidth = -1;
+		volatile long bandwidthAt;
+
+		synchronized void onRoundTrip(final long now, final long sample) {
+			if (roundTrip < 0 || sample <= roundTrip || now - roundTripAt > WINDOW_NANOS) {
+				roundTrip = sample;
+				roundTripAt = now;
+			}
+		}
+
+		synchronized void onBandwidth(final long now, final long sample) {
+			if (bandwidth < 0 || sample >= bandwidth || now - bandwidthAt > WINDOW_NANOS) {
+				bandwidth = sample;
+				bandwidthAt = now;
+			}
+		}
+
+		long bandwidthDelayProduct() {
+			final long rtt = roundTrip;
+			final long rate = bandwidth;
+			return rtt < 0 || rate < 0 ? -1 : (long) (rate * (rtt / 1e9));
+		}
+	}
+
+}
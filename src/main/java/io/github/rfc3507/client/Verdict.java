@@ -0,0 +1,91 @@
+package io.github.rfc3507.client;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of {@link ICAPClient#verdict(ICAPRequest)}: the ICAP status and the threat headers, without
+ * the adapted message, which is never read.
+ */
+public final class Verdict {
+
+	private static final String[] THREAT_HEADERS = {
+		"X-Infection-Found", "X-Virus-ID", "X-Violations-Found", "X-Blocked-Reason"
+	};
+
+	private final ICAPResponse response;
+	private final Map<String, List<String>> threatHeaders;
+
+	private Verdict(final ICAPResponse response) {
+		this.response = response;
+
+		final Map<String, List<String>> threats = new LinkedHashMap<>();
+		for (final String header : THREAT_HEADERS) {
+			final List<String> values = response.getHeaderValues(header);
+			if (values != null) {
+				threats.put(header, values);
+			}
+		}
+		this.threatHeaders = Collections.unmodifiableMap(threats);
+	}
+
+	static Verdict of(final ICAPResponse response) {
+		return new Verdict(response);
+	}
+
+	public int getStatus() {
+		return response.getStatus();
+	}
+
+	/**
+	 * @return whether the server left the message unmodified (204)
+	 */
+	public boolean isClean() {
+		return response.getStatus() == 204;
+	}
+
+	/**
+	 * @return whether the server reported a threat or violation
+	 */
+	public boolean isThreat() {
+		return !threatHeaders.isEmpty();
+	}
+
+	/**
+	 * @return the {@code Threat} of {@code X-Infection-Found}, else the {@code X-Virus-ID}, else null
+	 */
+	public String getThreat() {
+		final String infection = response.getHeader("X-Infection-Found");
+		if (infection != null) {
+			for (final String field : infection.split(";")) {
+				final String trimmed = field.trim();
+				if (trimmed.regionMatches(true, 0, "Threat=", 0, 7)) {
+					return trimmed.substring(7).trim();
+				}
+			}
+		}
+		return response.getHeader("X-Virus-ID");
+	}
+
+	/**
+	 * Threat related headers present in the response, in a fixed order.
+	 */
+	public Map<String, List<String>> getThreatHeaders() {
+		return threatHeaders;
+	}
+
+	/**
+	 * The ICAP response, its headers only.
+	 */
+	public ICAPResponse getResponse() {
+		return response;
+	}
+
+	@Override
+	public String toString() {
+		return response.getStatus() + (isThreat() ? " threat=" + getThreat() : isClean() ? " clean" : "");
+	}
+
+}
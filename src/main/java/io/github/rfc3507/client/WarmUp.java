@@ -0,0 +1,135 @@
+package io.github.rfc3507.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What {@link ICAPClient#warmUp(WarmUp)} prepares before user requests arrive: name resolution,
+ * persistent connections, the OPTIONS of the declared services and, optionally, synthetic scans
+ * exercising the request encoding and response parsing paths until they are compiled.
+ */
+public final class WarmUp {
+
+	private WarmUp() { /***/ }
+
+	public static WarmUp instance() {
+		return new WarmUp();
+	}
+
+	private int connections = 1;
+
+	/**
+	 * Connections opened ahead and left in the pool, at most the max idle connections of the client.
+	 */
+	public WarmUp setConnections(final int connections) {
+		this.connections = connections;
+		return this;
+	}
+
+	public int getConnections() {
+		return connections;
+	}
+
+	private final List<String> services = new ArrayList<>();
+
+	/**
+	 * Declares a service whose OPTIONS are fetched, so preview sizes and connection limits are known up front.
+	 */
+	public WarmUp addService(final String service) {
+		services.add(service);
+		return this;
+	}
+
+	public List<String> getServices() {
+		return Collections.unmodifiableList(services);
+	}
+
+	private int syntheticScans = 0;
+
+	/**
+	 * RESPMOD requests with a harmless body sent to each declared service. Zero, the default, sends none.
+	 */
+	public WarmUp setSyntheticScans(final int syntheticScans) {
+		this.syntheticScans = syntheticScans;
+		return this;
+	}
+
+	public int getSyntheticScans() {
+		return syntheticScans;
+	}
+
+	private int syntheticSize = 4096;
+
+	public WarmUp setSyntheticSize(final int syntheticSize) {
+		this.syntheticSize = syntheticSize;
+		return this;
+	}
+
+	public int getSyntheticSize() {
+		return syntheticSize;
+	}
+
+	/**
+	 * Outcome of a completed warm-up.
+	 */
+	public static final class Report {
+		private final int addresses;
+		private final int connections;
+		private final Map<String, ICAPResponse> options;
+		private final int syntheticScans;
+		private final long elapsedMillis;
+
+		Report(
+			final int addresses,
+			final int connections,
+			final Map<String, ICAPResponse> options,
+			final int syntheticScans,
+			final long elapsedMillis
+		) {
+			this.addresses = addresses;
+			this.connections = connections;
+			this.options = Collections.unmodifiableMap(new LinkedHashMap<>(options));
+			this.syntheticScans = syntheticScans;
+			this.elapsedMillis = elapsedMillis;
+		}
+
+		/**
+		 * Addresses the ICAP host resolved to.
+		 */
+		public int getAddresses() {
+			return addresses;
+		}
+
+		/**
+		 * Connections opened and pooled.
+		 */
+		public int getConnections() {
+			return connections;
+		}
+
+		/**
+		 * OPTIONS responses, per declared service.
+		 */
+		public Map<String, ICAPResponse> getOptions() {
+			return options;
+		}
+
+		public int getSyntheticScans() {
+			return syntheticScans;
+		}
+
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("addresses=%d connections=%d services=%s syntheticScans=%d elapsed=%dms",
+					addresses, connections, options.keySet(), syntheticScans, elapsedMillis);
+		}
+	}
+
+}
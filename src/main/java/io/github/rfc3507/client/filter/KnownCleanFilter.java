@@ -0,0 +1,410 @@
+package io.github.rfc3507.client.filter;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Set of known-clean SHA-256 digests, looked up without touching the network.
+ * <p>
+ * Two files back it, both memory-mapped read-only: a Bloom filter answering most lookups, negative ones,
+ * from a few cache lines, and a sorted index of the digests confirming a Bloom hit by binary search, so a
+ * false positive never lets an unknown body through. Both are produced by {@link #build(List, Path, Path, double)}
+ * from hash lists with one hexadecimal digest per line, optionally followed by a file name as written by
+ * {@code sha256sum}; blank lines and lines starting with {@code #} are ignored.
+ */
+public final class KnownCleanFilter implements Closeable {
+
+	static final int BLOOM_MAGIC = 0x49434246; // ICBF
+	static final int INDEX_MAGIC = 0x49434858; // ICHX
+	static final int VERSION = 1;
+
+	static final int DIGEST_SIZE = 32;
+
+	private static final int BLOOM_HEADER = 4 + 4 + 8 + 4 + 8;
+	private static final int INDEX_HEADER = 4 + 4 + 8;
+
+	/* Digests per mapped index segment, 1 GiB each */
+	private static final int SEGMENT_ENTRIES = 1 << 25;
+
+	private final FileChannel bloomChannel;
+	private final FileChannel indexChannel;
+
+	private final MappedByteBuffer bloom;
+	private final long bits;
+	private final int hashes;
+
+	private final MappedByteBuffer[] segments;
+	private final long count;
+
+	private final LongAdder lookups = new LongAdder();
+	private final LongAdder bloomHits = new LongAdder();
+	private final LongAdder confirmed = new LongAdder();
+
+	private KnownCleanFilter(final Path bloomFile, final Path indexFile) throws IOException {
+		bloomChannel = FileChannel.open(bloomFile, StandardOpenOption.READ);
+		try {
+			indexChannel = FileChannel.open(indexFile, StandardOpenOption.READ);
+		} catch (IOException e) {
+			bloomChannel.close();
+			throw e;
+		}
+		try {
+			final ByteBuffer header = ByteBuffer.allocate(BLOOM_HEADER);
+			readFully(bloomChannel, header, 0);
+			if (header.getInt(0) != BLOOM_MAGIC) {
+				throw new IOException("Not a known-clean Bloom filter: " + bloomFile);
+			}
+			if (header.getInt(4) != VERSION) {
+				throw new IOException("Unsupported Bloom filter version " + header.getInt(4));
+			}
+			bits = header.getLong(8);
+			hashes = header.getInt(16);
+
+			final long bloomBytes = (bits + 63) / 64 * 8;
+			if (BLOOM_HEADER + bloomBytes > bloomChannel.size() || bloomBytes > Integer.MAX_VALUE) {
+				throw new IOException("Truncated or oversized Bloom filter: " + bloomFile);
+			}
+			bloom = bloomChannel.map(FileChannel.MapMode.READ_ONLY, BLOOM_HEADER, bloomBytes);
+
+			final ByteBuffer indexHeader = ByteBuffer.allocate(INDEX_HEADER);
+			readFully(indexChannel, indexHeader, 0);
+			if (indexHeader.getInt(0) != INDEX_MAGIC) {
+				throw new IOException("Not a known-clean index: " + indexFile);
+			}
+			if (indexHeader.getInt(4) != VERSION) {
+				throw new IOException("Unsupported index version " + indexHeader.getInt(4));
+			}
+			count = indexHeader.getLong(8);
+			if (INDEX_HEADER + count * DIGEST_SIZE > indexChannel.size()) {
+				throw new IOException("Truncated index: " + indexFile);
+			}
+
+			segments = new MappedByteBuffer[(int) ((count + SEGMENT_ENTRIES - 1) / SEGMENT_ENTRIES)];
+			for (int i = 0; i < segments.length; ++i) {
+				final long first = (long) i * SEGMENT_ENTRIES;
+				final long entries = Math.min(SEGMENT_ENTRIES, count - first);
+				segments[i] = indexChannel.map(FileChannel.MapMode.READ_ONLY, INDEX_HEADER + first * DIGEST_SIZE, entries * DIGEST_SIZE);
+			}
+		} catch (IOException | RuntimeException e) {
+			close();
+			throw e;
+		}
+	}
+
+	public static KnownCleanFilter open(final Path bloomFile, final Path indexFile) throws IOException {
+		return new KnownCleanFilter(bloomFile, indexFile);
+	}
+
+	/**
+	 * Digests in the set.
+	 */
+	public long size() {
+		return count;
+	}
+
+	public long getLookups() {
+		return lookups.sum();
+	}
+
+	/**
+	 * Lookups the Bloom filter could not rule out.
+	 */
+	public long getBloomHits() {
+		return bloomHits.sum();
+	}
+
+	/**
+	 * Lookups confirmed by the index, i.e. known-clean bodies.
+	 */
+	public long getConfirmed() {
+		return confirmed.sum();
+	}
+
+	/**
+	 * @param digest SHA-256 of a body
+	 */
+	public boolean contains(final byte[] digest) {
+		if (digest.length != DIGEST_SIZE) {
+			throw new IllegalArgumentException("SHA-256 digest expected, got " + digest.length + " bytes");
+		}
+		lookups.increment();
+
+		final long h1 = ByteBuffer.wrap(digest, 0, 8).getLong();
+		final long h2 = ByteBuffer.wrap(digest, 8, 8).getLong() | 1;
+		for (int i = 0; i < hashes; ++i) {
+			final long bit = Math.floorMod(h1 + i * h2, bits);
+			if ((bloom.getLong((int) (bit >>> 6) * 8) & (1L << (bit & 63))) == 0) {
+				return false;
+			}
+		}
+		bloomHits.increment();
+
+		if (search(digest)) {
+			confirmed.increment();
+			return true;
+		}
+		return false;
+	}
+
+	private boolean search(final byte[] digest) {
+		final ByteBuffer key = ByteBuffer.wrap(digest);
+		long low = 0;
+		long high = count - 1;
+		while (low <= high) {
+			final long middle = (low + high) >>> 1;
+			final int comparison = compare(middle, key);
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private int compare(final long entry, final ByteBuffer key) {
+		final MappedByteBuffer segment = segments[(int) (entry / SEGMENT_ENTRIES)];
+		final int offset = (int) (entry % SEGMENT_ENTRIES) * DIGEST_SIZE;
+		for (int i = 0; i < DIGEST_SIZE; i += 8) {
+			final int comparison = Long.compareUnsigned(segment.getLong(offset + i), key.getLong(i));
+			if (comparison != 0) {
+				return comparison;
+			}
+		}
+		return 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			bloomChannel.close();
+		} finally {
+			indexChannel.close();
+		}
+	}
+
+	/**
+	 * Writes the Bloom filter and the sorted index of the digests listed in {@code hashLists}.
+	 *
+	 * @param falsePositiveRate share of unknown digests the Bloom filter lets through to the index
+	 * @return the distinct digests written
+	 */
+	public static long build(final List<Path> hashLists, final Path bloomFile, final Path indexFile, final double falsePositiveRate) throws IOException {
+		final Digests digests = new Digests();
+		for (final Path list : hashLists) {
+			try (BufferedReader reader = Files.newBufferedReader(list, StandardCharsets.US_ASCII)) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					digests.parse(line);
+				}
+			}
+		}
+		digests.sort();
+
+		final long count = digests.size();
+		final long bits = Math.max(64, (long) Math.ceil(-count * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2))));
+		final int hashes = (int) Math.max(1, Math.round((double) bits / Math.max(1, count) * Math.log(2)));
+		if (bits / 8 > Integer.MAX_VALUE - 8) {
+			throw new IOException("Bloom filter too large: " + bits + " bits");
+		}
+
+		final long[] filter = new long[(int) ((bits + 63) / 64)];
+		for (long i = 0; i < count; ++i) {
+			final long h1 = digests.word(i, 0);
+			final long h2 = digests.word(i, 1) | 1;
+			for (int k = 0; k < hashes; ++k) {
+				final long bit = Math.floorMod(h1 + k * h2, bits);
+				filter[(int) (bit >>> 6)] |= 1L << (bit & 63);
+			}
+		}
+
+		final Path bloomTemporary = temporary(bloomFile);
+		final Path indexTemporary = temporary(indexFile);
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(bloomTemporary), 65536))) {
+				out.writeInt(BLOOM_MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(bits);
+				out.writeInt(hashes);
+				out.writeLong(count);
+				for (final long word : filter) {
+					out.writeLong(word);
+				}
+			}
+
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexTemporary), 65536))) {
+				out.writeInt(INDEX_MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(count);
+				for (long i = 0; i < count; ++i) {
+					for (int w = 0; w < 4; ++w) {
+						out.writeLong(digests.word(i, w));
+					}
+				}
+			}
+
+			// Replaced rather than rewritten, as running filters may have the old files mapped.
+			Files.move(indexTemporary, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			Files.move(bloomTemporary, bloomFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(bloomTemporary);
+			Files.deleteIfExists(indexTemporary);
+		}
+
+		return count;
+	}
+
+	private static Path temporary(final Path file) throws IOException {
+		return Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+	}
+
+	private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of file");
+			}
+		}
+	}
+
+	/*
+	 * Digests packed as four big-endian words each, sorted as unsigned byte strings.
+	 */
+	private static final class Digests {
+		private final List<long[]> blocks = new ArrayList<>();
+		private long[] words = new long[4 * 1024];
+		private int used = 0;
+		private long[] all;
+		private long size = 0;
+
+		void parse(final String line) {
+			final String text = line.trim();
+			if (text.isEmpty() || text.charAt(0) == '#' || text.length() < 64) {
+				return;
+			}
+			final long[] digest = new long[4];
+			for (int w = 0; w < 4; ++w) {
+				long word = 0;
+				for (int c = 0; c < 16; ++c) {
+					final int nibble = Character.digit(text.charAt(w * 16 + c), 16);
+					if (nibble < 0) {
+						return;
+					}
+					word = word << 4 | nibble;
+				}
+				digest[w] = word;
+			}
+			if (text.length() > 64 && !Character.isWhitespace(text.charAt(64))) {
+				return;
+			}
+
+			if (used == words.length) {
+				blocks.add(words);
+				words = new long[Math.min(words.length * 2, 4 << 20)];
+				used = 0;
+			}
+			System.arraycopy(digest, 0, words, used, 4);
+			used += 4;
+		}
+
+		void sort() {
+			long total = used;
+			for (final long[] block : blocks) {
+				total += block.length;
+			}
+			if (total > Integer.MAX_VALUE - 8) {
+				throw new IllegalStateException("Too many digests for one build: " + total / 4);
+			}
+
+			all = new long[(int) total];
+			int offset = 0;
+			for (final long[] block : blocks) {
+				System.arraycopy(block, 0, all, offset, block.length);
+				offset += block.length;
+			}
+			System.arraycopy(words, 0, all, offset, used);
+			blocks.clear();
+			words = null;
+
+			final int records = all.length / 4;
+			sort(0, records - 1);
+
+			// Drops duplicates
+			int distinct = 0;
+			for (int i = 0; i < records; ++i) {
+				if (distinct == 0 || compare(distinct - 1, i) != 0) {
+					if (distinct != i) {
+						System.arraycopy(all, i * 4, all, distinct * 4, 4);
+					}
+					++distinct;
+				}
+			}
+			size = distinct;
+		}
+
+		long size() {
+			return size;
+		}
+
+		long word(final long record, final int w) {
+			return all[(int) record * 4 + w];
+		}
+
+		private int compare(final int a, final int b) {
+			for (int w = 0; w < 4; ++w) {
+				final int comparison = Long.compareUnsigned(all[a * 4 + w], all[b * 4 + w]);
+				if (comparison != 0) {
+					return comparison;
+				}
+			}
+			return 0;
+		}
+
+		private void swap(final int a, final int b) {
+			for (int w = 0; w < 4; ++w) {
+				final long word = all[a * 4 + w];
+				all[a * 4 + w] = all[b * 4 + w];
+				all[b * 4 + w] = word;
+			}
+		}
+
+		private void sort(int low, int high) {
+			// Digests are uniformly distributed: a middle pivot keeps the recursion shallow
+			while (low < high) {
+				final int pivot = (low + high) >>> 1;
+				swap(pivot, high);
+				int store = low;
+				for (int i = low; i < high; ++i) {
+					if (compare(i, high) < 0) {
+						swap(i, store++);
+					}
+				}
+				swap(store, high);
+
+				if (store - low < high - store) {
+					sort(low, store - 1);
+					low = store + 1;
+				} else {
+					sort(store + 1, high);
+					high = store - 1;
+				}
+			}
+		}
+	}
+
+}
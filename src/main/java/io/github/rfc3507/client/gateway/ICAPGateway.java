@@ -0,0 +1,842 @@
+package io.github.rfc3507.client.gateway;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.github.rfc3507.client.ICAPClient;
+import io.github.rfc3507.client.ICAPException;
+import io.github.rfc3507.client.ICAPRequest;
+import io.github.rfc3507.client.ICAPResponse;
+import io.github.rfc3507.client.MemoryBudget;
+import io.github.rfc3507.client.Scheduler;
+import io.github.rfc3507.client.transport.TlsTransport;
+import io.github.rfc3507.utilities.LogService;
+
+/**
+ * Local ICAP daemon in front of an {@link ICAPClient}: processes on the host send their ICAP requests to it,
+ * over TCP on the loopback interface or over a Unix domain socket, and the gateway forwards them on the
+ * client's few persistent upstream connections. The ICAP servers thus see one pool per host instead of one
+ * per process, and identical requests of different processes share the client's coalescing, known-clean
+ * filter and the gateway's {@link VerdictCache}.
+ * <p>
+ * Each request is read whole, up to the maximum body size, previews being answered with {@code 100 Continue}
+ * by the gateway itself, then executed with the client's own preview, timeouts, retries and limits. Failures of the upstream
+ * transaction are answered with {@code 502 Bad Gateway}. A {@code 204} is turned back into a {@code 200}
+ * carrying the unmodified message when the local client did not allow it.
+ * <p>
+ * Unix domain sockets require Java 16 or later, through the multi-release jar, and have no idle timeout.
+ */
+public final class ICAPGateway implements Closeable {
+
+	private static final LogService logger = LogService.getInstance("ICAP Gateway");
+
+	private static final int MAX_HEADER_SIZE = 65536;
+	private static final int BUFFER_SIZE = 8192;
+
+	private static final byte[] CRLF = { '\r', '\n' };
+	private static final byte[] LAST_CHUNK = { '0', '\r', '\n', '\r', '\n' };
+	private static final byte[] CONTINUE = "ICAP/1.0 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+	private final ICAPClient client;
+
+	private final Set<Closeable> active = ConcurrentHashMap.newKeySet();
+	private final AtomicInteger threads = new AtomicInteger();
+	private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+		final Thread thread = new Thread(runnable, "icap-gateway-" + threads.getAndIncrement());
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final LongAdder connections = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+
+	private ServerSocket serverSocket;
+	private ServerSocketChannel unixChannel;
+	private volatile boolean running = false;
+
+	private ICAPGateway(final ICAPClient client) {
+		this.client = client;
+	}
+
+	public static ICAPGateway instance(final ICAPClient client) {
+		return new ICAPGateway(client);
+	}
+
+	public ICAPClient getClient() {
+		return client;
+	}
+
+	private InetAddress bindAddress = InetAddress.getLoopbackAddress();
+
+	/**
+	 * Address of the TCP listener; the loopback address by default.
+	 */
+	public ICAPGateway setBindAddress(final InetAddress bindAddress) {
+		this.bindAddress = bindAddress;
+		return this;
+	}
+
+	private int port = 1344;
+
+	/**
+	 * Port of the TCP listener; 1344 by default, zero for any free port, -1 for none.
+	 */
+	public ICAPGateway setPort(final int port) {
+		this.port = port;
+		return this;
+	}
+
+	/**
+	 * @return the port the TCP listener is bound to, or -1
+	 */
+	public int getPort() {
+		return serverSocket != null ? serverSocket.getLocalPort() : -1;
+	}
+
+	private Path socketPath;
+
+	/**
+	 * Path of the Unix domain socket listener; none by default.
+	 */
+	public ICAPGateway setSocketPath(final Path socketPath) {
+		this.socketPath = socketPath;
+		return this;
+	}
+
+	public Path getSocketPath() {
+		return socketPath;
+	}
+
+	private volatile int maxConnections = 1024;
+
+	/**
+	 * Local connections served at once; further ones are answered {@code 503} and closed. 1024 by default.
+	 */
+	public ICAPGateway setMaxConnections(final int maxConnections) {
+		this.maxConnections = maxConnections;
+		return this;
+	}
+
+	private volatile int idleTimeout = 60000;
+
+	/**
+	 * How long, in milliseconds, a local TCP connection may wait for its next request; one minute by default.
+	 */
+	public ICAPGateway setIdleTimeout(final int idleTimeout) {
+		this.idleTimeout = idleTimeout;
+		return this;
+	}
+
+	private volatile long maxBodySize = 64L << 20;
+
+	/**
+	 * Largest body buffered for a local request; larger ones are answered {@code 413} and their connection
+	 * closed. 64 MiB by default.
+	 */
+	public ICAPGateway setMaxBodySize(final long maxBodySize) {
+		this.maxBodySize = maxBodySize;
+		return this;
+	}
+
+	private volatile VerdictCache verdictCache = VerdictCache.instance();
+
+	public VerdictCache getVerdictCache() {
+		return verdictCache;
+	}
+
+	/**
+	 * Clean verdicts shared by the local clients; null disables it.
+	 */
+	public ICAPGateway setVerdictCache(final VerdictCache verdictCache) {
+		this.verdictCache = verdictCache;
+		return this;
+	}
+
+	/**
+	 * Local connections accepted so far.
+	 */
+	public long getConnections() {
+		return connections.sum();
+	}
+
+	public int getActiveConnections() {
+		return active.size();
+	}
+
+	/**
+	 * Local connections refused over the connection limit.
+	 */
+	public long getRejected() {
+		return rejected.sum();
+	}
+
+	public long getRequests() {
+		return requests.sum();
+	}
+
+	/**
+	 * Requests answered {@code 502}, their upstream transaction having failed.
+	 */
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	public synchronized ICAPGateway start() throws IOException {
+		if (running) {
+			return this;
+		}
+		if (port < 0 && socketPath == null) {
+			throw new IllegalStateException("No listener configured");
+		}
+
+		try {
+			if (port >= 0) {
+				serverSocket = new ServerSocket();
+				serverSocket.setReuseAddress(true);
+				serverSocket.bind(new InetSocketAddress(bindAddress, port), 128);
+			}
+			if (socketPath != null) {
+				unixChannel = UnixDomainListener.open(socketPath, 128);
+			}
+		} catch (IOException e) {
+			closeListeners();
+			throw e;
+		}
+
+		running = true;
+
+		if (serverSocket != null) {
+			listen("tcp", this::acceptTcp);
+			logger.info("Listening on {}:{}", bindAddress.getHostAddress(), getPort());
+		}
+		if (unixChannel != null) {
+			listen("unix", this::acceptUnix);
+			logger.info("Listening on {}", socketPath);
+		}
+		return this;
+	}
+
+	private void listen(final String name, final Runnable acceptor) {
+		final Thread thread = new Thread(acceptor, "icap-gateway-acceptor-" + name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void acceptTcp() {
+		while (running) {
+			final Socket socket;
+			try {
+				socket = serverSocket.accept();
+			} catch (IOException e) {
+				if (running) {
+					logger.error("Accept failed: {}", e.getMessage());
+				}
+				continue;
+			}
+			dispatch(socket, () -> {
+				socket.setTcpNoDelay(true);
+				socket.setSoTimeout(idleTimeout);
+				serve(socket.getInputStream(), socket.getOutputStream());
+			});
+		}
+	}
+
+	private void acceptUnix() {
+		while (running) {
+			final SocketChannel channel;
+			try {
+				channel = unixChannel.accept();
+			} catch (IOException e) {
+				if (running) {
+					logger.error("Accept failed: {}", e.getMessage());
+				}
+				continue;
+			}
+			dispatch(channel, () -> serve(Channels.newInputStream(channel), Channels.newOutputStream(channel)));
+		}
+	}
+
+	private interface Session {
+		void run() throws IOException;
+	}
+
+	private void dispatch(final Closeable connection, final Session session) {
+		connections.increment();
+		if (active.size() >= maxConnections) {
+			rejected.increment();
+			executor.execute(() -> {
+				try {
+					final OutputStream out = connection instanceof Socket
+							? ((Socket) connection).getOutputStream()
+							: Channels.newOutputStream((SocketChannel) connection);
+					writeStatus(out, 503, "Service Overloaded");
+					out.flush();
+				} catch (IOException e) {
+					/* gone */
+				} finally {
+					try {
+						connection.close();
+					} catch (IOException e) { /***/ }
+				}
+			});
+			return;
+		}
+
+		active.add(connection);
+		executor.execute(() -> {
+			try {
+				session.run();
+			} catch (SocketTimeoutException | EOFException e) {
+				/* idle or gone */
+			} catch (IOException e) {
+				if (running) {
+					logger.info("Local connection failed: {}", e.getMessage());
+				}
+			} finally {
+				active.remove(connection);
+				try {
+					connection.close();
+				} catch (IOException e) { /***/ }
+			}
+		});
+	}
+
+	/*
+	 * Serves the requests of a persistent local connection, one at a time.
+	 */
+	private void serve(final InputStream input, final OutputStream output) throws IOException {
+		final InputStream in = new BufferedInputStream(input, BUFFER_SIZE);
+		final OutputStream out = new BufferedOutputStream(output, BUFFER_SIZE);
+
+		String head;
+		while (running && (head = readHead(in)) != null) {
+			requests.increment();
+
+			final String[] lines = head.split("\r\n");
+			final String[] requestLine = lines[0].split(" ");
+			if (requestLine.length != 3 || !requestLine[2].startsWith("ICAP/")) {
+				writeStatus(out, 400, "Bad Request");
+				out.flush();
+				return;
+			}
+
+			final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+			for (int i = 1; i < lines.length; ++i) {
+				final int colon = lines[i].indexOf(':');
+				if (colon > 0) {
+					headers.merge(lines[i].substring(0, colon).trim(), lines[i].substring(colon + 1).trim(), (a, b) -> a + ", " + b);
+				}
+			}
+
+			final String method = requestLine[0];
+			final String service = service(requestLine[1]);
+			if ("OPTIONS".equals(method)) {
+				options(out, service);
+			} else if ("REQMOD".equals(method) || "RESPMOD".equals(method)) {
+				if (!adapt(in, out, service, "REQMOD".equals(method) ? ICAPRequest.Mode.REQMOD : ICAPRequest.Mode.RESPMOD, headers)) {
+					out.flush();
+					return;
+				}
+			} else {
+				writeStatus(out, 501, "Method Not Implemented");
+			}
+			out.flush();
+
+			if ("close".equalsIgnoreCase(headers.get("Connection"))) {
+				return;
+			}
+		}
+	}
+
+	private void options(final OutputStream out, final String service) throws IOException {
+		final ICAPResponse response;
+		try {
+			response = client.options(service);
+		} catch (ICAPException e) {
+			failures.increment();
+			writeStatus(out, 502, "Bad Gateway");
+			return;
+		}
+		writeResponse(out, response);
+	}
+
+	/**
+	 * @return false when the request is malformed or too large, so the connection must be closed
+	 */
+	private boolean adapt(
+		final InputStream in,
+		final OutputStream out,
+		final String service,
+		final ICAPRequest.Mode mode,
+		final Map<String, String> headers
+	) throws IOException {
+		final String encapsulated = headers.get("Encapsulated");
+		if (encapsulated == null) {
+			writeStatus(out, 400, "Bad Request");
+			return false;
+		}
+
+		byte[] requestHeader = null;
+		byte[] responseHeader = null;
+		String bodyLabel = null;
+
+		final String[] entries = encapsulated.split(",");
+		try {
+			for (int i = 0; i < entries.length; ++i) {
+				final String[] entry = entries[i].trim().split("=");
+				final String label = entry[0];
+				if (label.endsWith("-hdr")) {
+					final int length = i + 1 < entries.length
+							? Integer.parseInt(entries[i + 1].trim().split("=")[1]) - Integer.parseInt(entry[1])
+							: -1;
+					if (length < 0) {
+						writeStatus(out, 400, "Bad Request");
+						return false;
+					}
+					final byte[] section = readFully(in, length);
+					if ("req-hdr".equals(label)) {
+						requestHeader = section;
+					} else {
+						responseHeader = section;
+					}
+				} else if ("req-body".equals(label) || "res-body".equals(label)) {
+					bodyLabel = label;
+				}
+			}
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			writeStatus(out, 400, "Bad Request");
+			return false;
+		}
+
+		final String preview = headers.get("Preview");
+		byte[] body = null;
+		boolean previewComplete = false;
+		if (bodyLabel != null) {
+			final long limit = maxBodySize;
+			final ByteArrayOutputStream content = new ByteArrayOutputStream();
+			try {
+				previewComplete = readChunks(in, content, limit);
+				if (preview != null && !previewComplete) {
+					out.write(CONTINUE);
+					out.flush();
+					readChunks(in, content, limit);
+				}
+			} catch (BodyTooLargeException e) {
+				writeStatus(out, 413, "Request Entity Too Large");
+				return false;
+			}
+			body = content.toByteArray();
+		}
+
+		final ICAPRequest request = ICAPRequest.instance(service, mode)
+				.setHttpRequestHeader(requestHeader)
+				.setHttpResponseHeader(responseHeader);
+		if ("req-body".equals(bodyLabel)) {
+			request.setHttpRequestBody(body);
+		} else if (body != null) {
+			request.setHttpResponseBody(body);
+		}
+		if (preview != null) {
+			try {
+				request.setPreview(Integer.parseInt(preview));
+			} catch (NumberFormatException e) { /* client default */ }
+		}
+
+		final VerdictCache cache = this.verdictCache;
+		final VerdictCache.Key key = cache != null ? VerdictCache.key(request) : null;
+
+		ICAPResponse response = cache != null ? cache.get(key) : null;
+		if (response == null) {
+			try {
+				response = client.execute(request);
+			} catch (ICAPException e) {
+				failures.increment();
+				logger.info("Upstream transaction failed: {}", e.getMessage());
+				writeStatus(out, 502, "Bad Gateway");
+				return true;
+			}
+			if (cache != null && response.getStatus() == 204) {
+				cache.put(key, response);
+			}
+		}
+
+		final String allow = headers.get("Allow");
+		final boolean noContent = (allow != null && allow.contains("204")) || (preview != null && previewComplete);
+		if (response.getStatus() == 204 && !noContent) {
+			writeUnmodified(out, response, requestHeader, responseHeader, "req-body".equals(bodyLabel), body);
+		} else {
+			writeResponse(out, response);
+		}
+		return true;
+	}
+
+	/*
+	 * Service part of an ICAP URI, query included.
+	 */
+	private static String service(final String uri) {
+		final int scheme = uri.indexOf("://");
+		final int path = uri.indexOf('/', scheme >= 0 ? scheme + 3 : 0);
+		return path >= 0 ? uri.substring(path + 1) : "";
+	}
+
+	/**
+	 * @return the ICAP header of the next request, or null when the connection was closed between requests
+	 */
+	private static String readHead(final InputStream in) throws IOException {
+		final ByteArrayOutputStream head = new ByteArrayOutputStream(512);
+		int last = 0;
+		int octet;
+		while ((octet = in.read()) != -1) {
+			head.write(octet);
+			last = last << 8 | octet;
+			if (last == 0x0d0a0d0a) {
+				return head.toString(StandardCharsets.ISO_8859_1.name());
+			}
+			if (head.size() > MAX_HEADER_SIZE) {
+				throw new IOException("ICAP header too large");
+			}
+		}
+		if (head.size() == 0) {
+			return null;
+		}
+		throw new EOFException("Connection closed by local client");
+	}
+
+	private static byte[] readFully(final InputStream in, final int length) throws IOException {
+		final byte[] content = new byte[length];
+		int offset = 0;
+		while (offset < length) {
+			final int read = in.read(content, offset, length - offset);
+			if (read == -1) {
+				throw new EOFException("Connection closed by local client");
+			}
+			offset += read;
+		}
+		return content;
+	}
+
+	/*
+	 * Copies the data of a chunked body up to its last-chunk and trailer, failing once out would exceed limit.
+	 * @return whether the last-chunk carried the ieof extension
+	 */
+	private static boolean readChunks(final InputStream in, final ByteArrayOutputStream out, final long limit) throws IOException {
+		final byte[] buffer = new byte[BUFFER_SIZE];
+		while (true) {
+			final String line = readLine(in);
+			final int semicolon = line.indexOf(';');
+			final int size;
+			try {
+				size = Integer.parseInt((semicolon >= 0 ? line.substring(0, semicolon) : line).trim(), 16);
+			} catch (NumberFormatException e) {
+				throw new IOException("Invalid chunk size: " + line);
+			}
+
+			if (size == 0) {
+				while (!readLine(in).isEmpty()) { /* trailer */ }
+				return semicolon >= 0 && line.substring(semicolon + 1).trim().equals("ieof");
+			}
+			if (size < 0) {
+				throw new IOException("Invalid chunk size: " + line);
+			}
+			if (out.size() + (long) size > limit) {
+				throw new BodyTooLargeException();
+			}
+
+			int remaining = size;
+			while (remaining > 0) {
+				final int read = in.read(buffer, 0, Math.min(buffer.length, remaining));
+				if (read == -1) {
+					throw new EOFException("Connection closed by local client");
+				}
+				out.write(buffer, 0, read);
+				remaining -= read;
+			}
+			readLine(in);
+		}
+	}
+
+	private static final class BodyTooLargeException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		BodyTooLargeException() {
+			super("Body too large");
+		}
+	}
+
+	private static String readLine(final InputStream in) throws IOException {
+		final StringBuilder line = new StringBuilder();
+		int octet;
+		while ((octet = in.read()) != '\n') {
+			if (octet == -1) {
+				throw new EOFException("Connection closed by local client");
+			}
+			if (octet != '\r') {
+				line.append((char) octet);
+			}
+		}
+		return line.toString();
+	}
+
+	/*
+	 * The client's response, with encapsulated sections as read: bodies keep their chunk framing.
+	 * Sections of error responses are never read, hence never relayed.
+	 */
+	private static void writeResponse(final OutputStream out, final ICAPResponse response) throws IOException {
+		final boolean error = response.getStatus() >= 400;
+		final byte[] requestHeader = error ? null : response.getHttpRequestHeader();
+		final byte[] requestBody = error ? null : response.getHttpRawRequestBody();
+		final byte[] responseHeader = error ? null : response.getHttpResponseHeader();
+		final byte[] responseBody = error ? null : response.getHttpRawResponseBody();
+
+		final StringBuilder head = new StringBuilder(256);
+		head.append(response.getStatusLine()).append("\r\n");
+		for (final Map.Entry<String, List<String>> header : response.getHeaderEntries().entrySet()) {
+			final String name = header.getKey();
+			if (name.equalsIgnoreCase("Encapsulated") || name.equalsIgnoreCase("Connection")) {
+				continue;
+			}
+			for (final String value : header.getValue()) {
+				head.append(name).append(": ").append(value).append("\r\n");
+			}
+		}
+		head.append("Encapsulated: ").append(encapsulated(requestHeader, responseHeader, requestBody != null, responseBody != null)).append("\r\n\r\n");
+
+		out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+		write(out, requestHeader);
+		write(out, requestBody);
+		write(out, responseHeader);
+		write(out, responseBody);
+	}
+
+	/*
+	 * A 200 carrying the message as received, for clients which did not allow 204.
+	 */
+	private static void writeUnmodified(
+		final OutputStream out,
+		final ICAPResponse response,
+		final byte[] requestHeader,
+		final byte[] responseHeader,
+		final boolean requestBody,
+		final byte[] body
+	) throws IOException {
+		final StringBuilder head = new StringBuilder(128);
+		head.append("ICAP/1.0 200 OK\r\n");
+		final String istag = response.getHeader("ISTag");
+		if (istag != null) {
+			head.append("ISTag: ").append(istag).append("\r\n");
+		}
+		head.append("Encapsulated: ").append(encapsulated(requestHeader, responseHeader, body != null && requestBody, body != null && !requestBody)).append("\r\n\r\n");
+
+		out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+		write(out, requestHeader);
+		write(out, responseHeader);
+		if (body != null) {
+			if (body.length > 0) {
+				out.write(Integer.toHexString(body.length).getBytes(StandardCharsets.US_ASCII));
+				out.write(CRLF);
+				out.write(body);
+				out.write(CRLF);
+			}
+			out.write(LAST_CHUNK);
+		}
+	}
+
+	private static String encapsulated(final byte[] requestHeader, final byte[] responseHeader, final boolean requestBody, final boolean responseBody) {
+		final StringBuilder encapsulated = new StringBuilder();
+		int offset = 0;
+		if (requestHeader != null) {
+			encapsulated.append("req-hdr=0, ");
+			offset += requestHeader.length;
+		}
+		if (responseHeader != null) {
+			encapsulated.append("res-hdr=").append(offset).append(", ");
+			offset += responseHeader.length;
+		}
+		encapsulated.append(requestBody ? "req-body=" : responseBody ? "res-body=" : "null-body=").append(offset);
+		return encapsulated.toString();
+	}
+
+	private static void write(final OutputStream out, final byte[] section) throws IOException {
+		if (section != null) {
+			out.write(section);
+		}
+	}
+
+	private static void writeStatus(final OutputStream out, final int status, final String message) throws IOException {
+		out.write(("ICAP/1.0 " + status + " " + message + "\r\nEncapsulated: null-body=0\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+	}
+
+	private void closeListeners() {
+		try {
+			if (serverSocket != null) {
+				serverSocket.close();
+			}
+		} catch (IOException e) { /***/ }
+		try {
+			if (unixChannel != null) {
+				unixChannel.close();
+				Files.deleteIfExists(socketPath);
+			}
+		} catch (IOException e) { /***/ }
+	}
+
+	/**
+	 * Stops listening and closes the local connections. The client is left open.
+	 */
+	@Override
+	public synchronized void close() {
+		running = false;
+		closeListeners();
+		for (final Closeable connection : active) {
+			try {
+				connection.close();
+			} catch (IOException e) { /***/ }
+		}
+		executor.shutdownNow();
+	}
+
+	private static void usage() {
+		System.err.println(""
+				+ "Usage: ICAPGateway [options]\n"
+				+ "  --upstream-host <host>        ICAP server host (default 127.0.0.1)\n"
+				+ "  --upstream-port <port>        ICAP server port (default 1344)\n"
+				+ "  --upstream-tls                connect to the ICAP server over TLS\n"
+				+ "  --upstream-connections <n>    idle upstream connections kept (default 8)\n"
+				+ "  --upstream-concurrency <n>    upstream transactions at once (default --upstream-connections)\n"
+				+ "  --memory-budget <bytes>       bodies held by upstream transactions, 0 for no bound (default 268435456)\n"
+				+ "  --port <port>                 local TCP port, -1 for none (default 1344)\n"
+				+ "  --bind <address>              local TCP address (default loopback)\n"
+				+ "  --socket <path>               local Unix domain socket (Java 16+)\n"
+				+ "  --max-connections <n>         local connections served at once (default 1024)\n"
+				+ "  --cache-entries <n>           clean verdicts kept, 0 for none (default 100000)\n"
+				+ "  --cache-ttl <ms>              clean verdict lifetime (default 300000)\n"
+				+ "  --max-body-size <bytes>       largest body accepted (default 67108864)\n"
+				+ "  --read-timeout <ms>           upstream read timeout (default 15000)");
+		System.exit(2);
+	}
+
+	public static void main(final String[] args) throws Exception {
+		String host = "127.0.0.1";
+		int upstreamPort = 1344;
+		boolean tls = false;
+		int upstreamConnections = 8;
+		int upstreamConcurrency = 0;
+		long memoryBudget = 256L << 20;
+		int readTimeout = 15000;
+		int localPort = 1344;
+		InetAddress bind = InetAddress.getLoopbackAddress();
+		Path socket = null;
+		int maxConnections = 1024;
+		int cacheEntries = 100_000;
+		long cacheTtl = 300_000;
+		long maxBodySize = 64L << 20;
+
+		for (int i = 0; i < args.length; ++i) {
+			switch (args[i]) {
+				case "--upstream-host":
+					host = args[++i];
+					break;
+				case "--upstream-port":
+					upstreamPort = Integer.parseInt(args[++i]);
+					break;
+				case "--upstream-tls":
+					tls = true;
+					break;
+				case "--upstream-connections":
+					upstreamConnections = Integer.parseInt(args[++i]);
+					break;
+				case "--upstream-concurrency":
+					upstreamConcurrency = Integer.parseInt(args[++i]);
+					break;
+				case "--memory-budget":
+					memoryBudget = Long.parseLong(args[++i]);
+					break;
+				case "--port":
+					localPort = Integer.parseInt(args[++i]);
+					break;
+				case "--bind":
+					bind = InetAddress.getByName(args[++i]);
+					break;
+				case "--socket":
+					socket = Paths.get(args[++i]);
+					break;
+				case "--max-connections":
+					maxConnections = Integer.parseInt(args[++i]);
+					break;
+				case "--cache-entries":
+					cacheEntries = Integer.parseInt(args[++i]);
+					break;
+				case "--cache-ttl":
+					cacheTtl = Long.parseLong(args[++i]);
+					break;
+				case "--max-body-size":
+					maxBodySize = Long.parseLong(args[++i]);
+					break;
+				case "--read-timeout":
+					readTimeout = Integer.parseInt(args[++i]);
+					break;
+				default:
+					usage();
+			}
+		}
+
+		final ICAPClient client = ICAPClient.instance(host, upstreamPort)
+				.setReadTimeout(readTimeout)
+				.setMaxIdleConnections(upstreamConnections)
+				.setScheduler(Scheduler.instance(upstreamConcurrency > 0 ? upstreamConcurrency : upstreamConnections))
+				.setMemoryBudget(memoryBudget > 0 ? MemoryBudget.instance(memoryBudget) : null);
+		if (tls) {
+			client.setTransport(TlsTransport.instance());
+		}
+
+		final ICAPGateway gateway = ICAPGateway.instance(client)
+				.setPort(localPort)
+				.setBindAddress(bind)
+				.setSocketPath(socket)
+				.setMaxConnections(maxConnections)
+				.setMaxBodySize(maxBodySize)
+				.setVerdictCache(cacheEntries > 0 ? VerdictCache.instance().setMaxEntries(cacheEntries).setTtl(cacheTtl) : null)
+				.start();
+
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			gateway.close();
+			client.close();
+			final VerdictCache cache = gateway.getVerdictCache();
+			System.err.println(String.format(Locale.ROOT, "%d connections, %d requests, %d failures, %d cache hits",
+					gateway.getConnections(), gateway.getRequests(), gateway.getFailures(), cache != null ? cache.getHits() : 0));
+		}));
+
+		Thread.currentThread().join();
+	}
+
+}
@@ -0,0 +1,25 @@
+package io.github.rfc3507.client.gateway;
+
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Path;
+
+/**
+ * Opens server channels on Unix domain sockets.
+ * <p>
+ * Unix domain socket channels only exist since Java 16: this is the fallback of the multi-release jar,
+ * the working implementation lives under {@code META-INF/versions/16}.
+ */
+final class UnixDomainListener {
+
+	private UnixDomainListener() { /***/ }
+
+	static boolean isSupported() {
+		return false;
+	}
+
+	static ServerSocketChannel open(final Path path, final int backlog) throws IOException {
+		throw new IOException("Unix domain sockets require Java 16 or later and the multi-release jar");
+	}
+
+}
@@ -0,0 +1,171 @@
+package io.github.rfc3507.client.gateway;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.github.rfc3507.client.ICAPRequest;
+import io.github.rfc3507.client.ICAPResponse;
+
+/**
+ * Least recently used cache of {@code 204 No Content} verdicts, per service, mode, encapsulated HTTP headers
+ * and body (SHA-256). Services may judge the same body differently by its URL or content type, so a verdict
+ * is only reused for a message sent with the same headers. Entries expire after a time to live, so signature
+ * updates are picked up.
+ */
+public final class VerdictCache {
+
+	private final Map<Key, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	private VerdictCache() { /***/ }
+
+	public static VerdictCache instance() {
+		return new VerdictCache();
+	}
+
+	private volatile int maxEntries = 100_000;
+
+	/**
+	 * Verdicts kept; 100000 by default.
+	 */
+	public VerdictCache setMaxEntries(final int maxEntries) {
+		this.maxEntries = maxEntries;
+		return this;
+	}
+
+	private volatile long ttl = 300_000;
+
+	/**
+	 * How long, in milliseconds, a verdict is reused; 5 minutes by default.
+	 */
+	public VerdictCache setTtl(final long ttl) {
+		this.ttl = ttl;
+		return this;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the cached verdict of a request, or null
+	 */
+	ICAPResponse get(final Key key) {
+		if (key == null) {
+			return null;
+		}
+		final long now = System.nanoTime();
+		synchronized (this) {
+			final Entry entry = entries.get(key);
+			if (entry != null && now - entry.expiry < 0) {
+				hits.increment();
+				return entry.response;
+			}
+			if (entry != null) {
+				entries.remove(key);
+			}
+		}
+		misses.increment();
+		return null;
+	}
+
+	void put(final Key key, final ICAPResponse response) {
+		if (key == null || maxEntries <= 0) {
+			return;
+		}
+		final Entry entry = new Entry(response, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttl));
+		synchronized (this) {
+			entries.put(key, entry);
+			while (entries.size() > maxEntries) {
+				entries.remove(entries.keySet().iterator().next());
+			}
+		}
+	}
+
+	/**
+	 * @return the key of a request, or null when it has no body
+	 */
+	static Key key(final ICAPRequest request) {
+		final byte[] requestBody = request.getHttpRequestBody();
+		final byte[] content = requestBody != null && requestBody.length > 0 ? requestBody : request.getHttpResponseBody();
+		if (content == null || content.length == 0) {
+			return null;
+		}
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		}
+		update(digest, request.getHttpRequestHeader());
+		update(digest, request.getHttpResponseHeader());
+		digest.update(content);
+		return new Key(request.getService(), request.getMode(), digest.digest());
+	}
+
+	/*
+	 * Length prefixed, so no two sets of sections digest the same bytes.
+	 */
+	private static void update(final MessageDigest digest, final byte[] section) {
+		final int length = section != null ? section.length : -1;
+		digest.update(new byte[] { (byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length });
+		if (section != null) {
+			digest.update(section);
+		}
+	}
+
+	private static final class Entry {
+		final ICAPResponse response;
+		final long expiry;
+
+		Entry(final ICAPResponse response, final long expiry) {
+			this.response = response;
+			this.expiry = expiry;
+		}
+	}
+
+	static final class Key {
+		private final String service;
+		private final ICAPRequest.Mode mode;
+		private final byte[] digest;
+		private final int hash;
+
+		Key(final String service, final ICAPRequest.Mode mode, final byte[] digest) {
+			this.service = service;
+			this.mode = mode;
+			this.digest = digest;
+			this.hash = Objects.hash(service, mode, Arrays.hashCode(digest));
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(final Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			final Key key = (Key) other;
+			return service.equals(key.service) && mode == key.mode && Arrays.equals(digest, key.digest);
+		}
+	}
+
+}
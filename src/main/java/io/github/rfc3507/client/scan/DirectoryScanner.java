@@ -0,0 +1,500 @@
+package io.github.rfc3507.client.scan;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.github.rfc3507.client.ICAPClient;
+import io.github.rfc3507.client.ICAPException;
+import io.github.rfc3507.client.ICAPRequest;
+import io.github.rfc3507.client.Verdict;
+import io.github.rfc3507.utilities.LatencyHistogram;
+
+/**
+ * Sweeps directory trees through an ICAP service.
+ * <p>
+ * Directories are listed by a few walker threads while up to {@code concurrency} files are scanned at once;
+ * walkers wait when scans fall behind, so the backlog of found files stays bounded. Files up to the
+ * streaming threshold are sent as byte arrays, larger ones are read from disk as the server accepts them.
+ * Only verdicts are read back. With a {@link ScanManifest}, files found clean before are skipped.
+ * Symbolic links are not followed.
+ */
+public final class DirectoryScanner {
+
+	private static final int WALKERS = 4;
+
+	private final ICAPClient client;
+
+	private DirectoryScanner(final ICAPClient client) {
+		this.client = client;
+	}
+
+	public static DirectoryScanner instance(final ICAPClient client) {
+		return new DirectoryScanner(client);
+	}
+
+	private String service = "avscan";
+
+	public DirectoryScanner setService(final String service) {
+		this.service = service;
+		return this;
+	}
+
+	private ICAPRequest.Mode mode = ICAPRequest.Mode.RESPMOD;
+
+	/**
+	 * Sends files as the body of an HTTP response (RESPMOD, the default) or of an upload (REQMOD).
+	 */
+	public DirectoryScanner setMode(final ICAPRequest.Mode mode) {
+		this.mode = mode;
+		return this;
+	}
+
+	private int concurrency = 8;
+
+	public DirectoryScanner setConcurrency(final int concurrency) {
+		this.concurrency = Math.max(1, concurrency);
+		return this;
+	}
+
+	private int preview = -1;
+
+	public DirectoryScanner setPreview(final int preview) {
+		this.preview = preview;
+		return this;
+	}
+
+	private long streamThreshold = 8L << 20;
+
+	/**
+	 * Size above which files are streamed from disk rather than read whole; 8 MiB by default.
+	 */
+	public DirectoryScanner setStreamThreshold(final long streamThreshold) {
+		this.streamThreshold = streamThreshold;
+		return this;
+	}
+
+	private ScanManifest manifest;
+
+	/**
+	 * Skips files the manifest records as clean and records the files found clean.
+	 */
+	public DirectoryScanner setManifest(final ScanManifest manifest) {
+		this.manifest = manifest;
+		return this;
+	}
+
+	public ScanReport scan(final Path... roots) throws InterruptedException {
+		final Run run = new Run();
+		final long start = System.nanoTime();
+
+		final ExecutorService walkers = Executors.newFixedThreadPool(Math.min(WALKERS, concurrency), threads("icap-scan-walker-"));
+		final ExecutorService scanners = Executors.newFixedThreadPool(concurrency, threads("icap-scan-"));
+		try {
+			// Held until every root is submitted, so a quick first root cannot end the run
+			run.pending.incrementAndGet();
+			try {
+				for (final Path root : roots) {
+					run.submit(walkers, () -> run.visit(root, walkers, scanners));
+				}
+			} finally {
+				run.release();
+			}
+			run.await();
+		} finally {
+			walkers.shutdownNow();
+			scanners.shutdownNow();
+		}
+
+		return run.report(System.nanoTime() - start);
+	}
+
+	private static ThreadFactory threads(final String prefix) {
+		final AtomicInteger count = new AtomicInteger();
+		return runnable -> {
+			final Thread thread = new Thread(runnable, prefix + count.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	private final class Run {
+		final Semaphore backlog = new Semaphore(concurrency * 4);
+		final AtomicLong pending = new AtomicLong();
+		final CompletableFuture<Void> done = new CompletableFuture<>();
+
+		final LongAdder files = new LongAdder();
+		final LongAdder scanned = new LongAdder();
+		final LongAdder unchanged = new LongAdder();
+		final LongAdder clean = new LongAdder();
+		final LongAdder modified = new LongAdder();
+		final LongAdder bytes = new LongAdder();
+		final Map<String, String> threats = new ConcurrentHashMap<>();
+		final Map<String, String> errors = new ConcurrentHashMap<>();
+		final LatencyHistogram latency = new LatencyHistogram();
+
+		void submit(final ExecutorService executor, final Runnable task) {
+			pending.incrementAndGet();
+			executor.execute(() -> {
+				try {
+					task.run();
+				} finally {
+					release();
+				}
+			});
+		}
+
+		void release() {
+			if (pending.decrementAndGet() == 0) {
+				done.complete(null);
+			}
+		}
+
+		void await() throws InterruptedException {
+			try {
+				done.get();
+			} catch (ExecutionException e) {
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+
+		void visit(final Path path, final ExecutorService walkers, final ExecutorService scanners) {
+			final BasicFileAttributes attributes;
+			try {
+				attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			} catch (IOException e) {
+				errors.put(path.toString(), String.valueOf(e));
+				return;
+			}
+
+			if (attributes.isRegularFile()) {
+				files.increment();
+				try {
+					backlog.acquire();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				submit(scanners, () -> {
+					try {
+						scan(path, attributes);
+					} finally {
+						backlog.release();
+					}
+				});
+				return;
+			}
+			if (!attributes.isDirectory()) {
+				return;
+			}
+
+			try (DirectoryStream<Path> entries = Files.newDirectoryStream(path)) {
+				final List<Path> directories = new ArrayList<>();
+				for (final Path entry : entries) {
+					if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+						directories.add(entry);
+					} else {
+						visit(entry, walkers, scanners);
+					}
+				}
+				for (final Path directory : directories) {
+					submit(walkers, () -> visit(directory, walkers, scanners));
+				}
+			} catch (IOException e) {
+				errors.put(path.toString(), String.valueOf(e));
+			}
+		}
+
+		void scan(final Path file, final BasicFileAttributes attributes) {
+			final long size = attributes.size();
+			final long modifiedTime = attributes.lastModifiedTime().toMillis();
+			final ScanManifest manifest = DirectoryScanner.this.manifest;
+
+			if (manifest != null && manifest.isUnchanged(file, size, modifiedTime)) {
+				unchanged.increment();
+				return;
+			}
+
+			try {
+				final boolean streamed = size > streamThreshold;
+				final byte[] content = streamed ? null : Files.readAllBytes(file);
+				final String known = manifest != null ? manifest.getDigest(file) : null;
+				// Streamed files are only read ahead to compare with a recorded digest, otherwise digested as sent
+				final String digest = manifest == null ? null : !streamed ? digest(content) : known != null ? digest(file) : null;
+
+				if (digest != null && digest.equals(known)) {
+					// Touched or rewritten with the same content
+					manifest.putClean(file, size, modifiedTime, digest);
+					unchanged.increment();
+					return;
+				}
+
+				final ICAPRequest request = request(file, streamed ? size : content.length);
+				final FilePublisher publisher = streamed ? new FilePublisher(file, manifest != null ? sha256() : null) : null;
+				if (streamed) {
+					setBody(request, publisher);
+				} else {
+					setBody(request, content);
+				}
+
+				final long start = System.nanoTime();
+				final Verdict verdict = client.verdict(request);
+				latency.record((System.nanoTime() - start) / 1000L);
+				scanned.increment();
+				bytes.add(streamed ? size : content.length);
+
+				if (verdict.isThreat()) {
+					threats.put(file.toString(), String.valueOf(verdict.getThreat()));
+				} else if (verdict.isClean()) {
+					clean.increment();
+					final String scannedDigest = manifest == null ? null : streamed ? scannedDigest(file, publisher, size, modifiedTime) : digest;
+					if (scannedDigest != null) {
+						manifest.putClean(file, size, modifiedTime, scannedDigest);
+						return;
+					}
+				} else if (verdict.getStatus() >= 400) {
+					errors.put(file.toString(), "ICAP status " + verdict.getStatus());
+				} else {
+					modified.increment();
+				}
+				if (manifest != null) {
+					manifest.remove(file);
+				}
+			} catch (IOException | ICAPException | RuntimeException e) {
+				errors.put(file.toString(), String.valueOf(e));
+			}
+		}
+
+		ScanReport report(final long elapsedNanos) {
+			return new ScanReport(files.sum(), scanned.sum(), unchanged.sum(), clean.sum(), modified.sum(),
+					threats, errors, bytes.sum(), elapsedNanos, latency);
+		}
+	}
+
+	private ICAPRequest request(final Path file, final long length) {
+		final ICAPRequest request = ICAPRequest.instance(service, mode)
+				.setPreview(preview)
+				.setResourceName(file.getFileName().toString());
+		if (mode == ICAPRequest.Mode.REQMOD) {
+			request.setHttpRequestHeader(ascii(""
+					+ "PUT /" + encode(file.getFileName().toString()) + " HTTP/1.1\r\n"
+					+ "Host: localhost\r\n"
+					+ "Content-Length: " + length + "\r\n"
+					+ "\r\n"));
+		} else {
+			request.setHttpResponseHeader(ascii(""
+					+ "HTTP/1.1 200 OK\r\n"
+					+ "Content-Type: application/octet-stream\r\n"
+					+ "Content-Length: " + length + "\r\n"
+					+ "\r\n"));
+		}
+		return request;
+	}
+
+	private void setBody(final ICAPRequest request, final byte[] content) {
+		if (mode == ICAPRequest.Mode.REQMOD) {
+			request.setHttpRequestBody(content);
+		} else {
+			request.setHttpResponseBody(content);
+		}
+	}
+
+	private void setBody(final ICAPRequest request, final FilePublisher publisher) {
+		if (mode == ICAPRequest.Mode.REQMOD) {
+			request.setHttpRequestBody(publisher);
+		} else {
+			request.setHttpResponseBody(publisher);
+		}
+	}
+
+	private static byte[] ascii(final String text) {
+		return text.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/*
+	 * Percent-encodes all but unreserved characters, so any file name makes a valid request line.
+	 */
+	private static String encode(final String name) {
+		final StringBuilder encoded = new StringBuilder(name.length());
+		for (final byte octet : name.getBytes(StandardCharsets.UTF_8)) {
+			final char c = (char) (octet & 0xff);
+			if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '.' || c == '_' || c == '~') {
+				encoded.append(c);
+			} else {
+				encoded.append('%').append(HEX[c >> 4]).append(HEX[c & 0xf]);
+			}
+		}
+		return encoded.toString();
+	}
+
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	private static String digest(final byte[] content) {
+		return hex(sha256().digest(content));
+	}
+
+	private static String digest(final Path file) throws IOException {
+		final MessageDigest digest = sha256();
+		final byte[] buffer = new byte[65536];
+		try (InputStream in = Files.newInputStream(file)) {
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+			}
+		}
+		return hex(digest.digest());
+	}
+
+	/*
+	 * Digest of a streamed file as sent. When the server answered before reading it all, the file is read
+	 * again, and left unrecorded if it changed since it was listed.
+	 */
+	private static String scannedDigest(final Path file, final FilePublisher publisher, final long size, final long modified) throws IOException {
+		final byte[] streamed = publisher.getDigest();
+		if (streamed != null) {
+			return hex(streamed);
+		}
+		final String digest = digest(file);
+		final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		return attributes.size() == size && attributes.lastModifiedTime().toMillis() == modified ? digest : null;
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String hex(final byte[] digest) {
+		final StringBuilder hex = new StringBuilder(digest.length * 2);
+		for (final byte octet : digest) {
+			hex.append(Character.forDigit(octet >> 4 & 0xf, 16)).append(Character.forDigit(octet & 0xf, 16));
+		}
+		return hex.toString();
+	}
+
+	private static void usage() {
+		System.err.println(""
+				+ "Usage: DirectoryScanner [options] <path>...\n"
+				+ "  --host <host>              ICAP server host (default 127.0.0.1)\n"
+				+ "  --port <port>              ICAP server port (default 1344)\n"
+				+ "  --service <name>           ICAP service (default avscan)\n"
+				+ "  --reqmod                   send files as uploads instead of responses\n"
+				+ "  --concurrency <n>          files scanned at once (default 8)\n"
+				+ "  --preview <bytes>          preview size (default none)\n"
+				+ "  --stream-threshold <bytes> stream larger files from disk (default 8388608)\n"
+				+ "  --manifest <file>          skip files found clean before, and record new ones\n"
+				+ "  --report <file>            write the JSON report there instead of standard output\n"
+				+ "  --read-timeout <ms>        read timeout (default 15000)\n"
+				+ "Exit status: 0 all clean, 1 threats found, 3 errors only");
+		System.exit(2);
+	}
+
+	public static void main(final String[] args) throws Exception {
+		String host = "127.0.0.1";
+		int port = 1344;
+		int readTimeout = 15000;
+		Path manifestFile = null;
+		Path reportFile = null;
+		final List<Path> roots = new ArrayList<>();
+
+		final DirectoryScanner options = new DirectoryScanner(null);
+
+		for (int i = 0; i < args.length; ++i) {
+			switch (args[i]) {
+				case "--host":
+					host = args[++i];
+					break;
+				case "--port":
+					port = Integer.parseInt(args[++i]);
+					break;
+				case "--service":
+					options.setService(args[++i]);
+					break;
+				case "--reqmod":
+					options.setMode(ICAPRequest.Mode.REQMOD);
+					break;
+				case "--concurrency":
+					options.setConcurrency(Integer.parseInt(args[++i]));
+					break;
+				case "--preview":
+					options.setPreview(Integer.parseInt(args[++i]));
+					break;
+				case "--stream-threshold":
+					options.setStreamThreshold(Long.parseLong(args[++i]));
+					break;
+				case "--manifest":
+					manifestFile = Paths.get(args[++i]);
+					break;
+				case "--report":
+					reportFile = Paths.get(args[++i]);
+					break;
+				case "--read-timeout":
+					readTimeout = Integer.parseInt(args[++i]);
+					break;
+				default:
+					if (args[i].startsWith("--")) {
+						usage();
+					}
+					roots.add(Paths.get(args[i]));
+			}
+		}
+
+		if (roots.isEmpty()) {
+			usage();
+		}
+
+		final ScanManifest manifest = manifestFile != null ? ScanManifest.load(manifestFile) : null;
+
+		final ScanReport report;
+		try (ICAPClient client = ICAPClient.instance(host, port)
+				.setReadTimeout(readTimeout)
+				.setMaxIdleConnections(options.concurrency)) {
+			report = DirectoryScanner.instance(client)
+					.setService(options.service)
+					.setMode(options.mode)
+					.setConcurrency(options.concurrency)
+					.setPreview(options.preview)
+					.setStreamThreshold(options.streamThreshold)
+					.setManifest(manifest)
+					.scan(roots.toArray(new Path[0]));
+		}
+
+		if (manifest != null) {
+			manifest.save(manifestFile);
+		}
+
+		if (reportFile != null) {
+			Files.write(reportFile, report.toJson().getBytes(StandardCharsets.UTF_8));
+			System.err.print(report);
+		} else {
+			System.out.println(report.toJson());
+		}
+
+		System.exit(!report.getThreats().isEmpty() ? 1 : !report.getErrors().isEmpty() ? 3 : 0);
+	}
+
+}
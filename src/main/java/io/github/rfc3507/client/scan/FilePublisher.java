@@ -0,0 +1,141 @@
+package io.github.rfc3507.client.scan;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes a file in buffers read on demand, on the thread requesting them, so a file is never
+ * held in memory as a whole. Subscribed once per scan attempt.
+ * <p>
+ * Given a digest, it also digests what it reads, so that the digest is that of the content scanned.
+ */
+final class FilePublisher implements Flow.Publisher<ByteBuffer> {
+
+	private static final int BUFFER_SIZE = 65536;
+
+	private final Path file;
+	private final MessageDigest digest;
+
+	private volatile byte[] completed;
+
+	FilePublisher(final Path file) {
+		this(file, null);
+	}
+
+	FilePublisher(final Path file, final MessageDigest digest) {
+		this.file = file;
+		this.digest = digest;
+	}
+
+	/**
+	 * @return the digest of the file as read by the last subscription, or null unless it was read to the end
+	 */
+	byte[] getDigest() {
+		return completed;
+	}
+
+	@Override
+	public void subscribe(final Flow.Subscriber<? super ByteBuffer> subscriber) {
+		completed = null;
+		if (digest != null) {
+			digest.reset();
+		}
+
+		final FileChannel channel;
+		try {
+			channel = FileChannel.open(file, StandardOpenOption.READ);
+		} catch (IOException e) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+				@Override
+				public void request(final long n) { /***/ }
+
+				@Override
+				public void cancel() { /***/ }
+			});
+			subscriber.onError(e);
+			return;
+		}
+		subscriber.onSubscribe(new Reading(channel, subscriber));
+	}
+
+	private final class Reading implements Flow.Subscription {
+		private final FileChannel channel;
+		private final Flow.Subscriber<? super ByteBuffer> subscriber;
+
+		private final AtomicLong demand = new AtomicLong();
+		private final AtomicBoolean done = new AtomicBoolean();
+
+		Reading(final FileChannel channel, final Flow.Subscriber<? super ByteBuffer> subscriber) {
+			this.channel = channel;
+			this.subscriber = subscriber;
+		}
+
+		@Override
+		public void request(final long n) {
+			if (n <= 0) {
+				if (finish()) {
+					subscriber.onError(new IllegalArgumentException("Non-positive request: " + n));
+				}
+				return;
+			}
+			// Only the call raising the demand from zero reads; nested and concurrent calls just add to it
+			if (demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added) > 0) {
+				return;
+			}
+
+			long pending = n;
+			while (pending > 0 && !done.get()) {
+				final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+				final int read;
+				try {
+					read = channel.read(buffer);
+				} catch (IOException e) {
+					if (finish()) {
+						subscriber.onError(e);
+					}
+					return;
+				}
+				if (read < 0) {
+					if (finish()) {
+						if (digest != null) {
+							completed = digest.digest();
+						}
+						subscriber.onComplete();
+					}
+					return;
+				}
+				if (digest != null) {
+					digest.update(buffer.array(), 0, read);
+				}
+				buffer.flip();
+				subscriber.onNext(buffer);
+				pending = demand.decrementAndGet();
+			}
+		}
+
+		@Override
+		public void cancel() {
+			finish();
+		}
+
+		private boolean finish() {
+			if (!done.compareAndSet(false, true)) {
+				return false;
+			}
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// Nothing left to read from it anyway
+			}
+			return true;
+		}
+	}
+
+}
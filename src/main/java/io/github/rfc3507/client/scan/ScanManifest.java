@@ -0,0 +1,127 @@
+package io.github.rfc3507.client.scan;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Files found clean by earlier scans, with their size, modification time and SHA-256 digest.
+ * <p>
+ * A file whose size and modification time are unchanged is not scanned again; one that was only touched
+ * or copied is recognized by its digest. Kept as a text file, one tab separated line per file:
+ * size, modification time in milliseconds, hex digest and absolute path.
+ */
+public final class ScanManifest {
+
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+	private ScanManifest() { /***/ }
+
+	public static ScanManifest instance() {
+		return new ScanManifest();
+	}
+
+	/**
+	 * Loads a manifest, or returns an empty one when the file does not exist yet.
+	 */
+	public static ScanManifest load(final Path file) throws IOException {
+		final ScanManifest manifest = new ScanManifest();
+		if (!Files.exists(file)) {
+			return manifest;
+		}
+
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				final String[] fields = line.split("\t", 4);
+				if (fields.length != 4) {
+					continue;
+				}
+				try {
+					manifest.entries.put(fields[3], new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2]));
+				} catch (NumberFormatException e) {
+					// Damaged line, the file is scanned again
+				}
+			}
+		}
+		return manifest;
+	}
+
+	/**
+	 * Writes the manifest to a temporary file first, then moves it in place.
+	 */
+	public void save(final Path file) throws IOException {
+		final Path parent = file.toAbsolutePath().getParent();
+		final Path temporary = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+		try {
+			try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+				for (final Map.Entry<String, Entry> entry : new TreeMap<>(entries).entrySet()) {
+					final Entry value = entry.getValue();
+					writer.write(value.size + "\t" + value.modified + "\t" + value.digest + "\t" + entry.getKey());
+					writer.newLine();
+				}
+			}
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return whether the file is recorded clean with this size and modification time
+	 */
+	public boolean isUnchanged(final Path file, final long size, final long modified) {
+		final Entry entry = entries.get(key(file));
+		return entry != null && entry.size == size && entry.modified == modified;
+	}
+
+	/**
+	 * @return the digest recorded for the file, or null
+	 */
+	public String getDigest(final Path file) {
+		final Entry entry = entries.get(key(file));
+		return entry != null ? entry.digest : null;
+	}
+
+	/**
+	 * Records a clean file. Paths with line breaks are not recorded, and are scanned every time.
+	 */
+	public void putClean(final Path file, final long size, final long modified, final String digest) {
+		final String key = key(file);
+		if (key.indexOf('\n') < 0 && key.indexOf('\r') < 0) {
+			entries.put(key, new Entry(size, modified, digest));
+		}
+	}
+
+	public void remove(final Path file) {
+		entries.remove(key(file));
+	}
+
+	private static String key(final Path file) {
+		return file.toAbsolutePath().normalize().toString();
+	}
+
+	private static final class Entry {
+		final long size;
+		final long modified;
+		final String digest;
+
+		Entry(final long size, final long modified, final String digest) {
+			this.size = size;
+			this.modified = modified;
+			this.digest = digest;
+		}
+	}
+
+}
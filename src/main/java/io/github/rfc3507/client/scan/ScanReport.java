@@ -0,0 +1,195 @@
+package io.github.rfc3507.client.scan;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import io.github.rfc3507.utilities.LatencyHistogram;
+
+/**
+ * Outcome of a {@link DirectoryScanner} run. {@link #toJson()} is the machine-readable form.
+ */
+public final class ScanReport {
+
+	private final long files;
+	private final long scanned;
+	private final long unchanged;
+	private final long clean;
+	private final long modified;
+	private final Map<String, String> threats;
+	private final Map<String, String> errors;
+	private final long bytes;
+	private final long elapsedNanos;
+	private final LatencyHistogram latency;
+
+	ScanReport(
+		final long files,
+		final long scanned,
+		final long unchanged,
+		final long clean,
+		final long modified,
+		final Map<String, String> threats,
+		final Map<String, String> errors,
+		final long bytes,
+		final long elapsedNanos,
+		final LatencyHistogram latency
+	) {
+		this.files = files;
+		this.scanned = scanned;
+		this.unchanged = unchanged;
+		this.clean = clean;
+		this.modified = modified;
+		this.threats = Collections.unmodifiableMap(new TreeMap<>(threats));
+		this.errors = Collections.unmodifiableMap(new TreeMap<>(errors));
+		this.bytes = bytes;
+		this.elapsedNanos = elapsedNanos;
+		this.latency = latency;
+	}
+
+	/**
+	 * Regular files found.
+	 */
+	public long getFiles() {
+		return files;
+	}
+
+	/**
+	 * Files sent to the ICAP server.
+	 */
+	public long getScanned() {
+		return scanned;
+	}
+
+	/**
+	 * Files skipped, found clean with the same size and modification time, or the same digest, before.
+	 */
+	public long getUnchanged() {
+		return unchanged;
+	}
+
+	public long getClean() {
+		return clean;
+	}
+
+	/**
+	 * Files the server would have modified, without reporting a threat.
+	 */
+	public long getModified() {
+		return modified;
+	}
+
+	/**
+	 * Threat names, per path.
+	 */
+	public Map<String, String> getThreats() {
+		return threats;
+	}
+
+	/**
+	 * Failure messages, including ICAP error statuses, per path.
+	 */
+	public Map<String, String> getErrors() {
+		return errors;
+	}
+
+	/**
+	 * Bytes sent to the ICAP server.
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * Scan latency histogram, in microseconds.
+	 */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	public double getFilesPerSecond() {
+		return elapsedNanos == 0 ? 0 : scanned * 1e9 / elapsedNanos;
+	}
+
+	public double getBytesPerSecond() {
+		return elapsedNanos == 0 ? 0 : bytes * 1e9 / elapsedNanos;
+	}
+
+	public String toJson() {
+		final StringBuilder json = new StringBuilder(256 + 64 * (threats.size() + errors.size()));
+		json.append("{\"files\":").append(files)
+			.append(",\"scanned\":").append(scanned)
+			.append(",\"unchanged\":").append(unchanged)
+			.append(",\"clean\":").append(clean)
+			.append(",\"modified\":").append(modified)
+			.append(",\"threats\":");
+		append(json, threats);
+		json.append(",\"errors\":");
+		append(json, errors);
+		json.append(",\"bytes\":").append(bytes)
+			.append(",\"elapsedMillis\":").append(elapsedNanos / 1_000_000L)
+			.append(String.format(Locale.ROOT, ",\"filesPerSecond\":%.2f,\"bytesPerSecond\":%.0f", getFilesPerSecond(), getBytesPerSecond()))
+			.append(",\"latencyMillis\":{")
+			.append(String.format(Locale.ROOT, "\"mean\":%.3f,\"p50\":%.3f,\"p90\":%.3f,\"p99\":%.3f,\"max\":%.3f",
+					latency.getMean() / 1000.0,
+					latency.getPercentile(50) / 1000.0,
+					latency.getPercentile(90) / 1000.0,
+					latency.getPercentile(99) / 1000.0,
+					latency.getMax() / 1000.0))
+			.append("}}");
+		return json.toString();
+	}
+
+	private static void append(final StringBuilder json, final Map<String, String> map) {
+		json.append('{');
+		boolean first = true;
+		for (final Map.Entry<String, String> entry : map.entrySet()) {
+			if (!first) {
+				json.append(',');
+			}
+			first = false;
+			quote(json, entry.getKey());
+			json.append(':');
+			quote(json, entry.getValue());
+		}
+		json.append('}');
+	}
+
+	private static void quote(final StringBuilder json, final String value) {
+		json.append('"');
+		if (value != null) {
+			for (int i = 0; i < value.length(); ++i) {
+				final char c = value.charAt(i);
+				if (c == '"' || c == '\\') {
+					json.append('\\').append(c);
+				} else if (c < 0x20) {
+					json.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+				} else {
+					json.append(c);
+				}
+			}
+		}
+		json.append('"');
+	}
+
+	@Override
+	public String toString() {
+		return String.format(""
+				+ "files      %d (%d scanned, %d unchanged) in %.3f s%n"
+				+ "verdicts   %d clean, %d modified, %d threats, %d errors%n"
+				+ "throughput %.1f files/s, %.2f MiB/s%n"
+				+ "latency ms p50=%.3f p90=%.3f p99=%.3f max=%.3f%n",
+				files, scanned, unchanged, elapsedNanos / 1e9,
+				clean, modified, threats.size(), errors.size(),
+				getFilesPerSecond(), getBytesPerSecond() / 1048576.0,
+				latency.getPercentile(50) / 1000.0,
+				latency.getPercentile(90) / 1000.0,
+				latency.getPercentile(99) / 1000.0,
+				latency.getMax() / 1000.0);
+	}
+
+}
@@ -0,0 +1,83 @@
+package io.github.rfc3507.client.trace;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import io.github.rfc3507.utilities.LatencyHistogram;
+
+public final class ReplayReport {
+
+	private final LatencyHistogram latency;
+	private final Map<Integer, Long> statuses;
+	private final long failures;
+	private final long bytes;
+	private final long elapsedNanos;
+
+	ReplayReport(
+		final LatencyHistogram latency,
+		final Map<Integer, Long> statuses,
+		final long failures,
+		final long bytes,
+		final long elapsedNanos
+	) {
+		this.latency = latency;
+		this.statuses = Collections.unmodifiableMap(new TreeMap<>(statuses));
+		this.failures = failures;
+		this.bytes = bytes;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	/**
+	 * Latency histogram in microseconds, corrected for coordinated omission.
+	 */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	public long getRequests() {
+		long requests = failures;
+		for (final long count : statuses.values()) {
+			requests += count;
+		}
+		return requests;
+	}
+
+	public Map<Integer, Long> getStatuses() {
+		return statuses;
+	}
+
+	public long getFailures() {
+		return failures;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	public double getThroughput() {
+		return elapsedNanos == 0 ? 0 : getRequests() * 1e9 / elapsedNanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(""
+				+ "requests   %d (%d failed) in %.3f s%n"
+				+ "throughput %.1f req/s, %.2f MiB/s%n"
+				+ "statuses   %s%n"
+				+ "latency ms p50=%.3f p90=%.3f p99=%.3f p99.9=%.3f max=%.3f%n",
+				getRequests(), failures, elapsedNanos / 1e9,
+				getThroughput(), elapsedNanos == 0 ? 0 : bytes * 1e9 / elapsedNanos / 1048576.0,
+				statuses,
+				latency.getPercentile(50) / 1000.0,
+				latency.getPercentile(90) / 1000.0,
+				latency.getPercentile(99) / 1000.0,
+				latency.getPercentile(99.9) / 1000.0,
+				latency.getMax() / 1000.0);
+	}
+
+}
@@ -0,0 +1,120 @@
+package io.github.rfc3507.client.trace;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public final class TraceReader implements Closeable {
+
+	private final DataInputStream in;
+	private final long startEpochMillis;
+
+	private TraceReader(final InputStream in) throws IOException {
+		this.in = new DataInputStream(new BufferedInputStream(in, 65536));
+
+		if (this.in.readInt() != TraceRecord.MAGIC) {
+			throw new IOException("Not an ICAP trace");
+		}
+
+		final int version = this.in.readUnsignedByte();
+		if (version != TraceRecord.VERSION) {
+			throw new IOException("Unsupported trace version " + version);
+		}
+
+		this.startEpochMillis = this.in.readLong();
+	}
+
+	public static TraceReader open(final Path path) throws IOException {
+		return new TraceReader(Files.newInputStream(path));
+	}
+
+	public static TraceReader open(final InputStream in) throws IOException {
+		return new TraceReader(in);
+	}
+
+	public static List<TraceRecord> readAll(final Path path) throws IOException {
+		try (final TraceReader reader = open(path)) {
+			final List<TraceRecord> records = new ArrayList<>();
+			TraceRecord record;
+			while ((record = reader.read()) != null) {
+				records.add(record);
+			}
+			return records;
+		}
+	}
+
+	public long getStartEpochMillis() {
+		return startEpochMillis;
+	}
+
+	/**
+	 * @return the next record, or {@code null} at the end of the trace
+	 */
+	public TraceRecord read() throws IOException {
+		final int first = in.read();
+		if (first == -1) {
+			return null;
+		}
+
+		try {
+			final long offsetNanos = readVarLong(first);
+			final String method = readString();
+			final String service = readString();
+			final int preview = (int) (readVarLong() - 1);
+			final int httpRequestHeaderLength = (int) readVarLong();
+			final int httpRequestBodyLength = (int) readVarLong();
+			final int httpResponseHeaderLength = (int) readVarLong();
+			final int httpResponseBodyLength = (int) readVarLong();
+			final byte[] digest = readBytes();
+			final byte[] sample = readBytes();
+			final int status = (int) readVarLong();
+			final long latencyNanos = readVarLong();
+
+			return new TraceRecord(offsetNanos, method, service, preview,
+					httpRequestHeaderLength, httpRequestBodyLength, httpResponseHeaderLength, httpResponseBodyLength,
+					digest, sample, status, latencyNanos);
+		} catch (EOFException e) {
+			// Truncated tail, e.g. the recording process died before flushing
+			return null;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	private String readString() throws IOException {
+		return new String(readBytes(), StandardCharsets.UTF_8);
+	}
+
+	private byte[] readBytes() throws IOException {
+		final byte[] value = new byte[(int) readVarLong()];
+		in.readFully(value);
+		return value;
+	}
+
+	private long readVarLong() throws IOException {
+		return readVarLong(in.readUnsignedByte());
+	}
+
+	private long readVarLong(int octet) throws IOException {
+		long value = 0;
+		int shift = 0;
+		while ((octet & 0x80) != 0) {
+			value |= (long) (octet & 0x7F) << shift;
+			shift += 7;
+			octet = in.readUnsignedByte();
+		}
+		return value | ((long) octet << shift);
+	}
+
+}
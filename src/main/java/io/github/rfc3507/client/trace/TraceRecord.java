@@ -0,0 +1,180 @@
+package io.github.rfc3507.client.trace;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import io.github.rfc3507.client.ICAPRequest;
+
+public final class TraceRecord {
+
+	static final int MAGIC = 0x49435452; // "ICTR"
+	static final int VERSION = 1;
+
+	static final String OPTIONS = "OPTIONS";
+
+	private final long offsetNanos;
+	private final String method;
+	private final String service;
+	private final int preview;
+	private final int httpRequestHeaderLength;
+	private final int httpRequestBodyLength;
+	private final int httpResponseHeaderLength;
+	private final int httpResponseBodyLength;
+	private final byte[] digest;
+	private final byte[] sample;
+	private final int status;
+	private final long latencyNanos;
+
+	TraceRecord(
+		final long offsetNanos,
+		final String method,
+		final String service,
+		final int preview,
+		final int httpRequestHeaderLength,
+		final int httpRequestBodyLength,
+		final int httpResponseHeaderLength,
+		final int httpResponseBodyLength,
+		final byte[] digest,
+		final byte[] sample,
+		final int status,
+		final long latencyNanos
+	) {
+		this.offsetNanos = offsetNanos;
+		this.method = method;
+		this.service = service;
+		this.preview = preview;
+		this.httpRequestHeaderLength = httpRequestHeaderLength;
+		this.httpRequestBodyLength = httpRequestBodyLength;
+		this.httpResponseHeaderLength = httpResponseHeaderLength;
+		this.httpResponseBodyLength = httpResponseBodyLength;
+		this.digest = digest;
+		this.sample = sample;
+		this.status = status;
+		this.latencyNanos = latencyNanos;
+	}
+
+	/**
+	 * Arrival time, in nanoseconds, relative to the start of the trace.
+	 */
+	public long getOffsetNanos() {
+		return offsetNanos;
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public boolean isOptions() {
+		return OPTIONS.equals(method);
+	}
+
+	public String getService() {
+		return service;
+	}
+
+	public int getPreview() {
+		return preview;
+	}
+
+	public int getHttpRequestHeaderLength() {
+		return httpRequestHeaderLength;
+	}
+
+	public int getHttpRequestBodyLength() {
+		return httpRequestBodyLength;
+	}
+
+	public int getHttpResponseHeaderLength() {
+		return httpResponseHeaderLength;
+	}
+
+	public int getHttpResponseBodyLength() {
+		return httpResponseBodyLength;
+	}
+
+	public byte[] getDigest() {
+		return digest.clone();
+	}
+
+	public byte[] getSample() {
+		return sample.clone();
+	}
+
+	/**
+	 * ICAP status originally observed, or zero when the transaction failed.
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	public long getLatencyNanos() {
+		return latencyNanos;
+	}
+
+	/**
+	 * Rebuilds a request with the recorded shape: same service, mode, preview and section sizes.
+	 * Bodies start with the recorded sample and are padded with filler derived from the digest,
+	 * so payloads that were identical when recorded are identical again on replay.
+	 */
+	public ICAPRequest toRequest() {
+		final ICAPRequest request = ICAPRequest
+				.instance(service, ICAPRequest.Mode.valueOf(method))
+				.setPreview(preview);
+
+		if (httpRequestHeaderLength > 0) {
+			request.setHttpRequestHeader(syntheticHeader("POST /replay HTTP/1.1", httpRequestHeaderLength));
+		}
+		if (httpRequestBodyLength > 0) {
+			request.setHttpRequestBody(syntheticBody(httpRequestBodyLength));
+		}
+		if (httpResponseHeaderLength > 0) {
+			request.setHttpResponseHeader(syntheticHeader("HTTP/1.1 200 OK", httpResponseHeaderLength));
+		}
+		if (httpResponseBodyLength > 0) {
+			request.setHttpResponseBody(syntheticBody(httpResponseBodyLength));
+		}
+
+		return request;
+	}
+
+	private static byte[] syntheticHeader(final String startLine, final int length) {
+		final String minimal = startLine + "\r\n\r\n";
+		final String prefix = startLine + "\r\nX-Replay: ";
+		final String suffix = "\r\n\r\n";
+
+		if (length < prefix.length() + suffix.length()) {
+			return minimal.getBytes(StandardCharsets.US_ASCII);
+		}
+
+		final StringBuilder header = new StringBuilder(prefix);
+		for (int i = prefix.length() + suffix.length(); i < length; ++i) {
+			header.append('x');
+		}
+		header.append(suffix);
+
+		return header.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private byte[] syntheticBody(final int length) {
+		final byte[] body = new byte[length];
+		final int copied = Math.min(sample.length, length);
+		System.arraycopy(sample, 0, body, 0, copied);
+
+		if (copied < length) {
+			final byte[] filler = new byte[Math.min(4096, length - copied)];
+			new Random(Arrays.hashCode(digest)).nextBytes(filler);
+			for (int offset = copied; offset < length; offset += filler.length) {
+				System.arraycopy(filler, 0, body, offset, Math.min(filler.length, length - offset));
+			}
+		}
+
+		return body;
+	}
+
+	@Override
+	public String toString() {
+		return method + " " + service + " @" + offsetNanos + "ns -> " + status;
+	}
+
+}
@@ -0,0 +1,174 @@
+package io.github.rfc3507.client.trace;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Optional;
+
+import io.github.rfc3507.client.ICAPRequest;
+import io.github.rfc3507.utilities.LogService;
+
+/**
+ * Captures the shape of every transaction performed by an {@code ICAPClient} into a compact binary trace.
+ * <p>
+ * Each record holds the arrival offset, method, service, preview, section sizes, a SHA-256 digest of the
+ * body, an optional leading sample of the body, the resulting status and the observed latency.
+ * Integers are written as variable-length quantities, so a typical record takes 60 to 100 bytes.
+ */
+public final class TraceRecorder implements Closeable {
+
+	private final LogService logger = LogService.getInstance("Trace Recorder");
+
+	private final DataOutputStream out;
+	private final long startNanos = System.nanoTime();
+
+	private boolean closed = false;
+	private long records = 0;
+
+	private TraceRecorder(final OutputStream out) throws IOException {
+		this.out = new DataOutputStream(new BufferedOutputStream(out, 65536));
+		this.out.writeInt(TraceRecord.MAGIC);
+		this.out.writeByte(TraceRecord.VERSION);
+		this.out.writeLong(System.currentTimeMillis());
+	}
+
+	public static TraceRecorder open(final Path path) throws IOException {
+		return new TraceRecorder(Files.newOutputStream(path));
+	}
+
+	public static TraceRecorder open(final OutputStream out) throws IOException {
+		return new TraceRecorder(out);
+	}
+
+	private volatile int sampleSize = 0;
+
+	/**
+	 * Amount of leading body bytes kept in each record. Defaults to zero: only digests are kept.
+	 */
+	public TraceRecorder setSampleSize(final int sampleSize) {
+		this.sampleSize = Math.max(0, sampleSize);
+		return this;
+	}
+
+	public int getSampleSize() {
+		return sampleSize;
+	}
+
+	private volatile boolean digest = true;
+
+	public TraceRecorder setDigest(final boolean digest) {
+		this.digest = digest;
+		return this;
+	}
+
+	public void recordOptions(final String service, final int status, final long start, final long end) {
+		write(new TraceRecord(start - startNanos, TraceRecord.OPTIONS, service, -1, 0, 0, 0, 0,
+				new byte[0], new byte[0], status, end - start));
+	}
+
+	public void record(final ICAPRequest request, final int status, final long start, final long end) {
+		final byte[] empty = new byte[0];
+
+		final byte[] httpRequestHeader = Optional.ofNullable(request.getHttpRequestHeader()).orElse(empty);
+		final byte[] httpRequestBody = Optional.ofNullable(request.getHttpRequestBody()).orElse(empty);
+		final byte[] httpResponseHeader = Optional.ofNullable(request.getHttpResponseHeader()).orElse(empty);
+		final byte[] httpResponseBody = Optional.ofNullable(request.getHttpResponseBody()).orElse(empty);
+
+		final byte[] content = httpRequestBody.length > 0 ? httpRequestBody : httpResponseBody;
+
+		final byte[] sample = new byte[Math.min(sampleSize, content.length)];
+		System.arraycopy(content, 0, sample, 0, sample.length);
+
+		write(new TraceRecord(
+				start - startNanos,
+				request.getMode().name(),
+				request.getService(),
+				request.getPreview(),
+				httpRequestHeader.length,
+				httpRequestBody.length,
+				httpResponseHeader.length,
+				httpResponseBody.length,
+				digest && content.length > 0 ? sha256(content) : empty,
+				sample,
+				status,
+				end - start));
+	}
+
+	public synchronized long getRecordCount() {
+		return records;
+	}
+
+	private synchronized void write(final TraceRecord record) {
+		if (closed) {
+			return;
+		}
+
+		try {
+			writeVarLong(record.getOffsetNanos());
+			writeString(record.getMethod());
+			writeString(record.getService());
+			writeVarLong(record.getPreview() + 1L);
+			writeVarLong(record.getHttpRequestHeaderLength());
+			writeVarLong(record.getHttpRequestBodyLength());
+			writeVarLong(record.getHttpResponseHeaderLength());
+			writeVarLong(record.getHttpResponseBodyLength());
+			writeBytes(record.getDigest());
+			writeBytes(record.getSample());
+			writeVarLong(record.getStatus());
+			writeVarLong(record.getLatencyNanos());
+			++records;
+		} catch (IOException e) {
+			// A broken trace must never break the traffic being traced
+			logger.error("Trace disabled", e);
+			closed = true;
+		}
+	}
+
+	public synchronized void flush() throws IOException {
+		if (!closed) {
+			out.flush();
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		out.close();
+	}
+
+	private void writeString(final String value) throws IOException {
+		writeBytes(value.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private void writeBytes(final byte[] value) throws IOException {
+		writeVarLong(value.length);
+		out.write(value);
+	}
+
+	private void writeVarLong(long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static byte[] sha256(final byte[] content) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(content);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
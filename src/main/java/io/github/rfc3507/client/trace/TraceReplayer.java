@@ -0,0 +1,215 @@
+package io.github.rfc3507.client.trace;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import io.github.rfc3507.client.ICAPClient;
+import io.github.rfc3507.client.ICAPException;
+import io.github.rfc3507.utilities.LatencyHistogram;
+
+/**
+ * Drives an ICAP server with a recorded trace.
+ * <p>
+ * Open loop (default) dispatches every record at its recorded arrival time divided by the speed factor,
+ * whatever the server does, and measures latency from the intended dispatch time.
+ * Closed loop runs a fixed number of workers back to back and back-fills the samples hidden by slow
+ * responses. Both ways the reported percentiles are corrected for coordinated omission.
+ */
+public final class TraceReplayer {
+
+	private final ICAPClient client;
+
+	private TraceReplayer(final ICAPClient client) {
+		this.client = client;
+	}
+
+	public static TraceReplayer instance(final ICAPClient client) {
+		return new TraceReplayer(client);
+	}
+
+	private double speed = 1.0;
+
+	public TraceReplayer setSpeed(final double speed) {
+		if (speed <= 0) {
+			throw new IllegalArgumentException("speed must be positive");
+		}
+		this.speed = speed;
+		return this;
+	}
+
+	private int concurrency = 64;
+
+	public TraceReplayer setConcurrency(final int concurrency) {
+		this.concurrency = Math.max(1, concurrency);
+		return this;
+	}
+
+	private boolean closedLoop = false;
+
+	public TraceReplayer setClosedLoop(final boolean closedLoop) {
+		this.closedLoop = closedLoop;
+		return this;
+	}
+
+	public ReplayReport replay(final Path trace) throws IOException, InterruptedException {
+		return replay(TraceReader.readAll(trace));
+	}
+
+	public ReplayReport replay(final List<TraceRecord> records) throws InterruptedException {
+		final Run run = new Run();
+		if (records.isEmpty()) {
+			return run.report(0);
+		}
+
+		final long start = System.nanoTime();
+		if (closedLoop) {
+			replayClosed(records, run);
+		} else {
+			replayOpen(records, run, start);
+		}
+		return run.report(System.nanoTime() - start);
+	}
+
+	private void replayOpen(final List<TraceRecord> records, final Run run, final long start) throws InterruptedException {
+		final ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+		final long first = records.get(0).getOffsetNanos();
+
+		try {
+			for (final TraceRecord record : records) {
+				final long intended = start + (long) ((record.getOffsetNanos() - first) / speed);
+
+				long wait;
+				while ((wait = intended - System.nanoTime()) > 0) {
+					LockSupport.parkNanos(wait);
+				}
+
+				executor.execute(() -> run.execute(record, intended, 0));
+			}
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private void replayClosed(final List<TraceRecord> records, final Run run) throws InterruptedException {
+		final long span = records.get(records.size() - 1).getOffsetNanos() - records.get(0).getOffsetNanos();
+		final long meanInterval = records.size() > 1 ? (long) (span / speed / (records.size() - 1)) : 0;
+		final long expectedInterval = meanInterval * concurrency / 1000L;
+
+		final AtomicInteger next = new AtomicInteger();
+		final Thread[] workers = new Thread[concurrency];
+		for (int i = 0; i < workers.length; ++i) {
+			workers[i] = new Thread(() -> {
+				int index;
+				while ((index = next.getAndIncrement()) < records.size()) {
+					run.execute(records.get(index), System.nanoTime(), expectedInterval);
+				}
+			}, "icap-replay-" + i);
+			workers[i].start();
+		}
+		for (final Thread worker : workers) {
+			worker.join();
+		}
+	}
+
+	private final class Run {
+		final LatencyHistogram latency = new LatencyHistogram();
+		final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+		final LongAdder failures = new LongAdder();
+		final LongAdder bytes = new LongAdder();
+
+		void execute(final TraceRecord record, final long intended, final long expectedInterval) {
+			try {
+				final int status = record.isOptions()
+						? client.options(record.getService()).getStatus()
+						: client.execute(record.toRequest()).getStatus();
+				statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+			} catch (ICAPException | RuntimeException e) {
+				failures.increment();
+			}
+
+			bytes.add((long) record.getHttpRequestHeaderLength() + record.getHttpRequestBodyLength()
+					+ record.getHttpResponseHeaderLength() + record.getHttpResponseBodyLength());
+			latency.record((System.nanoTime() - intended) / 1000L, expectedInterval);
+		}
+
+		ReplayReport report(final long elapsedNanos) {
+			final Map<Integer, Long> counts = new ConcurrentHashMap<>();
+			statuses.forEach((status, count) -> counts.put(status, count.sum()));
+			return new ReplayReport(latency, counts, failures.sum(), bytes.sum(), elapsedNanos);
+		}
+	}
+
+	private static void usage() {
+		System.err.println(""
+				+ "Usage: TraceReplayer [options] <trace-file>\n"
+				+ "  --host <host>          ICAP server host (default 127.0.0.1)\n"
+				+ "  --port <port>          ICAP server port (default 1344)\n"
+				+ "  --speed <factor>       arrival rate multiplier (default 1.0)\n"
+				+ "  --concurrency <n>      max in-flight requests (default 64)\n"
+				+ "  --closed-loop          run workers back to back instead of following arrivals\n"
+				+ "  --read-timeout <ms>    read timeout (default 15000)");
+		System.exit(2);
+	}
+
+	public static void main(final String[] args) throws Exception {
+		String host = "127.0.0.1";
+		int port = 1344;
+		int readTimeout = 15000;
+		Path trace = null;
+
+		final TraceReplayer replayer = new TraceReplayer(null);
+
+		for (int i = 0; i < args.length; ++i) {
+			switch (args[i]) {
+				case "--host":
+					host = args[++i];
+					break;
+				case "--port":
+					port = Integer.parseInt(args[++i]);
+					break;
+				case "--speed":
+					replayer.setSpeed(Double.parseDouble(args[++i]));
+					break;
+				case "--concurrency":
+					replayer.setConcurrency(Integer.parseInt(args[++i]));
+					break;
+				case "--closed-loop":
+					replayer.setClosedLoop(true);
+					break;
+				case "--read-timeout":
+					readTimeout = Integer.parseInt(args[++i]);
+					break;
+				default:
+					if (args[i].startsWith("--") || trace != null) {
+						usage();
+					}
+					trace = Paths.get(args[i]);
+			}
+		}
+
+		if (trace == null) {
+			usage();
+		}
+
+		final ICAPClient client = ICAPClient.instance(host, port).setReadTimeout(readTimeout);
+		final ReplayReport report = TraceReplayer.instance(client)
+				.setSpeed(replayer.speed)
+				.setConcurrency(replayer.concurrency)
+				.setClosedLoop(replayer.closedLoop)
+				.replay(trace);
+
+		System.out.print(report);
+	}
+
+}
@@ -0,0 +1,213 @@
+package io.github.rfc3507.client.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketOption;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+import io.github.rfc3507.utilities.BufferPool;
+
+/**
+ * Blocking streams over a non-blocking {@link SocketChannel}, for channels whose socket adaptor
+ * does not honour {@code SO_TIMEOUT} (e.g. Unix domain sockets).
+ * Channel I/O goes through pooled direct buffers.
+ */
+class ChannelConnection implements ICAPConnection {
+
+	private static final int MAX_TRANSFER = 65536;
+
+	private static final BufferPool BUFFERS = BufferPool.getDefault();
+
+	private final SocketChannel channel;
+	private final Selector selector;
+	private final SelectionKey key;
+
+	private volatile int readTimeout;
+
+	private final InputStream in = new InputStream() {
+		@Override
+		public int read() throws IOException {
+			final byte[] octet = new byte[1];
+			return read(octet, 0, 1) == -1 ? -1 : octet[0] & 0xFF;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			final ByteBuffer buffer = BUFFERS.acquireDirect(Math.min(len, MAX_TRANSFER));
+			try {
+				((Buffer) buffer).limit(Math.min(len, buffer.capacity()));
+				int read;
+				while ((read = channel.read(buffer)) == 0) {
+					await(SelectionKey.OP_READ, "Read timed out");
+				}
+				if (read > 0) {
+					((Buffer) buffer).flip();
+					buffer.get(b, off, read);
+				}
+				return read;
+			} finally {
+				BUFFERS.release(buffer);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			ChannelConnection.this.close();
+		}
+	};
+
+	private final OutputStream out = new OutputStream() {
+		@Override
+		public void write(final int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			final ByteBuffer buffer = BUFFERS.acquireDirect(Math.min(len, MAX_TRANSFER));
+			try {
+				for (int written = 0; written < len; ) {
+					final int amount = Math.min(len - written, buffer.capacity());
+					((Buffer) buffer).clear();
+					buffer.put(b, off + written, amount);
+					((Buffer) buffer).flip();
+					while (buffer.hasRemaining()) {
+						if (channel.write(buffer) == 0) {
+							await(SelectionKey.OP_WRITE, "Write timed out");
+						}
+					}
+					written += amount;
+				}
+			} finally {
+				BUFFERS.release(buffer);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			ChannelConnection.this.close();
+		}
+	};
+
+	ChannelConnection(final SocketChannel channel, final Selector selector, final int readTimeout) throws IOException {
+		this.channel = channel;
+		this.selector = selector;
+		this.readTimeout = readTimeout;
+		this.channel.configureBlocking(false);
+		this.key = channel.register(selector, 0);
+	}
+
+	/**
+	 * Completes a connect already initiated on a non-blocking channel.
+	 */
+	static ChannelConnection finishConnect(final SocketChannel channel, final int connectTimeout, final int readTimeout) throws IOException {
+		final Selector selector = Selector.open();
+		try {
+			final ChannelConnection connection = new ChannelConnection(channel, selector, readTimeout);
+			while (!channel.finishConnect()) {
+				connection.await(SelectionKey.OP_CONNECT, connectTimeout, "Connect timed out");
+			}
+			return connection;
+		} catch (IOException e) {
+			selector.close();
+			channel.close();
+			throw e;
+		}
+	}
+
+	private void await(final int operation, final String failure) throws IOException {
+		await(operation, readTimeout, failure);
+	}
+
+	private void await(final int operation, final int timeout, final String failure) throws IOException {
+		key.interestOps(operation);
+		try {
+			if (selector.select(timeout) == 0) {
+				if (!channel.isOpen()) {
+					throw new IOException("Connection closed");
+				}
+				throw new SocketTimeoutException(failure);
+			}
+		} finally {
+			selector.selectedKeys().clear();
+			if (key.isValid()) {
+				key.interestOps(0);
+			}
+		}
+	}
+
+	@Override
+	public InputStream getInputStream() {
+		return in;
+	}
+
+	@Override
+	public OutputStream getOutputStream() {
+		return out;
+	}
+
+	@Override
+	public void setReadTimeout(final int readTimeout) {
+		this.readTimeout = readTimeout;
+	}
+
+	@Override
+	public void setTcpNoDelay(final boolean tcpNoDelay) throws IOException {
+		setOption(StandardSocketOptions.TCP_NODELAY, tcpNoDelay);
+	}
+
+	@Override
+	public void setSendBufferSize(final int sendBufferSize) throws IOException {
+		setOption(StandardSocketOptions.SO_SNDBUF, sendBufferSize);
+	}
+
+	@Override
+	public int getSendBufferSize() throws IOException {
+		return getOption(StandardSocketOptions.SO_SNDBUF);
+	}
+
+	@Override
+	public void setReceiveBufferSize(final int receiveBufferSize) throws IOException {
+		setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+	}
+
+	@Override
+	public int getReceiveBufferSize() throws IOException {
+		return getOption(StandardSocketOptions.SO_RCVBUF);
+	}
+
+	private <T> void setOption(final SocketOption<T> option, final T value) throws IOException {
+		if (channel.supportedOptions().contains(option)) {
+			channel.setOption(option, value);
+		}
+	}
+
+	private int getOption(final SocketOption<Integer> option) throws IOException {
+		return channel.supportedOptions().contains(option) ? channel.getOption(option) : 0;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return channel.isOpen();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			channel.close();
+		} finally {
+			selector.close();
+		}
+	}
+
+}
@@ -0,0 +1,50 @@
+package io.github.rfc3507.client.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public interface ICAPConnection extends Closeable {
+
+	InputStream getInputStream() throws IOException;
+
+	OutputStream getOutputStream() throws IOException;
+
+	/**
+	 * Maximum time, in milliseconds, a single read may block. Zero means forever.
+	 */
+	void setReadTimeout(int readTimeout) throws IOException;
+
+	/**
+	 * Disables Nagle's algorithm. Ignored by connections without the option.
+	 */
+	default void setTcpNoDelay(boolean tcpNoDelay) throws IOException { }
+
+	/**
+	 * Size, in bytes, of the OS send buffer. Ignored by connections without the option.
+	 */
+	default void setSendBufferSize(int sendBufferSize) throws IOException { }
+
+	/**
+	 * @return the size, in bytes, of the OS send buffer, or zero for connections without the option
+	 */
+	default int getSendBufferSize() throws IOException {
+		return 0;
+	}
+
+	/**
+	 * Size, in bytes, of the OS receive buffer. Ignored by connections without the option.
+	 */
+	default void setReceiveBufferSize(int receiveBufferSize) throws IOException { }
+
+	/**
+	 * @return the size, in bytes, of the OS receive buffer, or zero for connections without the option
+	 */
+	default int getReceiveBufferSize() throws IOException {
+		return 0;
+	}
+
+	boolean isOpen();
+
+}
@@ -0,0 +1,31 @@
+package io.github.rfc3507.client.transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+/**
+ * Opens the byte streams an {@code ICAPClient} talks ICAP over.
+ * <p>
+ * {@code host} and {@code port} are the ones the client was created with; transports bound to a fixed
+ * address, such as {@link UnixDomainTransport}, may ignore them. Implementations must be thread safe.
+ */
+public interface ICAPTransport {
+
+	ICAPConnection connect(String host, int port, int connectTimeout, int readTimeout) throws IOException;
+
+	/**
+	 * @return whether {@code host} is resolved to an IP address, so callers may resolve it themselves
+	 */
+	default boolean resolvesHost() {
+		return false;
+	}
+
+	/**
+	 * Connects to an address the caller resolved {@code host} to, for instance from a cache.
+	 * Only called when {@link #resolvesHost()}.
+	 */
+	default ICAPConnection connect(InetAddress address, String host, int port, int connectTimeout, int readTimeout) throws IOException {
+		return connect(host, port, connectTimeout, readTimeout);
+	}
+
+}
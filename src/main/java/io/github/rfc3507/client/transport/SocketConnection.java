@@ -0,0 +1,70 @@
+package io.github.rfc3507.client.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+class SocketConnection implements ICAPConnection {
+
+	private final Socket socket;
+
+	SocketConnection(final Socket socket) {
+		this.socket = socket;
+	}
+
+	Socket getSocket() {
+		return socket;
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		return socket.getInputStream();
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		return socket.getOutputStream();
+	}
+
+	@Override
+	public void setReadTimeout(final int readTimeout) throws IOException {
+		socket.setSoTimeout(readTimeout);
+	}
+
+	@Override
+	public void setTcpNoDelay(final boolean tcpNoDelay) throws IOException {
+		socket.setTcpNoDelay(tcpNoDelay);
+	}
+
+	@Override
+	public void setSendBufferSize(final int sendBufferSize) throws IOException {
+		socket.setSendBufferSize(sendBufferSize);
+	}
+
+	@Override
+	public int getSendBufferSize() throws IOException {
+		return socket.getSendBufferSize();
+	}
+
+	@Override
+	public void setReceiveBufferSize(final int receiveBufferSize) throws IOException {
+		socket.setReceiveBufferSize(receiveBufferSize);
+	}
+
+	@Override
+	public int getReceiveBufferSize() throws IOException {
+		return socket.getReceiveBufferSize();
+	}
+
+	@Override
+	public boolean isOpen() {
+		return !socket.isClosed();
+	}
+
+	@Override
+	public void close() throws IOException {
+		socket.close();
+	}
+
+}
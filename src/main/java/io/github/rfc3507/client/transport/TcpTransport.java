@@ -0,0 +1,111 @@
+package io.github.rfc3507.client.transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Plain TCP. The connect timeout bounds name resolution and connection establishment together.
+ */
+public final class TcpTransport implements ICAPTransport {
+
+	public static final TcpTransport INSTANCE = new TcpTransport();
+
+	private static final ExecutorService RESOLVER = Executors.newCachedThreadPool(runnable -> {
+		final Thread thread = new Thread(runnable, "icap-resolver");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private TcpTransport() { /***/ }
+
+	@Override
+	public ICAPConnection connect(final String host, final int port, final int connectTimeout, final int readTimeout) throws IOException {
+		final long start = System.nanoTime();
+		final InetAddress inetAddress = resolve(host, connectTimeout);
+
+		int timeout = connectTimeout;
+		if (connectTimeout > 0) {
+			timeout -= (int) TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			if (timeout <= 0) {
+				throw new SocketTimeoutException("Connect timed out");
+			}
+		}
+
+		return connect(inetAddress, host, port, timeout, readTimeout);
+	}
+
+	@Override
+	public boolean resolvesHost() {
+		return true;
+	}
+
+	@Override
+	public ICAPConnection connect(final InetAddress inetAddress, final String host, final int port, final int timeout, final int readTimeout) throws IOException {
+		final Socket socket = new Socket();
+		try {
+			socket.setSoTimeout(readTimeout);
+			socket.connect(new InetSocketAddress(inetAddress, port), timeout);
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+
+		return new SocketConnection(socket);
+	}
+
+	static InetAddress resolve(final String host, final int timeout) throws IOException {
+		if (timeout <= 0 || isLiteral(host)) {
+			return InetAddress.getByName(host);
+		}
+
+		// InetAddress lookups cannot be interrupted nor time out on their own
+		final CompletableFuture<InetAddress> lookup = new CompletableFuture<>();
+		RESOLVER.execute(() -> {
+			try {
+				lookup.complete(InetAddress.getByName(host));
+			} catch (UnknownHostException e) {
+				lookup.completeExceptionally(e);
+			}
+		});
+
+		try {
+			return lookup.get(timeout, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			throw new SocketTimeoutException("Name resolution of " + host + " timed out");
+		} catch (ExecutionException e) {
+			throw (UnknownHostException) e.getCause();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while resolving " + host, e);
+		}
+	}
+
+	private static boolean isLiteral(final String host) {
+		if (host.indexOf(':') >= 0 || "localhost".equalsIgnoreCase(host)) {
+			return true;
+		}
+		for (int i = 0; i < host.length(); ++i) {
+			final char c = host.charAt(i);
+			if (c != '.' && (c < '0' || c > '9')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "tcp";
+	}
+
+}
@@ -0,0 +1,193 @@
+package io.github.rfc3507.client.transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * ICAPS: ICAP over TLS, layered on top of any socket based transport (TCP by default).
+ * <p>
+ * Sessions are cached per {@code host:port} by the {@link SSLContext}, so a new connection to a known
+ * server resumes the session (TLS 1.3 PSK or TLS 1.2 session id) instead of running a full handshake.
+ * Combined with the connection reuse of {@code ICAPClient}, most transactions pay no handshake at all.
+ * No ALPN protocol is negotiated and server host names are verified as for HTTPS.
+ */
+public final class TlsTransport implements ICAPTransport {
+
+	private static final String[] PREFERRED_PROTOCOLS = { "TLSv1.3", "TLSv1.2" };
+
+	private final SSLContext context;
+	private final SSLSocketFactory factory;
+
+	private final LongAdder handshakes = new LongAdder();
+	private final LongAdder handshakeNanos = new LongAdder();
+
+	private TlsTransport(final SSLContext context) {
+		this.context = context;
+		this.factory = context.getSocketFactory();
+		this.protocols = supported(PREFERRED_PROTOCOLS, context.getSupportedSSLParameters().getProtocols());
+	}
+
+	public static TlsTransport instance() {
+		try {
+			return new TlsTransport(SSLContext.getDefault());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public static TlsTransport instance(final SSLContext context) {
+		return new TlsTransport(context);
+	}
+
+	public SSLContext getContext() {
+		return context;
+	}
+
+	private String[] protocols;
+
+	public TlsTransport setProtocols(final String... protocols) {
+		this.protocols = protocols.clone();
+		return this;
+	}
+
+	public String[] getProtocols() {
+		return protocols.clone();
+	}
+
+	private String[] cipherSuites;
+
+	public TlsTransport setCipherSuites(final String... cipherSuites) {
+		this.cipherSuites = cipherSuites == null ? null : cipherSuites.clone();
+		return this;
+	}
+
+	private boolean hostnameVerification = true;
+
+	public TlsTransport setHostnameVerification(final boolean hostnameVerification) {
+		this.hostnameVerification = hostnameVerification;
+		return this;
+	}
+
+	/**
+	 * Number of cached client sessions of the underlying {@link SSLContext}; zero means unlimited.
+	 */
+	public TlsTransport setSessionCacheSize(final int sessionCacheSize) {
+		sessionContext().setSessionCacheSize(sessionCacheSize);
+		return this;
+	}
+
+	/**
+	 * Lifetime, in seconds, of cached client sessions; zero means unlimited.
+	 */
+	public TlsTransport setSessionTimeout(final int sessionTimeout) {
+		sessionContext().setSessionTimeout(sessionTimeout);
+		return this;
+	}
+
+	private SSLSessionContext sessionContext() {
+		return context.getClientSessionContext();
+	}
+
+	private ICAPTransport transport = TcpTransport.INSTANCE;
+
+	/**
+	 * Transport providing the underlying socket. It must produce socket based connections.
+	 */
+	public TlsTransport setTransport(final ICAPTransport transport) {
+		this.transport = transport;
+		return this;
+	}
+
+	/**
+	 * Handshakes performed so far, resumed ones included.
+	 */
+	public long getHandshakeCount() {
+		return handshakes.sum();
+	}
+
+	public long getHandshakeNanos() {
+		return handshakeNanos.sum();
+	}
+
+	@Override
+	public ICAPConnection connect(final String host, final int port, final int connectTimeout, final int readTimeout) throws IOException {
+		return handshake(transport.connect(host, port, connectTimeout, readTimeout), host, port, readTimeout);
+	}
+
+	@Override
+	public boolean resolvesHost() {
+		return transport.resolvesHost();
+	}
+
+	/**
+	 * Connects to the address given; the session cache and host name verification still use {@code host}.
+	 */
+	@Override
+	public ICAPConnection connect(final InetAddress address, final String host, final int port, final int connectTimeout, final int readTimeout) throws IOException {
+		return handshake(transport.connect(address, host, port, connectTimeout, readTimeout), host, port, readTimeout);
+	}
+
+	private ICAPConnection handshake(final ICAPConnection plain, final String host, final int port, final int readTimeout) throws IOException {
+		if (!(plain instanceof SocketConnection)) {
+			plain.close();
+			throw new IOException("TLS requires a socket based transport, not " + transport);
+		}
+
+		final Socket socket = ((SocketConnection) plain).getSocket();
+		try {
+			// Host and port key the session cache, which is what makes resumption possible
+			final SSLSocket ssl = (SSLSocket) factory.createSocket(socket, host, port, true);
+			ssl.setUseClientMode(true);
+
+			final SSLParameters parameters = ssl.getSSLParameters();
+			parameters.setProtocols(protocols);
+			if (cipherSuites != null) {
+				parameters.setCipherSuites(cipherSuites);
+			}
+			if (hostnameVerification) {
+				parameters.setEndpointIdentificationAlgorithm("HTTPS");
+			}
+			ssl.setSSLParameters(parameters);
+			ssl.setSoTimeout(readTimeout);
+
+			final long start = System.nanoTime();
+			ssl.startHandshake();
+			handshakeNanos.add(System.nanoTime() - start);
+			handshakes.increment();
+
+			return new SocketConnection(ssl);
+		} catch (IOException | RuntimeException e) {
+			socket.close();
+			throw e;
+		}
+	}
+
+	private static String[] supported(final String[] preferred, final String[] available) {
+		final List<String> availableList = Arrays.asList(available);
+		final List<String> result = new ArrayList<>();
+		for (final String protocol : preferred) {
+			if (availableList.contains(protocol)) {
+				result.add(protocol);
+			}
+		}
+		return result.isEmpty() ? available : result.toArray(new String[0]);
+	}
+
+	@Override
+	public String toString() {
+		return "tls+" + transport;
+	}
+
+}
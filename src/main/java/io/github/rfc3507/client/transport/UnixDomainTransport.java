@@ -0,0 +1,47 @@
+package io.github.rfc3507.client.transport;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Connects to an ICAP server listening on a Unix domain socket, e.g. a sidecar on the same host.
+ * <p>
+ * Unix domain socket channels only exist since Java 16: this is the fallback of the multi-release jar,
+ * the working implementation lives under {@code META-INF/versions/16}.
+ */
+public final class UnixDomainTransport implements ICAPTransport {
+
+	private final Path path;
+
+	private UnixDomainTransport(final Path path) {
+		this.path = path;
+	}
+
+	public static UnixDomainTransport of(final Path path) {
+		return new UnixDomainTransport(path);
+	}
+
+	public static UnixDomainTransport of(final String path) {
+		return new UnixDomainTransport(Paths.get(path));
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	public static boolean isSupported() {
+		return false;
+	}
+
+	@Override
+	public ICAPConnection connect(final String host, final int port, final int connectTimeout, final int readTimeout) throws IOException {
+		throw new IOException("Unix domain sockets require Java 16 or later and the multi-release jar");
+	}
+
+	@Override
+	public String toString() {
+		return "unix:" + path;
+	}
+
+}
@@ -0,0 +1,307 @@
+package io.github.rfc3507.utilities;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+/**
+ * Bounded pool of power-of-two sized buffers, heap ({@code byte[]}) and direct ({@link ByteBuffer}).
+ * <p>
+ * Each thread keeps one buffer per size class up to {@value #THREAD_LOCAL_LIMIT} bytes, so steady state
+ * traffic acquires and releases without contention; other buffers go to a shared queue per size class,
+ * bounded by the total amount of pooled bytes. Buffers larger than {@value #MAX_POOLED} bytes are never pooled.
+ * A released buffer must not be used anymore.
+ * <p>
+ * The bound only applies to the shared queues. Thread-local buffers are not counted against it, since they
+ * are dropped with their thread, unseen by the pool: each thread holds at most 127.5 KiB per tier besides.
+ */
+public final class BufferPool {
+
+	private static final int MIN_SHIFT = 9;
+	private static final int MAX_SHIFT = 20;
+	private static final int CLASSES = MAX_SHIFT - MIN_SHIFT + 1;
+
+	static final int MAX_POOLED = 1 << MAX_SHIFT;
+	static final int THREAD_LOCAL_LIMIT = 1 << 16;
+
+	private static final BufferPool DEFAULT = new BufferPool(32L << 20);
+
+	private final Tier<byte[]> heap;
+	private final Tier<ByteBuffer> direct;
+
+	private final LongAdder allocations = new LongAdder();
+	private final LongAdder reuses = new LongAdder();
+
+	private volatile int payloadHint = 4096;
+
+	private BufferPool(final long maxPooledBytes) {
+		this.heap = new Tier<>(maxPooledBytes, b -> b.length);
+		this.direct = new Tier<>(maxPooledBytes, ByteBuffer::capacity);
+	}
+
+	/**
+	 * Pool shared by all clients, holding at most 32 MiB per tier in its shared queues.
+	 */
+	public static BufferPool getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * @param maxPooledBytes bytes held by the shared queues of each tier, thread-local buffers excluded
+	 */
+	public static BufferPool instance(final long maxPooledBytes) {
+		return new BufferPool(maxPooledBytes);
+	}
+
+	/**
+	 * @return a buffer of at least {@code size} bytes, with unspecified content
+	 */
+	public byte[] acquire(final int size) {
+		final int index = classOf(size);
+		if (index >= 0) {
+			final byte[] buffer = heap.poll(index);
+			if (buffer != null) {
+				reuses.increment();
+				return buffer;
+			}
+		}
+		allocations.increment();
+		return new byte[index >= 0 ? 1 << (index + MIN_SHIFT) : size];
+	}
+
+	public void release(final byte[] buffer) {
+		if (buffer != null) {
+			heap.offer(pooledClassOf(buffer.length), buffer);
+		}
+	}
+
+	/**
+	 * @return a cleared direct buffer with a capacity of at least {@code size} bytes
+	 */
+	public ByteBuffer acquireDirect(final int size) {
+		final int index = classOf(size);
+		if (index >= 0) {
+			final ByteBuffer buffer = direct.poll(index);
+			if (buffer != null) {
+				reuses.increment();
+				// Buffer cast keeps the Java 8 method signature
+				((Buffer) buffer).clear();
+				return buffer;
+			}
+		}
+		allocations.increment();
+		return ByteBuffer.allocateDirect(index >= 0 ? 1 << (index + MIN_SHIFT) : size);
+	}
+
+	public void release(final ByteBuffer buffer) {
+		if (buffer != null && buffer.isDirect()) {
+			direct.offer(pooledClassOf(buffer.capacity()), buffer);
+		}
+	}
+
+	/**
+	 * A growable output stream on pooled arrays, initially sized from the payloads observed by
+	 * previous outputs of this kind. Closing it returns its array to the pool.
+	 */
+	public Output output() {
+		return new Output(payloadHint, true);
+	}
+
+	/**
+	 * A growable output stream on pooled arrays, for content of a known typical size.
+	 */
+	public Output output(final int initialSize) {
+		return new Output(initialSize, false);
+	}
+
+	public long getAllocations() {
+		return allocations.sum();
+	}
+
+	public long getReuses() {
+		return reuses.sum();
+	}
+
+	/**
+	 * Bytes currently held by the shared queues, both tiers included.
+	 */
+	public long getPooledBytes() {
+		return heap.pooledBytes.get() + direct.pooledBytes.get();
+	}
+
+	public int getPayloadHint() {
+		return payloadHint;
+	}
+
+	private void observe(final int size) {
+		final int hint = payloadHint;
+		// Moves a quarter of the way towards each new size
+		payloadHint = Math.min(MAX_POOLED, hint + (size - hint) / 4);
+	}
+
+	private static int classOf(final int size) {
+		if (size > MAX_POOLED) {
+			return -1;
+		}
+		final int shift = 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1);
+		return Math.max(shift, MIN_SHIFT) - MIN_SHIFT;
+	}
+
+	private static int pooledClassOf(final int capacity) {
+		if (capacity < 1 << MIN_SHIFT || capacity > MAX_POOLED || Integer.bitCount(capacity) != 1) {
+			return -1;
+		}
+		return Integer.numberOfTrailingZeros(capacity) - MIN_SHIFT;
+	}
+
+	private static final class Tier<T> {
+		private final long maxPooledBytes;
+		private final ToIntFunction<T> capacity;
+
+		private final AtomicLong pooledBytes = new AtomicLong();
+
+		@SuppressWarnings("unchecked")
+		private final ConcurrentLinkedQueue<T>[] shared = new ConcurrentLinkedQueue[CLASSES];
+
+		private final ThreadLocal<Object[]> local = ThreadLocal.withInitial(() -> new Object[CLASSES]);
+
+		Tier(final long maxPooledBytes, final ToIntFunction<T> capacity) {
+			this.maxPooledBytes = maxPooledBytes;
+			this.capacity = capacity;
+			for (int i = 0; i < CLASSES; ++i) {
+				shared[i] = new ConcurrentLinkedQueue<>();
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		T poll(final int index) {
+			final Object[] slots = local.get();
+			final T cached = (T) slots[index];
+			if (cached != null) {
+				slots[index] = null;
+				return cached;
+			}
+
+			final T buffer = shared[index].poll();
+			if (buffer != null) {
+				pooledBytes.addAndGet(-capacity.applyAsInt(buffer));
+			}
+			return buffer;
+		}
+
+		void offer(final int index, final T buffer) {
+			if (index < 0) {
+				return;
+			}
+
+			final int size = capacity.applyAsInt(buffer);
+			if (size <= THREAD_LOCAL_LIMIT) {
+				final Object[] slots = local.get();
+				if (slots[index] == null) {
+					slots[index] = buffer;
+					return;
+				}
+			}
+
+			if (pooledBytes.addAndGet(size) > maxPooledBytes) {
+				pooledBytes.addAndGet(-size);
+				return;
+			}
+			shared[index].offer(buffer);
+		}
+	}
+
+	/**
+	 * Not thread safe, like the transactions it serves.
+	 */
+	public final class Output extends OutputStream {
+		private final boolean observed;
+
+		private byte[] buffer;
+		private int count = 0;
+
+		private Output(final int initialSize, final boolean observed) {
+			this.observed = observed;
+			this.buffer = acquire(Math.max(initialSize, 1));
+		}
+
+		private void ensureCapacity(final int required) {
+			if (required > buffer.length) {
+				final byte[] grown = acquire(Math.max(required, buffer.length << 1));
+				System.arraycopy(buffer, 0, grown, 0, count);
+				release(buffer);
+				buffer = grown;
+			}
+		}
+
+		@Override
+		public void write(final int b) {
+			ensureCapacity(count + 1);
+			buffer[count++] = (byte) b;
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) {
+			ensureCapacity(count + len);
+			System.arraycopy(b, off, buffer, count, len);
+			count += len;
+		}
+
+		/**
+		 * Reads up to {@code len} bytes straight into the internal array.
+		 *
+		 * @return the amount read, or -1 at end of stream
+		 */
+		public int readFrom(final InputStream in, final int len) throws IOException {
+			ensureCapacity(count + len);
+			final int read = in.read(buffer, count, len);
+			if (read > 0) {
+				count += read;
+			}
+			return read;
+		}
+
+		public int size() {
+			return count;
+		}
+
+		public void reset() {
+			count = 0;
+		}
+
+		/**
+		 * Drops the bytes written after the first {@code size} ones.
+		 */
+		public void truncate(final int size) {
+			count = Math.max(0, Math.min(size, count));
+		}
+
+		public byte[] toByteArray() {
+			return Arrays.copyOf(buffer, count);
+		}
+
+		public String toString(final Charset charset) {
+			return new String(buffer, 0, count, charset);
+		}
+
+		@Override
+		public void close() {
+			if (buffer != null) {
+				if (observed) {
+					observe(count);
+				}
+				release(buffer);
+				buffer = null;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,118 @@
+package io.github.rfc3507.utilities;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear histogram with roughly 1.5% value precision.
+ * Values are unit agnostic; callers usually record microseconds.
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int LINEAR_LIMIT = SUB_BUCKET_COUNT << 1;
+	private static final int BUCKET_COUNT = LINEAR_LIMIT + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKET_COUNT;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+	private final LongAdder total = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	public void record(final long value) {
+		final long v = Math.max(0, value);
+		counts.incrementAndGet(indexOf(v));
+		total.increment();
+		sum.add(v);
+		max.accumulate(v);
+	}
+
+	/**
+	 * Records a value and back-fills the samples an uncoordinated load generator would have
+	 * missed while that value was stalling it (coordinated omission correction).
+	 */
+	public void record(final long value, final long expectedInterval) {
+		record(value);
+		if (expectedInterval <= 0) {
+			return;
+		}
+		for (long missing = value - expectedInterval; missing >= expectedInterval; missing -= expectedInterval) {
+			record(missing);
+		}
+	}
+
+	public long getCount() {
+		return total.sum();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		final long count = total.sum();
+		return count == 0 ? 0 : (double) sum.sum() / count;
+	}
+
+	public long getPercentile(final double percentile) {
+		final long count = total.sum();
+		if (count == 0) {
+			return 0;
+		}
+
+		final long rank = Math.max(1, (long) Math.ceil(count * Math.min(100.0, percentile) / 100.0));
+
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; ++i) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(highestValueAt(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; ++i) {
+			counts.set(i, 0);
+		}
+		total.reset();
+		sum.reset();
+		max.reset();
+	}
+
+	public void add(final LatencyHistogram other) {
+		for (int i = 0; i < BUCKET_COUNT; ++i) {
+			final long count = other.counts.get(i);
+			if (count > 0) {
+				counts.addAndGet(i, count);
+			}
+		}
+		total.add(other.total.sum());
+		sum.add(other.sum.sum());
+		max.accumulate(other.max.get());
+	}
+
+	static int indexOf(final long value) {
+		if (value < LINEAR_LIMIT) {
+			return (int) value;
+		}
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int shift = exponent - SUB_BUCKET_BITS;
+		final int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+		return LINEAR_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKET_COUNT + subBucket;
+	}
+
+	static long highestValueAt(final int index) {
+		if (index < LINEAR_LIMIT) {
+			return index;
+		}
+		final int offset = index - LINEAR_LIMIT;
+		final int exponent = offset / SUB_BUCKET_COUNT + SUB_BUCKET_BITS + 1;
+		final int shift = exponent - SUB_BUCKET_BITS;
+		final long subBucket = (offset % SUB_BUCKET_COUNT) + SUB_BUCKET_COUNT;
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+}
@@ -0,0 +1,35 @@
+package io.github.rfc3507.client.gateway;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Opens server channels on Unix domain sockets.
+ * <p>
+ * Java 16 layer of the multi-release jar. A stale socket file left by a previous run is replaced.
+ */
+final class UnixDomainListener {
+
+	private UnixDomainListener() { /***/ }
+
+	static boolean isSupported() {
+		return true;
+	}
+
+	static ServerSocketChannel open(final Path path, final int backlog) throws IOException {
+		Files.deleteIfExists(path);
+		final ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		try {
+			channel.bind(UnixDomainSocketAddress.of(path), backlog);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		return channel;
+	}
+
+}
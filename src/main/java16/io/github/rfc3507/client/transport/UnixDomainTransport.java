@@ -0,0 +1,59 @@
+package io.github.rfc3507.client.transport;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Connects to an ICAP server listening on a Unix domain socket, e.g. a sidecar on the same host.
+ * <p>
+ * Java 16 layer of the multi-release jar. Reads and writes honour the same timeouts as the TCP transport.
+ */
+public final class UnixDomainTransport implements ICAPTransport {
+
+	private final Path path;
+	private final UnixDomainSocketAddress address;
+
+	private UnixDomainTransport(final Path path) {
+		this.path = path;
+		this.address = UnixDomainSocketAddress.of(path);
+	}
+
+	public static UnixDomainTransport of(final Path path) {
+		return new UnixDomainTransport(path);
+	}
+
+	public static UnixDomainTransport of(final String path) {
+		return new UnixDomainTransport(Paths.get(path));
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	public static boolean isSupported() {
+		return true;
+	}
+
+	@Override
+	public ICAPConnection connect(final String host, final int port, final int connectTimeout, final int readTimeout) throws IOException {
+		final SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+		try {
+			channel.configureBlocking(false);
+			channel.connect(address);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		return ChannelConnection.finishConnect(channel, connectTimeout, readTimeout);
+	}
+
+	@Override
+	public String toString() {
+		return "unix:" + path;
+	}
+
+}
@@ -0,0 +1,99 @@
+package io.github.rfc3507.client.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import io.github.rfc3507.client.AdaptivePreview;
+import io.github.rfc3507.client.ICAPClient;
+import io.github.rfc3507.client.ICAPRequest;
+import io.github.rfc3507.client.test.stub.ICAPStubServer;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class AdaptivePreviewTestCase {
+
+	private static final int REQUESTS = 30;
+
+	private ICAPStubServer server;
+
+	@BeforeAll
+	public void startup() throws Exception {
+		server = ICAPStubServer.instance().setWorkers(2).setLatency(5).start();
+	}
+
+	@AfterEach
+	public void restore() {
+		server.setPreviewNoContentRate(0);
+	}
+
+	private static ICAPRequest pdf() {
+		return ICAPRequest.instance("avscan", ICAPRequest.Mode.RESPMOD)
+				.setHttpResponseHeader("HTTP/1.1 200 OK\r\nContent-Type: application/pdf\r\n\r\n".getBytes(StandardCharsets.US_ASCII))
+				.setHttpResponseBody(new byte[32 * 1024]);
+	}
+
+	private AdaptivePreview.Statistics run(final AdaptivePreview adaptive) throws Exception {
+		try (ICAPClient client = ICAPClient.instance("localhost", server.getPort()).setAdaptivePreview(adaptive)) {
+			for (int i = 0; i < REQUESTS; ++i) {
+				assertEquals(204, client.execute(pdf()).getStatus());
+			}
+		}
+
+		final AdaptivePreview.Statistics statistics = adaptive.getStatistics().get("avscan application/pdf");
+		assertNotNull(statistics, adaptive.getStatistics().toString());
+		return statistics;
+	}
+
+	@Test
+	public void keepsPreviewWhenServerDecidesEarly() throws Exception {
+		server.setPreviewNoContentRate(1);
+
+		final AdaptivePreview.Statistics statistics = run(AdaptivePreview.instance().setMinSamples(10).setExplorationRate(0));
+
+		assertEquals(REQUESTS, statistics.getPreviewDecisions(), statistics.toString());
+		assertEquals(REQUESTS, statistics.getFinalAfterPreview(), statistics.toString());
+		assertTrue(statistics.getPreviewMillis() >= 5, statistics.toString());
+	}
+
+	@Test
+	public void dropsPreviewWhenServerAlwaysContinues() throws Exception {
+		final AdaptivePreview.Statistics statistics = run(AdaptivePreview.instance().setMinSamples(10).setExplorationRate(0));
+
+		assertEquals(10, statistics.getSamples(), statistics.toString());
+		assertEquals(0, statistics.getFinalAfterPreview(), statistics.toString());
+		assertEquals(REQUESTS - 10, statistics.getFullDecisions(), statistics.toString());
+	}
+
+	@Test
+	public void boundsContentTypes() throws Exception {
+		final AdaptivePreview adaptive = AdaptivePreview.instance().setMaxKeys(2);
+
+		try (ICAPClient client = ICAPClient.instance("localhost", server.getPort()).setAdaptivePreview(adaptive)) {
+			for (int i = 0; i < 10; ++i) {
+				assertEquals(204, client.execute(ICAPRequest.instance("avscan", ICAPRequest.Mode.RESPMOD)
+						.setHttpResponseHeader(("HTTP/1.1 200 OK\r\nContent-Type: application/x-type" + i + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII))
+						.setHttpResponseBody(new byte[32 * 1024])).getStatus());
+			}
+		}
+
+		// Types beyond the cap share the entry of the service
+		assertEquals(3, adaptive.getStatistics().size(), adaptive.getStatistics().toString());
+		assertNotNull(adaptive.getStatistics().get("avscan application/x-type0"), adaptive.getStatistics().toString());
+		assertEquals(8, adaptive.getStatistics().get("avscan *").getSamples(), adaptive.getStatistics().toString());
+	}
+
+	@AfterAll
+	public void shutdown() throws Exception {
+		server.close();
+	}
+
+}
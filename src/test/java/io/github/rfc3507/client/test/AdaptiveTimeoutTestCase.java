@@ -0,0 +1,103 @@
+package io.github.rfc3507.client.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import io.github.rfc3507.client.AdaptiveTimeout;
+import io.github.rfc3507.client.ICAPClient;
+import io.github.rfc3507.client.ICAPException;
+import io.github.rfc3507.client.ICAPRequest;
+import io.github.rfc3507.client.test.stub.ICAPStubServer;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class AdaptiveTimeoutTestCase {
+
+	private ICAPStubServer server;
+
+	@BeforeAll
+	public void startup() throws Exception {
+		server = ICAPStubServer.instance().setWorkers(2).setLatency(20).start();
+	}
+
+	private static ICAPRequest scan(final int size) {
+		return ICAPRequest.instance("avscan", ICAPRequest.Mode.RESPMOD)
+				.setHttpResponseHeader("HTTP/1.1 200 OK\r\n\r\n".getBytes(StandardCharsets.US_ASCII))
+				.setHttpResponseBody(new byte[size]);
+	}
+
+	@Test
+	public void learnsAndFiresEarly() throws Exception {
+		final AdaptiveTimeout timeouts = AdaptiveTimeout.instance().setMinSamples(20).setMinTimeout(100).setMultiplier(2);
+
+		try (ICAPClient client = ICAPClient.instance("localhost", server.getPort()).setAdaptiveTimeout(timeouts)) {
+			for (int i = 0; i < 20; ++i) {
+				assertEquals(-1, timeouts.getTimeout("avscan", 1024));
+				assertEquals(204, client.execute(scan(1024 * (1 + i % 4))).getStatus());
+			}
+			assertEquals(20, timeouts.getFallbackWaits());
+
+			final int timeout = timeouts.getTimeout("avscan", 1024);
+			assertTrue(timeout >= 100 && timeout < 1000, timeouts.getStatistics().toString());
+
+			server.setLatency(3000);
+			final long start = System.nanoTime();
+			final ICAPException failure = assertThrows(ICAPException.class, () -> client.execute(scan(1024)));
+			final long elapsed = (System.nanoTime() - start) / 1_000_000;
+
+			assertTrue(failure.getCause() instanceof SocketTimeoutException, failure.toString());
+			assertTrue(elapsed < 2000, "elapsed " + elapsed);
+			assertEquals(1, timeouts.getTimeouts());
+			assertEquals(1, timeouts.getAdaptiveWaits());
+		} finally {
+			server.setLatency(20);
+		}
+	}
+
+	@Test
+	public void followsSlowdown() throws Exception {
+		final AdaptiveTimeout timeouts = AdaptiveTimeout.instance().setMinSamples(20).setMinTimeout(100).setMultiplier(2);
+
+		try (ICAPClient client = ICAPClient.instance("localhost", server.getPort()).setAdaptiveTimeout(timeouts)) {
+			for (int i = 0; i < 20; ++i) {
+				assertEquals(204, client.execute(scan(1024)).getStatus());
+			}
+			final int learned = timeouts.getTimeout("avscan", 1024);
+			assertTrue(learned < 600, timeouts.getStatistics().toString());
+
+			// Each timeout counts as a wait at least that long, so the next wait is given more time
+			server.setLatency(600);
+			int failures = 0;
+			while (true) {
+				try {
+					assertEquals(204, client.execute(scan(1024)).getStatus());
+					break;
+				} catch (ICAPException e) {
+					assertTrue(e.getCause() instanceof SocketTimeoutException, e.toString());
+					assertTrue(++failures < 10, timeouts.getStatistics().toString());
+				}
+			}
+
+			assertTrue(failures >= 1, "failures " + failures);
+			assertEquals(failures, timeouts.getTimeouts());
+			assertTrue(timeouts.getTimeout("avscan", 1024) >= 600, timeouts.getStatistics().toString());
+		} finally {
+			server.setLatency(20);
+		}
+	}
+
+	@AfterAll
+	public void shutdown() throws Exception {
+		server.close();
+	}
+
+}
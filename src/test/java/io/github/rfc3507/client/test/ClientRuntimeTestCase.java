@@ -0,0 +1,95 @@
+package io.github.rfc3507.client.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import io.github.rfc3507.client.ClientRuntime;
+import io.github.rfc3507.client.ICAPClient;
+import io.github.rfc3507.client.ICAPException;
+import io.github.rfc3507.client.ICAPRequest;
+import io.github.rfc3507.client.test.stub.ICAPStubServer;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class ClientRuntimeTestCase {
+
+	private static final int TENANTS = 200;
+
+	private ICAPStubServer server;
+
+	@BeforeAll
+	public void startup() throws Exception {
+		server = ICAPStubServer.instance().setWorkers(2).start();
+	}
+
+	@Test
+	public void tenantsShareConnections() throws Exception {
+		final long connectionsBefore = server.getConnectionCount();
+
+		try (ClientRuntime runtime = ClientRuntime.instance()) {
+			final List<ICAPClient> clients = new ArrayList<>();
+			for (int i = 0; i < TENANTS; ++i) {
+				clients.add(ICAPClient.instance("localhost", server.getPort(), runtime));
+			}
+
+			for (final ICAPClient client : clients) {
+				assertEquals(204, client.execute(ICAPRequest.instance("avscan", ICAPRequest.Mode.RESPMOD)
+						.setHttpResponseHeader("HTTP/1.1 200 OK\r\n\r\n".getBytes(StandardCharsets.US_ASCII))
+						.setHttpResponseBody("content".getBytes(StandardCharsets.US_ASCII))).getStatus());
+			}
+
+			// One endpoint, one connection reused by every tenant in turn
+			assertEquals(1, server.getConnectionCount() - connectionsBefore);
+			assertEquals(TENANTS, runtime.getClients());
+			assertEquals(1, runtime.getEndpoints());
+			assertEquals(1, runtime.getIdleConnections());
+			assertEquals(TENANTS, runtime.getTransactions());
+			assertEquals(TENANTS, runtime.getLatency().getCount());
+			assertSame(runtime.getBufferPool(), clients.get(0).getBufferPool());
+		}
+	}
+
+	@Test
+	public void cachesResolvedAddresses() throws Exception {
+		try (ClientRuntime runtime = ClientRuntime.instance().setMaxIdleConnections(0)) {
+			for (int i = 0; i < 5; ++i) {
+				ICAPClient.instance("localhost", server.getPort(), runtime).options("avscan");
+			}
+
+			assertEquals(1, runtime.getResolutions());
+			assertEquals(4, runtime.getResolutionHits());
+		}
+	}
+
+	@Test
+	public void closedRuntime() throws Exception {
+		final ClientRuntime runtime = ClientRuntime.instance().setAddressTtl(0);
+		final ICAPClient client = ICAPClient.instance("localhost", server.getPort(), runtime);
+		assertEquals(200, client.options("avscan").getStatus());
+
+		runtime.close();
+
+		assertTrue(runtime.isClosed());
+		assertThrows(IllegalStateException.class, () -> ICAPClient.instance("localhost", server.getPort(), runtime));
+		final ICAPException failure = assertThrows(ICAPException.class, () -> client.options("avscan"));
+		assertTrue(failure.getCause() instanceof IOException, failure.toString());
+	}
+
+	@AfterAll
+	public void shutdown() throws Exception {
+		server.close();
+	}
+
+}
@@ -0,0 +1,122 @@
+package io.github.rfc3507.client.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import io.github.rfc3507.client.ICAPCall;
+import io.github.rfc3507.client.ICAPClient;
+import io.github.rfc3507.client.ICAPException;
+import io.github.rfc3507.client.ICAPRequest;
+import io.github.rfc3507.client.test.stub.ICAPStubServer;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class DeadlineTestCase {
+
+	private ICAPStubServer server;
+
+	@BeforeAll
+	public void startup() throws Exception {
+		server = ICAPStubServer.instance().setWorkers(2).start();
+	}
+
+	@AfterEach
+	public void restore() {
+		server.setLatency(0).setBandwidth(0);
+	}
+
+	private ICAPClient client() {
+		return ICAPClient.instance("localhost", server.getPort()).setReadTimeout(15000);
+	}
+
+	private static ICAPRequest echo(final int size) {
+		return ICAPRequest.instance("echo", ICAPRequest.Mode.RESPMOD)
+				.setHttpResponseHeader("HTTP/1.1 200 OK\r\n\r\n".getBytes(StandardCharsets.US_ASCII))
+				.setHttpResponseBody(new byte[size]);
+	}
+
+	@Test
+	public void deadlineBoundsSlowResponse() {
+		server.setLatency(3000);
+
+		final long start = System.nanoTime();
+		final ICAPException failure = assertThrows(ICAPException.class, () -> client().setRequestTimeout(300).execute(echo(10)));
+		final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		assertTrue(failure.getCause() instanceof SocketTimeoutException);
+		assertTrue(elapsed < 2000, "Elapsed " + elapsed + " ms");
+	}
+
+	@Test
+	public void deadlineBoundsTricklingServer() {
+		// Each read succeeds well within the read timeout, but the whole response would take minutes
+		server.setBandwidth(200);
+
+		final long start = System.nanoTime();
+		final ICAPException failure = assertThrows(ICAPException.class, () -> client().execute(echo(50_000).setTimeout(500)));
+		final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		assertTrue(failure.getCause() instanceof SocketTimeoutException);
+		assertTrue(elapsed < 2000, "Elapsed " + elapsed + " ms");
+	}
+
+	@Test
+	public void cancelRunningCall() throws Exception {
+		server.setLatency(3000);
+
+		final ICAPClient client = client();
+		final ICAPCall call = client.newCall(echo(10));
+
+		final CompletableFuture<ICAPException> outcome = CompletableFuture.supplyAsync(() -> {
+			try {
+				call.execute();
+				return null;
+			} catch (ICAPException e) {
+				return e;
+			}
+		});
+
+		Thread.sleep(200);
+		final long start = System.nanoTime();
+		call.cancel();
+
+		final ICAPException failure = outcome.get(2, TimeUnit.SECONDS);
+		final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		assertTrue(failure.getCause() instanceof CancellationException);
+		assertTrue(call.isCancelled());
+		assertTrue(elapsed < 1000, "Elapsed " + elapsed + " ms");
+		assertEquals(0, client.getIdleConnections());
+
+		server.setLatency(0);
+		assertEquals(200, client.execute(echo(10)).getStatus());
+		assertEquals(1, client.getIdleConnections());
+	}
+
+	@Test
+	public void cancelledBeforeExecution() {
+		final ICAPCall call = client().newCall(echo(10));
+		call.cancel();
+
+		assertThrows(ICAPException.class, call::execute);
+	}
+
+	@AfterAll
+	public void terminate() throws Exception {
+		server.close();
+	}
+
+}
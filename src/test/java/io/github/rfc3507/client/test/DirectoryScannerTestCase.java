@@ -0,0 +1,144 @@
+package io.github.rfc3507.client.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import io.github.rfc3507.client.ICAPClient;
+import io.github.rfc3507.client.scan.DirectoryScanner;
+import io.github.rfc3507.client.scan.ScanManifest;
+import io.github.rfc3507.client.scan.ScanReport;
+import io.github.rfc3507.client.test.stub.ICAPStubServer;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class DirectoryScannerTestCase {
+
+	private static final int CLEAN_FILES = 30;
+
+	private ICAPStubServer server;
+	private Path root;
+
+	@BeforeAll
+	public void startup() throws Exception {
+		server = ICAPStubServer.instance().setWorkers(2).start();
+		root = Files.createTempDirectory("icap-scan");
+
+		final Random random = new Random(11);
+		for (int i = 0; i < CLEAN_FILES; ++i) {
+			final Path directory = Files.createDirectories(root.resolve("d" + i % 3).resolve("e" + i % 2));
+			final byte[] content = new byte[random.nextInt(100_000)];
+			random.nextBytes(content);
+			Files.write(directory.resolve("file " + i + ".bin"), content);
+		}
+		Files.write(root.resolve("d0").resolve("eicar.com"),
+				"X5O!P%@AP[4\\PZX54(P^)7CC)7}$EICAR-STANDARD-ANTIVIRUS-TEST-FILE!$H+H*".getBytes(StandardCharsets.US_ASCII));
+	}
+
+	@Test
+	public void incrementalScan() throws Exception {
+		final ScanManifest manifest = ScanManifest.instance();
+		final Path manifestFile = root.resolveSibling(root.getFileName() + ".manifest");
+
+		try (ICAPClient client = ICAPClient.instance("localhost", server.getPort())) {
+			final DirectoryScanner scanner = DirectoryScanner.instance(client)
+					.setService("virus_scan")
+					.setConcurrency(4)
+					.setStreamThreshold(50_000)
+					.setManifest(manifest);
+
+			final ScanReport first = scanner.scan(root);
+			assertEquals(CLEAN_FILES + 1, first.getFiles());
+			assertEquals(CLEAN_FILES + 1, first.getScanned());
+			assertEquals(CLEAN_FILES, first.getClean());
+			assertEquals(1, first.getThreats().size(), first.getThreats().toString());
+			assertEquals("Eicar-Test-Signature", first.getThreats().get(root.resolve("d0").resolve("eicar.com").toString()));
+			assertTrue(first.getErrors().isEmpty(), first.getErrors().toString());
+			assertEquals(CLEAN_FILES + 1, first.getLatency().getCount());
+
+			manifest.save(manifestFile);
+			final ScanManifest reloaded = ScanManifest.load(manifestFile);
+			assertEquals(CLEAN_FILES, reloaded.size());
+
+			// Streamed files are digested as sent, inline ones up front
+			int streamed = 0;
+			for (int i = 0; i < CLEAN_FILES; ++i) {
+				final Path file = root.resolve("d" + i % 3).resolve("e" + i % 2).resolve("file " + i + ".bin");
+				final byte[] content = Files.readAllBytes(file);
+				streamed += content.length > 50_000 ? 1 : 0;
+				assertEquals(sha256(content), reloaded.getDigest(file), file.toString());
+			}
+			assertTrue(streamed > 0);
+
+			// Touched, and rewritten with new content
+			final Path touched = root.resolve("d0").resolve("e0").resolve("file 0.bin");
+			Files.setLastModifiedTime(touched, FileTime.fromMillis(Files.getLastModifiedTime(touched).toMillis() + 5000));
+			final Path rewritten = root.resolve("d1").resolve("e1").resolve("file 1.bin");
+			Files.write(rewritten, "new content".getBytes(StandardCharsets.US_ASCII));
+
+			final ScanReport second = scanner.setManifest(reloaded).scan(root);
+			assertEquals(CLEAN_FILES + 1, second.getFiles());
+			assertEquals(CLEAN_FILES - 1, second.getUnchanged());
+			// The rewritten file and the infected one, never recorded
+			assertEquals(2, second.getScanned());
+			assertEquals(1, second.getThreats().size());
+
+			final String json = second.toJson();
+			assertTrue(json.startsWith("{\"files\":" + (CLEAN_FILES + 1) + ",\"scanned\":2,\"unchanged\":" + (CLEAN_FILES - 1)), json);
+			assertTrue(json.contains("\"latencyMillis\":{\"mean\":"), json);
+		} finally {
+			Files.deleteIfExists(manifestFile);
+		}
+	}
+
+	@Test
+	public void severalRoots() throws Exception {
+		// Missing roots complete at once, possibly before the next roots are submitted
+		final List<Path> roots = new ArrayList<>();
+		for (int i = 0; i < 200; ++i) {
+			roots.add(root.resolve("missing" + i));
+		}
+		roots.add(root.resolve("d0"));
+		roots.add(root.resolve("d1"));
+		roots.add(root.resolve("d2"));
+
+		try (ICAPClient client = ICAPClient.instance("localhost", server.getPort())) {
+			final ScanReport report = DirectoryScanner.instance(client)
+					.setService("virus_scan")
+					.setConcurrency(4)
+					.scan(roots.toArray(new Path[0]));
+
+			assertEquals(CLEAN_FILES + 1, report.getFiles());
+			assertEquals(CLEAN_FILES + 1, report.getScanned());
+			assertEquals(1, report.getThreats().size(), report.getThreats().toString());
+			assertEquals(200, report.getErrors().size());
+		}
+	}
+
+	private static String sha256(final byte[] content) throws Exception {
+		final StringBuilder hex = new StringBuilder();
+		for (final byte b : MessageDigest.getInstance("SHA-256").digest(content)) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+	@AfterAll
+	public void shutdown() throws Exception {
+		server.close();
+	}
+
+}
@@ -0,0 +1,306 @@
+package io.github.rfc3507.client.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import io.github.rfc3507.client.BodyPublisher;
+import io.github.rfc3507.client.ICAPCall;
+import io.github.rfc3507.client.ICAPClient;
+import io.github.rfc3507.client.ICAPException;
+import io.github.rfc3507.client.ICAPRequest;
+import io.github.rfc3507.client.ICAPResponse;
+import io.github.rfc3507.client.test.stub.ICAPStubServer;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class FlowTestCase {
+
+	private ICAPStubServer server;
+
+	@BeforeAll
+	public void startup() throws Exception {
+		server = ICAPStubServer.instance().setWorkers(2).start();
+	}
+
+	@AfterEach
+	public void restore() {
+		server.setPreviewNoContentRate(0);
+	}
+
+	private ICAPClient client() {
+		return ICAPClient.instance("localhost", server.getPort()).setReadTimeout(5000);
+	}
+
+	private static byte[] content(final int size) {
+		final byte[] raw = new byte[size];
+		for (int i = 0; i < raw.length; ++i) {
+			raw[i] = (byte) ('a' + (i % 26));
+		}
+		return raw;
+	}
+
+	private static ICAPRequest respmod(final String service) {
+		return ICAPRequest.instance(service, ICAPRequest.Mode.RESPMOD)
+				.setHttpResponseHeader("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+	}
+
+	@Test
+	public void publishedRequestBody() throws Exception {
+		final byte[] raw = content(300_000);
+
+		try (SubmissionPublisher<ByteBuffer> upstream = new SubmissionPublisher<>()) {
+			final ICAPRequest request = respmod("echo").setPreview(10).setHttpResponseBody(upstream);
+
+			final CompletableFuture<Void> producer = CompletableFuture.runAsync(() -> {
+				// Items submitted before the client subscribes would be dropped
+				while (upstream.getNumberOfSubscribers() == 0) {
+					Thread.yield();
+				}
+				for (int offset = 0; offset < raw.length; offset += 4096) {
+					upstream.submit(ByteBuffer.wrap(raw, offset, Math.min(4096, raw.length - offset)));
+				}
+				upstream.close();
+			});
+
+			final ICAPResponse response = client().execute(request);
+			producer.get(5, TimeUnit.SECONDS);
+
+			assertEquals(200, response.getStatus());
+			assertArrayEquals(raw, response.getHttpShrinkResponseBody());
+		}
+	}
+
+	@Test
+	public void slowPublisherWithoutReadTimeout() throws Exception {
+		final byte[] raw = content(20_000);
+
+		try (SubmissionPublisher<ByteBuffer> upstream = new SubmissionPublisher<>()) {
+			final ICAPRequest request = respmod("echo").setPreview(10).setHttpResponseBody(upstream);
+
+			final CompletableFuture<Void> producer = CompletableFuture.runAsync(() -> {
+				while (upstream.getNumberOfSubscribers() == 0) {
+					Thread.yield();
+				}
+				try {
+					for (int offset = 0; offset < raw.length; offset += 5000) {
+						// Gaps the sender must wait through: a zero read timeout does not bound them
+						TimeUnit.MILLISECONDS.sleep(100);
+						upstream.submit(ByteBuffer.wrap(raw, offset, Math.min(5000, raw.length - offset)));
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				upstream.close();
+			});
+
+			final ICAPResponse response = client().setReadTimeout(0).execute(request);
+			producer.get(5, TimeUnit.SECONDS);
+
+			assertEquals(200, response.getStatus());
+			assertArrayEquals(raw, response.getHttpShrinkResponseBody());
+		}
+	}
+
+	@Test
+	public void previewDecisionCancelsUpstream() throws Exception {
+		server.setPreviewNoContentRate(1);
+
+		final AtomicLong requested = new AtomicLong();
+		final AtomicBoolean cancelled = new AtomicBoolean();
+
+		// Endless source: only demand bounds what it produces
+		final Flow.Publisher<ByteBuffer> endless = subscriber -> subscriber.onSubscribe(new Flow.Subscription() {
+			@Override
+			public void request(final long n) {
+				requested.addAndGet(n);
+				for (long i = 0; i < n; ++i) {
+					subscriber.onNext(ByteBuffer.wrap(new byte[1024]));
+				}
+			}
+
+			@Override
+			public void cancel() {
+				cancelled.set(true);
+			}
+		});
+
+		final ICAPResponse response = client().execute(respmod("virus_scan").setPreview(4096).setHttpResponseBody(endless));
+
+		assertEquals(204, response.getStatus());
+		assertTrue(cancelled.get());
+		assertTrue(requested.get() <= 4 + 4, "Requested " + requested.get());
+	}
+
+	@Test
+	public void publishedResponseBody() throws Exception {
+		final byte[] raw = content(500_000);
+		final BodyPublisher body = BodyPublisher.instance();
+
+		final ByteArrayOutputStream received = new ByteArrayOutputStream();
+		final AtomicInteger outstanding = new AtomicInteger();
+		final AtomicInteger maxOutstanding = new AtomicInteger();
+		final CompletableFuture<Void> completed = new CompletableFuture<>();
+
+		body.subscribe(new Flow.Subscriber<ByteBuffer>() {
+			private Flow.Subscription subscription;
+
+			@Override
+			public void onSubscribe(final Flow.Subscription subscription) {
+				this.subscription = subscription;
+				outstanding.addAndGet(2);
+				subscription.request(2);
+			}
+
+			@Override
+			public void onNext(final ByteBuffer item) {
+				maxOutstanding.accumulateAndGet(outstanding.getAndDecrement(), Math::max);
+				final byte[] data = new byte[item.remaining()];
+				item.get(data);
+				received.write(data, 0, data.length);
+
+				outstanding.incrementAndGet();
+				subscription.request(1);
+			}
+
+			@Override
+			public void onError(final Throwable failure) {
+				completed.completeExceptionally(failure);
+			}
+
+			@Override
+			public void onComplete() {
+				completed.complete(null);
+			}
+		});
+
+		final ICAPResponse response = client().execute(respmod("echo").setHttpResponseBody(raw), body);
+		completed.get(5, TimeUnit.SECONDS);
+
+		assertEquals(200, response.getStatus());
+		assertEquals(200, body.getResponse().get().getStatus());
+		assertNull(response.getHttpRawResponseBody());
+		assertArrayEquals(raw, received.toByteArray());
+		assertTrue(maxOutstanding.get() <= 2);
+	}
+
+	@Test
+	public void stalledSubscriberHonoursDeadline() throws Exception {
+		final BodyPublisher body = BodyPublisher.instance();
+		final CompletableFuture<Void> failed = new CompletableFuture<>();
+		body.subscribe(withoutDemand(failed));
+
+		final long start = System.nanoTime();
+		assertThrows(ICAPException.class, () -> client().setRequestTimeout(500).execute(respmod("echo").setHttpResponseBody(content(100_000)), body));
+		final long elapsed = (System.nanoTime() - start) / 1_000_000;
+
+		assertTrue(elapsed < 2000, "elapsed " + elapsed);
+		assertThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void stalledSubscriberHonoursCancel() throws Exception {
+		final BodyPublisher body = BodyPublisher.instance();
+		body.subscribe(withoutDemand(new CompletableFuture<>()));
+
+		final ICAPCall call = client().newCall(respmod("echo").setHttpResponseBody(content(100_000)), body);
+		final CompletableFuture<Void> cancelling = CompletableFuture.runAsync(() -> {
+			try {
+				TimeUnit.MILLISECONDS.sleep(300);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			call.cancel();
+		});
+
+		final long start = System.nanoTime();
+		assertThrows(ICAPException.class, call::execute);
+		final long elapsed = (System.nanoTime() - start) / 1_000_000;
+		cancelling.get(5, TimeUnit.SECONDS);
+
+		assertTrue(elapsed < 2000, "elapsed " + elapsed);
+	}
+
+	/*
+	 * Subscribes and never requests anything.
+	 */
+	private static Flow.Subscriber<ByteBuffer> withoutDemand(final CompletableFuture<Void> failed) {
+		return new Flow.Subscriber<ByteBuffer>() {
+			@Override
+			public void onSubscribe(final Flow.Subscription subscription) { /***/ }
+
+			@Override
+			public void onNext(final ByteBuffer item) {
+				failed.complete(null);
+			}
+
+			@Override
+			public void onError(final Throwable failure) {
+				failed.completeExceptionally(failure);
+			}
+
+			@Override
+			public void onComplete() {
+				failed.complete(null);
+			}
+		};
+	}
+
+	@Test
+	public void publisherCompletesWithoutBody() throws Exception {
+		final BodyPublisher body = BodyPublisher.instance();
+		final ICAPResponse response = client().execute(respmod("virus_scan").setHttpResponseBody(content(10)), body);
+
+		final CompletableFuture<Boolean> completed = new CompletableFuture<>();
+		body.subscribe(new Flow.Subscriber<ByteBuffer>() {
+			@Override
+			public void onSubscribe(final Flow.Subscription subscription) {
+				subscription.request(1);
+			}
+
+			@Override
+			public void onNext(final ByteBuffer item) {
+				completed.complete(false);
+			}
+
+			@Override
+			public void onError(final Throwable failure) {
+				completed.completeExceptionally(failure);
+			}
+
+			@Override
+			public void onComplete() {
+				completed.complete(true);
+			}
+		});
+
+		assertEquals(204, response.getStatus());
+		assertTrue(completed.get(5, TimeUnit.SECONDS));
+	}
+
+	@AfterAll
+	public void shutdown() throws Exception {
+		server.close();
+	}
+
+}
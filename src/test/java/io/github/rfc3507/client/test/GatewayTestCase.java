@@ -0,0 +1,203 @@
+package io.github.rfc3507.client.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import io.github.rfc3507.client.ICAPClient;
+import io.github.rfc3507.client.ICAPRequest;
+import io.github.rfc3507.client.ICAPResponse;
+import io.github.rfc3507.client.gateway.ICAPGateway;
+import io.github.rfc3507.client.test.stub.ICAPStubServer;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class GatewayTestCase {
+
+	private static final int PROCESSES = 20;
+
+	private static final byte[] HTTP_RESPONSE_HEADER = "HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+	private ICAPStubServer server;
+	private ICAPClient upstream;
+	private ICAPGateway gateway;
+
+	@BeforeAll
+	public void startup() throws Exception {
+		server = ICAPStubServer.instance().setWorkers(2).start();
+		upstream = ICAPClient.instance("localhost", server.getPort());
+		gateway = ICAPGateway.instance(upstream).setPort(0).start();
+	}
+
+	private ICAPClient local() {
+		return ICAPClient.instance("localhost", gateway.getPort()).setReadTimeout(5000);
+	}
+
+	private static ICAPRequest respmod(final String service, final byte[] body) {
+		return ICAPRequest.instance(service, ICAPRequest.Mode.RESPMOD)
+				.setPreview(1024)
+				.setHttpResponseHeader(HTTP_RESPONSE_HEADER)
+				.setHttpResponseBody(body);
+	}
+
+	@Test
+	public void processesShareUpstream() throws Exception {
+		final byte[] shared = new byte[50_000];
+		new Random(50).nextBytes(shared);
+
+		final long upstreamBefore = server.getConnectionCount();
+		final long localBefore = gateway.getConnections();
+		final long hitsBefore = gateway.getVerdictCache().getHits();
+
+		for (int i = 0; i < PROCESSES; ++i) {
+			try (ICAPClient process = local()) {
+				assertEquals(204, process.execute(respmod("avscan", shared)).getStatus());
+				assertEquals(204, process.execute(respmod("avscan", ("own body " + i).getBytes(StandardCharsets.US_ASCII))).getStatus());
+			}
+		}
+
+		assertEquals(PROCESSES, gateway.getConnections() - localBefore);
+		// Sequential transactions reuse one upstream connection, possibly pooled by an earlier test
+		assertTrue(server.getConnectionCount() - upstreamBefore <= 1, "upstream connections " + (server.getConnectionCount() - upstreamBefore));
+		// The shared body is scanned once
+		assertEquals(PROCESSES - 1, gateway.getVerdictCache().getHits() - hitsBefore);
+	}
+
+	@Test
+	public void verdictsKeyedByHeaders() throws Exception {
+		final byte[] body = "same body".getBytes(StandardCharsets.US_ASCII);
+		final long hitsBefore = gateway.getVerdictCache().getHits();
+
+		try (ICAPClient process = local()) {
+			assertEquals(204, process.execute(upload("/a", body)).getStatus());
+			// Same body for another URL: judged again
+			assertEquals(204, process.execute(upload("/b", body)).getStatus());
+			assertEquals(hitsBefore, gateway.getVerdictCache().getHits());
+
+			assertEquals(204, process.execute(upload("/a", body)).getStatus());
+			assertEquals(hitsBefore + 1, gateway.getVerdictCache().getHits());
+		}
+	}
+
+	private static ICAPRequest upload(final String path, final byte[] body) {
+		return ICAPRequest.instance("avscan", ICAPRequest.Mode.REQMOD)
+				.setHttpRequestHeader(("PUT " + path + " HTTP/1.1\r\nHost: www.example.com\r\n\r\n").getBytes(StandardCharsets.US_ASCII))
+				.setHttpRequestBody(body);
+	}
+
+	@Test
+	public void adaptedResponsesRelayed() throws Exception {
+		final byte[] raw = new byte[200_000];
+		new Random(7).nextBytes(raw);
+
+		try (ICAPClient process = local()) {
+			final ICAPResponse echoed = process.execute(respmod("echo", raw));
+			assertEquals(200, echoed.getStatus());
+			assertArrayEquals(raw, echoed.getHttpShrinkResponseBody());
+			assertEquals("text/plain", echoed.getHttpResponse().getContentType());
+
+			final ICAPResponse blocked = process.execute(respmod("avscan",
+					"X5O!P%@AP[4\\PZX54(P^)7CC)7}$EICAR-STANDARD-ANTIVIRUS-TEST-FILE!$H+H*".getBytes(StandardCharsets.US_ASCII)));
+			assertEquals(200, blocked.getStatus());
+			assertTrue(blocked.containHeaderValue("X-Infection-Found", "Eicar-Test-Signature"));
+			assertEquals(403, blocked.getHttpResponse().getStatus());
+
+			assertEquals(200, process.options("avscan").getStatus());
+		}
+	}
+
+	@Test
+	public void unmodifiedWithoutAllow204() throws Exception {
+		final String body = "hello";
+		final String request = ""
+				+ "RESPMOD icap://localhost/avscan ICAP/1.0\r\n"
+				+ "Host: localhost\r\n"
+				+ "Encapsulated: res-hdr=0, res-body=" + HTTP_RESPONSE_HEADER.length + "\r\n"
+				+ "Connection: close\r\n"
+				+ "\r\n"
+				+ new String(HTTP_RESPONSE_HEADER, StandardCharsets.US_ASCII)
+				+ Integer.toHexString(body.length()) + "\r\n" + body + "\r\n0\r\n\r\n";
+
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), gateway.getPort())) {
+			final OutputStream out = socket.getOutputStream();
+			out.write(request.getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+
+			final String response = readAll(socket.getInputStream());
+			assertTrue(response.startsWith("ICAP/1.0 200 OK\r\n"), response);
+			assertTrue(response.contains("Encapsulated: res-hdr=0, res-body=" + HTTP_RESPONSE_HEADER.length), response);
+			assertTrue(response.endsWith("5\r\nhello\r\n0\r\n\r\n"), response);
+		}
+	}
+
+	@Test
+	public void bodyTooLarge() throws Exception {
+		final long upstreamBefore = server.getRequestCount();
+
+		try (ICAPGateway bounded = ICAPGateway.instance(upstream).setPort(0).setMaxBodySize(1000).start();
+				Socket socket = new Socket(InetAddress.getLoopbackAddress(), bounded.getPort())) {
+			final OutputStream out = socket.getOutputStream();
+			out.write((""
+					+ "RESPMOD icap://localhost/avscan ICAP/1.0\r\n"
+					+ "Host: localhost\r\n"
+					+ "Encapsulated: res-hdr=0, res-body=" + HTTP_RESPONSE_HEADER.length + "\r\n"
+					+ "\r\n"
+					+ new String(HTTP_RESPONSE_HEADER, StandardCharsets.US_ASCII)
+					+ "800\r\n").getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+
+			// Answered and closed on the chunk size, without waiting for its data
+			socket.setSoTimeout(5000);
+			final String response = readAll(socket.getInputStream());
+			assertTrue(response.startsWith("ICAP/1.0 413 "), response);
+		}
+		assertEquals(upstreamBefore, server.getRequestCount());
+	}
+
+	@Test
+	public void upstreamFailure() throws Exception {
+		final int closedPort;
+		try (ServerSocket probe = new ServerSocket(0)) {
+			closedPort = probe.getLocalPort();
+		}
+
+		try (ICAPClient unreachable = ICAPClient.instance("localhost", closedPort);
+				ICAPGateway failing = ICAPGateway.instance(unreachable).setPort(0).start();
+				ICAPClient process = ICAPClient.instance("localhost", failing.getPort())) {
+			assertEquals(502, process.execute(respmod("avscan", new byte[] { 1 })).getStatus());
+			assertEquals(1, failing.getFailures());
+		}
+	}
+
+	private static String readAll(final InputStream in) throws Exception {
+		final ByteArrayOutputStream content = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			content.write(buffer, 0, read);
+		}
+		return content.toString(StandardCharsets.US_ASCII.name());
+	}
+
+	@AfterAll
+	public void shutdown() throws Exception {
+		gateway.close();
+		upstream.close();
+		server.close();
+	}
+
+}
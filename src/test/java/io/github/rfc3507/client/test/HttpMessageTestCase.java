@@ -0,0 +1,78 @@
+package io.github.rfc3507.client.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import io.github.rfc3507.client.HttpMessage;
+
+public class HttpMessageTestCase {
+
+	private static HttpMessage message(final String content) {
+		return HttpMessage.of(content.getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+	@Test
+	public void response() {
+		final HttpMessage message = message(""
+				+ "HTTP/1.1 403 Forbidden by policy\r\n"
+				+ "Content-Type: text/html; charset=UTF-8\r\n"
+				+ "content-length:  1234 \r\n"
+				+ "X-Folded: first\r\n"
+				+ "\tsecond\r\n"
+				+ "\r\n");
+
+		assertTrue(message.isResponse());
+		assertEquals(403, message.getStatus());
+		assertEquals("Forbidden by policy", message.getReason());
+		assertEquals("HTTP/1.1", message.getVersion());
+		assertNull(message.getMethod());
+
+		assertEquals(3, message.getHeaderCount());
+		assertEquals("content-length", message.getHeaderName(1));
+		assertEquals(1234, message.getContentLength());
+		assertEquals("text/html", message.getContentType());
+		assertEquals("text/html; charset=UTF-8", message.getHeader("CONTENT-TYPE"));
+		assertEquals("first second", message.getHeader("X-Folded"));
+		assertNull(message.getHeader("Content"));
+	}
+
+	@Test
+	public void request() {
+		final HttpMessage message = message(""
+				+ "POST /upload?id=1 HTTP/1.0\n"
+				+ "Host: example.com\n"
+				+ "\n");
+
+		assertFalse(message.isResponse());
+		assertEquals(-1, message.getStatus());
+		assertEquals("POST", message.getMethod());
+		assertEquals("/upload?id=1", message.getUri());
+		assertEquals("HTTP/1.0", message.getVersion());
+		assertEquals("example.com", message.getHeader("host"));
+		assertEquals(-1, message.getContentLength());
+		assertNull(message.getContentType());
+	}
+
+	@Test
+	public void slice() {
+		final byte[] data = "xxHTTP/1.1 204 No Content\r\nContent-Length: 0\r\n\r\nyy".getBytes(StandardCharsets.US_ASCII);
+		final HttpMessage message = HttpMessage.of(data, 2, data.length - 4);
+
+		assertEquals(204, message.getStatus());
+		assertEquals(0, message.getContentLength());
+	}
+
+	@Test
+	public void contradictoryContentLength() {
+		assertEquals(-1, message("HTTP/1.1 200 OK\r\nContent-Length: 10\r\nContent-Length: 11\r\n\r\n").getContentLength());
+		assertEquals(10, message("HTTP/1.1 200 OK\r\nContent-Length: 10\r\nContent-Length: 10\r\n\r\n").getContentLength());
+		assertEquals(-1, message("HTTP/1.1 200 OK\r\nContent-Length: -3\r\n\r\n").getContentLength());
+	}
+
+}
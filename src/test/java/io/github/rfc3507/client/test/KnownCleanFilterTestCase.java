@@ -0,0 +1,170 @@
+package io.github.rfc3507.client.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import io.github.rfc3507.client.ICAPClient;
+import io.github.rfc3507.client.ICAPRequest;
+import io.github.rfc3507.client.ICAPResponse;
+import io.github.rfc3507.client.filter.KnownCleanFilter;
+import io.github.rfc3507.client.test.stub.ICAPStubServer;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class KnownCleanFilterTestCase {
+
+	private static final int LISTED = 20000;
+
+	private static final byte[] CLEAN_BODY = "vendor installer".getBytes(StandardCharsets.US_ASCII);
+
+	private ICAPStubServer server;
+	private Path directory;
+
+	private final List<byte[]> listed = new ArrayList<>();
+
+	private KnownCleanFilter filter;
+
+	@BeforeAll
+	public void startup() throws Exception {
+		server = ICAPStubServer.instance().setWorkers(2).start();
+		directory = Files.createTempDirectory("icap-known-clean");
+
+		final Random random = new Random(42);
+		for (int i = 0; i < LISTED; ++i) {
+			final byte[] digest = new byte[32];
+			random.nextBytes(digest);
+			listed.add(digest);
+		}
+		listed.add(MessageDigest.getInstance("SHA-256").digest(CLEAN_BODY));
+
+		final List<String> vendor = new ArrayList<>();
+		vendor.add("# vendor list");
+		vendor.add("");
+		final List<String> internal = new ArrayList<>();
+		for (int i = 0; i < listed.size(); ++i) {
+			final String hex = hex(listed.get(i));
+			if (i % 2 == 0) {
+				vendor.add(hex.toUpperCase() + "  setup-" + i + ".exe");
+			} else {
+				internal.add(hex);
+			}
+		}
+		// Duplicates and garbage are tolerated
+		internal.add(hex(listed.get(0)));
+		internal.add("not a digest");
+
+		final Path vendorList = Files.write(directory.resolve("vendor.sha256"), vendor);
+		final Path internalList = Files.write(directory.resolve("internal.sha256"), internal);
+
+		final Path bloom = directory.resolve("clean.bloom");
+		final Path index = directory.resolve("clean.index");
+		assertEquals(listed.size(), KnownCleanFilter.build(Arrays.asList(vendorList, internalList), bloom, index, 0.001));
+
+		filter = KnownCleanFilter.open(bloom, index);
+	}
+
+	private static String hex(final byte[] digest) {
+		final StringBuilder hex = new StringBuilder();
+		for (final byte b : digest) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+	@Test
+	public void confirmsListedDigestsOnly() throws Exception {
+		assertEquals(listed.size(), filter.size());
+		for (final byte[] digest : listed) {
+			assertTrue(filter.contains(digest), hex(digest));
+		}
+
+		final long bloomHits = filter.getBloomHits();
+		final long confirmed = filter.getConfirmed();
+
+		final Random random = new Random(7);
+		for (int i = 0; i < LISTED; ++i) {
+			final byte[] digest = new byte[32];
+			random.nextBytes(digest);
+			assertFalse(filter.contains(digest), hex(digest));
+		}
+
+		// False positives of the Bloom filter are caught by the index
+		assertEquals(confirmed, filter.getConfirmed());
+		assertTrue(filter.getBloomHits() - bloomHits < LISTED / 100, "Bloom hits " + (filter.getBloomHits() - bloomHits));
+	}
+
+	@Test
+	public void knownCleanBodiesSkipTheServer() throws Exception {
+		final long before = server.getRequestCount();
+
+		try (ICAPClient client = ICAPClient.instance("localhost", server.getPort()).setKnownCleanFilter(filter)) {
+			final ICAPResponse known = client.execute(ICAPRequest.instance("avscan", ICAPRequest.Mode.RESPMOD)
+					.setHttpResponseHeader("HTTP/1.1 200 OK\r\n\r\n".getBytes(StandardCharsets.US_ASCII))
+					.setHttpResponseBody(CLEAN_BODY));
+
+			assertEquals(204, known.getStatus());
+			assertTrue(known.getHeader("X-Known-Clean").startsWith("sha256="));
+			assertEquals(before, server.getRequestCount());
+
+			final ICAPResponse scanned = client.execute(ICAPRequest.instance("avscan", ICAPRequest.Mode.RESPMOD)
+					.setHttpResponseHeader("HTTP/1.1 200 OK\r\n\r\n".getBytes(StandardCharsets.US_ASCII))
+					.setHttpResponseBody("unknown".getBytes(StandardCharsets.US_ASCII)));
+
+			assertEquals(204, scanned.getStatus());
+			assertNull(scanned.getHeader("X-Known-Clean"));
+			assertEquals(before + 1, server.getRequestCount());
+		}
+	}
+
+	@Test
+	public void rebuildLeavesMappedFiltersIntact() throws Exception {
+		final Path bloom = directory.resolve("rebuilt.bloom");
+		final Path index = directory.resolve("rebuilt.index");
+		final Path before = Files.write(directory.resolve("before.sha256"), Arrays.asList(hex(listed.get(0)), hex(listed.get(1))));
+		final Path after = Files.write(directory.resolve("after.sha256"), Arrays.asList(hex(listed.get(2))));
+		KnownCleanFilter.build(Arrays.asList(before), bloom, index, 0.001);
+
+		try (KnownCleanFilter mapped = KnownCleanFilter.open(bloom, index)) {
+			assertEquals(1, KnownCleanFilter.build(Arrays.asList(after), bloom, index, 0.001));
+
+			assertEquals(2, mapped.size());
+			assertTrue(mapped.contains(listed.get(0)));
+			assertTrue(mapped.contains(listed.get(1)));
+			assertFalse(mapped.contains(listed.get(2)));
+		}
+
+		try (KnownCleanFilter reopened = KnownCleanFilter.open(bloom, index)) {
+			assertEquals(1, reopened.size());
+			assertTrue(reopened.contains(listed.get(2)));
+			assertFalse(reopened.contains(listed.get(0)));
+		}
+
+		try (Stream<Path> files = Files.list(directory)) {
+			assertFalse(files.anyMatch(file -> file.toString().endsWith(".tmp")));
+		}
+	}
+
+	@AfterAll
+	public void shutdown() throws Exception {
+		filter.close();
+		server.close();
+	}
+
+}
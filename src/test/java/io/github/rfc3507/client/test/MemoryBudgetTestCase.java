@@ -0,0 +1,124 @@
+package io.github.rfc3507.client.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import io.github.rfc3507.client.ICAPClient;
+import io.github.rfc3507.client.ICAPException;
+import io.github.rfc3507.client.ICAPRequest;
+import io.github.rfc3507.client.ICAPResponse;
+import io.github.rfc3507.client.MemoryBudget;
+import io.github.rfc3507.client.test.stub.ICAPStubServer;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class MemoryBudgetTestCase {
+
+	private static final int CONCURRENCY = 6;
+
+	private static final int BODY_SIZE = 32 * 1024;
+
+	private ICAPStubServer server;
+
+	@BeforeAll
+	public void startup() throws Exception {
+		server = ICAPStubServer.instance().setWorkers(CONCURRENCY).setLatency(100).start();
+	}
+
+	private static ICAPRequest echo(final byte[] body) {
+		return ICAPRequest.instance("echo", ICAPRequest.Mode.RESPMOD)
+				.setHttpResponseHeader(("HTTP/1.1 200 OK\r\nContent-Length: " + body.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII))
+				.setHttpResponseBody(body);
+	}
+
+	private List<Future<ICAPResponse>> burst(final ICAPClient client, final byte[] body) throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(CONCURRENCY);
+		try {
+			final CountDownLatch ready = new CountDownLatch(1);
+			final List<Future<ICAPResponse>> futures = new ArrayList<>();
+			for (int i = 0; i < CONCURRENCY; ++i) {
+				futures.add(executor.submit(() -> {
+					ready.await();
+					return client.execute(echo(body));
+				}));
+			}
+			ready.countDown();
+			for (final Future<ICAPResponse> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					// Inspected by the caller
+				}
+			}
+			return futures;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void blocksUntilBudgetIsReleased() throws Exception {
+		// Request and echoed response of two transactions at most
+		final MemoryBudget budget = MemoryBudget.instance(4L * BODY_SIZE);
+		final byte[] body = new byte[BODY_SIZE];
+
+		try (ICAPClient client = ICAPClient.instance("localhost", server.getPort()).setMemoryBudget(budget)) {
+			for (final Future<ICAPResponse> future : burst(client, body)) {
+				final ICAPResponse response = future.get();
+				assertEquals(200, response.getStatus());
+				assertArrayEquals(body, response.getHttpShrinkResponseBody());
+			}
+		}
+
+		assertEquals(CONCURRENCY, budget.getAdmissions());
+		assertTrue(budget.getWaits() >= CONCURRENCY - 2, "waits: " + budget.getWaits());
+		assertTrue(budget.getPeakBytes() <= budget.getMaxBytes(), "peak: " + budget.getPeakBytes());
+		assertEquals(0, budget.getRejections());
+		assertEquals(0, budget.getUsedBytes());
+		assertEquals(0, budget.getWaiting());
+	}
+
+	@Test
+	public void rejectsWhenBudgetIsExhausted() throws Exception {
+		final MemoryBudget budget = MemoryBudget.instance(2L * BODY_SIZE).setPolicy(MemoryBudget.Policy.REJECT);
+		final byte[] body = new byte[BODY_SIZE];
+
+		int rejected = 0;
+		try (ICAPClient client = ICAPClient.instance("localhost", server.getPort()).setMemoryBudget(budget)) {
+			for (final Future<ICAPResponse> future : burst(client, body)) {
+				try {
+					assertEquals(200, future.get().getStatus());
+				} catch (ExecutionException e) {
+					assertTrue(e.getCause() instanceof ICAPException, e.getCause().toString());
+					++rejected;
+				}
+			}
+		}
+
+		assertTrue(rejected > 0);
+		assertEquals(rejected, budget.getRejections());
+		assertEquals(CONCURRENCY - rejected, budget.getAdmissions());
+		assertEquals(0, budget.getUsedBytes());
+	}
+
+	@AfterAll
+	public void shutdown() throws Exception {
+		server.close();
+	}
+
+}
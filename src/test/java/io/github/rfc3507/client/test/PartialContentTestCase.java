@@ -0,0 +1,84 @@
+package io.github.rfc3507.client.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import io.github.rfc3507.client.BodySink;
+import io.github.rfc3507.client.ICAPClient;
+import io.github.rfc3507.client.ICAPRequest;
+import io.github.rfc3507.client.ICAPResponse;
+import io.github.rfc3507.client.test.stub.ICAPStubServer;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class PartialContentTestCase {
+
+	private ICAPStubServer server;
+
+	private final byte[] content = new byte[200_000];
+
+	@BeforeAll
+	public void startup() throws Exception {
+		server = ICAPStubServer.instance().setWorkers(2).start();
+		new Random(3).nextBytes(content);
+	}
+
+	private ICAPRequest respmod() {
+		return ICAPRequest.instance("rewrite_headers", ICAPRequest.Mode.RESPMOD)
+				.setHttpResponseHeader(("HTTP/1.1 200 OK\r\nContent-Length: " + content.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII))
+				.setHttpResponseBody(content);
+	}
+
+	@Test
+	public void reassemblesFromOriginalBody() throws Exception {
+		try (ICAPClient client = ICAPClient.instance("localhost", server.getPort()).setPartialContent(true)) {
+			final ICAPResponse response = client.execute(respmod());
+
+			assertEquals(206, response.getStatus());
+			assertEquals("stub", response.getHttpResponse().getHeader("X-Adapted"));
+			assertArrayEquals(content, response.getHttpShrinkResponseBody());
+
+			// The connection is left at a message boundary
+			assertEquals(206, client.execute(respmod()).getStatus());
+			assertEquals(1, client.getIdleConnections());
+		}
+	}
+
+	@Test
+	public void streamsOriginalBodyToSink() throws Exception {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ICAPClient client = ICAPClient.instance("localhost", server.getPort()).setPartialContent(true)) {
+			final ICAPResponse response = client.execute(respmod(), BodySink.of(out));
+
+			assertEquals(206, response.getStatus());
+			assertNull(response.getHttpRawResponseBody());
+			assertArrayEquals(content, out.toByteArray());
+		}
+	}
+
+	@Test
+	public void fullBodyUnlessAllowed() throws Exception {
+		try (ICAPClient client = ICAPClient.instance("localhost", server.getPort())) {
+			final ICAPResponse response = client.execute(respmod());
+
+			assertEquals(200, response.getStatus());
+			assertArrayEquals(content, response.getHttpShrinkResponseBody());
+		}
+	}
+
+	@AfterAll
+	public void shutdown() throws Exception {
+		server.close();
+	}
+
+}
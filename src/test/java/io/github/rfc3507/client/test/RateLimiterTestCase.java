@@ -0,0 +1,119 @@
+package io.github.rfc3507.client.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import io.github.rfc3507.client.ICAPClient;
+import io.github.rfc3507.client.ICAPException;
+import io.github.rfc3507.client.ICAPRequest;
+import io.github.rfc3507.client.RateLimiter;
+import io.github.rfc3507.client.test.stub.ICAPStubServer;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class RateLimiterTestCase {
+
+	private ICAPStubServer server;
+
+	@BeforeAll
+	public void startup() throws Exception {
+		server = ICAPStubServer.instance().setWorkers(2).start();
+	}
+
+	private static ICAPRequest scan(final int size) {
+		return ICAPRequest.instance("avscan", ICAPRequest.Mode.RESPMOD)
+				.setHttpResponseHeader("HTTP/1.1 200 OK\r\n\r\n".getBytes(StandardCharsets.US_ASCII))
+				.setHttpResponseBody(new byte[size]);
+	}
+
+	@Test
+	public void pacesRequestsPerService() throws Exception {
+		final RateLimiter limiter = RateLimiter.instance().setBurst(0).setServiceLimit("avscan", 20, 0);
+
+		final long start = System.nanoTime();
+		try (ICAPClient client = ICAPClient.instance("localhost", server.getPort()).setRateLimiter(limiter)) {
+			for (int i = 0; i < 11; ++i) {
+				assertEquals(204, client.execute(scan(16)).getStatus());
+			}
+		}
+		final long elapsed = (System.nanoTime() - start) / 1_000_000;
+
+		assertTrue(elapsed >= 450, "elapsed " + elapsed);
+		assertEquals(11, limiter.getAdmitted());
+		assertTrue(limiter.getDelayed() >= 9, "delayed " + limiter.getDelayed());
+		assertEquals(0, limiter.getRejected());
+	}
+
+	@Test
+	public void pacesBytesPerEndpoint() throws Exception {
+		final RateLimiter limiter = RateLimiter.instance().setBurst(0)
+				.setEndpointLimit("localhost", server.getPort(), 0, 100_000);
+
+		final long start = System.nanoTime();
+		try (ICAPClient client = ICAPClient.instance("localhost", server.getPort()).setRateLimiter(limiter)) {
+			for (int i = 0; i < 3; ++i) {
+				assertEquals(204, client.execute(scan(20_000)).getStatus());
+			}
+		}
+		final long elapsed = (System.nanoTime() - start) / 1_000_000;
+
+		// The first body goes at once, the next ones wait 200 ms each
+		assertTrue(elapsed >= 350, "elapsed " + elapsed);
+		assertEquals(2, limiter.getDelayed());
+	}
+
+	@Test
+	public void rejectsOverLimit() throws Exception {
+		final RateLimiter limiter = RateLimiter.instance().setBurst(0).setPolicy(RateLimiter.Policy.REJECT)
+				.setEndpointLimit("localhost", server.getPort(), 2, 0);
+
+		int rejected = 0;
+		try (ICAPClient client = ICAPClient.instance("localhost", server.getPort()).setRateLimiter(limiter)) {
+			for (int i = 0; i < 5; ++i) {
+				try {
+					client.execute(scan(16));
+				} catch (ICAPException e) {
+					++rejected;
+				}
+			}
+		}
+
+		assertTrue(rejected >= 3, "rejected " + rejected);
+		assertEquals(rejected, limiter.getRejected());
+		assertEquals(5 - rejected, limiter.getAdmitted());
+	}
+
+	@Test
+	public void rejectsOverServiceLimit() throws Exception {
+		final RateLimiter limiter = RateLimiter.instance().setBurst(0).setPolicy(RateLimiter.Policy.REJECT)
+				.setServiceLimit("avscan", 2, 0);
+
+		int rejected = 0;
+		try (ICAPClient client = ICAPClient.instance("localhost", server.getPort()).setRateLimiter(limiter)) {
+			for (int i = 0; i < 5; ++i) {
+				try {
+					client.execute(scan(16));
+				} catch (ICAPException e) {
+					++rejected;
+				}
+			}
+		}
+
+		assertTrue(rejected >= 3, "rejected " + rejected);
+		assertEquals(rejected, limiter.getRejected());
+		assertEquals(5 - rejected, limiter.getAdmitted());
+	}
+
+	@AfterAll
+	public void shutdown() throws Exception {
+		server.close();
+	}
+
+}
@@ -0,0 +1,113 @@
+package io.github.rfc3507.client.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.SubmissionPublisher;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import io.github.rfc3507.client.ICAPClient;
+import io.github.rfc3507.client.ICAPException;
+import io.github.rfc3507.client.ICAPRequest;
+import io.github.rfc3507.client.ICAPResponse;
+import io.github.rfc3507.client.RetryPolicy;
+import io.github.rfc3507.client.test.stub.ICAPStubServer;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class RetryPolicyTestCase {
+
+	private ICAPStubServer failing;
+	private ICAPStubServer healthy;
+
+	@BeforeAll
+	public void startup() throws Exception {
+		failing = ICAPStubServer.instance().setWorkers(2).start();
+		healthy = ICAPStubServer.instance().setWorkers(2).start();
+	}
+
+	private static ICAPRequest respmod(final String content) {
+		return ICAPRequest.instance("virus_scan", ICAPRequest.Mode.RESPMOD)
+				.setHttpResponseHeader("HTTP/1.1 200 OK\r\n\r\n".getBytes(StandardCharsets.US_ASCII))
+				.setHttpResponseBody(content.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	@Test
+	public void failsOverToAnotherEndpoint() throws Exception {
+		failing.setResetRate(1).setErrorRate(0);
+		final long healthyRequests = healthy.getRequestCount();
+
+		final RetryPolicy policy = RetryPolicy.instance()
+				.setBackoff(10, 50)
+				.addEndpoint("localhost", healthy.getPort());
+
+		try (ICAPClient client = ICAPClient.instance("localhost", failing.getPort()).setRetryPolicy(policy)) {
+			final ICAPResponse response = client.execute(respmod("content"));
+
+			assertEquals(204, response.getStatus());
+			assertEquals(1, policy.getRetries());
+			assertEquals(1, policy.getFailovers());
+			assertEquals(1, policy.getRecovered());
+			assertEquals(healthyRequests + 1, healthy.getRequestCount());
+			// Connections to the fallback endpoint are not pooled
+			assertEquals(0, client.getIdleConnections());
+		}
+	}
+
+	@Test
+	public void returnsLastStatusWhenAttemptsRunOut() throws Exception {
+		failing.setResetRate(0).setErrorRate(1);
+		final long requests = failing.getRequestCount();
+
+		final RetryPolicy policy = RetryPolicy.instance().setMaxAttempts(3).setBackoff(10, 50);
+
+		try (ICAPClient client = ICAPClient.instance("localhost", failing.getPort()).setRetryPolicy(policy)) {
+			assertEquals(500, client.execute(respmod("content")).getStatus());
+			assertEquals(requests + 3, failing.getRequestCount());
+			assertEquals(2, policy.getRetries());
+			assertEquals(1, policy.getExhausted());
+		}
+	}
+
+	@Test
+	public void publishedBodiesAreNotRetried() throws Exception {
+		failing.setResetRate(1).setErrorRate(0);
+
+		final RetryPolicy policy = RetryPolicy.instance()
+				.setBackoff(10, 50)
+				.addEndpoint("localhost", healthy.getPort());
+
+		try (ICAPClient client = ICAPClient.instance("localhost", failing.getPort()).setRetryPolicy(policy);
+				SubmissionPublisher<ByteBuffer> body = new SubmissionPublisher<>()) {
+			final ICAPRequest request = ICAPRequest.instance("virus_scan", ICAPRequest.Mode.RESPMOD)
+					.setHttpResponseHeader("HTTP/1.1 200 OK\r\n\r\n".getBytes(StandardCharsets.US_ASCII))
+					.setHttpResponseBody(body);
+			final Thread producer = new Thread(() -> {
+				while (body.getNumberOfSubscribers() == 0) {
+					Thread.yield();
+				}
+				body.submit(ByteBuffer.wrap("content".getBytes(StandardCharsets.US_ASCII)));
+				body.close();
+			});
+			producer.start();
+
+			assertThrows(ICAPException.class, () -> client.execute(request));
+			producer.join();
+			assertEquals(0, policy.getRetries());
+			assertEquals(1, policy.getUnrepeatable());
+		}
+	}
+
+	@AfterAll
+	public void shutdown() throws Exception {
+		failing.close();
+		healthy.close();
+	}
+
+}
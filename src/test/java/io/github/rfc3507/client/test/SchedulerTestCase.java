@@ -0,0 +1,158 @@
+package io.github.rfc3507.client.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import io.github.rfc3507.client.ICAPClient;
+import io.github.rfc3507.client.ICAPRequest;
+import io.github.rfc3507.client.Scheduler;
+import io.github.rfc3507.client.test.stub.ICAPStubServer;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class SchedulerTestCase {
+
+	private ICAPStubServer server;
+
+	@BeforeAll
+	public void startup() throws Exception {
+		server = ICAPStubServer.instance().setWorkers(8).setLatency(20).setMaxConnections(2).start();
+	}
+
+	private static ICAPRequest scan(final String label) {
+		return ICAPRequest.instance("avscan", ICAPRequest.Mode.RESPMOD)
+				.setHttpResponseHeader("HTTP/1.1 200 OK\r\n\r\n".getBytes(StandardCharsets.US_ASCII))
+				.setHttpResponseBody(label.getBytes(StandardCharsets.US_ASCII))
+				.setResourceName(label);
+	}
+
+	private static void await(final BooleanSupplier condition) throws InterruptedException {
+		final long limit = System.currentTimeMillis() + 5000;
+		while (!condition.getAsBoolean()) {
+			assertTrue(System.currentTimeMillis() < limit, "Condition not reached");
+			Thread.sleep(1);
+		}
+	}
+
+	/*
+	 * Queues the requests behind a running one on a single slot, and returns the order they ran in.
+	 */
+	private List<String> dispatchOrder(final Scheduler scheduler, final List<ICAPRequest> requests) throws Exception {
+		final List<String> order = Collections.synchronizedList(new ArrayList<>());
+		final ExecutorService executor = Executors.newCachedThreadPool();
+
+		try (ICAPClient client = ICAPClient.instance("localhost", server.getPort()).setScheduler(scheduler)) {
+			server.setLatency(300);
+			final Future<?> blocker = executor.submit(() -> client.execute(scan("blocker")));
+			await(() -> scheduler.getRunning() == 1);
+
+			final List<Future<?>> futures = new ArrayList<>();
+			for (final ICAPRequest request : requests) {
+				futures.add(executor.submit(() -> {
+					client.execute(request);
+					order.add(request.getResourceName());
+					return null;
+				}));
+				final int queued = futures.size();
+				await(() -> scheduler.getQueued() == queued);
+			}
+			server.setLatency(5);
+
+			blocker.get();
+			for (final Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			server.setLatency(20);
+			executor.shutdownNow();
+		}
+		return order;
+	}
+
+	@Test
+	public void higherPriorityGoesFirst() throws Exception {
+		final Scheduler scheduler = Scheduler.instance(1);
+
+		final List<ICAPRequest> requests = new ArrayList<>();
+		for (int i = 0; i < 4; ++i) {
+			requests.add(scan("bulk").setPriority(ICAPRequest.Priority.BULK));
+		}
+		requests.add(scan("normal"));
+		requests.add(scan("interactive").setPriority(ICAPRequest.Priority.INTERACTIVE));
+
+		final List<String> order = dispatchOrder(scheduler, requests);
+
+		assertEquals("interactive", order.get(0), order.toString());
+		assertEquals("normal", order.get(1), order.toString());
+		assertEquals(4, scheduler.getDispatches(ICAPRequest.Priority.BULK));
+		assertEquals(0, scheduler.getQueued());
+		assertEquals(0, scheduler.getRunning());
+	}
+
+	@Test
+	public void flowsShareByWeight() throws Exception {
+		final Scheduler scheduler = Scheduler.instance(1).setWeight("gold", 3);
+
+		final List<ICAPRequest> requests = new ArrayList<>();
+		for (int i = 0; i < 8; ++i) {
+			requests.add(scan("silver").setTenant("silver"));
+		}
+		for (int i = 0; i < 8; ++i) {
+			requests.add(scan("gold").setTenant("gold"));
+		}
+
+		final List<String> order = dispatchOrder(scheduler, requests);
+
+		final long gold = order.subList(0, 8).stream().filter("gold"::equals).count();
+		assertEquals(6, gold, order.toString());
+	}
+
+	@Test
+	public void serviceLimitFromOptions() throws Exception {
+		final Scheduler scheduler = Scheduler.instance(8);
+		final ExecutorService executor = Executors.newFixedThreadPool(6);
+
+		try (ICAPClient client = ICAPClient.instance("localhost", server.getPort()).setScheduler(scheduler)) {
+			client.options("avscan");
+			assertEquals(2, scheduler.getServiceLimit("avscan"));
+
+			final List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < 6; ++i) {
+				futures.add(executor.submit(() -> client.execute(scan("limited"))));
+			}
+
+			int peak = 0;
+			while (futures.stream().anyMatch(future -> !future.isDone())) {
+				peak = Math.max(peak, scheduler.getRunning());
+				Thread.sleep(1);
+			}
+			for (final Future<?> future : futures) {
+				future.get();
+			}
+
+			assertTrue(peak <= 2, "peak " + peak);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@AfterAll
+	public void shutdown() throws Exception {
+		server.close();
+	}
+
+}
@@ -0,0 +1,143 @@
+package io.github.rfc3507.client.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import io.github.rfc3507.client.ICAPClient;
+import io.github.rfc3507.client.ICAPRequest;
+import io.github.rfc3507.client.ICAPResponse;
+import io.github.rfc3507.client.SingleFlight;
+import io.github.rfc3507.client.test.stub.ICAPStubServer;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class SingleFlightTestCase {
+
+	private static final int BURST = 16;
+
+	private ICAPStubServer server;
+
+	@BeforeAll
+	public void startup() throws Exception {
+		server = ICAPStubServer.instance().setWorkers(4).setLatency(300).start();
+	}
+
+	private static ICAPRequest scan(final String body) {
+		return scan(body, "text/plain");
+	}
+
+	private static ICAPRequest scan(final String body, final String type) {
+		return ICAPRequest.instance("avscan", ICAPRequest.Mode.RESPMOD)
+				.setHttpResponseHeader(("HTTP/1.1 200 OK\r\nContent-Type: " + type + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII))
+				.setHttpResponseBody(body.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	private List<ICAPResponse> burst(final ICAPClient client, final int distinct) throws Exception {
+		return burst(client, i -> scan("payload " + i % distinct));
+	}
+
+	private List<ICAPResponse> burst(final ICAPClient client, final IntFunction<ICAPRequest> requests) throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(BURST);
+		try {
+			final CountDownLatch ready = new CountDownLatch(1);
+			final List<Future<ICAPResponse>> futures = new ArrayList<>();
+			for (int i = 0; i < BURST; ++i) {
+				final ICAPRequest request = requests.apply(i);
+				futures.add(executor.submit(() -> {
+					ready.await();
+					return client.execute(request);
+				}));
+			}
+			ready.countDown();
+
+			final List<ICAPResponse> responses = new ArrayList<>();
+			for (final Future<ICAPResponse> future : futures) {
+				responses.add(future.get());
+			}
+			return responses;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void identicalRequestsShareOneTransaction() throws Exception {
+		final SingleFlight singleFlight = SingleFlight.instance();
+		final long before = server.getRequestCount();
+
+		try (ICAPClient client = ICAPClient.instance("localhost", server.getPort()).setSingleFlight(singleFlight)) {
+			final List<ICAPResponse> responses = burst(client, 1);
+			for (final ICAPResponse response : responses) {
+				assertSame(responses.get(0), response);
+			}
+		}
+
+		assertEquals(1, server.getRequestCount() - before);
+		assertEquals(1, singleFlight.getLeaders());
+		assertEquals(BURST - 1, singleFlight.getFollowers());
+		assertEquals(0, singleFlight.getInFlight());
+	}
+
+	@Test
+	public void distinctBodiesAreSentApart() throws Exception {
+		final SingleFlight singleFlight = SingleFlight.instance();
+		final long before = server.getRequestCount();
+
+		try (ICAPClient client = ICAPClient.instance("localhost", server.getPort()).setSingleFlight(singleFlight)) {
+			burst(client, 4);
+		}
+
+		assertEquals(4, server.getRequestCount() - before);
+		assertEquals(4, singleFlight.getLeaders());
+		assertEquals(BURST - 4, singleFlight.getFollowers());
+	}
+
+	@Test
+	public void distinctHeadersAreSentApart() throws Exception {
+		final SingleFlight singleFlight = SingleFlight.instance();
+		final long before = server.getRequestCount();
+
+		try (ICAPClient client = ICAPClient.instance("localhost", server.getPort()).setSingleFlight(singleFlight)) {
+			burst(client, i -> scan("same payload", "application/x-type" + i % 4));
+		}
+
+		assertEquals(4, server.getRequestCount() - before);
+		assertEquals(4, singleFlight.getLeaders());
+		assertEquals(BURST - 4, singleFlight.getFollowers());
+	}
+
+	@Test
+	public void bodilessRequestsAreNeverCoalesced() throws Exception {
+		final SingleFlight singleFlight = SingleFlight.instance();
+		final long before = server.getRequestCount();
+
+		try (ICAPClient client = ICAPClient.instance("localhost", server.getPort()).setSingleFlight(singleFlight)) {
+			burst(client, i -> ICAPRequest.instance("avscan", ICAPRequest.Mode.REQMOD)
+					.setHttpRequestHeader("GET / HTTP/1.1\r\nHost: www.example.com\r\n\r\n".getBytes(StandardCharsets.US_ASCII)));
+		}
+
+		assertEquals(BURST, server.getRequestCount() - before);
+		assertEquals(0, singleFlight.getLeaders());
+		assertEquals(0, singleFlight.getFollowers());
+	}
+
+	@AfterAll
+	public void shutdown() throws Exception {
+		server.close();
+	}
+
+}
@@ -0,0 +1,109 @@
+package io.github.rfc3507.client.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import io.github.rfc3507.client.ICAPClient;
+import io.github.rfc3507.client.ICAPRequest;
+import io.github.rfc3507.client.SocketTuning;
+import io.github.rfc3507.client.test.stub.ICAPStubServer;
+import io.github.rfc3507.client.test.stub.LinkSimulator;
+import io.github.rfc3507.utilities.LogService;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class SocketTuningTestCase {
+
+	private static final int PAYLOAD = 4 << 20;
+	private static final int TRANSACTIONS = 4;
+
+	private static final long LOW_DELAY = 1;
+	private static final long LOW_BANDWIDTH = 64L << 20;
+	private static final long HIGH_DELAY = 25;
+	private static final long HIGH_BANDWIDTH = 16L << 20;
+
+	private final LogService logger = LogService.getInstance("SocketTuningTestCase");
+
+	private ICAPStubServer server;
+	private LinkSimulator lowLatency;
+	private LinkSimulator highLatency;
+	private byte[] payload;
+
+	@BeforeAll
+	public void startup() throws Exception {
+		server = ICAPStubServer.instance().setWorkers(2).start();
+		lowLatency = LinkSimulator.instance(server, LOW_DELAY, LOW_BANDWIDTH);
+		highLatency = LinkSimulator.instance(server, HIGH_DELAY, HIGH_BANDWIDTH);
+
+		payload = new byte[PAYLOAD];
+		new Random(49).nextBytes(payload);
+	}
+
+	@Test
+	public void autoTuningMeasuresLinks() throws Exception {
+		final SocketTuning low = SocketTuning.instance().setAuto(true);
+		final SocketTuning high = SocketTuning.instance().setAuto(true);
+
+		benchmark("low latency, auto", lowLatency, low);
+		benchmark("high latency, auto", highLatency, high);
+
+		final long lowRtt = low.getRoundTripNanos("localhost", lowLatency.getPort());
+		final long highRtt = high.getRoundTripNanos("localhost", highLatency.getPort());
+		assertTrue(lowRtt >= 2 * LOW_DELAY * 1_000_000L && lowRtt < 2 * HIGH_DELAY * 1_000_000L, "RTT " + lowRtt);
+		assertTrue(highRtt >= 2 * HIGH_DELAY * 1_000_000L && highRtt < 4 * HIGH_DELAY * 1_000_000L, "RTT " + highRtt);
+
+		final long highBandwidth = high.getBandwidth("localhost", highLatency.getPort());
+		assertTrue(highBandwidth > HIGH_BANDWIDTH / 2 && highBandwidth < HIGH_BANDWIDTH * 2, "bandwidth " + highBandwidth);
+
+		// Larger buffers where more bytes are in flight
+		final long lowProduct = low.getBandwidthDelayProduct("localhost", lowLatency.getPort());
+		final long highProduct = high.getBandwidthDelayProduct("localhost", highLatency.getPort());
+		assertTrue(highProduct > 2 * lowProduct, lowProduct + " vs " + highProduct);
+	}
+
+	@Test
+	public void fixedTuning() throws Exception {
+		final SocketTuning fixed = SocketTuning.instance()
+				.setSendBufferSize(256 << 10)
+				.setReceiveBufferSize(256 << 10)
+				.setChunkSize(16 << 10);
+
+		benchmark("low latency, fixed", lowLatency, fixed);
+		benchmark("high latency, fixed", highLatency, fixed);
+
+		// Nothing is measured outside auto mode
+		assertEquals(-1, fixed.getRoundTripNanos("localhost", highLatency.getPort()));
+		assertEquals(-1, fixed.getBandwidthDelayProduct("localhost", highLatency.getPort()));
+	}
+
+	private void benchmark(final String name, final LinkSimulator link, final SocketTuning tuning) throws Exception {
+		try (ICAPClient client = ICAPClient.instance("localhost", link.getPort()).setSocketTuning(tuning)) {
+			final long start = System.nanoTime();
+			for (int i = 0; i < TRANSACTIONS; ++i) {
+				assertEquals(204, client.execute(ICAPRequest.instance("avscan", ICAPRequest.Mode.RESPMOD)
+						.setPreview(1024)
+						.setHttpResponseHeader("HTTP/1.1 200 OK\r\n\r\n".getBytes(StandardCharsets.US_ASCII))
+						.setHttpResponseBody(payload)).getStatus());
+			}
+			final long elapsed = System.nanoTime() - start;
+			logger.info("{}: {} x {} KiB in {} ms ({} MiB/s)", name, TRANSACTIONS, PAYLOAD >> 10, elapsed / 1_000_000L,
+					String.format("%.1f", (double) TRANSACTIONS * PAYLOAD / 1048576.0 / (elapsed / 1e9)));
+		}
+	}
+
+	@AfterAll
+	public void shutdown() throws Exception {
+		lowLatency.close();
+		highLatency.close();
+		server.close();
+	}
+
+}
@@ -0,0 +1,300 @@
+package io.github.rfc3507.client.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import io.github.rfc3507.client.BodySink;
+import io.github.rfc3507.client.ICAPClient;
+import io.github.rfc3507.client.ICAPException;
+import io.github.rfc3507.client.ICAPRequest;
+import io.github.rfc3507.client.ICAPResponse;
+import io.github.rfc3507.client.Verdict;
+import io.github.rfc3507.client.test.stub.ICAPStubServer;
+import io.github.rfc3507.utilities.LogService;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class StubServerTestCase {
+	private LogService logger = LogService.getInstance("StubServerTestCase");
+
+	private ICAPStubServer server;
+
+	@BeforeAll
+	public void startup() throws Exception {
+		server = ICAPStubServer.instance().setWorkers(2).start();
+	}
+
+	@AfterEach
+	public void restore() {
+		server.setLatency(0).setBandwidth(0).setErrorRate(0).setResetRate(0).setPreviewNoContentRate(0).setKeepAlive(true);
+	}
+
+	private ICAPClient client() {
+		return ICAPClient.instance("localhost", server.getPort())
+				.setConnectTimeout(1000)
+				.setReadTimeout(5000);
+	}
+
+	private static byte[] ascii(final String content) {
+		return content.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private static ICAPRequest respmod(final String service, final byte[] raw) {
+		return ICAPRequest.instance(service, ICAPRequest.Mode.RESPMOD)
+				.setHttpResponseHeader(ascii(""
+						+ "HTTP/1.1 200 OK\r\n"
+						+ "Content-Type: text/plain\r\n"
+						+ "Content-Length: " + raw.length + "\r\n"
+						+ "\r\n"))
+				.setHttpResponseBody(raw);
+	}
+
+	@Test
+	public void optionsSuccessful() throws Exception {
+		final ICAPResponse response = client().options("virus_scan");
+
+		assertEquals(200, response.getStatus());
+		assertEquals(1024, response.getIntegerHeader("Preview"));
+		assertTrue(response.containHeaderValue("Allow", "204"));
+	}
+
+	@Test
+	public void headerLookups() throws Exception {
+		final ICAPResponse response = client().options("virus_scan");
+
+		assertEquals("1024", response.getHeader("preview"));
+		assertEquals(Arrays.asList("RESPMOD", "REQMOD"), response.getHeaderValues("METHODS"));
+		assertEquals(Arrays.asList("RESPMOD", "REQMOD"), response.getHeaderEntries().get("Methods"));
+		assertEquals("Methods", response.getHeaders().iterator().next());
+		assertTrue(response.getHeaders().contains("Encapsulated"));
+		assertNull(response.getHeaderValues("X-Missing"));
+		assertNull(response.getHeader("X-Missing"));
+	}
+
+	@Test
+	public void echoReqmodSuccessful() throws Exception {
+		final byte[] raw = ascii("Hello, There!");
+		final byte[] header = ascii(""
+				+ "POST / HTTP/1.1\r\n"
+				+ "Content-Type: text/plain\r\n"
+				+ "Content-Length: " + raw.length + "\r\n"
+				+ "\r\n");
+
+		final ICAPRequest request = ICAPRequest.instance("echo", ICAPRequest.Mode.REQMOD)
+				.setHttpRequestHeader(header)
+				.setHttpRequestBody(raw);
+
+		final ICAPResponse response = client().execute(request);
+
+		assertEquals(200, response.getStatus());
+		assertArrayEquals(header, response.getHttpRequestHeader());
+		assertArrayEquals(raw, response.getHttpShrinkRequestBody());
+	}
+
+	@Test
+	public void previewNoContent() throws Exception {
+		final ICAPResponse response = client().execute(respmod("virus_scan", ascii("clean content")).setPreview(1024));
+
+		assertEquals(204, response.getStatus());
+	}
+
+	@Test
+	public void previewContinue() throws Exception {
+		final byte[] raw = new byte[200_000];
+		for (int i = 0; i < raw.length; ++i) {
+			raw[i] = (byte) ('a' + (i % 26));
+		}
+
+		final ICAPResponse response = client().execute(respmod("echo", raw).setPreview(10));
+
+		assertEquals(200, response.getStatus());
+		assertArrayEquals(raw, response.getHttpShrinkResponseBody());
+		assertEquals(raw.length, response.getHttpResponse().getContentLength());
+		assertEquals("text/plain", response.getHttpResponse().getContentType());
+	}
+
+	@Test
+	public void echoToSink() throws Exception {
+		final byte[] raw = new byte[300_000];
+		for (int i = 0; i < raw.length; ++i) {
+			raw[i] = (byte) ('a' + (i % 26));
+		}
+
+		final ByteArrayOutputStream relayed = new ByteArrayOutputStream();
+		final ICAPResponse response = client().execute(respmod("echo", raw).setPreview(10), BodySink.of(Channels.newChannel(relayed)));
+
+		assertEquals(200, response.getStatus());
+		assertNull(response.getHttpRawResponseBody());
+		assertEquals(raw.length, response.getHttpResponse().getContentLength());
+		assertArrayEquals(raw, relayed.toByteArray());
+
+		final List<BodySink.Section> ended = new ArrayList<>();
+		final long[] received = new long[1];
+		client().execute(respmod("echo", raw), new BodySink() {
+			@Override
+			public void write(final Section section, final byte[] data, final int offset, final int length) {
+				received[0] += length;
+			}
+
+			@Override
+			public void end(final Section section) {
+				ended.add(section);
+			}
+		});
+
+		assertEquals(raw.length, received[0]);
+		assertEquals(Arrays.asList(BodySink.Section.RESPONSE_BODY), ended);
+	}
+
+	@Test
+	public void infectionFound() throws Exception {
+		final byte[] raw = ascii("X5O!P%@AP[4\\PZX54(P^)7CC)7}$EICAR-STANDARD-ANTIVIRUS-TEST-FILE!$H+H*");
+
+		final ICAPResponse response = client().execute(respmod("virus_scan", raw).setPreview(1024));
+
+		assertEquals(200, response.getStatus());
+		assertTrue(response.containHeaderValue("X-Infection-Found", "Eicar-Test-Signature"));
+	}
+
+	@Test
+	public void verdictOnly() throws Exception {
+		final byte[] eicar = ascii("X5O!P%@AP[4\\PZX54(P^)7CC)7}$EICAR-STANDARD-ANTIVIRUS-TEST-FILE!$H+H*");
+
+		try (ICAPClient client = client()) {
+			final Verdict infected = client.verdict(respmod("virus_scan", eicar).setPreview(1024));
+			assertEquals(200, infected.getStatus());
+			assertTrue(infected.isThreat());
+			assertEquals("Eicar-Test-Signature", infected.getThreat());
+			assertNull(infected.getResponse().getHttpRawResponseBody());
+			// The block page was left unread on a closed connection
+			assertEquals(0, client.getIdleConnections());
+
+			final Verdict modified = client.verdict(respmod("echo", new byte[1 << 20]));
+			assertEquals(200, modified.getStatus());
+			assertTrue(!modified.isClean() && !modified.isThreat());
+			assertNull(modified.getResponse().getHttpRawResponseBody());
+
+			final Verdict clean = client.verdict(respmod("virus_scan", ascii("content")));
+			assertTrue(clean.isClean());
+			assertEquals(1, client.getIdleConnections());
+		}
+	}
+
+	@Test
+	public void injectedServerError() throws Exception {
+		server.setErrorRate(1);
+
+		final ICAPResponse response = client().execute(respmod("virus_scan", ascii("content")));
+
+		assertEquals(500, response.getStatus());
+	}
+
+	@Test
+	public void injectedConnectionReset() throws Exception {
+		server.setResetRate(1);
+
+		assertThrows(ICAPException.class, () -> client().execute(respmod("virus_scan", ascii("content"))));
+	}
+
+	@Test
+	public void injectedLatency() throws Exception {
+		server.setLatency(200);
+
+		final long start = System.nanoTime();
+		client().execute(respmod("virus_scan", ascii("content")));
+		final long elapsed = (System.nanoTime() - start) / 1_000_000L;
+
+		assertTrue(elapsed >= 200, "Elapsed " + elapsed + " ms");
+	}
+
+	@Test
+	public void readTimeoutNotRetried() throws Exception {
+		try (ICAPClient client = client().setReadTimeout(300)) {
+			// Pools a connection, which a retry would replace with a new one
+			client.execute(respmod("virus_scan", ascii("content")));
+			server.setLatency(1000);
+
+			final long start = System.nanoTime();
+			assertThrows(ICAPException.class, () -> client.execute(respmod("virus_scan", ascii("content"))));
+			final long elapsed = (System.nanoTime() - start) / 1_000_000L;
+
+			assertTrue(elapsed < 550, "Elapsed " + elapsed + " ms");
+		}
+	}
+
+	@Test
+	public void throttledBandwidth() throws Exception {
+		server.setBandwidth(100_000);
+
+		final byte[] raw = new byte[50_000];
+		final long start = System.nanoTime();
+		final ICAPResponse response = client().execute(respmod("echo", raw));
+		final long elapsed = (System.nanoTime() - start) / 1_000_000L;
+
+		assertEquals(raw.length, response.getHttpShrinkResponseBody().length);
+		assertTrue(elapsed >= 300, "Elapsed " + elapsed + " ms");
+	}
+
+	@Test
+	public void concurrentLoad() throws Exception {
+		final int threads = 8;
+		final int iterations = 250;
+
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			final long before = server.getRequestCount();
+			final long start = System.nanoTime();
+
+			final List<Future<Integer>> results = new ArrayList<>();
+			for (int t = 0; t < threads; ++t) {
+				results.add(executor.submit(() -> {
+					final ICAPClient client = client();
+					int noContent = 0;
+					for (int i = 0; i < iterations; ++i) {
+						if (client.execute(respmod("virus_scan", ascii("content " + i))).getStatus() == 204) {
+							++noContent;
+						}
+					}
+					return noContent;
+				}));
+			}
+
+			int total = 0;
+			for (final Future<Integer> result : results) {
+				total += result.get();
+			}
+			final long elapsed = Math.max(1, (System.nanoTime() - start) / 1_000_000L);
+
+			assertEquals(threads * iterations, total);
+			assertEquals(threads * iterations, server.getRequestCount() - before);
+			logger.info("{} requests in {} ms ({} req/s)", total, elapsed, total * 1000L / elapsed);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@AfterAll
+	public void terminate() throws Exception {
+		server.close();
+	}
+
+}
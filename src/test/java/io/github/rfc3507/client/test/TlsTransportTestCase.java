@@ -0,0 +1,133 @@
+package io.github.rfc3507.client.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import io.github.rfc3507.client.ICAPClient;
+import io.github.rfc3507.client.ICAPException;
+import io.github.rfc3507.client.ICAPRequest;
+import io.github.rfc3507.client.ICAPResponse;
+import io.github.rfc3507.client.test.stub.ICAPStubServer;
+import io.github.rfc3507.client.test.stub.TlsTerminator;
+import io.github.rfc3507.client.transport.TlsTransport;
+import io.github.rfc3507.utilities.LogService;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class TlsTransportTestCase {
+	private LogService logger = LogService.getInstance("TlsTransportTestCase");
+
+	private static final int ITERATIONS = 100;
+
+	private ICAPStubServer server;
+	private TlsTerminator terminator;
+
+	@BeforeAll
+	public void startup() throws Exception {
+		server = ICAPStubServer.instance().setWorkers(2).start();
+		terminator = TlsTerminator.instance(server);
+	}
+
+	private TlsTransport transport() throws Exception {
+		return TlsTransport.instance(terminator.getClientContext());
+	}
+
+	private static ICAPRequest request() {
+		return ICAPRequest.instance("virus_scan", ICAPRequest.Mode.RESPMOD)
+				.setPreview(1024)
+				.setHttpResponseHeader("HTTP/1.1 200 OK\r\n\r\n".getBytes(StandardCharsets.US_ASCII))
+				.setHttpResponseBody(new byte[4096]);
+	}
+
+	@Test
+	public void echoOverTls() throws Exception {
+		final byte[] raw = new byte[150_000];
+		final ICAPClient client = ICAPClient.instance("localhost", terminator.getPort()).setTransport(transport());
+
+		final ICAPResponse response = client.execute(ICAPRequest.instance("echo", ICAPRequest.Mode.RESPMOD)
+				.setHttpResponseHeader("HTTP/1.1 200 OK\r\n\r\n".getBytes(StandardCharsets.US_ASCII))
+				.setHttpResponseBody(raw));
+
+		assertEquals(200, response.getStatus());
+		assertArrayEquals(raw, response.getHttpShrinkResponseBody());
+	}
+
+	@Test
+	public void untrustedServer() throws Exception {
+		final ICAPClient client = ICAPClient.instance("localhost", terminator.getPort()).setTransport(TlsTransport.instance());
+
+		assertThrows(ICAPException.class, () -> client.options("virus_scan"));
+	}
+
+	@Test
+	public void pooledConnectionsAmortizeHandshakes() throws Exception {
+		final TlsTransport transport = transport();
+		final ICAPClient client = ICAPClient.instance("localhost", terminator.getPort()).setTransport(transport);
+
+		for (int i = 0; i < 10; ++i) {
+			client.execute(request());
+		}
+
+		assertEquals(1, transport.getHandshakeCount());
+		client.close();
+	}
+
+	/*
+	 * Benchmark: cost per transaction of plaintext vs TLS, with and without connection reuse.
+	 * Without reuse every TLS transaction pays a (resumed) handshake; with reuse only the first does.
+	 */
+	@Test
+	public void handshakeAmortizationBenchmark() throws Exception {
+		final ICAPClient plain = ICAPClient.instance("localhost", server.getPort());
+		final ICAPClient plainUnpooled = ICAPClient.instance("localhost", server.getPort()).setMaxIdleConnections(0);
+
+		final TlsTransport pooledTransport = transport();
+		final ICAPClient tls = ICAPClient.instance("localhost", terminator.getPort()).setTransport(pooledTransport);
+
+		final TlsTransport unpooledTransport = transport();
+		final ICAPClient tlsUnpooled = ICAPClient.instance("localhost", terminator.getPort())
+				.setTransport(unpooledTransport)
+				.setMaxIdleConnections(0);
+
+		// Warm up JIT and session caches
+		run(plain, ITERATIONS);
+		run(tls, ITERATIONS);
+		run(tlsUnpooled, ITERATIONS / 10);
+
+		final long plainMicros = run(plain, ITERATIONS);
+		final long plainUnpooledMicros = run(plainUnpooled, ITERATIONS);
+		final long tlsMicros = run(tls, ITERATIONS);
+		final long unpooledHandshakes = unpooledTransport.getHandshakeCount();
+		final long tlsUnpooledMicros = run(tlsUnpooled, ITERATIONS);
+
+		logger.info("Per transaction: plain pooled {} us, plain unpooled {} us, TLS pooled {} us, TLS unpooled {} us",
+				plainMicros, plainUnpooledMicros, tlsMicros, tlsUnpooledMicros);
+		logger.info("Mean handshake {} us", unpooledTransport.getHandshakeNanos() / unpooledTransport.getHandshakeCount() / 1000);
+
+		assertEquals(1, pooledTransport.getHandshakeCount());
+		assertEquals(ITERATIONS, unpooledTransport.getHandshakeCount() - unpooledHandshakes);
+	}
+
+	private static long run(final ICAPClient client, final int iterations) throws Exception {
+		final long start = System.nanoTime();
+		for (int i = 0; i < iterations; ++i) {
+			client.execute(request());
+		}
+		return (System.nanoTime() - start) / iterations / 1000;
+	}
+
+	@AfterAll
+	public void terminate() throws Exception {
+		terminator.close();
+		server.close();
+	}
+
+}
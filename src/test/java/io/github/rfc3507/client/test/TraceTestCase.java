@@ -0,0 +1,95 @@
+package io.github.rfc3507.client.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import io.github.rfc3507.client.ICAPClient;
+import io.github.rfc3507.client.ICAPRequest;
+import io.github.rfc3507.client.test.stub.ICAPStubServer;
+import io.github.rfc3507.client.trace.ReplayReport;
+import io.github.rfc3507.client.trace.TraceReader;
+import io.github.rfc3507.client.trace.TraceRecord;
+import io.github.rfc3507.client.trace.TraceRecorder;
+import io.github.rfc3507.client.trace.TraceReplayer;
+import io.github.rfc3507.utilities.LogService;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class TraceTestCase {
+	private LogService logger = LogService.getInstance("TraceTestCase");
+
+	private ICAPStubServer server;
+	private Path trace;
+
+	@BeforeAll
+	public void startup() throws Exception {
+		server = ICAPStubServer.instance().setWorkers(2).start();
+		trace = Files.createTempFile("icap", ".trace");
+	}
+
+	@Test
+	public void recordAndReplay() throws Exception {
+		final byte[] body = "Hello, There!".getBytes(StandardCharsets.US_ASCII);
+
+		try (final TraceRecorder recorder = TraceRecorder.open(trace).setSampleSize(5)) {
+			final ICAPClient client = ICAPClient.instance("localhost", server.getPort()).setRecorder(recorder);
+
+			client.options("virus_scan");
+			for (int i = 0; i < 20; ++i) {
+				client.execute(ICAPRequest.instance("virus_scan", ICAPRequest.Mode.RESPMOD)
+						.setPreview(4)
+						.setHttpResponseHeader("HTTP/1.1 200 OK\r\n\r\n".getBytes(StandardCharsets.US_ASCII))
+						.setHttpResponseBody(body));
+			}
+		}
+
+		final List<TraceRecord> records = TraceReader.readAll(trace);
+		assertEquals(21, records.size());
+		assertEquals("OPTIONS", records.get(0).getMethod());
+		assertEquals(200, records.get(0).getStatus());
+
+		final TraceRecord record = records.get(1);
+		assertEquals("RESPMOD", record.getMethod());
+		assertEquals("virus_scan", record.getService());
+		assertEquals(4, record.getPreview());
+		assertEquals(19, record.getHttpResponseHeaderLength());
+		assertEquals(body.length, record.getHttpResponseBodyLength());
+		assertEquals(32, record.getDigest().length);
+		assertArrayEquals("Hello".getBytes(StandardCharsets.US_ASCII), record.getSample());
+		assertEquals(204, record.getStatus());
+
+		final ICAPRequest replayed = record.toRequest();
+		assertEquals(19, replayed.getHttpResponseHeader().length);
+		assertEquals(body.length, replayed.getHttpResponseBody().length);
+		assertArrayEquals(records.get(2).toRequest().getHttpResponseBody(), replayed.getHttpResponseBody());
+
+		final ICAPClient client = ICAPClient.instance("localhost", server.getPort());
+
+		final ReplayReport open = TraceReplayer.instance(client).setSpeed(10).replay(trace);
+		logger.info("Open loop replay\n{}", open);
+		assertEquals(21, open.getRequests());
+		assertEquals(0, open.getFailures());
+		assertEquals(20L, open.getStatuses().get(204));
+
+		final ReplayReport closed = TraceReplayer.instance(client).setClosedLoop(true).setConcurrency(4).replay(trace);
+		logger.info("Closed loop replay\n{}", closed);
+		assertEquals(21, closed.getRequests());
+	}
+
+	@AfterAll
+	public void terminate() throws Exception {
+		server.close();
+		Files.deleteIfExists(trace);
+	}
+
+}
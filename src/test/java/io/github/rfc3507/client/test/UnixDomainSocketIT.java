@@ -0,0 +1,106 @@
+package io.github.rfc3507.client.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import io.github.rfc3507.client.ICAPClient;
+import io.github.rfc3507.client.ICAPException;
+import io.github.rfc3507.client.ICAPRequest;
+import io.github.rfc3507.client.ICAPResponse;
+import io.github.rfc3507.client.gateway.ICAPGateway;
+import io.github.rfc3507.client.test.stub.ICAPStubServer;
+import io.github.rfc3507.client.transport.UnixDomainTransport;
+
+/**
+ * Runs through failsafe against the packaged multi-release jar, so the Java 16 layer is exercised.
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class UnixDomainSocketIT {
+
+	private ICAPStubServer server;
+	private Path directory;
+
+	@BeforeAll
+	public void startup() throws Exception {
+		directory = Files.createTempDirectory("icap");
+		server = ICAPStubServer.instance(directory.resolve("icap.sock")).setWorkers(1).start();
+	}
+
+	private ICAPClient client() {
+		return ICAPClient.instance("localhost", 1344)
+				.setTransport(UnixDomainTransport.of(server.getSocketPath()))
+				.setReadTimeout(2000);
+	}
+
+	@Test
+	public void supported() {
+		assertTrue(UnixDomainTransport.isSupported());
+	}
+
+	@Test
+	public void optionsAndEcho() throws Exception {
+		assertEquals(200, client().options("virus_scan").getStatus());
+
+		final byte[] raw = new byte[100_000];
+		final ICAPResponse response = client().execute(ICAPRequest.instance("echo", ICAPRequest.Mode.RESPMOD)
+				.setPreview(1024)
+				.setHttpResponseHeader("HTTP/1.1 200 OK\r\n\r\n".getBytes(StandardCharsets.US_ASCII))
+				.setHttpResponseBody(raw));
+
+		assertEquals(200, response.getStatus());
+		assertArrayEquals(raw, response.getHttpShrinkResponseBody());
+	}
+
+	@Test
+	public void readTimeout() throws Exception {
+		server.setLatency(1000);
+		try {
+			final ICAPException failure = assertThrows(ICAPException.class, () -> client().setReadTimeout(100).options("virus_scan"));
+			assertTrue(failure.getCause() instanceof SocketTimeoutException);
+		} finally {
+			server.setLatency(0);
+		}
+	}
+
+	@Test
+	public void gateway() throws Exception {
+		final Path socket = directory.resolve("gateway.sock");
+		try (ICAPClient upstream = client();
+				ICAPGateway gateway = ICAPGateway.instance(upstream).setPort(-1).setSocketPath(socket).start();
+				ICAPClient process = ICAPClient.instance("localhost", 1344)
+						.setTransport(UnixDomainTransport.of(socket))
+						.setReadTimeout(2000)) {
+
+			final byte[] raw = new byte[100_000];
+			final ICAPResponse response = process.execute(ICAPRequest.instance("echo", ICAPRequest.Mode.RESPMOD)
+					.setPreview(1024)
+					.setHttpResponseHeader("HTTP/1.1 200 OK\r\n\r\n".getBytes(StandardCharsets.US_ASCII))
+					.setHttpResponseBody(raw));
+
+			assertEquals(200, response.getStatus());
+			assertArrayEquals(raw, response.getHttpShrinkResponseBody());
+			assertEquals(1, gateway.getRequests());
+		}
+		assertTrue(Files.notExists(socket));
+	}
+
+	@AfterAll
+	public void terminate() throws Exception {
+		server.close();
+		Files.deleteIfExists(directory);
+	}
+
+}
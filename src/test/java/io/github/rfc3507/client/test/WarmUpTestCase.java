@@ -0,0 +1,76 @@
+package io.github.rfc3507.client.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.ServerSocket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import io.github.rfc3507.client.ICAPClient;
+import io.github.rfc3507.client.ICAPException;
+import io.github.rfc3507.client.WarmUp;
+import io.github.rfc3507.client.test.stub.ICAPStubServer;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class WarmUpTestCase {
+
+	private ICAPStubServer server;
+
+	@BeforeAll
+	public void startup() throws Exception {
+		server = ICAPStubServer.instance().setWorkers(2).start();
+	}
+
+	@Test
+	public void prepareConnectionsAndServices() throws Exception {
+		final long connectionsBefore = server.getConnectionCount();
+		final long requestsBefore = server.getRequestCount();
+
+		try (ICAPClient client = ICAPClient.instance("localhost", server.getPort())) {
+			final WarmUp.Report report = client.warmUp(WarmUp.instance()
+					.setConnections(4)
+					.addService("avscan")
+					.setSyntheticScans(3))
+				.get(10, TimeUnit.SECONDS);
+
+			assertTrue(report.getAddresses() > 0);
+			assertEquals(4, report.getConnections());
+			assertEquals(200, report.getOptions().get("avscan").getStatus());
+			assertEquals(3, report.getSyntheticScans());
+
+			// OPTIONS and scans ran on the prepared connections
+			assertEquals(4, server.getConnectionCount() - connectionsBefore);
+			assertEquals(4, server.getRequestCount() - requestsBefore);
+			assertEquals(4, client.getIdleConnections());
+		}
+	}
+
+	@Test
+	public void failsWhenServerIsUnreachable() throws Exception {
+		final int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+
+		try (ICAPClient client = ICAPClient.instance("localhost", port)) {
+			final CompletableFuture<WarmUp.Report> ready = client.warmUp(WarmUp.instance().addService("avscan"));
+			final ExecutionException failure = assertThrows(ExecutionException.class, () -> ready.get(10, TimeUnit.SECONDS));
+			assertTrue(failure.getCause() instanceof ICAPException, failure.toString());
+		}
+	}
+
+	@AfterAll
+	public void shutdown() throws Exception {
+		server.close();
+	}
+
+}
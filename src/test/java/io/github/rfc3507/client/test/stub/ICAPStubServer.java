@@ -0,0 +1,982 @@
+package io.github.rfc3507.client.test.stub;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.github.rfc3507.utilities.LogService;
+
+/**
+ * Embedded, NIO based ICAP server meant for tests and load experiments.
+ * <p>
+ * Services:
+ * <ul>
+ * <li>{@code echo}: always answers 200 with the received message;</li>
+ * <li>{@code rewrite_headers}: adds an {@code X-Adapted} header to the HTTP message; when the client
+ * allows 206, only the first 16 bytes of the body are sent back, followed by {@code use-original-body=16};</li>
+ * <li>any other: answers 204, unless the body carries the EICAR signature,
+ * in which case a 200 block page with {@code X-Infection-Found} is returned.</li>
+ * </ul>
+ * Latency, bandwidth, random 5xx, connection resets and keep-alive are configurable
+ * at any time, even while the server is running.
+ */
+public final class ICAPStubServer implements Closeable {
+
+	private static final Charset ASCII = StandardCharsets.US_ASCII;
+
+	private static final String END_LINE_DELIMITER = "\r\n";
+
+	private static final byte[] EICAR_SIGNATURE = "EICAR-STANDARD-ANTIVIRUS-TEST-FILE".getBytes(ASCII);
+
+	private static final byte[] CONTINUE = ("ICAP/1.0 100 Continue" + END_LINE_DELIMITER + END_LINE_DELIMITER).getBytes(ASCII);
+
+	private static final int MAX_HEADER_SIZE = 65536;
+
+	private static final String ISTAG = "\"stub-1.0\"";
+
+	private final LogService logger = LogService.getInstance("ICAP Stub Server");
+
+	private final int requestedPort;
+	private final Path socketPath;
+
+	private ServerSocketChannel serverChannel;
+	private Thread acceptor;
+	private Worker[] workers;
+
+	private volatile boolean running = false;
+
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder connections = new LongAdder();
+	private final LongAdder resets = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+
+	private ICAPStubServer(final int port, final Path socketPath) {
+		this.requestedPort = port;
+		this.socketPath = socketPath;
+	}
+
+	public static ICAPStubServer instance() {
+		return new ICAPStubServer(0, null);
+	}
+
+	public static ICAPStubServer instance(final int port) {
+		return new ICAPStubServer(port, null);
+	}
+
+	/**
+	 * Listens on a Unix domain socket instead of TCP. Requires Java 16 or later at runtime.
+	 */
+	public static ICAPStubServer instance(final Path socketPath) {
+		return new ICAPStubServer(-1, socketPath);
+	}
+
+	private volatile int workerCount = Runtime.getRuntime().availableProcessors();
+
+	public ICAPStubServer setWorkers(final int workerCount) {
+		this.workerCount = Math.max(1, workerCount);
+		return this;
+	}
+
+	private volatile long latency = 0;
+
+	/**
+	 * Delay, in milliseconds, applied before every final response.
+	 */
+	public ICAPStubServer setLatency(final long latency) {
+		this.latency = latency;
+		return this;
+	}
+
+	private volatile long bandwidth = 0;
+
+	/**
+	 * Outbound throughput limit, in bytes per second, for each connection. Zero disables throttling.
+	 */
+	public ICAPStubServer setBandwidth(final long bandwidth) {
+		this.bandwidth = bandwidth;
+		return this;
+	}
+
+	private volatile double errorRate = 0;
+
+	/**
+	 * Probability of answering any request with {@code 500 Server Error}.
+	 */
+	public ICAPStubServer setErrorRate(final double errorRate) {
+		this.errorRate = errorRate;
+		return this;
+	}
+
+	private volatile double resetRate = 0;
+
+	/**
+	 * Probability of resetting the connection as soon as a request header arrives.
+	 */
+	public ICAPStubServer setResetRate(final double resetRate) {
+		this.resetRate = resetRate;
+		return this;
+	}
+
+	private volatile double previewNoContentRate = 0;
+
+	/**
+	 * Probability of answering 204 straight after an incomplete preview, instead of 100 Continue.
+	 */
+	public ICAPStubServer setPreviewNoContentRate(final double previewNoContentRate) {
+		this.previewNoContentRate = previewNoContentRate;
+		return this;
+	}
+
+	private volatile boolean keepAlive = true;
+
+	public ICAPStubServer setKeepAlive(final boolean keepAlive) {
+		this.keepAlive = keepAlive;
+		return this;
+	}
+
+	private volatile int previewSize = 1024;
+
+	public ICAPStubServer setPreviewSize(final int previewSize) {
+		this.previewSize = previewSize;
+		return this;
+	}
+
+	private volatile int maxConnections = 1000;
+
+	public ICAPStubServer setMaxConnections(final int maxConnections) {
+		this.maxConnections = maxConnections;
+		return this;
+	}
+
+	public synchronized ICAPStubServer start() throws IOException {
+		if (running) {
+			return this;
+		}
+
+		if (socketPath != null) {
+			serverChannel = openUnixDomain(socketPath);
+		} else {
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+			serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), requestedPort), 1024);
+		}
+
+		workers = new Worker[workerCount];
+		for (int i = 0; i < workers.length; ++i) {
+			workers[i] = new Worker(i);
+			workers[i].start();
+		}
+
+		running = true;
+
+		acceptor = new Thread(this::accept, "icap-stub-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		logger.info("Listening on {}", socketPath != null ? socketPath : "port " + getPort());
+		return this;
+	}
+
+	private static ServerSocketChannel openUnixDomain(final Path socketPath) throws IOException {
+		// Reflection keeps the test sources compatible with Java 8
+		try {
+			final ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+			final SocketAddress address = (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+					.getMethod("of", Path.class)
+					.invoke(null, socketPath);
+
+			Files.deleteIfExists(socketPath);
+			final ServerSocketChannel channel = (ServerSocketChannel) ServerSocketChannel.class
+					.getMethod("open", ProtocolFamily.class)
+					.invoke(null, unix);
+			channel.bind(address, 1024);
+			return channel;
+		} catch (ReflectiveOperationException | IllegalArgumentException e) {
+			throw new IOException("Unix domain sockets require Java 16 or later", e);
+		}
+	}
+
+	public int getPort() {
+		return socketPath != null ? -1 : serverChannel.socket().getLocalPort();
+	}
+
+	public Path getSocketPath() {
+		return socketPath;
+	}
+
+	public long getRequestCount() {
+		return requests.sum();
+	}
+
+	public long getConnectionCount() {
+		return connections.sum();
+	}
+
+	public long getResetCount() {
+		return resets.sum();
+	}
+
+	public long getErrorCount() {
+		return errors.sum();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (!running) {
+			return;
+		}
+		running = false;
+
+		serverChannel.close();
+		for (final Worker worker : workers) {
+			worker.shutdown();
+		}
+		if (socketPath != null) {
+			Files.deleteIfExists(socketPath);
+		}
+	}
+
+	private void accept() {
+		int next = 0;
+		while (running) {
+			try {
+				final SocketChannel channel = serverChannel.accept();
+				channel.configureBlocking(false);
+				if (socketPath == null) {
+					channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				}
+				connections.increment();
+
+				workers[next].register(channel);
+				next = (next + 1) % workers.length;
+			} catch (ClosedChannelException e) {
+				return;
+			} catch (IOException e) {
+				if (running) {
+					logger.error("Accept failure", e);
+				}
+			}
+		}
+	}
+
+	private static final class Timer implements Comparable<Timer> {
+		final long due;
+		final Runnable task;
+
+		Timer(final long due, final Runnable task) {
+			this.due = due;
+			this.task = task;
+		}
+
+		@Override
+		public int compareTo(final Timer other) {
+			return Long.compare(due, other.due);
+		}
+	}
+
+	private final class Worker extends Thread {
+
+		private final Selector selector;
+		private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+		private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+
+		private volatile boolean active = true;
+
+		Worker(final int index) throws IOException {
+			super("icap-stub-worker-" + index);
+			setDaemon(true);
+			this.selector = Selector.open();
+		}
+
+		void register(final SocketChannel channel) {
+			pending.add(channel);
+			selector.wakeup();
+		}
+
+		void schedule(final long delay, final Runnable task) {
+			timers.add(new Timer(System.nanoTime() + delay * 1_000_000L, task));
+		}
+
+		void shutdown() {
+			active = false;
+			selector.wakeup();
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (active) {
+					long timeout = 0;
+					final Timer first = timers.peek();
+					if (first != null) {
+						timeout = Math.max(1, (first.due - System.nanoTime()) / 1_000_000L);
+					}
+					selector.select(timeout);
+
+					SocketChannel channel;
+					while ((channel = pending.poll()) != null) {
+						final Connection connection = new Connection(this, channel);
+						channel.register(selector, SelectionKey.OP_READ, connection);
+					}
+
+					final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while (keys.hasNext()) {
+						final SelectionKey key = keys.next();
+						keys.remove();
+
+						final Connection connection = (Connection) key.attachment();
+						try {
+							if (key.isValid() && key.isReadable()) {
+								connection.onReadable();
+							}
+							if (key.isValid() && key.isWritable()) {
+								connection.flush();
+							}
+						} catch (IOException | RuntimeException e) {
+							connection.close();
+						}
+					}
+
+					final long now = System.nanoTime();
+					while (!timers.isEmpty() && timers.peek().due <= now) {
+						timers.poll().task.run();
+					}
+				}
+			} catch (IOException e) {
+				logger.error("Worker failure", e);
+			} finally {
+				for (final SelectionKey key : selector.keys()) {
+					((Connection) key.attachment()).close();
+				}
+				try {
+					selector.close();
+				} catch (IOException e) { /***/ }
+			}
+		}
+
+	}
+
+	private static enum State {
+		HEADER, ENCAPSULATED_HEADER, CHUNK_SIZE, CHUNK_DATA, CHUNK_DATA_END, CHUNK_TRAILER, RESPONDING, CLOSED;
+	}
+
+	private final class Connection {
+
+		private final Worker worker;
+		private final SocketChannel channel;
+
+		private ByteBuffer in = ByteBuffer.allocate(16384);
+		private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+
+		private State state = State.HEADER;
+
+		private String method;
+		private String service;
+		private boolean allowNoContent;
+		private boolean allowPartialContent;
+		private boolean preview;
+		private boolean ieof;
+		private boolean hasBody;
+		private boolean respmod;
+		private int headerRemaining;
+		private int chunkRemaining;
+		private int requestHeaderLength;
+
+		private final ByteArrayOutputStream encapsulatedHeader = new ByteArrayOutputStream();
+		private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+		private boolean closeAfterResponse;
+		private boolean failing;
+		private boolean processing;
+		private long tokens;
+		private long lastRefill;
+		private boolean throttled;
+
+		Connection(final Worker worker, final SocketChannel channel) {
+			this.worker = worker;
+			this.channel = channel;
+		}
+
+		void onReadable() throws IOException {
+			if (!in.hasRemaining()) {
+				final ByteBuffer larger = ByteBuffer.allocate(in.capacity() * 2);
+				in.flip();
+				larger.put(in);
+				in = larger;
+			}
+
+			final int read = channel.read(in);
+			if (read == -1) {
+				close();
+				return;
+			}
+
+			process();
+		}
+
+		private void process() throws IOException {
+			in.flip();
+			processing = true;
+			try {
+				while (state != State.RESPONDING && state != State.CLOSED && step()) {
+					/* keep consuming */
+				}
+			} finally {
+				processing = false;
+				if (state != State.CLOSED) {
+					in.compact();
+				}
+			}
+		}
+
+		private boolean step() throws IOException {
+			switch (state) {
+				case HEADER:
+					return readRequestHeader();
+
+				case ENCAPSULATED_HEADER: {
+					final int amount = Math.min(headerRemaining, in.remaining());
+					encapsulatedHeader.write(in.array(), in.position(), amount);
+					in.position(in.position() + amount);
+					headerRemaining -= amount;
+					if (headerRemaining > 0) {
+						return false;
+					}
+					if (hasBody) {
+						state = State.CHUNK_SIZE;
+					} else {
+						respond(false);
+					}
+					return true;
+				}
+
+				case CHUNK_SIZE: {
+					final String line = readLine();
+					if (line == null) {
+						return false;
+					}
+					final int semicolon = line.indexOf(';');
+					final String size = (semicolon >= 0 ? line.substring(0, semicolon) : line).trim();
+					if (semicolon >= 0 && line.substring(semicolon + 1).trim().equals("ieof")) {
+						ieof = true;
+					}
+					chunkRemaining = Integer.parseInt(size, 16);
+					state = chunkRemaining == 0 ? State.CHUNK_TRAILER : State.CHUNK_DATA;
+					return true;
+				}
+
+				case CHUNK_DATA: {
+					final int amount = Math.min(chunkRemaining, in.remaining());
+					body.write(in.array(), in.position(), amount);
+					in.position(in.position() + amount);
+					chunkRemaining -= amount;
+					if (chunkRemaining > 0) {
+						return false;
+					}
+					state = State.CHUNK_DATA_END;
+					return true;
+				}
+
+				case CHUNK_DATA_END: {
+					final String line = readLine();
+					if (line == null) {
+						return false;
+					}
+					state = State.CHUNK_SIZE;
+					return true;
+				}
+
+				case CHUNK_TRAILER: {
+					final String line = readLine();
+					if (line == null) {
+						return false;
+					}
+					if (!line.isEmpty()) {
+						return true;
+					}
+					if (preview && !ieof) {
+						preview = false;
+						onPreviewComplete();
+					} else {
+						respond(false);
+					}
+					return true;
+				}
+
+				default:
+					return false;
+			}
+		}
+
+		private String readLine() {
+			final int start = in.position();
+			for (int i = start; i + 1 < in.limit(); ++i) {
+				if (in.get(i) == '\r' && in.get(i + 1) == '\n') {
+					final String line = new String(in.array(), start, i - start, ASCII);
+					in.position(i + 2);
+					return line;
+				}
+			}
+			if (in.remaining() > MAX_HEADER_SIZE) {
+				throw new IllegalStateException("Line too long");
+			}
+			return null;
+		}
+
+		private boolean readRequestHeader() throws IOException {
+			final int start = in.position();
+			int end = -1;
+			for (int i = start; i + 3 < in.limit(); ++i) {
+				if (in.get(i) == '\r' && in.get(i + 1) == '\n' && in.get(i + 2) == '\r' && in.get(i + 3) == '\n') {
+					end = i;
+					break;
+				}
+			}
+			if (end == -1) {
+				if (in.remaining() > MAX_HEADER_SIZE) {
+					badRequest();
+				}
+				return false;
+			}
+
+			final String header = new String(in.array(), start, end - start, ASCII);
+			in.position(end + 4);
+
+			if (header.isEmpty()) {
+				// Tolerate stray line breaks between messages
+				return true;
+			}
+
+			requests.increment();
+			resetTransaction();
+
+			final String[] lines = header.split(END_LINE_DELIMITER);
+			final String[] requestLine = lines[0].split(" ");
+			if (requestLine.length != 3 || !requestLine[2].startsWith("ICAP/")) {
+				badRequest();
+				return false;
+			}
+
+			method = requestLine[0];
+			final String uri = requestLine[1];
+			final int slash = uri.indexOf('/', uri.indexOf("//") + 2);
+			service = slash >= 0 ? uri.substring(slash + 1) : "";
+			final int query = service.indexOf('?');
+			if (query >= 0) {
+				service = service.substring(0, query);
+			}
+
+			String encapsulated = null;
+			for (int i = 1; i < lines.length; ++i) {
+				final int colon = lines[i].indexOf(':');
+				if (colon <= 0) {
+					continue;
+				}
+				final String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT);
+				final String value = lines[i].substring(colon + 1).trim();
+				switch (name) {
+					case "encapsulated":
+						encapsulated = value;
+						break;
+					case "preview":
+						preview = true;
+						break;
+					case "allow":
+						allowNoContent = value.contains("204");
+						allowPartialContent = value.contains("206");
+						break;
+					case "connection":
+						closeAfterResponse = value.equalsIgnoreCase("close");
+						break;
+				}
+			}
+
+			if (ThreadLocalRandom.current().nextDouble() < resetRate) {
+				resets.increment();
+				reset();
+				return false;
+			}
+
+			failing = ThreadLocalRandom.current().nextDouble() < errorRate;
+
+			respmod = "RESPMOD".equals(method);
+			parseEncapsulated(encapsulated);
+
+			if ("OPTIONS".equals(method)) {
+				state = State.ENCAPSULATED_HEADER;
+				return true;
+			}
+
+			if (!"REQMOD".equals(method) && !respmod) {
+				enqueue(status(405, "Method Not Allowed"));
+				finish();
+				return false;
+			}
+
+			state = State.ENCAPSULATED_HEADER;
+			return true;
+		}
+
+		private void parseEncapsulated(final String encapsulated) {
+			if (encapsulated == null) {
+				return;
+			}
+			for (final String entry : encapsulated.split(",")) {
+				final String[] pair = entry.trim().split("=");
+				if (pair.length != 2) {
+					continue;
+				}
+				final int offset = Integer.parseInt(pair[1].trim());
+				switch (pair[0].trim()) {
+					case "req-hdr":
+						break;
+					case "res-hdr":
+						requestHeaderLength = offset;
+						break;
+					case "req-body":
+					case "res-body":
+						hasBody = true;
+						headerRemaining = offset;
+						break;
+					case "null-body":
+						headerRemaining = offset;
+						break;
+				}
+			}
+			if (requestHeaderLength > headerRemaining) {
+				requestHeaderLength = 0;
+			}
+		}
+
+		private void resetTransaction() {
+			method = null;
+			service = null;
+			allowNoContent = false;
+			allowPartialContent = false;
+			preview = false;
+			ieof = false;
+			hasBody = false;
+			headerRemaining = 0;
+			chunkRemaining = 0;
+			requestHeaderLength = 0;
+			encapsulatedHeader.reset();
+			body.reset();
+		}
+
+		private void onPreviewComplete() throws IOException {
+			if (failing) {
+				respond(false);
+				return;
+			}
+			if (infected() || ThreadLocalRandom.current().nextDouble() < previewNoContentRate) {
+				respond(true);
+				return;
+			}
+			enqueue(ByteBuffer.wrap(CONTINUE));
+			flush();
+			state = State.CHUNK_SIZE;
+		}
+
+		private void respond(final boolean afterPreview) throws IOException {
+			state = State.RESPONDING;
+
+			final ByteBuffer response;
+			if (failing) {
+				errors.increment();
+				response = status(500, "Server Error");
+			} else if ("OPTIONS".equals(method)) {
+				response = options();
+			} else if ("echo".equals(service)) {
+				response = echo();
+			} else if ("rewrite_headers".equals(service)) {
+				response = rewriteHeaders();
+			} else if (infected()) {
+				response = blocked();
+			} else if (allowNoContent || afterPreview) {
+				response = status(204, "No Content");
+			} else {
+				response = echo();
+			}
+
+			final long delay = latency;
+			if (delay > 0) {
+				worker.schedule(delay, () -> {
+					try {
+						enqueue(response);
+						finish();
+					} catch (IOException | RuntimeException e) {
+						close();
+					}
+				});
+			} else {
+				enqueue(response);
+				finish();
+			}
+		}
+
+		private boolean infected() {
+			final byte[] data = body.toByteArray();
+			outer:
+			for (int i = 0; i + EICAR_SIGNATURE.length <= data.length; ++i) {
+				for (int j = 0; j < EICAR_SIGNATURE.length; ++j) {
+					if (data[i + j] != EICAR_SIGNATURE[j]) {
+						continue outer;
+					}
+				}
+				return true;
+			}
+			return false;
+		}
+
+		private ByteBuffer options() {
+			return ByteBuffer.wrap((""
+					+ "ICAP/1.0 200 OK" + END_LINE_DELIMITER
+					+ "Methods: " + ("echo".equals(service) ? "REQMOD, RESPMOD" : "RESPMOD, REQMOD") + END_LINE_DELIMITER
+					+ "Service: ICAP Stub Server" + END_LINE_DELIMITER
+					+ "ISTag: " + ISTAG + END_LINE_DELIMITER
+					+ "Max-Connections: " + maxConnections + END_LINE_DELIMITER
+					+ "Options-TTL: 3600" + END_LINE_DELIMITER
+					+ "Allow: 204" + END_LINE_DELIMITER
+					+ "Preview: " + previewSize + END_LINE_DELIMITER
+					+ "Transfer-Preview: *" + END_LINE_DELIMITER
+					+ connectionHeader()
+					+ "Encapsulated: null-body=0" + END_LINE_DELIMITER
+					+ END_LINE_DELIMITER).getBytes(ASCII));
+		}
+
+		private ByteBuffer status(final int status, final String message) {
+			return ByteBuffer.wrap((""
+					+ "ICAP/1.0 " + status + " " + message + END_LINE_DELIMITER
+					+ "ISTag: " + ISTAG + END_LINE_DELIMITER
+					+ connectionHeader()
+					+ "Encapsulated: null-body=0" + END_LINE_DELIMITER
+					+ END_LINE_DELIMITER).getBytes(ASCII));
+		}
+
+		private ByteBuffer echo() {
+			final byte[] headers = encapsulatedHeader.toByteArray();
+			final byte[] data = body.toByteArray();
+			return adapted(headers, data, "");
+		}
+
+		private ByteBuffer rewriteHeaders() {
+			final String received = new String(encapsulatedHeader.toByteArray(), ASCII);
+			final byte[] headers = received.isEmpty() ? new byte[0]
+					: (received.substring(0, received.length() - 2) + "X-Adapted: stub" + END_LINE_DELIMITER + END_LINE_DELIMITER).getBytes(ASCII);
+			final byte[] data = body.toByteArray();
+			if (!allowPartialContent) {
+				return adapted(headers, data, "");
+			}
+
+			final int prefix = Math.min(16, data.length);
+			return adapted("206 Partial Content", headers, Arrays.copyOf(data, prefix), "", "0; use-original-body=" + prefix);
+		}
+
+		private ByteBuffer blocked() {
+			final byte[] page = "Access denied: Eicar-Test-Signature".getBytes(ASCII);
+			final byte[] headers = (""
+					+ "HTTP/1.1 403 Forbidden" + END_LINE_DELIMITER
+					+ "Content-Type: text/plain" + END_LINE_DELIMITER
+					+ "Content-Length: " + page.length + END_LINE_DELIMITER
+					+ END_LINE_DELIMITER).getBytes(ASCII);
+
+			respmod = true;
+			requestHeaderLength = 0;
+			return adapted(headers, page, ""
+					+ "X-Infection-Found: Type=0; Resolution=2; Threat=Eicar-Test-Signature;" + END_LINE_DELIMITER
+					+ "X-Violations-Found: 1" + END_LINE_DELIMITER);
+		}
+
+		private ByteBuffer adapted(final byte[] headers, final byte[] data, final String extraHeaders) {
+			return adapted("200 OK", headers, data, extraHeaders, "0");
+		}
+
+		private ByteBuffer adapted(final String status, final byte[] headers, final byte[] data, final String extraHeaders, final String lastChunk) {
+			final String bodyLabel = respmod ? "res-body" : "req-body";
+			final StringBuilder encapsulated = new StringBuilder();
+			if (headers.length > 0) {
+				if (respmod && requestHeaderLength > 0) {
+					encapsulated.append("req-hdr=0, res-hdr=").append(requestHeaderLength).append(", ");
+				} else {
+					encapsulated.append(respmod ? "res-hdr=0, " : "req-hdr=0, ");
+				}
+			}
+			encapsulated.append(data.length > 0 || hasBody ? bodyLabel : "null-body").append('=').append(headers.length);
+
+			final byte[] head = (""
+					+ "ICAP/1.0 " + status + END_LINE_DELIMITER
+					+ "ISTag: " + ISTAG + END_LINE_DELIMITER
+					+ extraHeaders
+					+ connectionHeader()
+					+ "Encapsulated: " + encapsulated + END_LINE_DELIMITER
+					+ END_LINE_DELIMITER).getBytes(ASCII);
+
+			final ByteArrayOutputStream message = new ByteArrayOutputStream(head.length + headers.length + data.length + 32);
+			message.write(head, 0, head.length);
+			message.write(headers, 0, headers.length);
+			if (data.length > 0 || hasBody) {
+				if (data.length > 0) {
+					final byte[] size = (Integer.toHexString(data.length) + END_LINE_DELIMITER).getBytes(ASCII);
+					message.write(size, 0, size.length);
+					message.write(data, 0, data.length);
+					message.write('\r');
+					message.write('\n');
+				}
+				final byte[] last = (lastChunk + END_LINE_DELIMITER + END_LINE_DELIMITER).getBytes(ASCII);
+				message.write(last, 0, last.length);
+			}
+			return ByteBuffer.wrap(message.toByteArray());
+		}
+
+		private String connectionHeader() {
+			if (!keepAlive || closeAfterResponse) {
+				closeAfterResponse = true;
+				return "Connection: close" + END_LINE_DELIMITER;
+			}
+			return "";
+		}
+
+		private void badRequest() throws IOException {
+			closeAfterResponse = true;
+			enqueue(status(400, "Bad Request"));
+			finish();
+		}
+
+		private void enqueue(final ByteBuffer buffer) {
+			out.add(buffer);
+		}
+
+		private void finish() throws IOException {
+			state = State.RESPONDING;
+			flush();
+		}
+
+		void flush() throws IOException {
+			if (state == State.CLOSED) {
+				return;
+			}
+
+			while (!out.isEmpty()) {
+				final ByteBuffer buffer = out.peek();
+
+				int limit = buffer.limit();
+				final long rate = bandwidth;
+				if (rate > 0) {
+					if (throttled) {
+						return;
+					}
+					refill(rate);
+					if (tokens <= 0) {
+						final long wait = Math.max(1, (-tokens + 1) * 1000L / rate);
+						throttled = true;
+						interest(0);
+						worker.schedule(wait, () -> {
+							throttled = false;
+							try {
+								flush();
+							} catch (IOException | RuntimeException e) {
+								close();
+							}
+						});
+						return;
+					}
+					limit = (int) Math.min(buffer.limit(), buffer.position() + tokens);
+				}
+
+				final int originalLimit = buffer.limit();
+				buffer.limit(limit);
+				final int written = channel.write(buffer);
+				buffer.limit(originalLimit);
+				tokens -= written;
+
+				if (buffer.hasRemaining()) {
+					if (written == 0 || rate <= 0) {
+						interest(SelectionKey.OP_WRITE);
+						return;
+					}
+					continue;
+				}
+				out.poll();
+			}
+
+			if (state == State.RESPONDING) {
+				if (closeAfterResponse) {
+					close();
+					return;
+				}
+				state = State.HEADER;
+				interest(SelectionKey.OP_READ);
+				if (!processing) {
+					// Pick up any request already buffered while the response was pending
+					process();
+				}
+			} else {
+				interest(SelectionKey.OP_READ);
+			}
+		}
+
+		private void refill(final long rate) {
+			final long now = System.nanoTime();
+			if (lastRefill == 0) {
+				lastRefill = now;
+				tokens = Math.max(1, rate / 100);
+				return;
+			}
+			final long earned = (now - lastRefill) * rate / 1_000_000_000L;
+			if (earned > 0) {
+				tokens = Math.min(tokens + earned, Math.max(1, rate / 10));
+				lastRefill = now;
+			}
+		}
+
+		private void interest(final int ops) {
+			final SelectionKey key = channel.keyFor(worker.selector);
+			if (key != null && key.isValid()) {
+				key.interestOps(ops);
+			}
+		}
+
+		private void reset() {
+			try {
+				if (socketPath == null) {
+					channel.setOption(StandardSocketOptions.SO_LINGER, 0);
+				}
+			} catch (IOException e) { /***/ }
+			close();
+		}
+
+		void close() {
+			state = State.CLOSED;
+			try {
+				channel.close();
+			} catch (IOException e) { /***/ }
+		}
+
+	}
+
+}
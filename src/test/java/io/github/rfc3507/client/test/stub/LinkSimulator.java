@@ -0,0 +1,186 @@
+package io.github.rfc3507.client.test.stub;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Relays connections to {@link ICAPStubServer} through a simulated link: each direction delivers bytes
+ * after a one-way delay, at most at the given bandwidth, and holds no more than its bandwidth-delay product
+ * in flight, so senders block as they would on a real path. Loopback socket buffers of the relay are kept
+ * small, for the same reason.
+ */
+public final class LinkSimulator implements Closeable {
+
+	private static final int SOCKET_BUFFER_SIZE = 65536;
+	private static final int SEGMENT_SIZE = 16384;
+
+	private final ServerSocket serverSocket;
+	private final int targetPort;
+	private final long delayNanos;
+	private final long bandwidth;
+	private final long capacity;
+
+	private volatile boolean running = true;
+
+	private LinkSimulator(final int targetPort, final long delay, final long bandwidth) throws IOException {
+		this.targetPort = targetPort;
+		this.delayNanos = TimeUnit.MILLISECONDS.toNanos(delay);
+		this.bandwidth = bandwidth;
+		this.capacity = Math.max(SOCKET_BUFFER_SIZE, bandwidth > 0 ? (long) (bandwidth * (2 * delayNanos / 1e9)) : 1 << 20);
+
+		this.serverSocket = new ServerSocket();
+		this.serverSocket.setReceiveBufferSize(SOCKET_BUFFER_SIZE);
+		this.serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 128);
+
+		final Thread acceptor = new Thread(this::accept, "link-simulator-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/**
+	 * @param delay one-way delay, in milliseconds
+	 * @param bandwidth bytes per second in each direction; zero for unlimited
+	 */
+	public static LinkSimulator instance(final ICAPStubServer server, final long delay, final long bandwidth) throws IOException {
+		return new LinkSimulator(server.getPort(), delay, bandwidth);
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	private void accept() {
+		while (running) {
+			try {
+				final Socket client = serverSocket.accept();
+				final Socket target = new Socket();
+				target.setReceiveBufferSize(SOCKET_BUFFER_SIZE);
+				target.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), targetPort));
+				target.setTcpNoDelay(true);
+				client.setTcpNoDelay(true);
+				new Direction(client, target).start();
+				new Direction(target, client).start();
+			} catch (IOException e) {
+				if (!running) {
+					return;
+				}
+			}
+		}
+	}
+
+	private final class Direction {
+		private final Socket from;
+		private final Socket to;
+
+		private final Deque<Segment> segments = new ArrayDeque<>();
+		private long inFlight = 0;
+		private long linkFree = 0;
+
+		Direction(final Socket from, final Socket to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		void start() {
+			final Thread reader = new Thread(this::read, "link-simulator-reader");
+			reader.setDaemon(true);
+			reader.start();
+			final Thread writer = new Thread(this::write, "link-simulator-writer");
+			writer.setDaemon(true);
+			writer.start();
+		}
+
+		private void read() {
+			final byte[] buffer = new byte[SEGMENT_SIZE];
+			try {
+				final InputStream in = from.getInputStream();
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					synchronized (this) {
+						while (inFlight >= capacity) {
+							wait();
+						}
+						// Serialized after the bytes already on the link, then propagated
+						final long now = System.nanoTime();
+						linkFree = Math.max(now, linkFree) + (bandwidth > 0 ? read * 1_000_000_000L / bandwidth : 0);
+						segments.add(new Segment(Arrays.copyOf(buffer, read), linkFree + delayNanos));
+						inFlight += read;
+						notifyAll();
+					}
+				}
+			} catch (IOException | InterruptedException e) {
+				/* peer gone */
+			}
+			synchronized (this) {
+				segments.add(new Segment(null, System.nanoTime() + delayNanos));
+				notifyAll();
+			}
+		}
+
+		private void write() {
+			try {
+				final OutputStream out = to.getOutputStream();
+				while (true) {
+					final Segment segment;
+					synchronized (this) {
+						while (segments.isEmpty()) {
+							wait();
+						}
+						segment = segments.peek();
+					}
+
+					long wait;
+					while ((wait = segment.due - System.nanoTime()) > 0) {
+						LockSupport.parkNanos(wait);
+					}
+					if (segment.data == null) {
+						return;
+					}
+					out.write(segment.data);
+					out.flush();
+
+					synchronized (this) {
+						segments.poll();
+						inFlight -= segment.data.length;
+						notifyAll();
+					}
+				}
+			} catch (IOException | InterruptedException e) {
+				/* peer gone */
+			} finally {
+				try {
+					from.close();
+					to.close();
+				} catch (IOException e) { /***/ }
+			}
+		}
+	}
+
+	private static final class Segment {
+		final byte[] data;
+		final long due;
+
+		Segment(final byte[] data, final long due) {
+			this.data = data;
+			this.due = due;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		running = false;
+		serverSocket.close();
+	}
+
+}
@@ -0,0 +1,144 @@
+package io.github.rfc3507.client.test.stub;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * TLS front end for {@link ICAPStubServer}: decrypts on a thread per connection and relays in clear to the stub.
+ * A throwaway self-signed certificate for {@code localhost} is generated with the JDK {@code keytool}.
+ */
+public final class TlsTerminator implements Closeable {
+
+	private static final char[] PASSWORD = "changeit".toCharArray();
+
+	private final KeyStore keyStore;
+	private final SSLServerSocket serverSocket;
+	private final int targetPort;
+
+	private volatile boolean running = true;
+
+	private TlsTerminator(final int targetPort) throws Exception {
+		this.targetPort = targetPort;
+		this.keyStore = generateKeyStore();
+
+		final KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keyManagers.init(keyStore, PASSWORD);
+
+		final SSLContext context = SSLContext.getInstance("TLS");
+		context.init(keyManagers.getKeyManagers(), null, null);
+
+		this.serverSocket = (SSLServerSocket) context.getServerSocketFactory().createServerSocket(0, 128, InetAddress.getLoopbackAddress());
+
+		final Thread acceptor = new Thread(this::accept, "tls-terminator-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public static TlsTerminator instance(final ICAPStubServer server) throws Exception {
+		return new TlsTerminator(server.getPort());
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Client context trusting the generated certificate.
+	 */
+	public SSLContext getClientContext() throws Exception {
+		final TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		trustManagers.init(keyStore);
+
+		final SSLContext context = SSLContext.getInstance("TLS");
+		context.init(null, trustManagers.getTrustManagers(), null);
+		return context;
+	}
+
+	private static KeyStore generateKeyStore() throws Exception {
+		final Path directory = Files.createTempDirectory("icaps");
+		final Path file = directory.resolve("stub.p12");
+		try {
+			final String keytool = System.getProperty("java.home") + "/bin/keytool";
+			final Process process = new ProcessBuilder(keytool,
+					"-genkeypair", "-alias", "stub", "-keyalg", "EC", "-groupname", "secp256r1",
+					"-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1", "-validity", "2",
+					"-storetype", "PKCS12", "-keystore", file.toString(),
+					"-storepass", new String(PASSWORD), "-keypass", new String(PASSWORD))
+					.redirectErrorStream(true)
+					.start();
+			if (!process.waitFor(60, TimeUnit.SECONDS) || process.exitValue() != 0) {
+				throw new IllegalStateException("keytool failed");
+			}
+
+			final KeyStore keyStore = KeyStore.getInstance("PKCS12");
+			try (final InputStream in = Files.newInputStream(file)) {
+				keyStore.load(in, PASSWORD);
+			}
+			return keyStore;
+		} finally {
+			Files.deleteIfExists(file);
+			Files.deleteIfExists(directory);
+		}
+	}
+
+	private void accept() {
+		while (running) {
+			try {
+				final Socket client = serverSocket.accept();
+				final Socket target = new Socket(InetAddress.getLoopbackAddress(), targetPort);
+				target.setTcpNoDelay(true);
+				client.setTcpNoDelay(true);
+				relay(client, target);
+				relay(target, client);
+			} catch (IOException e) {
+				if (!running) {
+					return;
+				}
+			}
+		}
+	}
+
+	private static void relay(final Socket from, final Socket to) {
+		final Thread thread = new Thread(() -> {
+			final byte[] buffer = new byte[16384];
+			try {
+				final InputStream in = from.getInputStream();
+				final OutputStream out = to.getOutputStream();
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					out.write(buffer, 0, read);
+					out.flush();
+				}
+			} catch (IOException e) {
+				/* peer gone */
+			} finally {
+				try {
+					from.close();
+					to.close();
+				} catch (IOException e) { /***/ }
+			}
+		}, "tls-terminator-relay");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public void close() throws IOException {
+		running = false;
+		serverSocket.close();
+	}
+
+}
@@ -0,0 +1,92 @@
+package io.github.rfc3507.utilities.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+import io.github.rfc3507.utilities.BufferPool;
+
+public class BufferPoolTest {
+
+	@Test
+	public void sizeClasses() {
+		final BufferPool pool = BufferPool.instance(1 << 20);
+
+		assertEquals(512, pool.acquire(1).length);
+		assertEquals(1024, pool.acquire(513).length);
+		assertEquals(65536, pool.acquire(65536).length);
+		assertEquals((1 << 20) + 1, pool.acquire((1 << 20) + 1).length);
+		assertEquals(4096, pool.acquireDirect(3000).capacity());
+	}
+
+	@Test
+	public void threadLocalReuse() {
+		final BufferPool pool = BufferPool.instance(1 << 20);
+
+		final byte[] heap = pool.acquire(8192);
+		pool.release(heap);
+		assertSame(heap, pool.acquire(8000));
+
+		final ByteBuffer direct = pool.acquireDirect(8192);
+		direct.put((byte) 1);
+		pool.release(direct);
+		final ByteBuffer reused = pool.acquireDirect(8192);
+		assertSame(direct, reused);
+		assertEquals(0, reused.position());
+
+		assertEquals(2, pool.getReuses());
+		assertEquals(2, pool.getAllocations());
+	}
+
+	@Test
+	public void sharedFallbackIsBounded() throws Exception {
+		final BufferPool pool = BufferPool.instance(8192);
+
+		final byte[] first = pool.acquire(4096);
+		final byte[] second = pool.acquire(4096);
+		final byte[] third = pool.acquire(4096);
+		final byte[] fourth = pool.acquire(4096);
+
+		// Another thread releases them: its own slot keeps one, the shared queue takes two more
+		CompletableFuture.runAsync(() -> {
+			pool.release(first);
+			pool.release(second);
+			pool.release(third);
+			pool.release(fourth);
+		}).get();
+
+		assertEquals(8192, pool.getPooledBytes());
+		pool.acquire(4096);
+		pool.acquire(4096);
+		assertEquals(0, pool.getPooledBytes());
+	}
+
+	@Test
+	public void outputGrowsAndLearnsPayloadSize() throws Exception {
+		final BufferPool pool = BufferPool.instance(1 << 20);
+		final byte[] payload = new byte[100_000];
+		for (int i = 0; i < payload.length; ++i) {
+			payload[i] = (byte) i;
+		}
+
+		try (BufferPool.Output output = pool.output()) {
+			final ByteArrayInputStream in = new ByteArrayInputStream(payload);
+			output.write(payload, 0, 10);
+			in.skip(10);
+			while (output.readFrom(in, 4096) != -1) { /***/ }
+
+			assertEquals(payload.length, output.size());
+			assertArrayEquals(payload, output.toByteArray());
+		}
+
+		assertTrue(pool.getPayloadHint() > 4096);
+	}
+
+}
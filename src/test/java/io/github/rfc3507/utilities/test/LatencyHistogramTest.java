@@ -0,0 +1,43 @@
+package io.github.rfc3507.utilities.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import io.github.rfc3507.utilities.LatencyHistogram;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void percentiles() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 10000; ++i) {
+			histogram.record(i);
+		}
+
+		assertEquals(10000, histogram.getCount());
+		assertEquals(10000, histogram.getMax());
+		assertWithin(5000, histogram.getPercentile(50));
+		assertWithin(9900, histogram.getPercentile(99));
+		assertEquals(10000, histogram.getPercentile(100));
+	}
+
+	@Test
+	public void coordinatedOmissionCorrection() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 0; i < 99; ++i) {
+			histogram.record(10, 100);
+		}
+		// One stall of 10000 hides 99 requests that should have been issued meanwhile
+		histogram.record(10000, 100);
+
+		assertEquals(199, histogram.getCount());
+		assertTrue(histogram.getPercentile(75) > 4000);
+	}
+
+	private static void assertWithin(final long expected, final long actual) {
+		assertTrue(Math.abs(expected - actual) <= expected * 0.02, "expected ~" + expected + " but was " + actual);
+	}
+
+}